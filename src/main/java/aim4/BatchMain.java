@@ -0,0 +1,177 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import aim4.im.v2i.policy.AdmissionFilter;
+import aim4.sim.BatchRunner;
+import aim4.sim.SweepRunner;
+import aim4.sim.setup.Scenario;
+
+/**
+ * The main class to run simulations without the GUI.  Usage:
+ * <pre>
+ *   java -cp AIM4.jar aim4.BatchMain [-format csv|json] [-output file]
+ *                                    [-threads n] [-sweep key=v1,v2,...]...
+ *                                    [-latencies] scenario-file ...
+ * </pre>
+ * Each <code>-sweep</code> option adds a parameter to a parameter sweep (see
+ * {@link SweepRunner}), and every scenario file is expanded to the cross
+ * product of the values of the parameters.  The scenarios are run on
+ * <code>n</code> threads (default: 1), and the statistics of the runs are
+ * written, in the order of the scenarios, to the output file (default: the
+ * standard output).  With <code>-latencies</code>, the histograms of the
+ * latencies of the sequential and the speculative queries of the proposals
+ * of the requests, and the number of proposals rejected by each admission
+ * stage, are printed to the standard error.  See {@link Scenario}
+ * for the format of the scenario files.
+ */
+public class BatchMain {
+
+  /////////////////////////////////
+  // THE MAIN FUNCTION
+  /////////////////////////////////
+
+  /**
+   * The main function of the batch runner.
+   *
+   * @param args  the command-line arguments
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+
+    String format = "csv";
+    String outFileName = null;
+    int threads = 1;
+    boolean isPrintLatencies = false;
+    List<String> sweeps = new ArrayList<String>();
+    List<String> scenarioFileNames = new ArrayList<String>();
+    boolean isValid = true;
+    for(int i = 0; i < args.length; i++) {
+      if (args[i].equals("-format") && i + 1 < args.length) {
+        format = args[++i];
+      } else if (args[i].equals("-output") && i + 1 < args.length) {
+        outFileName = args[++i];
+      } else if (args[i].equals("-threads") && i + 1 < args.length) {
+        try {
+          threads = Integer.parseInt(args[++i]);
+        } catch (NumberFormatException e) {
+          isValid = false;
+        }
+      } else if (args[i].equals("-sweep") && i + 1 < args.length) {
+        sweeps.add(args[++i]);
+      } else if (args[i].equals("-latencies")) {
+        isPrintLatencies = true;
+      } else {
+        scenarioFileNames.add(args[i]);
+      }
+    }
+    if (!isValid || threads <= 0 || scenarioFileNames.isEmpty()
+        || !(format.equals("csv") || format.equals("json"))) {
+      System.err.printf("Usage: java aim4.BatchMain [-format csv|json] "
+                        + "[-output file] [-threads n] "
+                        + "[-sweep key=v1,v2,...]... [-latencies] "
+                        + "scenario-file ...\n");
+      System.exit(1);
+    }
+
+    SweepRunner sweepRunner = new SweepRunner(threads);
+    for(String sweep : sweeps) {
+      int j = sweep.indexOf('=');
+      if (j <= 0 || j == sweep.length() - 1) {
+        System.err.printf("Invalid sweep: %s\n", sweep);
+        System.exit(1);
+      }
+      sweepRunner.addParameter(sweep.substring(0, j).trim(),
+                               Arrays.asList(sweep.substring(j + 1)
+                                                  .split(",")));
+    }
+
+    List<Scenario> scenarios = new ArrayList<Scenario>();
+    for(String fileName : scenarioFileNames) {
+      Scenario scenario;
+      try {
+        scenario = Scenario.load(fileName);
+      } catch (IOException e) {
+        System.err.printf("Cannot read scenario file %s: %s\n",
+                          fileName, e.getMessage());
+        System.exit(1);
+        return;
+      }
+      scenarios.addAll(sweepRunner.expand(scenario));
+    }
+
+    List<BatchRunner.Result> results = sweepRunner.run(scenarios);
+    for(BatchRunner.Result result : results) {
+      System.err.printf("%s: %d vehicles completed in %.2fs\n",
+                        result.getScenarioName(),
+                        result.getNumOfCompletedVehicles(),
+                        result.getWallClockTime());
+      if (isPrintLatencies) {
+        result.getSequentialLatencies().print(System.err, "sequential");
+        result.getSpeculativeLatencies().print(System.err, "speculative");
+        for(AdmissionFilter.Stage stage : AdmissionFilter.Stage.values()) {
+          System.err.printf("admission rejects %s,%d\n",
+                            stage.name().toLowerCase(),
+                            result.getNumOfAdmissionRejects(stage));
+        }
+        System.err.printf("negative query cache hits,%d/%d\n",
+                          result.getNumOfNegativeQueryHits(),
+                          result.getNumOfNegativeQueryLookups());
+      }
+    }
+
+    PrintStream out = System.out;
+    if (outFileName != null) {
+      try {
+        out = new PrintStream(outFileName);
+      } catch (FileNotFoundException e) {
+        System.err.printf("Cannot open file %s\n", outFileName);
+        System.exit(1);
+      }
+    }
+    if (format.equals("json")) {
+      BatchRunner.printJson(out, results);
+    } else {
+      BatchRunner.printCsv(out, results);
+    }
+    out.flush();
+    if (out != System.out) {
+      out.close();
+    }
+  }
+}
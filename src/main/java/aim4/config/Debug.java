@@ -31,13 +31,14 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package aim4.config;
 
 import java.awt.Color;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import aim4.gui.ViewerDebugView;
 import aim4.map.BasicMap;
+import aim4.sim.SimContext;
 
 /**
  * The configuration for debugging purposes.
@@ -45,14 +46,27 @@ import aim4.map.BasicMap;
 public class Debug {
 
   /**
-   * A global variable referring to the global map.
+   * A global variable referring to the GUI object.
    */
-  public static BasicMap currentMap;
+  public static ViewerDebugView viewer;
 
   /**
-   * A global variable referring to the GUI object.
+   * Get the map of the current simulation context.
+   *
+   * @return the map of the current simulation context
    */
-  public static ViewerDebugView viewer;
+  public static BasicMap getCurrentMap() {
+    return SimContext.current().getCurrentMap();
+  }
+
+  /**
+   * Set the map of the current simulation context.
+   *
+   * @param map  the map
+   */
+  public static void setCurrentMap(BasicMap map) {
+    SimContext.current().setCurrentMap(map);
+  }
 
   ////////////////////////////////////////////////////////////
   // INFORMATION DISPLAY SETTINGS FOR ONE PARTICULAR VEHICLE
@@ -237,6 +251,12 @@ public class Debug {
    */
   public static final boolean PRINT_SIMULATOR_STAGE = false;
 
+  /**
+   * Whether or not the priority based policy prints the lane chosen in
+   * every round of lane arbitration.
+   */
+  public static final boolean PRINT_PRIORITY_ARBITRATION = false;
+
   /**
    * Whether or not the proxy vehicle shows the debug message.
    */
@@ -258,6 +278,13 @@ public class Debug {
    */
   public static boolean SHOW_VEHICLE_COLOR_BY_MSG_STATE = true;
 
+  /**
+   * Whether or not the simulator prints the vehicle counts of the lanes at
+   * every time step and the proposals of every request.  Batch runs turn it
+   * off.
+   */
+  public static boolean IS_PRINT_SIMULATOR_STATUS = true;
+
 
   /////////////////////////////////
   // Debug Points
@@ -333,7 +360,7 @@ public class Debug {
    * A mapping from vehicle's VINs to the color of the vehicles.
    */
   private static Map<Integer,Color> vinToVehicleColor =
-    new HashMap<Integer,Color>();
+    new ConcurrentHashMap<Integer,Color>();
 
   /**
    * Get the color of a vehicle.
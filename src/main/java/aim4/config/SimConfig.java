@@ -30,6 +30,8 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package aim4.config;
 
+import aim4.sim.SimContext;
+
 /**
  * The configuration of a simulation.
  */
@@ -62,15 +64,64 @@ public class SimConfig {
    */
   public static final double SPAWN_TIME_STEP = TIME_STEP / 5.0;
 
-  /**
-   * Whether or not the vehicle must stop before an intersection
-   */
-  public static boolean MUST_STOP_BEFORE_INTERSECTION = false;
-
   /**
    * The distance before the stopping distance before an intersection
    * such that a vehicle can consider moving again when
-   * MUST_STOP_BEFORE_INTERSECTION is true.
+   * {@link #isMustStopBeforeIntersection()} is true.
    */
   public static final double ADDITIONAL_STOP_DIST_BEFORE_INTERSECTION = 0.01;
+
+  /**
+   * The default maximum expected time between the sending of a request by a
+   * vehicle and the reading of the reply of the intersection manager: the
+   * intersection managers act before the messages are delivered, so a
+   * request sent in a time step is processed in the next time step and the
+   * vehicle reads the reply one more time step later.
+   */
+  public static final double DEFAULT_MAX_EXPECTED_IM_REPLY_TIME =
+    2 * TIME_STEP;
+
+  /**
+   * Whether or not the vehicle must stop before an intersection.  This is a
+   * setting of the current simulation context.
+   *
+   * @return whether or not the vehicle must stop before an intersection
+   */
+  public static boolean isMustStopBeforeIntersection() {
+    return SimContext.current().isMustStopBeforeIntersection();
+  }
+
+  /**
+   * Set whether or not the vehicle must stop before an intersection in the
+   * current simulation context.
+   *
+   * @param isMustStop  whether or not the vehicle must stop before an
+   *                    intersection
+   */
+  public static void setIsMustStopBeforeIntersection(boolean isMustStop) {
+    SimContext.current().setIsMustStopBeforeIntersection(isMustStop);
+  }
+
+  /**
+   * Get the maximum expected time between the sending of a request by a
+   * vehicle and the reading of the reply of the intersection manager.  This
+   * is a setting of the current simulation context.
+   *
+   * @return the maximum expected reply time of the intersection managers
+   */
+  public static double getMaxExpectedImReplyTime() {
+    return SimContext.current().getMaxExpectedImReplyTime();
+  }
+
+  /**
+   * Set the maximum expected time between the sending of a request by a
+   * vehicle and the reading of the reply of the intersection manager in the
+   * current simulation context.
+   *
+   * @param replyTime  the maximum expected reply time of the intersection
+   *                   managers
+   */
+  public static void setMaxExpectedImReplyTime(double replyTime) {
+    SimContext.current().setMaxExpectedImReplyTime(replyTime);
+  }
 }
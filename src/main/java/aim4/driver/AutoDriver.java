@@ -30,13 +30,13 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package aim4.driver;
 
-import java.awt.geom.Area;
 
 import aim4.driver.coordinator.NoIntersectionCoordinator;
 import aim4.driver.coordinator.V2ICoordinator;
 import aim4.driver.coordinator.Coordinator;
 import aim4.im.IntersectionManager;
 import aim4.map.BasicMap;
+import aim4.util.PolygonalArea;
 import aim4.vehicle.AutoVehicleDriverView;
 
 /**
@@ -240,7 +240,8 @@ public class AutoDriver extends Driver
   public boolean inCurrentIntersection() {
     if(memoInCurrentIntersection == null) {
       memoInCurrentIntersection =
-        intersects(getVehicle(), currentIM.getIntersection().getAreaPlus());
+        intersects(getVehicle(),
+                   currentIM.getIntersection().getPolygonalAreaPlus());
         //intersects(getVehicle(), currentIM.getIntersection().getArea());
     }
     return memoInCurrentIntersection;
@@ -258,7 +259,8 @@ public class AutoDriver extends Driver
    * @param area  the area
    * @return      whether the Vehicle is currently in the area
    */
-  private static boolean intersects(AutoVehicleDriverView v, Area area) {
+  private static boolean intersects(AutoVehicleDriverView v,
+                                    PolygonalArea area) {
     // TODO: move this function to somewhere else.
 
     // As a quick check, see if the front or rear point is in the intersection
@@ -266,13 +268,9 @@ public class AutoDriver extends Driver
     if(area.contains(v.gaugePosition()) || area.contains(v.gaugePointAtRear())){
       return true;
     } else {
-      // We actually have to check to see if the Area of the
-      // Vehicle and the Area of the IntersectionManager have a nonempty
-      // intersection
-      Area vehicleArea = new Area(v.gaugeShape());
-      // Important that it is in this order, as it is destructive to the caller
-      vehicleArea.intersect(area);
-      return !vehicleArea.isEmpty();
+      // We actually have to check to see if the Vehicle and the Area of the
+      // IntersectionManager have a nonempty intersection
+      return area.intersects(v.gaugeCornerPoints());
     }
   }
 
@@ -88,7 +88,7 @@ public class CrashTestDummy extends Driver {
     // If we're not already in the departure lane
     if(getCurrentLane() != departureLane) {
       // If we're changing to a different Road
-      if(Debug.currentMap.getRoad(getCurrentLane()) != Debug.currentMap.getRoad(departureLane)) {
+      if(Debug.getCurrentMap().getRoad(getCurrentLane()) != Debug.getCurrentMap().getRoad(departureLane)) {
         // If we're close enough...
         if(departureLane.nearestDistance(getVehicle().gaugePosition()) <
            calculateTraversingLaneChangeDistance()) {
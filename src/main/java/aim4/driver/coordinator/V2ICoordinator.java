@@ -56,6 +56,7 @@ import aim4.msg.v2i.Away;
 import aim4.msg.v2i.Cancel;
 import aim4.msg.v2i.Done;
 import aim4.msg.v2i.Request;
+import aim4.msg.v2i.ReplacementReply;
 import aim4.util.Util;
 import aim4.vehicle.AccelSchedule;
 import aim4.vehicle.AutoVehicleDriverView;
@@ -131,11 +132,6 @@ public class V2ICoordinator implements Coordinator {
    */
   private static final double CONSIDERING_LANE_CHANGE_DELAY = 1.0;
 
-  /**
-   * The maximum expected time that IM needs to reply a request message.
-   */
-  private static final double MAX_EXPECTED_IM_REPLY_TIME = 0.04;
-
   /**
    * The slight reduction of the acceleration of the vehicle
    * when computing an estimation of arrival time and velocity.
@@ -499,7 +495,7 @@ public class V2ICoordinator implements Coordinator {
     private TurnDirection getTurnDirection(Navigator navigator) {
       IntersectionManager im = driver.nextIntersectionManager();
       Lane currentLane = driver.getCurrentLane();
-      Road currentRoad = Debug.currentMap.getRoad(currentLane);
+      Road currentRoad = Debug.getCurrentMap().getRoad(currentLane);
       Road departureRoad =
         navigator.navigate(currentRoad, im, driver.getDestination());
       Lane departureLane = departureRoad.getIndexLane();
@@ -707,9 +703,9 @@ public class V2ICoordinator implements Coordinator {
      */
     public ReservationParameter(Confirm msg) {
       this.arrivalLane =
-        Debug.currentMap.getLaneRegistry().get(msg.getArrivalLaneID());
+        Debug.getCurrentMap().getLaneRegistry().get(msg.getArrivalLaneID());
       this.departureLane =
-        Debug.currentMap.getLaneRegistry().get(msg.getDepartureLaneID());
+        Debug.getCurrentMap().getLaneRegistry().get(msg.getDepartureLaneID());
 //      this.arrivalLane = LaneRegistry.getLaneFromId(msg.getArrivalLaneID());
 //      this.departureLane = LaneRegistry.getLaneFromId(msg.getDepartureLaneID());
       this.arrivalTime = msg.getArrivalTime();
@@ -885,6 +881,11 @@ public class V2ICoordinator implements Coordinator {
    */
   private double nextAllowedSendingRequestTime;
 
+  /**
+   * The counter-offer in the latest reject message; null if there is none.
+   */
+  private Request.Proposal counterOffer;
+
   /**
    * The next time at which the vehicle is allowed to consider lane changing.
    */
@@ -1096,6 +1097,10 @@ public class V2ICoordinator implements Coordinator {
    * @param msg the Confirm message to process
    */
   private void processConfirmMessage(Confirm msg) {
+    if (msg.getReplacedReservationId() >= 0) {
+      processReplacementConfirmMessage(msg);
+      return;
+    }
     switch(state) {
     case V2I_AWAITING_RESPONSE:
       processConfirmMessageForAwaitingResponseState(msg);
@@ -1172,6 +1177,45 @@ public class V2ICoordinator implements Coordinator {
   }
 
 
+  /**
+   * Process a confirm message that offers to replace the current
+   * reservation with an earlier one.  The vehicle accepts the offer if it is
+   * still maintaining the replaced reservation and can meet the new one;
+   * otherwise it declines the offer.
+   *
+   * @param msg the confirm message
+   */
+  private void processReplacementConfirmMessage(Confirm msg) {
+    AccelSchedule as = null;
+    if (state == State.V2I_MAINTAINING_RESERVATION
+        && msg.getReplacedReservationId() == latestReservationNumber) {
+      try {
+        as = MaxAccelReservationCheck.check(
+          vehicle.gaugeTime(),
+          vehicle.gaugeVelocity(),
+          msg.getArrivalTime(),
+          msg.getArrivalVelocity(),
+          driver.distanceToNextIntersection(),
+          DriverUtil.calculateMaxFeasibleVelocity(vehicle),
+          vehicle.getSpec().getMaxAcceleration(),
+          vehicle.getSpec().getMaxDeceleration());
+      } catch(ReservationCheckException e) {
+        if (isDebugging) {
+          System.err.printf("vin %d declines the replacement because " +
+                            "%s\n", vehicle.getVIN(), e.getMessage());
+        }
+      }
+    }
+    if (as != null) {
+      sendReplacementReplyMessage(msg.getReservationId(), true);
+      latestReservationNumber = msg.getReservationId();
+      setReservationParameter(msg);
+      vehicle.setAccelSchedule(as);
+    } else {
+      sendReplacementReplyMessage(msg.getReservationId(), false);
+    }
+  }
+
   /**
    * Process a received Reject message.  Sets the driver state according to
    * the reason given in the Reject message.  Also handles the case where
@@ -1239,6 +1283,7 @@ public class V2ICoordinator implements Coordinator {
    * @param msg the reject message.
    */
   private void goBackToPlanningStateUponRejection(Reject msg) {
+    counterOffer = msg.getCounterOffer();
     nextAllowedSendingRequestTime =
       Math.max(msg.getNextAllowedCommunication(),
                vehicle.gaugeTime() + SENDING_REQUEST_DELAY);
@@ -1308,9 +1353,9 @@ public class V2ICoordinator implements Coordinator {
         }  // else fall through
       }  // else fall through
       if (vehicle.gaugeTime() >= nextAllowedSendingRequestTime) {
-        if (!SimConfig.MUST_STOP_BEFORE_INTERSECTION ||
+        if (!SimConfig.isMustStopBeforeIntersection() ||
             driver.distanceToNextIntersection() <=
-            V2IPilot.DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION +
+            V2IPilot.getDefaultStopDistanceBeforeIntersection() +
             SimConfig.ADDITIONAL_STOP_DIST_BEFORE_INTERSECTION) {
           // prepare reservation
           setState(State.V2I_PREPARING_RESERVATION);
@@ -1401,6 +1446,9 @@ public class V2ICoordinator implements Coordinator {
 
       // If the im reply time heuristic is used.
       if (Debug.IS_EXPECTED_IM_REPLY_TIME_CONSIDERED) {
+        // The reply time depends on whether the intersection managers run
+        // in step with the simulator or in a pipeline stage
+        double replyTime = SimConfig.getMaxExpectedImReplyTime();
         // If an acceleration schedule exists,
         AccelSchedule estimateToStop = vehicle.getAccelSchedule();
         if (estimateToStop != null) {
@@ -1409,14 +1457,14 @@ public class V2ICoordinator implements Coordinator {
 
           double vd[] =
           estimateToStop.calcFinalDistanceAndVelocity(time1, v1, time1
-            + MAX_EXPECTED_IM_REPLY_TIME);
+            + replyTime);
           double d2 = vd[0];
           double v2 = vd[1];
           if (d2 <= dTotal) {
-            // after MAX_EXPECTED_IM_REPLY_TIME second, the vehicle still hasn't
+            // after replyTime second, the vehicle still hasn't
             // arrive at the intersection, therefore the estimation
             // would start at the reply time.
-            time1 += MAX_EXPECTED_IM_REPLY_TIME;
+            time1 += replyTime;
             v1 = v2;
             dTotal -= d2;
           } else {
@@ -1451,7 +1499,7 @@ public class V2ICoordinator implements Coordinator {
           } else { // else the vehicle has stopped.
             // no need to project the time and distance since the vehicle
             // is not moving, just update the initial time.
-            time1 += MAX_EXPECTED_IM_REPLY_TIME;
+            time1 += replyTime;
           }
         }
       } else {  // If we do not use the im reply time heuristic
@@ -1566,6 +1614,18 @@ public class V2ICoordinator implements Coordinator {
         }  // else ignore the proposal because the vehicle is too far away from
            // the intersection.
       }
+      // try the counter-offer of the latest reject message last, since it
+      // arrives no earlier than the rejected proposals.
+      if (counterOffer != null) {
+        if (counterOffer.getArrivalLaneID() == l.getId()
+            && counterOffer.getArrivalTime() >= minArrivalTime
+            && counterOffer.getArrivalTime() <
+               vehicle.gaugeTime() + MAXIMUM_FUTURE_RESERVATION_TIME
+            && isCounterOfferFeasible(counterOffer)) {
+          proposals.add(counterOffer);
+        }
+        counterOffer = null;
+      }
       if (proposals.size() > 0) {
         return proposals;
       } else {
@@ -1573,6 +1633,30 @@ public class V2ICoordinator implements Coordinator {
       }
     }
 
+    /**
+     * Check whether the vehicle can arrive at the intersection at the
+     * arrival time and the arrival velocity of a counter-offer.
+     *
+     * @param offer  the counter-offer
+     * @return whether the vehicle can arrive according to the counter-offer
+     */
+    private boolean isCounterOfferFeasible(Request.Proposal offer) {
+      try {
+        MaxAccelReservationCheck.check(
+          vehicle.gaugeTime(),
+          vehicle.gaugeVelocity(),
+          offer.getArrivalTime(),
+          offer.getArrivalVelocity(),
+          driver.distanceToNextIntersection(),
+          DriverUtil.calculateMaxFeasibleVelocity(vehicle),
+          vehicle.getSpec().getMaxAcceleration(),
+          vehicle.getSpec().getMaxDeceleration());
+        return true;
+      } catch(ReservationCheckException e) {
+        return false;
+      }
+    }
+
     /**
      * Get a prioritized list of Lanes to try as departure Lanes in the
      * next reservation request. This method attempts to estimate the minimum
@@ -1585,9 +1669,10 @@ public class V2ICoordinator implements Coordinator {
       List<Lane> departureLanes =
         new ArrayList<Lane>(MAX_LANES_TO_TRY_PER_ROAD);
       Road departureRoad =
-        navigator.navigate(Debug.currentMap.getRoad(driver.getCurrentLane()),
-                           driver.getCurrentIM(),
-                           driver.getDestination());
+        navigator.navigate(
+          Debug.getCurrentMap().getRoad(driver.getCurrentLane()),
+          driver.getCurrentIM(),
+          driver.getDestination());
       // Let's just take the highest priority Lane from each Road
       // Get the prioritized list of Lanes based on the arrival Lane
       List<Lane> lanePriorities =
@@ -1632,7 +1717,7 @@ public class V2ICoordinator implements Coordinator {
         if (isDebugging) {
           double dTotal =
             driver.distanceToNextIntersection()
-            - V2IPilot.DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION;
+            - V2IPilot.getDefaultStopDistanceBeforeIntersection();
           if (dTotal < 0.0) {
             System.err.printf("vin %d passed point of no return\n",
                               vehicle.getVIN());
@@ -1941,6 +2026,21 @@ public class V2ICoordinator implements Coordinator {
                             reservationID)); // reservationID
   }
 
+  /**
+   * Adds a ReplacementReply message to the outgoing messages, addressed to
+   * the upcoming IntersectionManager.
+   *
+   * @param reservationID  the ID of the offered reservation
+   * @param isAccepted     whether the vehicle accepts the offer
+   */
+  private void sendReplacementReplyMessage(int reservationID,
+                                           boolean isAccepted) {
+    vehicle.send(new ReplacementReply(vehicle.getVIN(), // sourceID
+                                      driver.getCurrentIM().getId(),
+                                      reservationID,
+                                      isAccepted));
+  }
+
   /**
    * Adds a Done message to the outgoing messages, addressed to the current
    * IntersectionManager (even though the vehicle is be past it). This
@@ -2041,7 +2141,7 @@ public class V2ICoordinator implements Coordinator {
     double d2 = VehicleUtil.distanceToCarInFront(vehicle);
     if (d2 >= Double.MAX_VALUE) return true;  // no car in front
     double d3 = d1 - d2;
-    return (d3 <= V2IPilot.DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION);
+    return (d3 <= V2IPilot.getDefaultStopDistanceBeforeIntersection());
   }
 
 
@@ -2058,7 +2158,7 @@ public class V2ICoordinator implements Coordinator {
     // stop at the buffer distance before intersection
     double dTotal =
       driver.distanceToNextIntersection()
-      - V2IPilot.DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION;
+      - V2IPilot.getDefaultStopDistanceBeforeIntersection();
 
     if (dTotal > 0.0) {
       double time1 = vehicle.gaugeTime();
@@ -202,7 +202,7 @@ public class BasicNavigator implements Navigator {
      * @return the road of the last node
      */
     public Road getLastRoad() {
-      return Debug.currentMap.getRoad(path.get(path.size() - 1));
+      return Debug.getCurrentMap().getRoad(path.get(path.size() - 1));
     }
 
     /**
@@ -294,7 +294,7 @@ public class BasicNavigator implements Navigator {
         List<Integer> currKey =
           Arrays.asList(path.get(i-1), pathIMs.get(i-1),
                         destinationRoad.getIndexLane().getId());
-        fastestMap.put(currKey, Debug.currentMap.getRoad(path.get(i)));
+        fastestMap.put(currKey, Debug.getCurrentMap().getRoad(path.get(i)));
       }
     }
     return fastestMap.get(key);
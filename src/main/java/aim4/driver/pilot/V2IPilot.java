@@ -38,6 +38,7 @@ import aim4.config.SimConfig;
 import aim4.driver.AutoDriver;
 import aim4.driver.DriverUtil;
 import aim4.driver.coordinator.V2ICoordinator.ReservationParameter;
+import aim4.sim.SimContext;
 import aim4.vehicle.AutoVehicleDriverView;
 import aim4.vehicle.VehicleUtil;
 
@@ -58,18 +59,37 @@ public class V2IPilot extends BasicPilot {
    */
   public static final double MINIMUM_FOLLOWING_DISTANCE = 0.5; // meters
 
-  /**
-   * The default shortest distance before an intersection at which the vehicle
-   * stops if the vehicle can't enter the intersection immediately.
-   */
-  public static double DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION = 1.0;
-
   /**
    * The distance, expressed in units of the Vehicle's velocity, at which to
    * switch to a new lane when turning. {@value} seconds.
    */
   public static final double TRAVERSING_LANE_CHANGE_LEAD_TIME = 1.5; // sec
 
+  // ///////////////////////////////
+  // STATIC METHODS
+  // ///////////////////////////////
+
+  /**
+   * Get the default shortest distance before an intersection at which the
+   * vehicle stops if the vehicle can't enter the intersection immediately.
+   * The distance is a setting of the current simulation context.
+   *
+   * @return the default stopping distance before an intersection
+   */
+  public static double getDefaultStopDistanceBeforeIntersection() {
+    return SimContext.current().getStopDistanceBeforeIntersection();
+  }
+
+  /**
+   * Set the default shortest distance before an intersection at which the
+   * vehicle stops if the vehicle can't enter the intersection immediately.
+   *
+   * @param distance  the default stopping distance before an intersection
+   */
+  public static void setDefaultStopDistanceBeforeIntersection(double distance) {
+    SimContext.current().setStopDistanceBeforeIntersection(distance);
+  }
+
   // ///////////////////////////////
   // PRIVATE FIELDS
   // ///////////////////////////////
@@ -94,7 +114,8 @@ public class V2IPilot extends BasicPilot {
   public V2IPilot(AutoVehicleDriverView vehicle, AutoDriver driver) {
     this.vehicle = vehicle;
     this.driver = driver;
-    stopDistanceBeforeIntersection = DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION;
+    stopDistanceBeforeIntersection =
+      getDefaultStopDistanceBeforeIntersection();
   }
 
   // ///////////////////////////////
@@ -131,8 +152,8 @@ public class V2IPilot extends BasicPilot {
     // If we're not already in the departure lane
     if (driver.getCurrentLane() != rp.getDepartureLane()) {
       // If we're changing to a different Road
-      if (Debug.currentMap.getRoad(driver.getCurrentLane()) !=
-        Debug.currentMap.getRoad(rp.getDepartureLane())) {
+      if (Debug.getCurrentMap().getRoad(driver.getCurrentLane()) !=
+        Debug.getCurrentMap().getRoad(rp.getDepartureLane())) {
         // Find out how far from it we are
         double distToLane =
           rp.getDepartureLane().nearestDistance(vehicle.gaugePosition());
@@ -280,7 +301,7 @@ public class V2IPilot extends BasicPilot {
 //      VehicleUtil.calcDistanceToStop(vehicle.gaugeVelocity(),
 //                                     vehicle.getSpec().getMaxDeceleration());
     double minDistanceToIntersection =
-      stoppingDistance + DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION;
+      stoppingDistance + getDefaultStopDistanceBeforeIntersection();
     if (vehicle.getDriver().distanceToNextIntersection() <
         minDistanceToIntersection) {
 //      if (Debug.isTargetVIN(vehicle.getVIN())) {
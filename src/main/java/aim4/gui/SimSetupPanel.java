@@ -139,6 +139,7 @@ public class SimSetupPanel extends JPanel implements ItemListener {
       simSetup2.setNumOfColumns(autoDriverOnlySetupPanel.getNumOfColumns());
       simSetup2.setNumOfRows(autoDriverOnlySetupPanel.getNumOfRows());
       simSetup2.setLanesPerRoad(autoDriverOnlySetupPanel.getLanesPerRoad());
+      simSetup2.setServedImId(Viewer.UDP_SERVED_IM_ID);
       return simSetup2;
     } else if (comboBox.getSelectedIndex() == 1) {
       // ApproxNPhasesTrafficSignalSimSetup simSetup2 =
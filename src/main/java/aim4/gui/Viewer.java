@@ -64,6 +64,7 @@ import aim4.gui.frame.VehicleInfoFrame;
 import aim4.im.IntersectionManager;
 import aim4.map.Road;
 import aim4.map.lane.Lane;
+import aim4.sim.AutoDriverOnlySimulator;
 import aim4.sim.Simulator;
 import aim4.sim.UdpListener;
 import aim4.sim.AutoDriverOnlySimulator.AutoDriverOnlySimStepResult;
@@ -99,6 +100,12 @@ public class Viewer extends JFrame implements ActionListener, KeyListener,
    * Whether or not the IM Shapes are shown by default.
    */
   public static final boolean IS_SHOW_IM_DEBUG_SHAPES_BY_DEFAULT = false;
+  /**
+   * The ID of the intersection manager that a reservation server runs in
+   * real time for the real vehicles heard by the UDP listener; -1 if the
+   * simulator runs all intersection managers.
+   */
+  public static final int UDP_SERVED_IM_ID = -1;
   // ///////////////////////////////
   // CONSTANTS
   // ///////////////////////////////
@@ -946,6 +953,7 @@ public class Viewer extends JFrame implements ActionListener, KeyListener,
       simThread.resume();
     }
     simThread = null;
+    sim.shutdown();
     sim = null;
 
     if (udpListener != null) {
@@ -1418,6 +1426,12 @@ public class Viewer extends JFrame implements ActionListener, KeyListener,
 
       // create the UDP listener thread
       udpListener = new UdpListener(sim);
+      if (sim instanceof AutoDriverOnlySimulator) {
+        // the reservation server, if any, decides the requests of the real
+        // vehicles as soon as they arrive
+        udpListener.setV2IManagerService(
+          ((AutoDriverOnlySimulator)sim).getV2IManagerService());
+      }
       udpListener.start();
 
       if (udpListener.hasStarted()) {
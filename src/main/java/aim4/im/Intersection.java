@@ -39,6 +39,7 @@ import aim4.config.Constants.TurnDirection;
 import aim4.map.Road;
 import aim4.map.lane.Lane;
 import aim4.map.track.WayPoint;
+import aim4.util.PolygonalArea;
 
 
 /**
@@ -61,6 +62,22 @@ public interface Intersection {
    */
   Area getAreaPlus();
 
+  /**
+   * Get the polygonal version of the area controlled by this
+   * IntersectionManager, for fast containment and intersection tests.
+   *
+   * @return the polygonal version of {@link #getArea()}
+   */
+  PolygonalArea getPolygonalArea();
+
+  /**
+   * Get the polygonal version of the area slightly larger than the area
+   * controlled by this IntersectionManager.
+   *
+   * @return the polygonal version of {@link #getAreaPlus()}
+   */
+  PolygonalArea getPolygonalAreaPlus();
+
   /**
    * Get the centroid of the IntersectionManager.
    *
@@ -117,6 +117,14 @@ public class IntersectionManager {
     currentTime += timeStep;
   }
 
+  /**
+   * Stop the threads of this intersection manager, if any.  This is called
+   * when the simulation ends.
+   */
+  public void shutdown() {
+    // do nothing
+  }
+
   /**
    * Get the unique ID number of this IntersectionManager.
    *
@@ -192,7 +200,7 @@ public class IntersectionManager {
     // Get all corners of the vehicle and make sure they are inside the
     // intersection.
     for(Point2D corner : vehicle.getCornerPoints()) {
-      if (!intersection.getArea().contains(corner)) {
+      if (!intersection.getPolygonalArea().contains(corner)) {
         return false;
       }
     }
@@ -209,9 +217,7 @@ public class IntersectionManager {
    *                  this IntersectionManager
    */
   public boolean intersects(Rectangle2D rectangle) {
-    // Just call the Area method, so we don't have to clone the area.
-    // Make sure not to use "intersect" which is destructive.
-    return intersection.getArea().intersects(rectangle);
+    return intersection.getPolygonalArea().intersects(rectangle);
   }
 
 
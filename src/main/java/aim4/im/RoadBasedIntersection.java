@@ -53,6 +53,7 @@ import aim4.map.Road;
 import aim4.map.lane.Lane;
 import aim4.map.track.WayPoint;
 import aim4.util.GeomMath;
+import aim4.util.PolygonalArea;
 import aim4.util.Util;
 
 
@@ -93,6 +94,16 @@ public class RoadBasedIntersection implements Intersection {
    */
   private Area areaPlus;
 
+  /**
+   * The polygonal version of the area, for fast geometric tests.
+   */
+  private PolygonalArea polygonalArea;
+
+  /**
+   * The polygonal version of the area plus, for fast geometric tests.
+   */
+  private PolygonalArea polygonalAreaPlus;
+
   /**
    * The smallest rectangle that contains this intersection.
    */
@@ -194,6 +205,9 @@ public class RoadBasedIntersection implements Intersection {
     calcEdges();
     // Now build a GeneralPath using the waypoints.
     addWayPointsPath();
+    // The polygonal areas must be made from the final areas
+    polygonalArea = new PolygonalArea(area);
+    polygonalAreaPlus = new PolygonalArea(areaPlus);
     // Calculate the bounding box
     boundingBox = area.getBounds2D();
 
@@ -485,6 +499,22 @@ public class RoadBasedIntersection implements Intersection {
     return areaPlus;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public PolygonalArea getPolygonalArea() {
+    return polygonalArea;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public PolygonalArea getPolygonalAreaPlus() {
+    return polygonalAreaPlus;
+  }
+
   /**
    * Get the centroid of the intersection manager.
    *
@@ -530,8 +560,8 @@ public class RoadBasedIntersection implements Intersection {
    */
   private void calcEntryRoads() {
     for(Lane lane : getEntryLanes()) {
-      if (!entryRoads.contains(Debug.currentMap.getRoad(lane))) {
-        entryRoads.add(Debug.currentMap.getRoad(lane));
+      if (!entryRoads.contains(Debug.getCurrentMap().getRoad(lane))) {
+        entryRoads.add(Debug.getCurrentMap().getRoad(lane));
       }
     }
   }
@@ -595,8 +625,8 @@ public class RoadBasedIntersection implements Intersection {
 
   private void calcExitRoads() {
     for(Lane lane : getExitLanes()) {
-      if (!exitRoads.contains(Debug.currentMap.getRoad(lane))) {
-        exitRoads.add(Debug.currentMap.getRoad(lane));
+      if (!exitRoads.contains(Debug.getCurrentMap().getRoad(lane))) {
+        exitRoads.add(Debug.getCurrentMap().getRoad(lane));
       }
     }
   }
@@ -655,8 +685,8 @@ public class RoadBasedIntersection implements Intersection {
    */
   @Override
   public TurnDirection calcTurnDirection(Lane currentLane, Lane departureLane) {
-    Road currentRoad = Debug.currentMap.getRoad(currentLane);
-    Road departureRoad = Debug.currentMap.getRoad(departureLane);
+    Road currentRoad = Debug.getCurrentMap().getRoad(currentLane);
+    Road departureRoad = Debug.getCurrentMap().getRoad(departureLane);
     if(departureRoad == currentRoad) {
       return TurnDirection.STRAIGHT;
     } else if(departureRoad == currentRoad.getDual()) {
@@ -41,6 +41,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import aim4.config.Debug;
 import aim4.map.Road;
@@ -138,10 +139,11 @@ public class RoadBasedTrackModel implements TrackModel {
 
   /**
    * Memoization cache for {@link #traversalDistance(Road arrival, Road
-   * departure)}.
+   * departure)}.  It is concurrent since the drivers may act on several
+   * worker threads.
    */
   private Map<List<Integer>, Double> memoTraversalDistance =
-    new HashMap<List<Integer>, Double>();
+    new ConcurrentHashMap<List<Integer>, Double>();
 
   // TODO: remove this variable
   /**
@@ -388,7 +390,8 @@ public class RoadBasedTrackModel implements TrackModel {
   public double traversalDistance(Lane arrival, Lane departure) {
     List<Integer> key = Arrays.asList(arrival.getId(),
                                       departure.getId());
-    if(!memoTraversalDistance.containsKey(key)) {
+    Double memo = memoTraversalDistance.get(key);
+    if(memo == null) {
       double totalDistance = 0;
       List<Line2D> segments =
         inIntersectionSegments(arrival, departure);
@@ -397,8 +400,9 @@ public class RoadBasedTrackModel implements TrackModel {
         totalDistance += line.getP1().distance(line.getP2());
       }
       memoTraversalDistance.put(key, totalDistance);
+      memo = totalDistance;
     }
-    return memoTraversalDistance.get(key);
+    return memo;
   }
 
   /**
@@ -414,8 +418,8 @@ public class RoadBasedTrackModel implements TrackModel {
   @Override
   public double traversalDistance(int arrivalID, int departureID) {
     List<Integer> key = Arrays.asList(arrivalID, departureID);
-    Lane arrival = Debug.currentMap.getLaneRegistry().get(arrivalID);
-    Lane departure = Debug.currentMap.getLaneRegistry().get(departureID);
+    Lane arrival = Debug.getCurrentMap().getLaneRegistry().get(arrivalID);
+    Lane departure = Debug.getCurrentMap().getLaneRegistry().get(departureID);
     return traversalDistance(arrival, departure);
   }
 
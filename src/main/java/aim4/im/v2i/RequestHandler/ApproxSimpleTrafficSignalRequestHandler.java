@@ -187,7 +187,7 @@ public class ApproxSimpleTrafficSignalRequestHandler implements
    */
   @Override
   public TrafficSignal getSignal(int laneId) {
-    Road road = Debug.currentMap.getRoad(laneId);
+    Road road = Debug.getCurrentMap().getRoad(laneId);
 
     double period = greenLightDuration + yellowLightDuration;
     int id = (int) Math.floor(basePolicy.getCurrentTime() / period);
@@ -233,7 +233,7 @@ public class ApproxSimpleTrafficSignalRequestHandler implements
    * @return whether the vehicle can enter the intersection
    */
   private boolean canEnterFromLane(int laneId) {
-    Road road = Debug.currentMap.getRoad(laneId);
+    Road road = Debug.getCurrentMap().getRoad(laneId);
 
     double period = greenLightDuration + yellowLightDuration;
     int id = (int) Math.floor(basePolicy.getCurrentTime() / period);
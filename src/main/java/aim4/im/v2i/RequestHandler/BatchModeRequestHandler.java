@@ -257,6 +257,10 @@ public class BatchModeRequestHandler implements RequestHandler {
      * The number of queued request
      */
     int numOfQueuedRequest = 0;
+    /**
+     * The number of proposals queried again in optimistic batch processing
+     */
+    int numOfRequeriedProposal = 0;
 
     /**
      * Increase the total number of request.
@@ -286,6 +290,13 @@ public class BatchModeRequestHandler implements RequestHandler {
       numOfQueuedRequest++;
     }
 
+    /**
+     * Increase the number of proposals queried again.
+     */
+    public void incrNumOfRequeriedProposal() {
+      numOfRequeriedProposal++;
+    }
+
     /**
      * Collect the statistic in a batch mode request handler.
      *
@@ -308,6 +319,7 @@ public class BatchModeRequestHandler implements RequestHandler {
               numOfConfirmedAnotherRequest);
       outfile.printf("numOfLateRequest,%d\n", numOfLateRequest);
       outfile.printf("numOfQueuedRequest,%d\n", numOfQueuedRequest);
+      outfile.printf("numOfRequeriedProposal,%d\n", numOfRequeriedProposal);
     }
 
   }
@@ -334,7 +346,7 @@ public class BatchModeRequestHandler implements RequestHandler {
   /**
    * The indexed proposal queue.
    */
-  private NavigableSet<IndexedProposal> queue;
+  private ProposalQueue queue;
 
   /**
    * The time at which the proposals in the next batch will be processed.
@@ -348,6 +360,12 @@ public class BatchModeRequestHandler implements RequestHandler {
    */
   private double nextProposalDeadline;
 
+  /**
+   * Whether the proposals in a batch are queried at the same time before
+   * they are confirmed or rejected in the order of the batch.
+   */
+  private boolean isOptimistic = false;
+
   // statistics
 
   /**
@@ -385,7 +403,7 @@ public class BatchModeRequestHandler implements RequestHandler {
   public BatchModeRequestHandler(ReorderingStrategy reorderingStrategy,
                                  RequestStatCollector requestSC) {
     this.reorderingStrategy = reorderingStrategy;
-    this.queue = new TreeSet<IndexedProposal>();
+    this.queue = new ProposalQueue();
     this.requestSC = requestSC;
     nextIndexedProposalId = 0;
   }
@@ -408,6 +426,30 @@ public class BatchModeRequestHandler implements RequestHandler {
     nextProposalDeadline = reorderingStrategy.getNextProposalDeadline();
   }
 
+  /**
+   * Whether the batches are processed optimistically.
+   *
+   * @return whether the batches are processed optimistically
+   */
+  public boolean isOptimistic() {
+    return isOptimistic;
+  }
+
+  /**
+   * Set whether the batches are processed optimistically.  In the
+   * optimistic mode, all proposals of a batch are queried at the same time
+   * against the reservations made before the batch.  Then the proposals are
+   * confirmed or rejected in the order of the batch; a plan is checked
+   * against the reservations made earlier in the batch, and the proposal is
+   * queried again only if the check fails.  The confirmed proposals are the
+   * same as in the normal mode.
+   *
+   * @param isOptimistic whether the batches are processed optimistically
+   */
+  public void setIsOptimistic(boolean isOptimistic) {
+    this.isOptimistic = isOptimistic;
+  }
+
   /**
    * Let the request handler to act for a given time period.
    *
@@ -528,25 +570,67 @@ public class BatchModeRequestHandler implements RequestHandler {
     double currentTime = basePolicy.getCurrentTime();
 
     // make sure that no proposal on the queue is before the deadline
-    assert (queue.size() == 0) || (queue.first().getProposal().getArrivalTime() >=
+    assert queue.isEmpty() || (queue.peekFirst().getProposal().getArrivalTime() >=
             nextProposalDeadline);
 
     // retrieve the batch (the set of indexed proposals)
     List<IndexedProposal> batch =
             reorderingStrategy.getBatch(currentTime,
-                    queue,
+                    queue.asNavigableSet(),
                     basePolicy.getTrackMode());
 
     // confirm or reject the proposals in the batch according to
     // the new ordering
+    if (isOptimistic && batch.size() > 1) {
+      tryReserveOptimistically(batch);
+    } else {
+      for (IndexedProposal iProposal : batch) {
+        tryReserve(iProposal);
+      }
+    }
     for (IndexedProposal iProposal : batch) {
-      tryReserve(iProposal);
       vinInBatch.add(iProposal.getRequest().getVin());
     }
 
     return vinInBatch;
   }
 
+  /**
+   * Query all proposals in a batch at the same time, and then confirm or
+   * reject them in the order of the batch.  A proposal that failed the
+   * query is rejected, since the reservations made in the batch can only
+   * take away space.  A plan is claimed atomically when it is confirmed, and
+   * a plan that conflicts with a reservation made earlier in the batch is
+   * queried again.
+   *
+   * @param batch the batch of indexed proposals
+   */
+  private void tryReserveOptimistically(List<IndexedProposal> batch) {
+    List<Request> msgs = new ArrayList<Request>(batch.size());
+    List<Proposal> proposals = new ArrayList<Proposal>(batch.size());
+    for (IndexedProposal iProposal : batch) {
+      msgs.add(iProposal.getRequest());
+      proposals.add(iProposal.getProposal());
+    }
+    ReserveParam[] reserveParams =
+            basePolicy.findReserveParams(msgs, proposals);
+    for (int i = 0; i < batch.size(); i++) {
+      IndexedProposal iProposal = batch.get(i);
+      ReserveParam reserveParam = reserveParams[i];
+      if (reserveParam == null) {
+        confirmOrReject(iProposal, null);
+      } else if (basePolicy.trySendConfirmMsg(
+                   iProposal.getRequest().getRequestId(), reserveParam)) {
+        // Remove a set of indexed proposals (including the given one)
+        // from the queue.
+        queue.removeGroup(iProposal.getProposalGroup());
+      } else {
+        if (requestSC != null) requestSC.incrNumOfRequeriedProposal();
+        confirmOrReject(iProposal, findReserveParam(iProposal));
+      }
+    }
+  }
+
   /**
    * Try to make a reservation for a proposal and send the confirm message.
    * If no reservation is possible, send the reject message.
@@ -554,17 +638,39 @@ public class BatchModeRequestHandler implements RequestHandler {
    * @param iProposal the indexed proposal
    */
   private void tryReserve(IndexedProposal iProposal) {
+    confirmOrReject(iProposal, findReserveParam(iProposal));
+  }
+
+  /**
+   * Find the reservation parameters of an indexed proposal.
+   *
+   * @param iProposal the indexed proposal
+   * @return the reservation parameters; null if the reservation is
+   *         infeasible
+   */
+  private ReserveParam findReserveParam(IndexedProposal iProposal) {
     List<Proposal> l = new ArrayList<Proposal>(1);
     l.add(iProposal.getProposal());
+    return basePolicy.findReserveParam(iProposal.getRequest(), l);
+  }
+
+  /**
+   * Send the confirm message for an indexed proposal if the reservation
+   * parameters are given.  Otherwise, remove the proposal from its group,
+   * and send the reject message if no proposal is left in the group.
+   *
+   * @param iProposal    the indexed proposal
+   * @param reserveParam the reservation parameters; null if the reservation
+   *                     is infeasible
+   */
+  private void confirmOrReject(IndexedProposal iProposal,
+                               ReserveParam reserveParam) {
     Request msg = iProposal.getRequest();
-    ReserveParam reserveParam = basePolicy.findReserveParam(msg, l);
     if (reserveParam != null) {
       basePolicy.sendConfirmMsg(msg.getRequestId(), reserveParam);
       // Remove a set of indexed proposals (including the given one)
       // from the queue.
-      for (IndexedProposal iProposal2 : iProposal.getProposalGroup()) {
-        queue.remove(iProposal2); // efficient enough since queue is a TreeSet.
-      }
+      queue.removeGroup(iProposal.getProposalGroup());
     } else {
       // remove the indexed proposal from the queue.
       queue.remove(iProposal);
@@ -594,16 +700,11 @@ public class BatchModeRequestHandler implements RequestHandler {
    *
    */
   private void tryReserveForProposalsBeforeTime(double time) {
-    Iterator<IndexedProposal> iter = queue.iterator();
-    while (iter.hasNext()) {
-      IndexedProposal iProposal = iter.next();
-      if (iProposal.getProposal().getArrivalTime() < time) {
-        iter.remove(); // remove the proposal from the queue.
-        tryReserve(iProposal);
-      } else {
-        // the remaining proposals in the queue have a larger arrival time
-        break;
-      }
+    // the remaining proposals in the queue have a larger arrival time once
+    // the first one is not before the time.
+    IndexedProposal iProposal;
+    while ((iProposal = queue.pollFirstBefore(time)) != null) {
+      tryReserve(iProposal);
     }
   }
 
@@ -620,21 +721,8 @@ public class BatchModeRequestHandler implements RequestHandler {
    * @param vin the vehicle ID
    */
   private void removeProposalsByVIN(int vin) {
-    // search for the first indexed proposal with the given vin.
-    // TODO: maybe able to make it runs faster
-    IndexedProposal selectedIndexedProposal = null;
-    for (IndexedProposal iProposal : queue) {
-      if (iProposal.getRequest().getVin() == vin) {
-        selectedIndexedProposal = iProposal;
-      }
-    }
-
-    // remove the indexed proposal in the indexed proposal group.
-    if (selectedIndexedProposal != null) {
-      for (IndexedProposal ip : selectedIndexedProposal.getProposalGroup()) {
-        queue.remove(ip); // efficient enough since queue is a TreeSet.
-      }
-    }
+    // the queue keeps the proposal group of every vehicle in the queue.
+    queue.removeByVIN(vin);
   }
 
   /**
@@ -662,9 +750,10 @@ public class BatchModeRequestHandler implements RequestHandler {
    * @param msg the current time
    */
   private void putProposalsIntoQueue(Request msg, double currentTime) {
+    // a proposal group has at most as many proposals as the request, so
+    // removing a proposal from the group is cheap.
     List<IndexedProposal> proposalGroup =
-            new LinkedList<IndexedProposal>(); // use LinkedList such that elements
-    // can be removed efficiently.
+            new ArrayList<IndexedProposal>(msg.getProposals().size());
     for (Proposal proposal : msg.getProposals()) {
       // Put only the proposal whose arrival time is on or after the
       // next proposal deadline. Ignore the late proposals
@@ -677,9 +766,10 @@ public class BatchModeRequestHandler implements RequestHandler {
                         currentTime); // the subsmission time
         nextIndexedProposalId++;
         proposalGroup.add(iProposal);
-        queue.add(iProposal); // TreeSet will sort the IP automatically.
       }
     }
+    // the queue sorts the indexed proposals by their arrival times.
+    queue.addGroup(msg.getVin(), proposalGroup);
   }
 
 
@@ -695,7 +785,7 @@ public class BatchModeRequestHandler implements RequestHandler {
     boolean shouldPrintNextProposalDeadline = true;
 
     System.out.printf("--- Queue BEGIN ---\n");
-    for (IndexedProposal iProposal : queue) {
+    for (IndexedProposal iProposal : queue.asNavigableSet()) {
       double arrivalTime = iProposal.getProposal().getArrivalTime();
       // --- nextProcessingTime ---
       if (shouldPrintNextProcessingTime) {
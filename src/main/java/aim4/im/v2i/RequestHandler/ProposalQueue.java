@@ -0,0 +1,222 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.RequestHandler;
+
+import aim4.im.v2i.RequestHandler.BatchModeRequestHandler.IndexedProposal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * The queue of the indexed proposals of a batch mode request handler.  The
+ * indexed proposals are ordered by their arrival times, and the proposal
+ * group of a vehicle in the queue can be found by its VIN, so that the
+ * proposals of a vehicle can be removed without scanning the queue.
+ */
+class ProposalQueue {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The proposal group of a vehicle in the queue.
+   */
+  private static class GroupEntry {
+    /**
+     * The proposal group
+     */
+    private final List<IndexedProposal> proposalGroup;
+    /**
+     * The number of the indexed proposals of the group in the queue
+     */
+    private int numOfQueuedProposals;
+
+    /**
+     * Create an entry for a proposal group.
+     *
+     * @param proposalGroup  the proposal group
+     */
+    private GroupEntry(List<IndexedProposal> proposalGroup) {
+      this.proposalGroup = proposalGroup;
+      this.numOfQueuedProposals = 0;
+    }
+  }
+
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The indexed proposals ordered by their arrival times
+   */
+  private final TreeSet<IndexedProposal> proposals =
+    new TreeSet<IndexedProposal>();
+
+  /**
+   * A read-only view of the indexed proposals
+   */
+  private final NavigableSet<IndexedProposal> view =
+    Collections.unmodifiableNavigableSet(proposals);
+
+  /**
+   * A mapping from VINs to the proposal groups in the queue
+   */
+  private final Map<Integer, GroupEntry> vinToGroup =
+    new HashMap<Integer, GroupEntry>();
+
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get a read-only view of the queue, ordered by the arrival times of
+   * the indexed proposals.
+   *
+   * @return the read-only view of the queue
+   */
+  public NavigableSet<IndexedProposal> asNavigableSet() {
+    return view;
+  }
+
+  /**
+   * Whether the queue is empty.
+   *
+   * @return whether the queue is empty
+   */
+  public boolean isEmpty() {
+    return proposals.isEmpty();
+  }
+
+  /**
+   * Get the indexed proposal with the earliest arrival time.
+   *
+   * @return the indexed proposal with the earliest arrival time; null if
+   *         the queue is empty
+   */
+  public IndexedProposal peekFirst() {
+    return proposals.isEmpty() ? null : proposals.first();
+  }
+
+  /**
+   * Remove the indexed proposal with the earliest arrival time if its
+   * arrival time is before a given time.
+   *
+   * @param time  the time
+   * @return the removed indexed proposal; null if there is no indexed
+   *         proposal whose arrival time is before the time
+   */
+  public IndexedProposal pollFirstBefore(double time) {
+    IndexedProposal iProposal = peekFirst();
+    if (iProposal != null
+        && iProposal.getProposal().getArrivalTime() < time) {
+      remove(iProposal);
+      return iProposal;
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Add the indexed proposals of a proposal group to the queue.  The
+   * proposals in the queue of the same vehicle must have been removed.
+   *
+   * @param vin            the VIN of the vehicle
+   * @param proposalGroup  the proposal group
+   */
+  public void addGroup(int vin, List<IndexedProposal> proposalGroup) {
+    assert !vinToGroup.containsKey(vin);
+    GroupEntry entry = new GroupEntry(proposalGroup);
+    for (IndexedProposal iProposal : proposalGroup) {
+      if (proposals.add(iProposal)) {
+        entry.numOfQueuedProposals++;
+      }
+    }
+    if (entry.numOfQueuedProposals > 0) {
+      vinToGroup.put(vin, entry);
+    }
+  }
+
+  /**
+   * Remove an indexed proposal from the queue.
+   *
+   * @param iProposal  the indexed proposal
+   * @return whether the indexed proposal was in the queue
+   */
+  public boolean remove(IndexedProposal iProposal) {
+    if (proposals.remove(iProposal)) {
+      int vin = iProposal.getRequest().getVin();
+      GroupEntry entry = vinToGroup.get(vin);
+      if (entry != null
+          && entry.proposalGroup == iProposal.getProposalGroup()) {
+        entry.numOfQueuedProposals--;
+        if (entry.numOfQueuedProposals == 0) {
+          vinToGroup.remove(vin);
+        }
+      }
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Remove all indexed proposals of a proposal group from the queue.
+   *
+   * @param proposalGroup  the proposal group
+   */
+  public void removeGroup(List<IndexedProposal> proposalGroup) {
+    for (IndexedProposal iProposal : proposalGroup) {
+      remove(iProposal);
+    }
+  }
+
+  /**
+   * Remove all indexed proposals of a vehicle from the queue.
+   *
+   * @param vin  the VIN of the vehicle
+   */
+  public void removeByVIN(int vin) {
+    GroupEntry entry = vinToGroup.remove(vin);
+    if (entry != null) {
+      for (IndexedProposal iProposal : entry.proposalGroup) {
+        proposals.remove(iProposal);
+      }
+    }
+  }
+
+}
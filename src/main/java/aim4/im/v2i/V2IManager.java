@@ -43,9 +43,12 @@ import aim4.config.Debug;
 import aim4.im.Intersection;
 import aim4.im.IntersectionManager;
 import aim4.im.TrackModel;
+import aim4.im.v2i.policy.BasePolicy;
 import aim4.im.v2i.policy.Policy;
 import aim4.im.v2i.reservation.AczManager;
 import aim4.im.v2i.reservation.AdmissionControlZone;
+import aim4.im.v2i.reservation.FootprintCache;
+import aim4.im.v2i.reservation.NegativeQueryCache;
 import aim4.im.v2i.reservation.ReservationGrid;
 import aim4.im.v2i.reservation.ReservationGridManager;
 import aim4.map.lane.Lane;
@@ -175,7 +178,10 @@ public class V2IManager extends IntersectionManager
                                    config.getGranularity());
     this.reservationGrid = new ReservationGrid(tiledArea.getXNum(),
                                                tiledArea.getYNum(),
-                                               config.getGridTimeStep());
+                                               config.getGridTimeStep(),
+                                               config
+                                                .getReservationArrayBackend(),
+                                               MAXIMUM_FUTURE_RESERVATION_TIME);
     this.reservationGridManager = new ReservationGridManager(config,
                                                              intersection,
                                                              tiledArea,
@@ -226,6 +232,31 @@ public class V2IManager extends IntersectionManager
   @Override
   public void act(double timeStep) {
     // First, process all the incoming messages waiting for us
+    processInbox();
+    // Second, allow the policy to act, and send outgoing messages.
+    policy.act(timeStep);
+    // Third, allow the reservation grid manager to act
+    reservationGridManager.act(timeStep);
+    // Advance current time.
+    super.act(timeStep);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void shutdown() {
+    if (policy != null) {
+      policy.shutdown();
+    }
+  }
+
+
+  /**
+   * Process the messages in the inbox and clear the inbox, without
+   * advancing the time.  The replies are put in the outbox.
+   */
+  public void processInbox() {
     for(Iterator<V2IMessage> iter = inboxIterator(); iter.hasNext();) {
       V2IMessage msg = iter.next();
       if (Debug.isPrintIMInboxMessageOfVIN(msg.getVin())) {
@@ -234,14 +265,10 @@ public class V2IManager extends IntersectionManager
       }
       processV2IMessage(msg);
     }
+    // Let the policy process the messages it has held back, if any
+    policy.processV2IMessageDone();
     // Done processing, clear the inbox.
     clearInbox();
-    // Second, allow the policy to act, and send outgoing messages.
-    policy.act(timeStep);
-    // Third, allow the reservation grid manager to act
-    reservationGridManager.act(timeStep);
-    // Advance current time.
-    super.act(timeStep);
   }
 
 
@@ -438,6 +465,33 @@ public class V2IManager extends IntersectionManager
       if (gridStatCollector != null) {
         gridStatCollector.print(outfile);
       }
+
+      FootprintCache footprintCache =
+        reservationGridManager.getFootprintCache();
+      if (footprintCache != null) {
+        outfile.printf("footprint cache hits,%d\n",
+                       footprintCache.getNumOfHits());
+        outfile.printf("footprint cache misses,%d\n",
+                       footprintCache.getNumOfMisses());
+      }
+
+      NegativeQueryCache negativeQueryCache =
+        reservationGridManager.getNegativeQueryCache();
+      if (negativeQueryCache != null) {
+        outfile.printf("negative query cache lookups,%d\n",
+                       negativeQueryCache.getNumOfLookups());
+        outfile.printf("negative query cache hits,%d\n",
+                       negativeQueryCache.getNumOfHits());
+      }
+
+      if (policy instanceof BasePolicy) {
+        BasePolicy basePolicy = (BasePolicy)policy;
+        basePolicy.getSequentialLatencies().print(outfile,
+                                                  "sequential query latency");
+        basePolicy.getSpeculativeLatencies().print(outfile,
+                                                   "speculative query latency");
+        basePolicy.getAdmissionFilter().print(outfile);
+      }
     }
   }
 
@@ -0,0 +1,380 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import aim4.config.SimConfig;
+import aim4.msg.i2v.I2VMessage;
+import aim4.msg.v2i.V2IMessage;
+import aim4.sim.SimContext;
+
+/**
+ * A reservation server that runs a {@link V2IManager} and its policy on a
+ * thread of its own, independently of any simulator.  The service has its
+ * own clock, which follows the wall clock from the current time of the
+ * intersection manager, and the intersection manager acts once per time
+ * step of the clock.
+ * <p>
+ * The messages of the vehicles are submitted from any thread, such as the
+ * threads of the network listeners, to a lock-free inbox that only the
+ * service thread reads.  The service thread processes the messages as soon
+ * as they arrive rather than at the next time step, and the replies are
+ * handed to the {@link Client} that submitted the last message of the
+ * vehicle as soon as the request is decided.  The intersection manager must
+ * not be used by any other thread, such as a simulator, while the service
+ * is running.
+ */
+public class V2IManagerService implements Runnable {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The receiver of the replies to the messages of a vehicle.
+   */
+  public static interface Client {
+    /**
+     * Receive a reply of the intersection manager.  It is called by the
+     * service thread and should not block.
+     *
+     * @param msg  the reply
+     */
+    void receive(I2VMessage msg);
+  }
+
+  /**
+   * A submitted message and the receiver of its replies.
+   */
+  private static class Envelope {
+    /** The message */
+    final V2IMessage msg;
+    /** The receiver of the replies */
+    final Client client;
+
+    /**
+     * Create an envelope.
+     *
+     * @param msg     the message
+     * @param client  the receiver of the replies
+     */
+    Envelope(V2IMessage msg, Client client) {
+      this.msg = msg;
+      this.client = client;
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The intersection manager */
+  private final V2IManager im;
+  /** The time step of the clock of the service, in seconds */
+  private final double timeStep;
+  /** The simulation context of the service thread */
+  private final SimContext context;
+  /** The submitted messages; only the service thread polls it */
+  private final Queue<Envelope> inbox =
+    new ConcurrentLinkedQueue<Envelope>();
+  /**
+   * The receivers of the replies to the vehicles, indexed by the VINs.
+   * It is only used by the service thread.
+   */
+  private final Map<Integer,Client> vinToClient =
+    new HashMap<Integer,Client>();
+  /**
+   * The VINs of the vehicles that are done with the intersection since the
+   * replies were last sent.  It is only used by the service thread.
+   */
+  private final List<Integer> doneVINs = new ArrayList<Integer>();
+  /** The thread of this service */
+  private volatile Thread blinker;
+  /** Whether the service thread is about to wait for messages */
+  private volatile boolean isIdle;
+  /** The time of the clock of the service when the service started */
+  private volatile double startTime;
+  /** The wall clock time when the service started, in nanoseconds */
+  private volatile long startNanoTime;
+  /** The number of messages processed so far */
+  private volatile long numOfProcessedMessages;
+
+  /////////////////////////////////
+  // CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a service for an intersection manager whose clock advances by
+   * {@link SimConfig#TIME_STEP}.
+   *
+   * @param im  the intersection manager
+   */
+  public V2IManagerService(V2IManager im) {
+    this(im, SimConfig.TIME_STEP);
+  }
+
+  /**
+   * Create a service for an intersection manager.  The service thread runs
+   * in the current {@link SimContext}, which must be the context in which
+   * the intersection manager was created.
+   *
+   * @param im        the intersection manager
+   * @param timeStep  the time step of the clock of the service, in seconds
+   */
+  public V2IManagerService(V2IManager im, double timeStep) {
+    if (timeStep <= 0.0) {
+      throw new IllegalArgumentException("The time step must be positive.");
+    }
+    this.im = im;
+    this.timeStep = timeStep;
+    this.context = SimContext.current();
+    this.startTime = im.getCurrentTime();
+    this.startNanoTime = System.nanoTime();
+    this.blinker = null;
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  // start and stop the thread
+
+  /**
+   * Whether or not the service thread has started.
+   *
+   * @return whether or not the service thread has started
+   */
+  public synchronized boolean hasStarted() {
+    return blinker != null;
+  }
+
+  /**
+   * Start the service thread.  The clock of the service starts at the
+   * current time of the intersection manager.
+   */
+  public synchronized void start() {
+    assert blinker == null;
+    startTime = im.getCurrentTime();
+    startNanoTime = System.nanoTime();
+    blinker = new Thread(this, "im-service-" + im.getId());
+    blinker.setDaemon(true);
+    blinker.start();
+  }
+
+  /**
+   * Stop the service thread and wait for it to finish, so that the
+   * intersection manager can be used by another thread afterwards.  The
+   * messages that have not been processed are discarded.
+   */
+  public void stop() {
+    Thread thread;
+    synchronized(this) {
+      assert blinker != null;
+      thread = blinker;
+      blinker = null;
+    }
+    LockSupport.unpark(thread);
+    if (thread == Thread.currentThread()) {
+      return;
+    }
+    boolean isInterrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch(InterruptedException e) {
+        isInterrupted = true;
+      }
+    }
+    if (isInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the intersection manager.
+   *
+   * @return the intersection manager
+   */
+  public V2IManager getIntersectionManager() {
+    return im;
+  }
+
+  /**
+   * Get the current time of the clock of the service.  It can be called
+   * from any thread.
+   *
+   * @return the current time, in seconds
+   */
+  public double getCurrentTime() {
+    return startTime + (System.nanoTime() - startNanoTime) / 1e9;
+  }
+
+  /**
+   * Get the number of messages processed so far.
+   *
+   * @return the number of messages processed so far
+   */
+  public long getNumOfProcessedMessages() {
+    return numOfProcessedMessages;
+  }
+
+  /**
+   * Submit a message of a vehicle to the intersection manager.  It can be
+   * called from any thread and does not block.  The replies to the vehicle
+   * go to the client of its latest message.
+   *
+   * @param msg     the message
+   * @param client  the receiver of the replies
+   */
+  public void submit(V2IMessage msg, Client client) {
+    inbox.offer(new Envelope(msg, client));
+    // The service thread checks the inbox after it sets isIdle, so either
+    // it sees the message or it is woken up here.
+    if (isIdle) {
+      Thread thread = blinker;
+      if (thread != null) {
+        LockSupport.unpark(thread);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void run() {
+    context.run(new Runnable() {
+      @Override
+      public void run() {
+        serve();
+      }
+    });
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * The main loop of the service thread.
+   */
+  private void serve() {
+    Thread thisThread = Thread.currentThread();
+    long stepNanoTime = Math.round(timeStep * 1e9);
+    long nextStepNanoTime = startNanoTime + stepNanoTime;
+
+    try {
+      while (blinker == thisThread) {
+        if (receiveMessages()) {
+          im.processInbox();
+          sendReplies();
+        }
+        long now = System.nanoTime();
+        if (now - nextStepNanoTime >= 0) {
+          // catch up with the wall clock if the service fell behind
+          while (now - nextStepNanoTime >= 0) {
+            im.act(timeStep);
+            sendReplies();
+            nextStepNanoTime += stepNanoTime;
+          }
+        } else {
+          isIdle = true;
+          if (inbox.isEmpty() && blinker == thisThread) {
+            LockSupport.parkNanos(this, nextStepNanoTime - now);
+          }
+          isIdle = false;
+        }
+      }
+    } catch(RuntimeException e) {
+      System.err.printf("The service of intersection manager %d stopped " +
+                        "due to an error.\n", im.getId());
+      e.printStackTrace();
+      synchronized(this) {
+        if (blinker == thisThread) {
+          blinker = null;
+        }
+      }
+    }
+    inbox.clear();
+  }
+
+  /**
+   * Move the submitted messages to the inbox of the intersection manager.
+   *
+   * @return whether there is any message
+   */
+  private boolean receiveMessages() {
+    boolean hasMessage = false;
+    for(Envelope e = inbox.poll(); e != null; e = inbox.poll()) {
+      vinToClient.put(e.msg.getVin(), e.client);
+      if (e.msg.getMessageType() == V2IMessage.Type.DONE) {
+        doneVINs.add(e.msg.getVin());
+      }
+      im.receive(e.msg);
+      numOfProcessedMessages++;
+      hasMessage = true;
+    }
+    return hasMessage;
+  }
+
+  /**
+   * Hand the messages in the outbox of the intersection manager to the
+   * clients and clear the outbox.  The clients of the vehicles that are
+   * done with the intersection are forgotten afterwards.
+   */
+  private void sendReplies() {
+    for(Iterator<I2VMessage> iter = im.outboxIterator(); iter.hasNext();) {
+      I2VMessage msg = iter.next();
+      Client client = vinToClient.get(msg.getVin());
+      if (client != null) {
+        client.receive(msg);
+      }
+    }
+    im.clearOutbox();
+    for(int vin : doneVINs) {
+      vinToClient.remove(vin);
+    }
+    doneVINs.clear();
+  }
+
+}
@@ -206,7 +206,7 @@ public class RoadBasedReordering implements ReorderingStrategy {
 
     for(IndexedProposal iProposal : iProposals) {
       int laneId = iProposal.getProposal().getArrivalLaneID();
-      Road road = Debug.currentMap.getRoad(laneId);
+      Road road = Debug.getCurrentMap().getRoad(laneId);
       if (partition.containsKey(road)) {
         partition.get(road).add(iProposal);
       } else {
@@ -0,0 +1,150 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.policy;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import aim4.im.v2i.reservation.AczManager;
+import aim4.msg.v2i.Request;
+
+/**
+ * The stages a proposal goes through before it is granted, ordered from
+ * the cheapest to the most expensive one:
+ * <ol>
+ * <li> the capacity of the admission control zone with the smallest
+ *      possible stopping distance;
+ * <li> the footprint query of the reservation grid;
+ * <li> the admission control zone with the stopping distance at the exit
+ *      velocity of the footprint.
+ * </ol>
+ * The first stage only rejects proposals that the admission control zone
+ * would reject anyway after the footprint query, so the stages grant
+ * exactly the proposals that the footprint query and the admission control
+ * zone would grant.  The number of proposals each stage rejects is counted.
+ * <p>
+ * This class is thread-safe.
+ */
+public class AdmissionFilter {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The stages of the admission filter.
+   */
+  public enum Stage {
+    /** The capacity of the admission control zone */
+    ACZ_CAPACITY,
+    /** The footprint query */
+    FOOTPRINT,
+    /** The stopping distance in the admission control zone */
+    ACZ_STOP_DISTANCE,
+  }
+
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The number of proposals rejected by each stage.
+   */
+  private final AtomicLongArray numOfRejects =
+    new AtomicLongArray(Stage.values().length);
+
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Run the stages before the footprint query.
+   *
+   * @param vin            the VIN of the vehicle
+   * @param vehicleLength  the length of the vehicle
+   * @param proposal       the proposal
+   * @param aczManager     the manager of the admission control zone of the
+   *                       departure lane
+   * @return the stage that rejects the proposal; null if the proposal
+   *         passes all stages before the footprint query
+   */
+  public Stage screen(int vin, double vehicleLength,
+                      Request.Proposal proposal,
+                      AczManager aczManager) {
+    // the stopping distance is at least zero
+    AczManager.Query aczQuery =
+      new AczManager.Query(vin,
+                           proposal.getArrivalTime(),
+                           proposal.getArrivalVelocity(),
+                           vehicleLength,
+                           0.0);
+    if (aczManager.query(aczQuery) == null) {
+      return reject(Stage.ACZ_CAPACITY);
+    }
+    return null;
+  }
+
+  /**
+   * Count a proposal rejected by a stage.
+   *
+   * @param stage  the stage
+   * @return the stage
+   */
+  public Stage reject(Stage stage) {
+    numOfRejects.incrementAndGet(stage.ordinal());
+    return stage;
+  }
+
+  /**
+   * Get the number of proposals rejected by a stage.
+   *
+   * @param stage  the stage
+   * @return the number of proposals rejected by the stage
+   */
+  public long getNumOfRejects(Stage stage) {
+    return numOfRejects.get(stage.ordinal());
+  }
+
+  /**
+   * Print the number of proposals rejected by each stage.
+   *
+   * @param outfile  the output stream
+   */
+  public void print(PrintStream outfile) {
+    for(Stage stage : Stage.values()) {
+      outfile.printf("admission rejects %s,%d\n",
+                     stage.name().toLowerCase(), getNumOfRejects(stage));
+    }
+  }
+
+}
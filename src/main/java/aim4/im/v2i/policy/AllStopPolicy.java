@@ -120,5 +120,13 @@ public class AllStopPolicy implements Policy {
     return null;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void shutdown() {
+    // do nothing
+  }
+
 
 }
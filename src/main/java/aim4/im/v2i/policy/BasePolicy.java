@@ -39,6 +39,7 @@ import aim4.im.v2i.policy.utils.ProposalFilterResult;
 import aim4.im.v2i.policy.utils.ReservationRecord;
 import aim4.im.v2i.policy.utils.ReserveParam;
 import aim4.im.v2i.reservation.AczManager;
+import aim4.im.v2i.reservation.ReservationArray;
 import aim4.im.v2i.reservation.ReservationGrid;
 import aim4.im.v2i.reservation.ReservationGridManager;
 import aim4.map.Road;
@@ -46,13 +47,18 @@ import aim4.msg.i2v.Confirm;
 import aim4.msg.i2v.Reject;
 import aim4.msg.v2i.*;
 import aim4.sim.AutoDriverOnlySimulator;
+import aim4.sim.ParallelStepEngine;
+import aim4.sim.SimContext;
 import aim4.sim.StatCollector;
 import aim4.util.HashMapRegistry;
+import aim4.util.LatencyHistogram;
 import aim4.util.Registry;
+import aim4.vehicle.ProxyVehicleSimView;
 import aim4.vehicle.VehicleUtil;
 import aim4.vehicle.VinRegistry;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The base policy.
@@ -73,17 +79,141 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
    * {@value} seconds.
    */
   private static final double LATE_ERROR = 0.01;
+  /**
+   * The maximum amount of time, in seconds, by which a counter-offer can
+   * delay the arrival time of a rejected proposal.  Counter-offers further
+   * in the future tie vehicles to late arrival times that often become
+   * worse than what they can get by asking again.  {@value} seconds.
+   */
+  private static final double MAX_COUNTER_OFFER_DELAY = 1.0;
+
+  /**
+   * The minimum amount of time, in seconds, between the current time and
+   * the arrival time of a reservation that is moved earlier, so that the
+   * vehicle can receive the new reservation and adjust its speed in time.
+   * {@value} seconds.
+   */
+  private static final double MIN_COMPACTION_LEAD_TIME = 0.5;
+  /**
+   * The minimum amount of time, in seconds, by which a reservation has to
+   * be moved earlier to be worth the messages.  {@value} seconds.
+   */
+  private static final double MIN_COMPACTION_GAIN = 0.1;
+  /**
+   * The reservation ID in the reservation grid of the time-tiles that are
+   * held for a vehicle while the vehicle decides whether to move its
+   * reservation earlier is the VIN of the vehicle plus this number.
+   */
+  private static final int HELD_RESERVATION_ID_BASE = 1 << 30;
 
 
-  public static HashMap<Integer, Request.Proposal> CurrentState = new HashMap<Integer, Request.Proposal>();
+  /**
+   * The key of the latest proposal of each vehicle in the simulation
+   * contexts.  The map is concurrent since the intersection managers may act
+   * on several worker threads.
+   */
+  private static final SimContext.Slot<Map<Integer, Request.Proposal>>
+    CURRENT_STATE = new SimContext.Slot<Map<Integer, Request.Proposal>>() {
+      @Override
+      protected Map<Integer, Request.Proposal> initialValue() {
+        return new ConcurrentHashMap<Integer, Request.Proposal>();
+      }
+    };
 
-  public static HashMap<Double, Integer> LaneCount = new HashMap<Double, Integer>();
+  /**
+   * Get the latest proposal of each vehicle in the current simulation
+   * context.
+   *
+   * @return a map from the VINs of the vehicles to their latest proposals
+   */
+  public static Map<Integer, Request.Proposal> getCurrentState() {
+    return SimContext.current().get(CURRENT_STATE);
+  }
 
 
   /////////////////////////////////
   // NESTED CLASSES
   /////////////////////////////////
 
+  /**
+   * A confirmed reservation that may be moved earlier.
+   */
+  private static class MovableReservation {
+    /** The reservation ID */
+    private final int reservationId;
+    /** The ID of the request message of the reservation */
+    private final int requestId;
+    /** The proposal of the reservation */
+    private final Request.Proposal proposal;
+    /** The specification of the vehicle */
+    private final Request.VehicleSpecForRequestMsg spec;
+    /**
+     * The earliest arrival time the vehicle proposed in the request, which
+     * bounds how far the reservation can be moved earlier
+     */
+    private final double earliestArrivalTime;
+
+    /**
+     * Create a record of a confirmed reservation.
+     *
+     * @param reservationId        the reservation ID
+     * @param requestId            the ID of the request message
+     * @param proposal             the proposal of the reservation
+     * @param spec                 the specification of the vehicle
+     * @param earliestArrivalTime  the earliest arrival time the vehicle
+     *                             proposed in the request
+     */
+    private MovableReservation(int reservationId, int requestId,
+                               Request.Proposal proposal,
+                               Request.VehicleSpecForRequestMsg spec,
+                               double earliestArrivalTime) {
+      this.reservationId = reservationId;
+      this.requestId = requestId;
+      this.proposal = proposal;
+      this.spec = spec;
+      this.earliestArrivalTime = earliestArrivalTime;
+    }
+  }
+
+  /**
+   * An offer to move a reservation earlier, which waits for the reply of the
+   * vehicle.
+   */
+  private static class ReplacementOffer {
+    /** The VIN of the vehicle */
+    private final int vin;
+    /** The reservation ID of the offered reservation */
+    private final int reservationId;
+    /** The reservation ID of the reservation to be replaced */
+    private final int replacedReservationId;
+    /** The proposal of the offered reservation */
+    private final Request.Proposal proposal;
+    /** The plan of the offered reservation */
+    private final ReservationGridManager.Plan gridPlan;
+
+    /**
+     * Create an offer to move a reservation earlier.
+     *
+     * @param vin                    the VIN of the vehicle
+     * @param reservationId          the reservation ID of the offered
+     *                               reservation
+     * @param replacedReservationId  the reservation ID of the reservation to
+     *                               be replaced
+     * @param proposal               the proposal of the offered reservation
+     * @param gridPlan               the plan of the offered reservation
+     */
+    private ReplacementOffer(int vin, int reservationId,
+                             int replacedReservationId,
+                             Request.Proposal proposal,
+                             ReservationGridManager.Plan gridPlan) {
+      this.vin = vin;
+      this.reservationId = reservationId;
+      this.replacedReservationId = replacedReservationId;
+      this.proposal = proposal;
+      this.gridPlan = gridPlan;
+    }
+  }
+
 
   /////////////////////////////////
   // PUBLIC STATIC METHODS
@@ -128,10 +258,12 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
       return new ProposalFilterResult(Reject.Reason.NO_CLEAR_PATH);
     }*/
 
-    System.out.println("New proposals: ");
-    ProposalFilterResult current = new ProposalFilterResult(myProposals);
-    System.out.println(current.getProposals().get(0).getArrivalLaneID() + " to " + current.getProposals().get(0).getDepartureLaneID());
-    System.out.println();
+    if (Debug.IS_PRINT_SIMULATOR_STATUS) {
+      System.out.println("New proposals: ");
+      ProposalFilterResult current = new ProposalFilterResult(myProposals);
+      System.out.println(current.getProposals().get(0).getArrivalLaneID() + " to " + current.getProposals().get(0).getDepartureLaneID());
+      System.out.println();
+    }
 
 
 
@@ -173,42 +305,50 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
     for (Iterator<Request.Proposal> tpIter = proposals.listIterator();
          tpIter.hasNext(); ) {
       Request.Proposal prop = tpIter.next();
+      AutoDriverOnlySimulator.LanePriorities lanePriorities =
+        AutoDriverOnlySimulator.getLanePriorities();
+      HashMap<Integer, Double> ArrivalLaneIDsWeightedPriorities =
+        lanePriorities.getArrivalLaneIDsWeightedPriorities();
+      HashMap<Integer, Double> DepartureLaneIDsWeightedPriorities =
+        lanePriorities.getDepartureLaneIDsWeightedPriorities();
+      HashMap<Integer, Double> CongestionWeightedPriorities =
+        lanePriorities.getCongestionWeightedPriorities();
 
       System.out.println("Arrival Lane Weighted Priorities: ");
 
-      AutoDriverOnlySimulator.ArrivalLaneIDsWeightedPriorities.entrySet().forEach(entry -> {
+      ArrivalLaneIDsWeightedPriorities.entrySet().forEach(entry -> {
         System.out.println(entry.getKey() + " " + entry.getValue());
       });
 
       System.out.println("Departure Lane Weighted Priorities: ");
 
-      AutoDriverOnlySimulator.DepartureLaneIDsWeightedPriorities.entrySet().forEach(entry -> {
+      DepartureLaneIDsWeightedPriorities.entrySet().forEach(entry -> {
         System.out.println(entry.getKey() + " " + entry.getValue());
       });
       System.out.println();
 
       System.out.println("Congestion Lane Weighted Priorities: ");
 
-      AutoDriverOnlySimulator.CongestionWeightedPriorities.entrySet().forEach(entry -> {
+      CongestionWeightedPriorities.entrySet().forEach(entry -> {
         System.out.println(entry.getKey() + " " + entry.getValue());
       });
       System.out.println();
 
 
-      double maxArrivalPriority = maxUsingIteration(AutoDriverOnlySimulator.ArrivalLaneIDsWeightedPriorities);
-      double maxDeparturePriority = maxUsingIteration(AutoDriverOnlySimulator.DepartureLaneIDsWeightedPriorities);
-      double maxCongestionPriority = maxUsingIteration(AutoDriverOnlySimulator.CongestionWeightedPriorities);
+      double maxArrivalPriority = maxUsingIteration(ArrivalLaneIDsWeightedPriorities);
+      double maxDeparturePriority = maxUsingIteration(DepartureLaneIDsWeightedPriorities);
+      double maxCongestionPriority = maxUsingIteration(CongestionWeightedPriorities);
 
 
-      if ((maxArrivalPriority - (AutoDriverOnlySimulator.ArrivalLaneIDsWeightedPriorities.get(prop.getArrivalLaneID())) > 0.2) && (maxDeparturePriority - (AutoDriverOnlySimulator.DepartureLaneIDsWeightedPriorities.get(prop.getDepartureLaneID())) > 0.2)) {
+      if ((maxArrivalPriority - (ArrivalLaneIDsWeightedPriorities.get(prop.getArrivalLaneID())) > 0.2) && (maxDeparturePriority - (DepartureLaneIDsWeightedPriorities.get(prop.getDepartureLaneID())) > 0.2)) {
         System.out.println("Rejected");
         tpIter.remove();
       }
 
-      int total_vehicles = AutoDriverOnlySimulator.VehicleCountTotal;
+      int total_vehicles = lanePriorities.getVehicleCountTotal();
 
       if(total_vehicles > 30) {
-        if (((maxCongestionPriority - (AutoDriverOnlySimulator.CongestionWeightedPriorities.get(prop.getArrivalLaneID()))) > 0.2) && ((maxCongestionPriority - (AutoDriverOnlySimulator.CongestionWeightedPriorities.get(prop.getDepartureLaneID()))) < 0.2)) {
+        if (((maxCongestionPriority - (CongestionWeightedPriorities.get(prop.getArrivalLaneID()))) > 0.2) && ((maxCongestionPriority - (CongestionWeightedPriorities.get(prop.getDepartureLaneID()))) < 0.2)) {
           System.out.println("Rejected");
           tpIter.remove();
         }
@@ -283,6 +423,78 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
    */
   private StatCollector<BasePolicy> statCollector;
 
+  /**
+   * The engine that queries the proposals of a request at the same time;
+   * null if the proposals are queried one after another.
+   */
+  private ParallelStepEngine proposalEngine;
+
+  /**
+   * The latencies of {@link #findReserveParam(Request, List)} when the
+   * proposals are queried one after another.
+   */
+  private final LatencyHistogram sequentialLatencies = new LatencyHistogram();
+
+  /**
+   * The latencies of {@link #findReserveParam(Request, List)} when the
+   * proposals are queried at the same time.
+   */
+  private final LatencyHistogram speculativeLatencies =
+    new LatencyHistogram();
+
+  /**
+   * The stages a proposal goes through before it is granted.
+   */
+  private final AdmissionFilter admissionFilter;
+
+  /**
+   * Whether the reject messages carry counter-offers.
+   */
+  private final boolean isCounterOfferEnabled;
+
+  /**
+   * A mapping from VIN numbers to the counter-offer of the latest request
+   * that could not be granted.
+   */
+  private Map<Integer, Request.Proposal> vinToCounterOffer =
+          new HashMap<Integer, Request.Proposal>();
+
+  /**
+   * The maximum number of reservations that are tried to be moved earlier
+   * in each time step; zero if the reservations are never moved.
+   */
+  private final int compactionsPerStep;
+
+  /**
+   * A mapping from VIN numbers to the confirmed reservations that may be
+   * moved earlier.
+   */
+  private Map<Integer, MovableReservation> vinToMovableReservation =
+          new HashMap<Integer, MovableReservation>();
+
+  /**
+   * A mapping from reservation IDs to the offers that wait for the replies
+   * of the vehicles.
+   */
+  private Map<Integer, ReplacementOffer> reservationIdToOffer =
+          new HashMap<Integer, ReplacementOffer>();
+
+  /**
+   * A mapping from VIN numbers to the offers that wait for the replies of
+   * the vehicles.
+   */
+  private Map<Integer, ReplacementOffer> vinToOffer =
+          new HashMap<Integer, ReplacementOffer>();
+
+  /**
+   * The cancelled reservations after which the later reservations in the
+   * same arrival lanes are to be moved earlier.  Each element is a pair of
+   * the arrival lane ID and the arrival time after which the reservations
+   * are considered.
+   */
+  private Deque<double[]> compactionQueue = new ArrayDeque<double[]>();
+
+
 
   /////////////////////////////////
   // CLASS CONSTRUCTORS
@@ -315,6 +527,16 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
     this.im = im;
     this.statCollector = statCollector;
     setRequestHandler(requestHandler);
+    int numOfProposalThreads =
+      im.getReservationGridManager().getConfig().getNumOfProposalThreads();
+    if (numOfProposalThreads > 1) {
+      this.proposalEngine = new ParallelStepEngine(numOfProposalThreads);
+    }
+    this.admissionFilter = new AdmissionFilter();
+    this.isCounterOfferEnabled =
+      im.getReservationGridManager().getConfig().isCounterOfferEnabled();
+    this.compactionsPerStep =
+      im.getReservationGridManager().getConfig().getCompactionsPerStep();
   }
 
 
@@ -349,6 +571,38 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
     requestHandler.setPolicyCallback(this);
   }
 
+  /**
+   * Get the latencies of finding the reservation parameters of the requests
+   * whose proposals are queried one after another, which are all requests
+   * with a single proposal and all requests if the proposals are not
+   * queried at the same time.
+   *
+   * @return the latencies of the sequential queries
+   */
+  public LatencyHistogram getSequentialLatencies() {
+    return sequentialLatencies;
+  }
+
+  /**
+   * Get the latencies of finding the reservation parameters of the requests
+   * whose proposals are queried at the same time.
+   *
+   * @return the latencies of the speculative queries
+   */
+  public LatencyHistogram getSpeculativeLatencies() {
+    return speculativeLatencies;
+  }
+
+  /**
+   * Get the admission filter, which counts the proposals rejected by each
+   * stage.
+   *
+   * @return the admission filter
+   */
+  public AdmissionFilter getAdmissionFilter() {
+    return admissionFilter;
+  }
+
 
   /////////////////////////////////
   // PUBLIC METHODS
@@ -360,6 +614,9 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
   @Override
   public void act(double timeStep) {
     requestHandler.act(timeStep);
+    if (compactionsPerStep > 0) {
+      compactReservations();
+    }
     if (statCollector != null) statCollector.collect(this);
   }
 
@@ -374,18 +631,25 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
   @Override
   public void sendConfirmMsg(int latestRequestId,
                              ReserveParam reserveParam) {
+    boolean isConfirmed = trySendConfirmMsg(latestRequestId, reserveParam);
+    assert isConfirmed;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean trySendConfirmMsg(int latestRequestId,
+                                   ReserveParam reserveParam) {
     int vin = reserveParam.getVin();
 
     // make sure that there is no other confirm message is in effect
     // when the request handler sends the confirm message.
     assert !vinToReservationId.containsKey(vin);
     // actually make the reservation
-    Integer gridTicket =
-            im.getReservationGridManager().accept(reserveParam.getGridPlan());
-    Integer aczTicket =
-            reserveParam.getAczManager().accept(reserveParam.getAczPlan());
-    assert gridTicket == vin;
-    assert aczTicket == vin;
+    if (!claimReservation(reserveParam)) {
+      return false;
+    }
 
     // send the confirm message
     int reservationId = reservationRecordRegistry.getNewId();
@@ -411,12 +675,29 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
                     reserveParam.getSuccessfulProposal().getDepartureLaneID());
     reservationRecordRegistry.set(reservationId, r);
     vinToReservationId.put(vin, reservationId);
+    if (compactionsPerStep > 0 && reserveParam.getSpec() != null
+        && !isProxyVehicle(vin)) {
+      // the first proposal of a request is the earliest arrival the vehicle
+      // thinks it can make.
+      Request.Proposal firstProposal = getCurrentState().get(vin);
+      double arrivalTime =
+        reserveParam.getSuccessfulProposal().getArrivalTime();
+      if (firstProposal != null) {
+        arrivalTime = Math.min(arrivalTime, firstProposal.getArrivalTime());
+      }
+      vinToMovableReservation.put(vin,
+        new MovableReservation(reservationId, latestRequestId,
+                               reserveParam.getSuccessfulProposal(),
+                               reserveParam.getSpec(),
+                               arrivalTime));
+    }
 
     // debug
     if (Debug.isTargetVIN(vin)) {
       System.err.printf("workinglist = %s\n",
               reserveParam.getGridPlan().getWorkingList());
     }
+    return true;
   }
 
   /**
@@ -424,12 +705,14 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
    */
   @Override
   public void sendRejectMsg(int vin, int latestRequestId, Reject.Reason reason) {
+    Request.Proposal counterOffer = vinToCounterOffer.remove(vin);
     im.sendI2VMessage(new Reject(im.getId(),
             vin,
             latestRequestId,
             im.getCurrentTime(), // can re-send request
             // immediately
-            reason));
+            reason,
+            (reason == Reject.Reason.NO_CLEAR_PATH) ? counterOffer : null));
   }
 
   /**
@@ -440,19 +723,146 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
                                        List<Request.Proposal> proposals) {
     int vin = msg.getVin();
 
-    CurrentState.put(vin, proposals.get(0));
+    getCurrentState().put(vin, proposals.get(0));
+
+    long startTime = System.nanoTime();
+    ReserveParam reserveParam;
+    if (proposalEngine == null || proposals.size() <= 1) {
+      // Okay, now let's actually try some of these proposals
+      reserveParam = null;
+      for (Request.Proposal proposal : proposals) {
+        reserveParam = tryProposal(msg, proposal);
+        if (reserveParam != null) {
+          break;  // reservation succeeds!
+        }
+      }
+      sequentialLatencies.record(System.nanoTime() - startTime);
+    } else {
+      reserveParam = tryProposalsSpeculatively(msg, proposals);
+      speculativeLatencies.record(System.nanoTime() - startTime);
+    }
+    if (isCounterOfferEnabled) {
+      vinToCounterOffer.remove(vin);
+      if (reserveParam == null) {
+        Request.Proposal counterOffer = findCounterOffer(msg, proposals);
+        if (counterOffer != null) {
+          vinToCounterOffer.put(vin, counterOffer);
+        }
+      }
+    }
+    return reserveParam;
+  }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ReserveParam[] findReserveParams(
+                                      final List<Request> msgs,
+                                      final List<Request.Proposal> proposals) {
+    for(int i = 0; i < msgs.size(); i++) {
+      getCurrentState().put(msgs.get(i).getVin(), proposals.get(i));
+    }
+    final ReserveParam[] reserveParams = new ReserveParam[proposals.size()];
+    ParallelStepEngine.Stage stage = new ParallelStepEngine.Stage() {
+      @Override
+      public void run(int from, int to) {
+        for(int i = from; i < to; i++) {
+          reserveParams[i] = tryProposal(msgs.get(i), proposals.get(i));
+        }
+      }
+    };
+    if (proposalEngine == null) {
+      stage.run(0, proposals.size());
+    } else {
+      proposalEngine.run(proposals.size(), 1, stage);
+    }
+    return reserveParams;
+  }
 
+  /**
+   * Claim the time-tiles and the space in the admission control zone of a
+   * reservation.  Each claim checks for room and takes it in one step, and
+   * the time-tiles are released if the admission control zone cannot admit
+   * the vehicle, so either both claims are made or neither is.  The
+   * footprint of a plan does not depend on the other reservations, so a
+   * plan found earlier can be claimed as long as its time-tiles are free.
+   *
+   * @param reserveParam  the reservation parameters
+   * @return whether the reservation has been made
+   */
+  private boolean claimReservation(ReserveParam reserveParam) {
+    ReservationGridManager gridManager = im.getReservationGridManager();
+    Integer gridTicket = gridManager.tryAccept(reserveParam.getGridPlan());
+    if (gridTicket == null) {
+      return false;
+    }
+    Integer aczTicket =
+      reserveParam.getAczManager().tryAccept(reserveParam.getAczPlan());
+    if (aczTicket == null) {
+      gridManager.cancel(gridTicket);
+      return false;
+    }
+    assert gridTicket == reserveParam.getVin();
+    assert aczTicket == reserveParam.getVin();
+    return true;
+  }
 
-    // Okay, now let's actually try some of these proposals
-    Request.Proposal successfulProposal = null;
-    ReservationGridManager.Plan gridPlan = null;
-    AczManager aczManager = null;
-    AczManager.Plan aczPlan = null;
+  /**
+   * Try all proposals of a request at the same time, and pick the first
+   * proposal that succeeds in the order of the proposals.  The queries do
+   * not change the reservation grid or the admission control zones, so the
+   * result is the same as trying the proposals one after another.
+   *
+   * @param msg        the request message
+   * @param proposals  the list of proposals
+   * @return the reservation parameters of the first successful proposal;
+   *         null if none of the proposals succeeds
+   */
+  private ReserveParam tryProposalsSpeculatively(
+                                      final Request msg,
+                                      final List<Request.Proposal> proposals) {
+    final ReserveParam[] reserveParams = new ReserveParam[proposals.size()];
+    proposalEngine.run(proposals.size(), 1, new ParallelStepEngine.Stage() {
+      @Override
+      public void run(int from, int to) {
+        for(int i = from; i < to; i++) {
+          reserveParams[i] = tryProposal(msg, proposals.get(i));
+        }
+      }
+    });
+    for(ReserveParam reserveParam : reserveParams) {
+      if (reserveParam != null) {
+        return reserveParam;
+      }
+    }
+    return null;
+  }
 
+  /**
+   * Find the counter-offer of a request whose proposals are all rejected.
+   * The counter-offer is the rejected proposal that can arrive the earliest
+   * if it is moved forward in time until its time-tiles are free, by at most
+   * {@link #MAX_COUNTER_OFFER_DELAY} seconds.  The
+   * admission control zones are not checked, since the vehicle has to
+   * request the counter-offer before it is granted anyway.
+   *
+   * @param msg        the request message
+   * @param proposals  the rejected proposals
+   * @return the counter-offer; null if none of the proposals can be moved
+   *         to a later arrival time with free time-tiles
+   */
+  private Request.Proposal findCounterOffer(Request msg,
+                                            List<Request.Proposal> proposals) {
+    double latestArrivalTime =
+      im.getCurrentTime() + V2IManager.MAXIMUM_FUTURE_RESERVATION_TIME;
+    Request.Proposal counterOffer = null;
     for (Request.Proposal proposal : proposals) {
+      if (im.getAczManager(proposal.getDepartureLaneID()) == null) {
+        continue;
+      }
       ReservationGridManager.Query gridQuery =
-              new ReservationGridManager.Query(vin,
+              new ReservationGridManager.Query(msg.getVin(),
                       proposal.getArrivalTime(),
                       proposal.getArrivalVelocity(),
                       proposal.getArrivalLaneID(),
@@ -460,43 +870,86 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
                       msg.getSpec(),
                       proposal.getMaximumTurnVelocity(),
                       true);
-      gridPlan = im.getReservationGridManager().query(gridQuery);
-      if (gridPlan != null) {
-        double stopDist =
-                VehicleUtil.calcDistanceToStop(gridPlan.getExitVelocity(),
-                        msg.getSpec().getMaxDeceleration());
-
-        aczManager = im.getAczManager(proposal.getDepartureLaneID());
-        if (aczManager == null) {
-          System.err.printf("FCFSPolicy::processRequestMsg(): " +
-                  "aczManager should not be null.\n");
-          System.err.printf("proposal.getDepartureLaneID() = %d\n",
-                  proposal.getDepartureLaneID());
-          aczPlan = null;
-        } else {
-          AczManager.Query aczQuery =
-                  new AczManager.Query(vin,
-                          gridPlan.getExitTime(),
-                          gridPlan.getExitVelocity(),
-                          msg.getSpec().getLength(),
-                          stopDist);
-          aczPlan = aczManager.query(aczQuery);
-          if (aczPlan != null) {
-            successfulProposal = proposal;  // reservation succeeds!
-            break;
-          }
-        }
+      double arrivalTime =
+        im.getReservationGridManager().findEarliestArrivalTime(
+          gridQuery,
+          Math.min(proposal.getArrivalTime() + MAX_COUNTER_OFFER_DELAY,
+                   (counterOffer == null) ? latestArrivalTime
+                                          : counterOffer.getArrivalTime()));
+      // the proposal is not rejected because of the reservation grid if
+      // its own time-tiles are free.
+      if (arrivalTime > proposal.getArrivalTime()
+          && (counterOffer == null
+              || arrivalTime < counterOffer.getArrivalTime())) {
+        counterOffer =
+          new Request.Proposal(proposal.getArrivalLaneID(),
+                               proposal.getDepartureLaneID(),
+                               arrivalTime,
+                               proposal.getArrivalVelocity(),
+                               proposal.getMaximumTurnVelocity());
       }
     }
+    return counterOffer;
+  }
 
-    if (successfulProposal != null) {
-      return new ReserveParam(vin, successfulProposal, gridPlan, aczManager,
-              aczPlan);
-    } else {
+  /**
+   * Query the reservation grid and the admission control zone for a
+   * proposal without making any reservation.
+   *
+   * @param msg       the request message
+   * @param proposal  the proposal
+   * @return the reservation parameters if the proposal can be accepted;
+   *         null otherwise
+   */
+  private ReserveParam tryProposal(Request msg, Request.Proposal proposal) {
+    int vin = msg.getVin();
+    AczManager aczManager = im.getAczManager(proposal.getDepartureLaneID());
+    if (aczManager == null) {
+      System.err.printf("FCFSPolicy::processRequestMsg(): " +
+              "aczManager should not be null.\n");
+      System.err.printf("proposal.getDepartureLaneID() = %d\n",
+              proposal.getDepartureLaneID());
       return null;
     }
+    if (admissionFilter.screen(vin, msg.getSpec().getLength(), proposal,
+                               aczManager) != null) {
+      return null;
+    }
+    ReservationGridManager.Query gridQuery =
+            new ReservationGridManager.Query(vin,
+                    proposal.getArrivalTime(),
+                    proposal.getArrivalVelocity(),
+                    proposal.getArrivalLaneID(),
+                    proposal.getDepartureLaneID(),
+                    msg.getSpec(),
+                    proposal.getMaximumTurnVelocity(),
+                    true);
+    ReservationGridManager.Plan gridPlan =
+      im.getReservationGridManager().query(gridQuery);
+    if (gridPlan == null) {
+      admissionFilter.reject(AdmissionFilter.Stage.FOOTPRINT);
+      return null;
+    }
+    double stopDist =
+            VehicleUtil.calcDistanceToStop(gridPlan.getExitVelocity(),
+                    msg.getSpec().getMaxDeceleration());
+
+    AczManager.Query aczQuery =
+            new AczManager.Query(vin,
+                    gridPlan.getExitTime(),
+                    gridPlan.getExitVelocity(),
+                    msg.getSpec().getLength(),
+                    stopDist);
+    AczManager.Plan aczPlan = aczManager.query(aczQuery);
+    if (aczPlan == null) {
+      admissionFilter.reject(AdmissionFilter.Stage.ACZ_STOP_DISTANCE);
+      return null;
+    }
+    return new ReserveParam(vin, proposal, gridPlan, aczManager, aczPlan,
+                            msg.getSpec());
   }
 
+
   /**
    * {@inheritDoc}
    */
@@ -522,6 +975,244 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
   }
 
 
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Remember that the later reservations in the arrival lane of a cancelled
+   * reservation may be moved earlier.
+   *
+   * @param vin  the VIN of the vehicle whose reservation is cancelled
+   */
+  private void addToCompactionQueue(int vin) {
+    MovableReservation cancelled = vinToMovableReservation.get(vin);
+    if (cancelled != null) {
+      compactionQueue.addLast(
+        new double[] { cancelled.proposal.getArrivalLaneID(),
+                       cancelled.proposal.getArrivalTime() });
+    }
+  }
+
+  /**
+   * Try to move the reservations after the cancelled reservations earlier.
+   * The reservations in the arrival lane of a cancelled reservation are
+   * tried in the order of their arrival times, and the vehicles keep their
+   * order in the lane.  At most {@link #compactionsPerStep} reservations are
+   * tried in each call; the rest are tried in the next time step.
+   */
+  private void compactReservations() {
+    int budget = compactionsPerStep;
+    while(budget > 0 && !compactionQueue.isEmpty()) {
+      double[] cancelled = compactionQueue.peekFirst();
+      int laneId = (int) cancelled[0];
+      // find the next reservation in the lane and the one in front of it
+      int vin = -1;
+      MovableReservation next = null;
+      double frontArrivalTime = Double.NEGATIVE_INFINITY;
+      for(Map.Entry<Integer, MovableReservation> entry :
+            vinToMovableReservation.entrySet()) {
+        Request.Proposal p = entry.getValue().proposal;
+        if (p.getArrivalLaneID() == laneId) {
+          if (p.getArrivalTime() > cancelled[1]) {
+            if (next == null
+                || p.getArrivalTime() < next.proposal.getArrivalTime()) {
+              vin = entry.getKey();
+              next = entry.getValue();
+            }
+          } else {
+            frontArrivalTime = Math.max(frontArrivalTime, p.getArrivalTime());
+          }
+        }
+      }
+      if (next == null) {
+        compactionQueue.removeFirst();
+        continue;
+      }
+      cancelled[1] = next.proposal.getArrivalTime();
+      if (!vinToOffer.containsKey(vin)) {
+        budget--;
+        if (tryMoveEarlier(vin, next, frontArrivalTime)) {
+          compactionQueue.removeFirst();
+        }
+      }
+    }
+  }
+
+  /**
+   * Try to move a reservation earlier.  If there is an earlier arrival time
+   * at which the trajectory of the vehicle is free, the time-tiles are held
+   * and the vehicle is offered the new reservation.
+   *
+   * @param vin               the VIN of the vehicle
+   * @param reservation       the reservation of the vehicle
+   * @param frontArrivalTime  the arrival time of the vehicle in front of it
+   *                          in the same lane
+   * @return whether the vehicle is offered a new reservation
+   */
+  private boolean tryMoveEarlier(int vin, MovableReservation reservation,
+                                 double frontArrivalTime) {
+    Request.Proposal proposal = reservation.proposal;
+    double earliestArrivalTime =
+      Math.max(Math.max(im.getCurrentTime() + MIN_COMPACTION_LEAD_TIME,
+                        reservation.earliestArrivalTime),
+               frontArrivalTime + im.getReservationGrid().getGridTimeStep());
+    if (earliestArrivalTime > proposal.getArrivalTime() - MIN_COMPACTION_GAIN) {
+      return false;
+    }
+    ReservationGridManager.Query gridQuery =
+            new ReservationGridManager.Query(vin,
+                    proposal.getArrivalTime(),
+                    proposal.getArrivalVelocity(),
+                    proposal.getArrivalLaneID(),
+                    proposal.getDepartureLaneID(),
+                    reservation.spec,
+                    proposal.getMaximumTurnVelocity(),
+                    true);
+    double arrivalTime =
+      im.getReservationGridManager().findEarlierArrivalTime(
+        gridQuery, earliestArrivalTime);
+    if (arrivalTime < 0.0
+        || arrivalTime > proposal.getArrivalTime() - MIN_COMPACTION_GAIN) {
+      return false;
+    }
+    Request.Proposal newProposal =
+      new Request.Proposal(proposal.getArrivalLaneID(),
+                           proposal.getDepartureLaneID(),
+                           arrivalTime,
+                           proposal.getArrivalVelocity(),
+                           proposal.getMaximumTurnVelocity());
+    ReservationGridManager.Plan gridPlan =
+      im.getReservationGridManager().queryReplacement(
+        new ReservationGridManager.Query(vin,
+                arrivalTime,
+                proposal.getArrivalVelocity(),
+                proposal.getArrivalLaneID(),
+                proposal.getDepartureLaneID(),
+                reservation.spec,
+                proposal.getMaximumTurnVelocity(),
+                true));
+    if (gridPlan == null) {
+      return false;
+    }
+    // hold the time-tiles until the vehicle replies; the time-tiles that
+    // overlap the current reservation are already held by the vehicle.
+    ReservationGrid grid = im.getReservationGrid();
+    List<ReservationArray.TimeTile> heldTimeTiles =
+      new ArrayList<ReservationArray.TimeTile>();
+    for(ReservationArray.TimeTile tt :
+          gridPlan.getTimeTileMasks().toTimeTiles()) {
+      if (grid.getReservationId(tt.getDiscreteTime(), tt.getTileId()) != vin) {
+        heldTimeTiles.add(tt);
+      }
+    }
+    boolean b = grid.reserve(HELD_RESERVATION_ID_BASE + vin, heldTimeTiles);
+    assert b;
+    int reservationId = reservationRecordRegistry.getNewId();
+    ReplacementOffer offer =
+      new ReplacementOffer(vin, reservationId, reservation.reservationId,
+                           newProposal, gridPlan);
+    reservationIdToOffer.put(reservationId, offer);
+    vinToOffer.put(vin, offer);
+    im.sendI2VMessage(
+      new Confirm(im.getId(),
+                  vin,
+                  reservationId,
+                  reservation.requestId,
+                  arrivalTime,
+                  EARLY_ERROR, LATE_ERROR,
+                  newProposal.getArrivalVelocity(),
+                  newProposal.getArrivalLaneID(),
+                  newProposal.getDepartureLaneID(),
+                  im.getACZ(newProposal.getDepartureLaneID()).getMaxSize(),
+                  gridPlan.getAccelerationProfile(),
+                  reservation.reservationId));
+    return true;
+  }
+
+  /**
+   * Replace the reservation of a vehicle with the reservation of an offer
+   * that the vehicle accepts.  The vehicle stays admitted in the admission
+   * control zone.
+   *
+   * @param offer  the offer
+   */
+  private void acceptOffer(ReplacementOffer offer) {
+    int vin = offer.vin;
+    reservationIdToOffer.remove(offer.reservationId);
+    vinToOffer.remove(vin);
+    // the replaced reservation is alive as long as the offer is pending
+    ReservationRecord r =
+      reservationRecordRegistry.get(offer.replacedReservationId);
+    assert r != null;
+    addToCompactionQueue(vin);
+    ReservationGridManager gridManager = im.getReservationGridManager();
+    gridManager.cancel(vin);
+    gridManager.cancel(HELD_RESERVATION_ID_BASE + vin);
+    gridManager.accept(offer.gridPlan);
+    reservationRecordRegistry.setNull(offer.replacedReservationId);
+    reservationRecordRegistry.set(offer.reservationId, r);
+    vinToReservationId.put(vin, offer.reservationId);
+    MovableReservation reservation = vinToMovableReservation.get(vin);
+    if (reservation != null) {
+      vinToMovableReservation.put(vin,
+        new MovableReservation(offer.reservationId, reservation.requestId,
+                               offer.proposal, reservation.spec,
+                               reservation.earliestArrivalTime));
+    }
+  }
+
+  /**
+   * Release the time-tiles held for an offer that the vehicle declines or
+   * that is withdrawn.
+   *
+   * @param offer  the offer
+   */
+  private void declineOffer(ReplacementOffer offer) {
+    reservationIdToOffer.remove(offer.reservationId);
+    vinToOffer.remove(offer.vin);
+    im.getReservationGridManager().cancel(HELD_RESERVATION_ID_BASE + offer.vin);
+    reservationRecordRegistry.setNull(offer.reservationId);
+  }
+
+  /**
+   * Withdraw the pending offer of a vehicle, if any.
+   *
+   * @param vin  the VIN of the vehicle
+   */
+  private void withdrawOffer(int vin) {
+    ReplacementOffer offer = vinToOffer.get(vin);
+    if (offer != null) {
+      declineOffer(offer);
+    }
+  }
+
+  /**
+   * Accept the pending offer of a reservation that a vehicle refers to.  A
+   * vehicle refers to an offered reservation only after it has accepted the
+   * offer, so the reply must have been lost.
+   *
+   * @param reservationId  the reservation ID in a message of the vehicle
+   */
+  private void acceptOfferReferredTo(int reservationId) {
+    ReplacementOffer offer = reservationIdToOffer.get(reservationId);
+    if (offer != null) {
+      acceptOffer(offer);
+    }
+  }
+
+  /**
+   * Whether a VIN is registered for a proxy vehicle.  The reservations of
+   * the proxy vehicles are never moved, since the UDP messages of the real
+   * vehicles cannot carry the offers.
+   *
+   * @param vin  the VIN
+   * @return whether the VIN is registered for a proxy vehicle
+   */
+  private static boolean isProxyVehicle(int vin) {
+    return VinRegistry.getVehicleFromVIN(vin) instanceof ProxyVehicleSimView;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -541,6 +1232,8 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
       processDoneMsg((Done) msg);
     } else if (msg instanceof Away) {
       processAwayMsg((Away) msg);
+    } else if (msg instanceof ReplacementReply) {
+      processReplacementReplyMsg((ReplacementReply) msg);
     } else {
       throw new RuntimeException("Unhandled message type: " + msg);
     }
@@ -561,6 +1254,7 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
    * @param msg the cancel message
    */
   public void processCancelMsg(Cancel msg) {
+    acceptOfferReferredTo(msg.getReservationID());
     ReservationRecord r = reservationRecordRegistry.get(msg.getReservationID());
     if (r != null) {
       int vin = r.getVin();    // don't use the VIN in msg in case
@@ -570,12 +1264,16 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
                 "The VIN of the message is different from the VIN " +
                 "on the record.\n");
       }
+      // the offer to replace the cancelled reservation is void
+      withdrawOffer(vin);
+      addToCompactionQueue(vin);
       // release the resources
       im.getReservationGridManager().cancel(vin);
       im.getAczManager(r.getAczLaneId()).cancel(vin);
       // remove the reservation record
       reservationRecordRegistry.setNull(msg.getReservationID());
       vinToReservationId.remove(vin);
+      vinToMovableReservation.remove(vin);
     } else {
       System.err.printf("BasePolicy::processCancelMsg(): " +
               "record not found\n");
@@ -583,12 +1281,37 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
   }
 
 
+  /**
+   * Submit a reply to an offer to move a reservation earlier to the policy.
+   *
+   * @param msg the reply
+   */
+  public void processReplacementReplyMsg(ReplacementReply msg) {
+    ReplacementOffer offer = reservationIdToOffer.get(msg.getReservationID());
+    if (offer == null) {
+      // the offer has been withdrawn since the replaced reservation ended
+      return;
+    }
+    if (offer.vin != msg.getVin()) {
+      System.err.printf("BasePolicy::processReplacementReplyMsg(): " +
+              "The VIN of the message is different from the VIN " +
+              "of the offer.\n");
+    }
+    if (msg.isAccepted()) {
+      acceptOffer(offer);
+    } else {
+      declineOffer(offer);
+    }
+  }
+
+
   /**
    * Submit a done message to the policy.
    *
    * @param msg the done message
    */
   public void processDoneMsg(Done msg) {
+    acceptOfferReferredTo(msg.getReservationID());
     ReservationRecord r = reservationRecordRegistry.get(msg.getReservationID());
     if (r != null) {
       int vin = r.getVin();   // don't use the VIN in msg.
@@ -597,8 +1320,10 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
                 "The VIN of the message is different from the VIN " +
                 "on the record.\n");
       }
-      // do nothing with the done message since the reservation grid is
-      // automatically cleaned.
+      // the vehicle has crossed the intersection, so the reservation can
+      // no longer be moved.  The reservation grid is automatically cleaned.
+      withdrawOffer(vin);
+      vinToMovableReservation.remove(vin);
     } else {
       System.err.printf("BasePolicy::processDoneMsg(): " +
               "record not found");
@@ -612,6 +1337,7 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
    * @param msg the away message
    */
   public void processAwayMsg(Away msg) {
+    acceptOfferReferredTo(msg.getReservationID());
     ReservationRecord r = reservationRecordRegistry.get(msg.getReservationID());
     if (r != null) {
       int vin = r.getVin();  // don't use the VIN in msg.
@@ -620,11 +1346,13 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
                 "The VIN of the message is different from the VIN " +
                 "on the record.\n");
       }
+      withdrawOffer(vin);
       // clear the reservation in ACZ.
       im.getACZ(r.getAczLaneId()).away(vin);
       // remove the reservation record
       reservationRecordRegistry.setNull(msg.getReservationID());
       vinToReservationId.remove(vin);
+      vinToMovableReservation.remove(vin);
     } else {
       System.err.printf("BasePolicy::processAwayMsg(): record not found");
     }
@@ -645,6 +1373,20 @@ public final class BasePolicy implements Policy, BasePolicyCallback {
     return statCollector;
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The proposals of the requests processed afterwards are queried one
+   * after another.
+   */
+  @Override
+  public void shutdown() {
+    if (proposalEngine != null) {
+      proposalEngine.shutdown();
+      proposalEngine = null;
+    }
+  }
+
   // TODO: remove this function later.
 
   /**
@@ -73,4 +73,10 @@ public interface Policy {
    */
   StatCollector<?> getStatCollector();
 
+  /**
+   * Stop the worker threads of the policy, if any.  The policy should not
+   * process any message afterwards.
+   */
+  void shutdown();
+
 }
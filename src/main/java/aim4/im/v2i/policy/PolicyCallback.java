@@ -69,6 +69,34 @@ public interface PolicyCallback {
      */
     ReserveParam findReserveParam(Request msg, List<Request.Proposal> proposals);
 
+    /**
+     * Compute the reservation parameters of a list of proposals, each of
+     * which is tried on its own.  No reservation is made, so every proposal
+     * is checked against the reservations made before the call, and the
+     * proposals may be checked at the same time.
+     *
+     * @param msgs      the request messages of the proposals
+     * @param proposals the proposals
+     * @return the reservation parameters of the proposals; an element is
+     *         null if the reservation of the proposal is infeasible.
+     */
+    ReserveParam[] findReserveParams(List<Request> msgs,
+                                     List<Request.Proposal> proposals);
+
+    /**
+     * Make a reservation found earlier and send a confirm message if the
+     * time-tiles and the space in the admission control zone of the
+     * reservation are still free, given the reservations made since the
+     * reservation was found.  Both are claimed atomically, so a reservation
+     * can be made while other threads are making reservations.
+     *
+     * @param latestRequestId the latest request id of the vehicle
+     * @param reserveParam    the reservation parameter
+     * @return whether the reservation has been made; if not, nothing is
+     *         reserved and no message is sent
+     */
+    boolean trySendConfirmMsg(int latestRequestId, ReserveParam reserveParam);
+
     /**
      * Get the current time
      *
@@ -53,8 +53,6 @@ import aim4.sim.StatCollector;
 import aim4.util.HashMapRegistry;
 import aim4.util.Registry;
 import aim4.vehicle.VehicleUtil;
-//import org.slf4j.Logger;
-//import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
@@ -62,7 +60,6 @@ import java.util.*;
  * The base policy.
  */
 public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, PolicyCallback {
-    //private static Logger logger = LoggerFactory.getLogger(PriorityBasedPolicy.class);
 
     /////////////////////////////////
     // CONSTANTS
@@ -80,10 +77,134 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
     private static final double LATE_ERROR = 0.01;
 
 
+    /**
+     * The distance added to the reservation distance of the closest request
+     * in a lane when the priority of the lane is computed, so that a request
+     * that is about to arrive does not get an infinite priority.
+     * {@value} meters.
+     */
+    private static final double MIN_RESERVATION_DISTANCE = 0.1;
+
+
     /////////////////////////////////
     // NESTED CLASSES
     /////////////////////////////////
 
+    /**
+     * A request waiting to be processed.
+     */
+    private static final class PendingRequest {
+        /**
+         * The request message
+         */
+        private final Request msg;
+        /**
+         * The distance the vehicle travels before it arrives at the
+         * intersection, according to the first proposal
+         */
+        private final double reservationDistance;
+
+        /**
+         * Create a pending request.
+         *
+         * @param msg                 the request message
+         * @param reservationDistance the reservation distance
+         */
+        private PendingRequest(Request msg, double reservationDistance) {
+            this.msg = msg;
+            this.reservationDistance = reservationDistance;
+        }
+    }
+
+    /**
+     * The order of the requests in a lane: the closest request first and
+     * the smallest VIN if the distances are the same.
+     */
+    private static final Comparator<PendingRequest> CLOSEST_FIRST =
+            new Comparator<PendingRequest>() {
+                @Override
+                public int compare(PendingRequest r1, PendingRequest r2) {
+                    int c = Double.compare(r1.reservationDistance,
+                            r2.reservationDistance);
+                    if (c != 0) {
+                        return c;
+                    }
+                    return Integer.compare(r1.msg.getVin(), r2.msg.getVin());
+                }
+            };
+
+    /**
+     * The requests waiting in a lane.
+     * <p>
+     * The priority of a lane is the total priority of its requests divided
+     * by the reservation distance of its closest request, and it doubles in
+     * every round the lane loses.  Since the priorities of all the waiting
+     * lanes double together, the aging is applied lazily: the key of a lane
+     * is the logarithm of its priority minus the number of the rounds before
+     * the lane started waiting, which does not change while the lane waits.
+     */
+    private static final class LaneQueue {
+        /**
+         * The ID of the lane
+         */
+        private final int laneId;
+        /**
+         * The requests in the lane
+         */
+        private final PriorityQueue<PendingRequest> requests =
+                new PriorityQueue<PendingRequest>(11, CLOSEST_FIRST);
+        /**
+         * The total priority of the requests in the lane
+         */
+        private long totalPriority = 0;
+        /**
+         * The round at which the lane started waiting
+         */
+        private int waitingSince = 0;
+        /**
+         * The key of the lane in the lane heap
+         */
+        private double key;
+        /**
+         * The position of the lane in the lane heap; -1 if the lane is not
+         * in the heap
+         */
+        private int heapIndex = -1;
+
+        /**
+         * Create a queue of requests for a lane.
+         *
+         * @param laneId the ID of the lane
+         */
+        private LaneQueue(int laneId) {
+            this.laneId = laneId;
+        }
+
+        /**
+         * Compute the key of the lane from its closest request.
+         */
+        private void updateKey() {
+            double distance =
+                    Math.max(requests.peek().reservationDistance, 0.0);
+            key = Math.log(Math.max(totalPriority, 1L))
+                    - waitingSince * Math.log(2.0)
+                    - Math.log(distance + MIN_RESERVATION_DISTANCE);
+        }
+
+        /**
+         * Whether the lane should be chosen before another lane.
+         *
+         * @param other the other lane
+         * @return whether the lane should be chosen before the other lane
+         */
+        private boolean isBefore(LaneQueue other) {
+            if (key != other.key) {
+                return key > other.key;
+            }
+            return laneId < other.laneId;
+        }
+    }
+
 
     /////////////////////////////////
     // PUBLIC STATIC METHODS
@@ -195,15 +316,29 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
 
 
     /**
-     * A mapping from laneid to VINs in this lane
+     * A mapping from lane IDs to the requests waiting in the lanes
      */
-    private HashMap<Integer, HashSet<Integer>> laneIdToVins = new HashMap<Integer, HashSet<Integer>>();
+    private Map<Integer, LaneQueue> laneIdToQueue =
+            new HashMap<Integer, LaneQueue>();
 
     /**
-     * A mapping from VIN to its V2IMessage.
+     * A mapping from VINs to their waiting requests.
      * assume every VIN has only one message at one time
      */
-    private HashMap<Integer, Request> vinToMessage = new HashMap<Integer, Request>();
+    private Map<Integer, PendingRequest> vinToPendingRequest =
+            new HashMap<Integer, PendingRequest>();
+
+    /**
+     * The lanes with waiting requests, ordered as a binary heap with the
+     * lane to be chosen next at the root
+     */
+    private LaneQueue[] laneHeap = new LaneQueue[0];
+
+    /**
+     * The number of lanes in the lane heap
+     */
+    private int laneHeapSize = 0;
+
     /////////////////////////////////
     // CLASS CONSTRUCTORS
     /////////////////////////////////
@@ -237,8 +372,9 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
         setRequestHandler(requestHandler);
 
         for (Lane lane : this.im.getIntersection().getLanes()) {
-            this.laneIdToVins.put(lane.getId(), new HashSet<Integer>());
+            this.laneIdToQueue.put(lane.getId(), new LaneQueue(lane.getId()));
         }
+        this.laneHeap = new LaneQueue[laneIdToQueue.size()];
     }
 
 
@@ -298,16 +434,25 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
     @Override
     public void sendConfirmMsg(int latestRequestId,
                                ReserveParam reserveParam) {
+        boolean isConfirmed = trySendConfirmMsg(latestRequestId, reserveParam);
+        assert isConfirmed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean trySendConfirmMsg(int latestRequestId,
+                                     ReserveParam reserveParam) {
         int vin = reserveParam.getVin();
 
         // make sure that there is no other confirm message is in effect
         // when the request handler sends the confirm message.
         assert !vinToReservationId.containsKey(vin);
         // actually make the reservation
-        Integer gridTicket = im.getReservationGridManager().accept(reserveParam.getGridPlan());
-        Integer aczTicket = reserveParam.getAczManager().accept(reserveParam.getAczPlan());
-        assert gridTicket == vin;
-        assert aczTicket == vin;
+        if (!claimReservation(reserveParam)) {
+            return false;
+        }
 
         // send the confirm message
         int reservationId = reservationRecordRegistry.getNewId();
@@ -336,6 +481,7 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
             System.err.printf("workinglist = %s\n",
                     reserveParam.getGridPlan().getWorkingList());
         }
+        return true;
     }
 
     /**
@@ -413,6 +559,47 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReserveParam[] findReserveParams(List<Request> msgs,
+                                            List<Proposal> proposals) {
+        ReserveParam[] reserveParams = new ReserveParam[proposals.size()];
+        for (int i = 0; i < proposals.size(); i++) {
+            reserveParams[i] =
+                    findReserveParam(msgs.get(i),
+                            Collections.singletonList(proposals.get(i)));
+        }
+        return reserveParams;
+    }
+
+    /**
+     * Claim the time-tiles and the space in the admission control zone of a
+     * reservation.  The time-tiles are released if the admission control
+     * zone cannot admit the vehicle, so either both claims are made or
+     * neither is.
+     *
+     * @param reserveParam the reservation parameters
+     * @return whether the reservation has been made
+     */
+    private boolean claimReservation(ReserveParam reserveParam) {
+        ReservationGridManager gridManager = im.getReservationGridManager();
+        Integer gridTicket = gridManager.tryAccept(reserveParam.getGridPlan());
+        if (gridTicket == null) {
+            return false;
+        }
+        Integer aczTicket = reserveParam.getAczManager()
+                .tryAccept(reserveParam.getAczPlan());
+        if (aczTicket == null) {
+            gridManager.cancel(gridTicket);
+            return false;
+        }
+        assert gridTicket == reserveParam.getVin();
+        assert aczTicket == reserveParam.getVin();
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -450,11 +637,7 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
     @Override
     public void processV2IMessage(V2IMessage msg) {
         if (msg instanceof Request) {
-            List<Proposal> proposals = ((Request) msg).getProposals();
-            assert !proposals.isEmpty();
-            int laneId = proposals.get(0).getArrivalLaneID();
-            laneIdToVins.get(laneId).add(msg.getVin());
-            vinToMessage.put(msg.getVin(), (Request) msg);
+            addPendingRequest((Request) msg);
         } else if (msg instanceof Cancel) {
             processCancelMsg((Cancel) msg);
         } else if (msg instanceof Done) {
@@ -467,118 +650,114 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
     }
 
     /**
-     * This is where priority comes into play:
+     * This is where priority comes into play: the waiting requests are
+     * processed one at a time, each time from the lane with the highest
+     * priority.
      */
     public void processV2IMessageDone() {
-        // in case no message yet
-//        if (vinToMessage.isEmpty() || laneIdToVins.isEmpty()) {
-//            System.out.println("\nvinToMessage.isEmpty() || laneIdToVins.isEmpty()\n");
-//            return;
-//        }
-        while (!vinToMessage.isEmpty()) {
-            // store closest vin in each lane
-            List<Integer> closestVinInLane = new ArrayList<Integer>();
-            // store each lane's priority
-            List<Double> lanePriority = new ArrayList<Double>();
-            for (int i = 0; i < laneIdToVins.size(); ++i) {
-                closestVinInLane.add(-1);
-
-                if(i==1){
-                    lanePriority.add(10000000.0);
-
-                }
-                else
-                    lanePriority.add(-1000000.0);
-
+        for (LaneQueue lane : laneIdToQueue.values()) {
+            if (!lane.requests.isEmpty()) {
+                lane.waitingSince = 0;
+                lane.updateKey();
+                lane.heapIndex = laneHeapSize;
+                laneHeap[laneHeapSize++] = lane;
             }
+        }
+        for (int i = laneHeapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
 
-            // find closest vin in each lane
-            for (Integer laneId : laneIdToVins.keySet()) {
-                if (laneIdToVins.get(laneId).isEmpty()) {
-                    // in case no vin in this lane
-                    continue;
-                }
-
-                // closest vin in this lane
-                int closestVin = -1;
-                // and its distance
-                double closestDistance = 1e9;
-
-                for (Integer vin : laneIdToVins.get(laneId)) {
-                    Request msg = vinToMessage.get(vin);
-                    if (msg == null) {
-                        // in case..should never arrive here
-                        continue;
-                    }
-                    // get distance from one of its proposal
-                    Proposal proposal = msg.getProposals().get(0);
-                    double reservationDistance = (proposal.getArrivalTime() - getCurrentTime()) * proposal.getArrivalVelocity();
-                    if (reservationDistance < closestDistance) {
-                        closestDistance = reservationDistance;
-                        closestVin = vin;
-                    }
-                    // accumulate the lane priority
-                    lanePriority.set(laneId, lanePriority.get(laneId)); //+ msg.getPriority());
-                }
-                lanePriority.set(laneId, lanePriority.get(laneId) );/// (closestDistance + 0.1));
-                closestVinInLane.set(laneId, closestVin);
-            }
-
-            System.out.println("lane_priority: {}"+ lanePriority);
-
-
-            // logger.debug("lane_priority: {}", lanePriority);
-
-            int theVin = -1;
-            int theLaneId = -1;
-            Request theMessage = null;
-            double highestPriority = -1.0;
-
-           System.out.println("laneIds: " + laneIdToVins.size());
-            for (int laneId = 0; laneId < laneIdToVins.size(); ++laneId) {
-                if (lanePriority.get(laneId) > highestPriority) {
-                    highestPriority = lanePriority.get(laneId);
-                    theLaneId = laneId;
-                    theVin = closestVinInLane.get(laneId);
-                    theMessage = vinToMessage.get(theVin);
-                }
+        int round = 0;
+        while (laneHeapSize > 0) {
+            LaneQueue lane = laneHeap[0];
+            PendingRequest request = lane.requests.poll();
+            lane.totalPriority -= request.msg.getPriority();
+            round++;
+            if (Debug.PRINT_PRIORITY_ARBITRATION) {
+                System.err.printf("round %d: lane %d (key %.4f) chosen, " +
+                                "msg = %s\n",
+                        round, lane.laneId, lane.key, request.msg);
             }
-
-            for (Integer vin : closestVinInLane) {
-                if (vin == -1) {
-                    continue;
-                }
-                Request msg = vinToMessage.get(vin);
-                if (msg != theMessage) {
-                    msg.setPriority(msg.getPriority() << 1);
-                    vinToMessage.put(vin, msg);
-                }
+            if (lane.requests.isEmpty()) {
+                removeTopLane();
+            } else {
+                // the lane starts waiting again from this round
+                lane.waitingSince = round;
+                lane.updateKey();
+                siftDown(0);
             }
+            vinToPendingRequest.remove(request.msg.getVin());
+            requestHandler.processRequestMsg(request.msg);
+        }
+        assert vinToPendingRequest.isEmpty();
+    }
 
-            System.out.println("laneIdToVins: {}" + laneIdToVins);
-            System.out.println("vinToMessage: {}" + vinToMessage);
-            System.out.println("theMessage: {}"+ theMessage);
-
-
-            // logger.debug("laneIdToVins: {}", laneIdToVins);
-           // logger.debug("vinToMessage: {}", vinToMessage);
-           // logger.debug("theMessage: {}", theMessage);
-
-            assert theMessage != null;
-            requestHandler.processRequestMsg(theMessage);
-            laneIdToVins.get(theLaneId).remove(theVin);
-            vinToMessage.remove(theVin);
+    /**
+     * Add a request to the queue of the arrival lane of its first proposal.
+     * A request replaces the waiting request of the same vehicle.
+     *
+     * @param msg the request message
+     */
+    private void addPendingRequest(Request msg) {
+        List<Proposal> proposals = msg.getProposals();
+        assert !proposals.isEmpty();
+        Proposal proposal = proposals.get(0);
+        PendingRequest oldRequest = vinToPendingRequest.get(msg.getVin());
+        if (oldRequest != null) {
+            LaneQueue oldLane = laneIdToQueue.get(
+                    oldRequest.msg.getProposals().get(0).getArrivalLaneID());
+            oldLane.requests.remove(oldRequest);
+            oldLane.totalPriority -= oldRequest.msg.getPriority();
         }
-        cleanUp();
+        double reservationDistance =
+                (proposal.getArrivalTime() - getCurrentTime())
+                        * proposal.getArrivalVelocity();
+        PendingRequest request = new PendingRequest(msg, reservationDistance);
+        LaneQueue lane = laneIdToQueue.get(proposal.getArrivalLaneID());
+        lane.requests.add(request);
+        lane.totalPriority += msg.getPriority();
+        vinToPendingRequest.put(msg.getVin(), request);
     }
 
-    private void cleanUp() {
-        laneIdToVins = new HashMap<Integer, HashSet<Integer>>();
-        vinToMessage = new HashMap<Integer, Request>();
+    /**
+     * Remove the lane at the root of the lane heap.
+     */
+    private void removeTopLane() {
+        laneHeap[0].heapIndex = -1;
+        laneHeapSize--;
+        if (laneHeapSize > 0) {
+            laneHeap[0] = laneHeap[laneHeapSize];
+            laneHeap[0].heapIndex = 0;
+            siftDown(0);
+        }
+        laneHeap[laneHeapSize] = null;
+    }
 
-        for (Lane lane : this.im.getIntersection().getLanes()) {
-            this.laneIdToVins.put(lane.getId(), new HashSet<Integer>());
+    /**
+     * Move a lane down the lane heap until it is before its children.
+     *
+     * @param i the position of the lane in the lane heap
+     */
+    private void siftDown(int i) {
+        LaneQueue lane = laneHeap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= laneHeapSize) {
+                break;
+            }
+            if (child + 1 < laneHeapSize
+                    && laneHeap[child + 1].isBefore(laneHeap[child])) {
+                child++;
+            }
+            if (!laneHeap[child].isBefore(lane)) {
+                break;
+            }
+            laneHeap[i] = laneHeap[child];
+            laneHeap[i].heapIndex = i;
+            i = child;
         }
+        laneHeap[i] = lane;
+        lane.heapIndex = i;
     }
 
     /**
@@ -671,6 +850,14 @@ public final class PriorityBasedPolicy implements Policy, BasePolicyCallback, Po
         return statCollector;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        // do nothing
+    }
+
     // TODO: remove this function later.
 
     /**
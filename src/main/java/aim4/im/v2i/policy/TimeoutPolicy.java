@@ -30,6 +30,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package aim4.im.v2i.policy;
 
+import aim4.config.SimConfig;
 import aim4.im.Intersection;
 import aim4.im.TrackModel;
 import aim4.im.v2i.V2IManager;
@@ -44,10 +45,7 @@ import aim4.msg.i2v.Reject;
 import aim4.msg.v2i.Request;
 import aim4.msg.v2i.V2IMessage;
 import aim4.sim.StatCollector;
-
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import aim4.util.TimerWheel;
 
 
 /**
@@ -116,12 +114,12 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
   private TimeoutPolicyType timeoutPolicyType = TimeoutPolicyType.MAINTAIN;
 
   /**
-   * A map that keeps a record of the timeouts for each vehicle.  It maps
-   * the VIN number of the vehicle to the next time at which that vehicle
-   * is allowed to communicate with the V2IManager.
+   * The timeouts of the vehicles.  The timer of a vehicle, keyed by its
+   * VIN, expires at the next time at which the vehicle is allowed to
+   * communicate with the V2IManager, so that only the expiring timeouts are
+   * visited at every time step.
    */
-  private Map<Integer, Double> timeouts =
-          new LinkedHashMap<Integer, Double>();
+  private TimerWheel<Integer> timeouts;
 
 
   /////////////////////////////////
@@ -138,6 +136,8 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
   public TimeoutPolicy(V2IManager im, Policy policy) {
     this.im = im;
     this.policy = policy;
+    this.timeouts =
+      new TimerWheel<Integer>(SimConfig.TIME_STEP, im.getCurrentTime());
     policy.setV2IManagerCallback(this);
   }
 
@@ -171,7 +171,7 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
       // replace the nextComm
       Reject rejectMsg = (Reject) msg;
       double nextComm = im.getCurrentTime() + timeoutLength;
-      timeouts.put(msg.getVin(), nextComm);
+      timeouts.schedule(msg.getVin(), nextComm);
       im.sendI2VMessage(new Reject(rejectMsg.getImId(),
               rejectMsg.getVin(),
               rejectMsg.getRequestId(),
@@ -249,11 +249,7 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
     // let policy.act() runs first (but can also runs second)
     policy.act(timeStep);
     // Clean out timeouts before the current time
-    for (Iterator<Double> iter = timeouts.values().iterator(); iter.hasNext(); ) {
-      if (iter.next() <= im.getCurrentTime()) {
-        iter.remove();
-      }
-    }
+    timeouts.expire(im.getCurrentTime());
   }
 
 
@@ -266,10 +262,10 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
   public void processV2IMessage(V2IMessage msg) {
     if (msg instanceof Request) {
       // check to see if the request message within the timeout period.
-      if (timeouts.containsKey(msg.getVin())) {
+      if (timeouts.contains(msg.getVin())) {
         // reject the message and increase the timeout
         double nextComm = calcTimeOut(msg.getVin());
-        timeouts.put(msg.getVin(), nextComm);
+        timeouts.schedule(msg.getVin(), nextComm);
         sendI2VMessage(new Reject(im.getId(),
                 msg.getVin(),
                 ((Request) msg).getRequestId(),
@@ -288,7 +284,7 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
    * After process V2I messages
    */
   public void processV2IMessageDone(){
-
+    policy.processV2IMessageDone();
   }
 
   /////////////////////////////////
@@ -302,7 +298,7 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
    * @return the timeout
    */
   private double calcTimeOut(int vin) {
-    double nextComm = timeouts.get(vin); // must exist
+    double nextComm = timeouts.getTime(vin); // must exist
 
     switch (timeoutPolicyType) {
       case MAINTAIN:
@@ -332,6 +328,14 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
     return policy.getStatCollector();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void shutdown() {
+    policy.shutdown();
+  }
+
 
   /**
    * {@inheritDoc}
@@ -28,6 +28,10 @@ public class ReserveParam {
      * The ACZ plan
      */
     private AczManager.Plan aczPlan;
+    /**
+     * The specification of the vehicle; null if it is unknown
+     */
+    private Request.VehicleSpecForRequestMsg spec;
 
     /**
      * Create a reservation parameter record.
@@ -47,6 +51,24 @@ public class ReserveParam {
         this.aczPlan = aczPlan;
     }
 
+    /**
+     * Create a reservation parameter record with the specification of the
+     * vehicle.
+     *
+     * @param vin                the VIN of vehicle
+     * @param successfulProposal the successful proposal
+     * @param gridPlan           the reservation plan
+     * @param aczManager         the ACZ manager
+     * @param aczPlan            the ACZ plan
+     * @param spec               the specification of the vehicle
+     */
+    public ReserveParam(int vin, Request.Proposal successfulProposal, ReservationGridManager.Plan gridPlan,
+                        AczManager aczManager, AczManager.Plan aczPlan,
+                        Request.VehicleSpecForRequestMsg spec) {
+        this(vin, successfulProposal, gridPlan, aczManager, aczPlan);
+        this.spec = spec;
+    }
+
     /**
      * Get the VIN of the vehicle
      */
@@ -81,5 +103,12 @@ public class ReserveParam {
     public AczManager.Plan getAczPlan() {
         return aczPlan;
     }
+
+    /**
+     * Get the specification of the vehicle; null if it is unknown
+     */
+    public Request.VehicleSpecForRequestMsg getSpec() {
+        return spec;
+    }
 }
 
@@ -223,6 +223,21 @@ public class AczManager implements
     return plan.getVin();
   }
 
+  /**
+   * Accept a plan if the admission control zone can still admit the
+   * vehicle.  The check and the admission are done atomically.
+   *
+   * @param plan  the plan
+   * @return the VIN of the vehicle; null if the vehicle cannot be admitted
+   */
+  public Integer tryAccept(Plan plan) {
+    if (acz.tryAdmit(plan.getVin(), plan.getLength(), plan.getStopDist())) {
+      return plan.getVin();
+    } else {
+      return null;
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
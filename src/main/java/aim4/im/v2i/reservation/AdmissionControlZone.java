@@ -30,14 +30,17 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package aim4.im.v2i.reservation;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is a data structure to manage the admission control zone,
  * the area after an intersection in one lane.  It essentially holds
  * a limited length's worth of vehicles and will only admit vehicles
- * if there is enough room.
+ * if there is enough room.  The space is claimed atomically, so vehicles
+ * can be admitted by several threads at the same time with
+ * {@link #tryAdmit(int, double, double)}.
  */
 public class AdmissionControlZone {
 
@@ -55,15 +58,19 @@ public class AdmissionControlZone {
   private double maxSize;
 
 
-  /** The currently occupied length of the zone. */
-  private double currentSize = 0.0;
+  /**
+   * The bits of the currently occupied length of the zone, as given by
+   * {@link Double#doubleToLongBits(double)}.
+   */
+  private final AtomicLong currentSizeBits =
+    new AtomicLong(Double.doubleToLongBits(0.0));
 
   /**
    * A <code>Map</code> from the VIN number of the vehicle to the
    * length of the vehicle thus the stopping distance.
    */
   private Map<Integer, Double> vinToReservationLength =
-    new HashMap<Integer, Double>();
+    new ConcurrentHashMap<Integer, Double>();
 
   /////////////////////////////////
   // CLASS CONSTRUCTORS
@@ -100,7 +107,7 @@ public class AdmissionControlZone {
    * @return the current size of the admission control zone.
    */
   public double getCurrentSize() {
-    return currentSize;
+    return Double.longBitsToDouble(currentSizeBits.get());
   }
 
   /**
@@ -117,12 +124,44 @@ public class AdmissionControlZone {
   public boolean isAdmissible(int vin, double vehicleLength,
                               double stoppingDistance) {
     if (!vinToReservationLength.containsKey(vin)) {
-      return (currentSize + vehicleLength + stoppingDistance <= maxSize);
+      return (getCurrentSize() + vehicleLength + stoppingDistance <= maxSize);
     } else {
       return false;
     }
   }
 
+  /**
+   * Reserve space for a vehicle to enter this admission control zone if
+   * the vehicle is admissible.  The check and the reservation are done
+   * atomically.
+   *
+   * @param vin              the VIN number of the vehicle to try to add
+   * @param vehicleLength    the length of the vehicle to try to add
+   * @param stoppingDistance the distance it will take the vehicle to
+   *                         stop if it begins decelerating as soon as
+   *                         it enters the admission control zone
+   * @return whether or not the vehicle has been added
+   */
+  public boolean tryAdmit(int vin, double vehicleLength,
+                          double stoppingDistance) {
+    double reservationLength = vehicleLength + MIN_DIST_BETWEEN_VEHICLES;
+    if (vinToReservationLength.putIfAbsent(vin, reservationLength) != null) {
+      return false;
+    }
+    while(true) {
+      long bits = currentSizeBits.get();
+      double size = Double.longBitsToDouble(bits);
+      if (size + vehicleLength + stoppingDistance > maxSize) {
+        vinToReservationLength.remove(vin);
+        return false;
+      }
+      if (currentSizeBits.compareAndSet(
+            bits, Double.doubleToLongBits(size + reservationLength))) {
+        return true;
+      }
+    }
+  }
+
   /**
    * Reserve space for a vehicle to enter this admission control zone.
    *
@@ -135,11 +174,10 @@ public class AdmissionControlZone {
   public void admit(int vin, double vehicleLength, double stoppingDistance) {
     // If this vehicle is already scheduled to be admitted, we must be
     // extra careful
-    if (!vinToReservationLength.containsKey(vin)) {
-      assert (currentSize + vehicleLength + stoppingDistance <= maxSize);
-      double reservationLength = vehicleLength + MIN_DIST_BETWEEN_VEHICLES;
-      currentSize += reservationLength;
-      vinToReservationLength.put(vin, reservationLength);
+    double reservationLength = vehicleLength + MIN_DIST_BETWEEN_VEHICLES;
+    if (vinToReservationLength.putIfAbsent(vin, reservationLength) == null) {
+      assert (getCurrentSize() + vehicleLength + stoppingDistance <= maxSize);
+      addToCurrentSize(reservationLength);
     } else {
       throw new RuntimeException("Error in ACZ: admitting vehicle " + vin +
                                  " already not exists in ACZ.");
@@ -153,8 +191,9 @@ public class AdmissionControlZone {
    * @param vin the ID number of the vehicle canceling
    */
   public void cancel(int vin) {
-    if (vinToReservationLength.containsKey(vin)) {
-      currentSize -= vinToReservationLength.remove(vin);
+    Double reservationLength = vinToReservationLength.remove(vin);
+    if (reservationLength != null) {
+      addToCurrentSize(-reservationLength);
     } else {
       throw new RuntimeException("Error in ACZ: canceling vehicle " + vin +
                                  " does not exist in ACZ.");
@@ -168,12 +207,32 @@ public class AdmissionControlZone {
    * @param vin the ID number of the vehicle to remove
    */
   public void away(int vin) {
-    if (vinToReservationLength.containsKey(vin)) {
-      currentSize -= vinToReservationLength.remove(vin);
+    Double reservationLength = vinToReservationLength.remove(vin);
+    if (reservationLength != null) {
+      addToCurrentSize(-reservationLength);
     } else {
       throw new RuntimeException("Error in ACZ: departing vehicle " + vin +
                                  " does not exist in ACZ.");
     }
   }
 
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Atomically add a length to the currently occupied length of the zone.
+   *
+   * @param length  the length to add; negative to remove space
+   */
+  private void addToCurrentSize(double length) {
+    while(true) {
+      long bits = currentSizeBits.get();
+      double size = Double.longBitsToDouble(bits) + length;
+      if (currentSizeBits.compareAndSet(bits, Double.doubleToLongBits(size))) {
+        return;
+      }
+    }
+  }
+
 }
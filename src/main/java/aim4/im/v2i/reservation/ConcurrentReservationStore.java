@@ -0,0 +1,631 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread-safe reservation store with the same layout as
+ * {@link RingBufferReservationStore}: a circular buffer of dense grids
+ * covering a bounded horizon.  Every time-tile is claimed by a
+ * compare-and-set of its cell from free to the reservation ID, so several
+ * threads can make reservations at the same time.  If a cell of a
+ * footprint has been claimed by another reservation, the cells claimed so
+ * far are released and the reservation fails as a whole.
+ * <p>
+ * Reservations and cancellations share a read lock and only contend on the
+ * cells they touch; the clean up takes the write lock, since it recycles
+ * the slots of the buffer.  The queries take no lock and see the cells as
+ * they are, so a query that races with a reservation may miss it; the
+ * reservation itself is never lost.  A reservation ID should be reserved
+ * and cancelled by one thread at a time.
+ */
+class ConcurrentReservationStore implements ReservationStore {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The time-tiles of a reservation.
+   */
+  private static class Record {
+    /** The discrete times of the time-tiles */
+    int[] dts = new int[16];
+    /** The tile IDs of the time-tiles */
+    int[] tids = new int[16];
+    /** The number of time-tiles */
+    int size = 0;
+    /** The last discrete time of the time-tiles */
+    volatile int lastDt = -1;
+
+    /**
+     * Add a time-tile to the reservation.
+     *
+     * @param dt   the discrete time
+     * @param tid  the tile ID
+     */
+    void add(int dt, int tid) {
+      if (size == dts.length) {
+        dts = Arrays.copyOf(dts, 2 * size);
+        tids = Arrays.copyOf(tids, 2 * size);
+      }
+      dts[size] = dt;
+      tids[size] = tid;
+      size++;
+      if (dt > lastDt) {
+        lastDt = dt;
+      }
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The total number of tiles.
+   */
+  private final int numOfTiles;
+
+  /**
+   * The number of discrete times in the circular buffer.
+   */
+  private final int numOfSlots;
+
+  /**
+   * The number of words in the bitmask of a grid.
+   */
+  private final int numOfWords;
+
+  /**
+   * The reservation IDs of the time-tiles; the grid of a discrete time dt
+   * starts at index (dt % numOfSlots) * numOfTiles.
+   */
+  private final AtomicIntegerArray grids;
+
+  /**
+   * The bitmasks of the reserved tiles; the bitmask of a discrete time dt
+   * starts at index (dt % numOfSlots) * numOfWords.  A bit is set after
+   * its cell is claimed and cleared before its cell is released.
+   */
+  private final AtomicLongArray occupancies;
+
+  /**
+   * The number of reserved tiles in each slot.
+   */
+  private final AtomicIntegerArray reservedCounts;
+
+  /**
+   * The reservation IDs whose last discrete time falls in each slot.
+   */
+  private final List<Queue<Integer>> expiringRids;
+
+  /**
+   * A mapping from reservation IDs to their time-tiles.
+   */
+  private final Map<Integer,Record> records;
+
+  /**
+   * The lock that keeps the clean up from recycling a slot while it is
+   * being reserved.
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * The first discrete time covered by the circular buffer.
+   */
+  private volatile int baseTime;
+
+  /**
+   * The last discrete time at which any time-tile has been reserved.
+   */
+  private final AtomicInteger lastReservedTime;
+
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a concurrent reservation store.
+   *
+   * @param numOfTiles  the number of tiles in the intersection
+   * @param numOfSlots  the number of discrete times in the circular buffer
+   */
+  public ConcurrentReservationStore(int numOfTiles, int numOfSlots) {
+    assert numOfSlots > 0;
+    this.numOfTiles = numOfTiles;
+    this.numOfSlots = numOfSlots;
+    int[] cells = new int[numOfSlots * numOfTiles];
+    Arrays.fill(cells, -1);
+    this.grids = new AtomicIntegerArray(cells);
+    this.numOfWords = TimeTileMasks.calcNumOfWords(numOfTiles);
+    this.occupancies = new AtomicLongArray(numOfSlots * numOfWords);
+    this.reservedCounts = new AtomicIntegerArray(numOfSlots);
+    this.expiringRids = new ArrayList<Queue<Integer>>(numOfSlots);
+    for(int s = 0; s < numOfSlots; s++) {
+      expiringRids.add(new ConcurrentLinkedQueue<Integer>());
+    }
+    this.records = new ConcurrentHashMap<Integer,Record>();
+    this.baseTime = 0;
+    this.lastReservedTime = new AtomicInteger(-1);
+  }
+
+
+  ///////////////////////////
+  // PUBLIC METHODS
+  ///////////////////////////
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getNumberOfTiles() {
+    return numOfTiles;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Time-tiles beyond the horizon of the circular buffer are considered
+   * reserved since they cannot be reserved.
+   */
+  @Override
+  public boolean isReserved(int dt, int tid) {
+    int base = baseTime;
+    if (dt < base) {
+      return false;
+    } else if (dt >= base + numOfSlots) {
+      return true;
+    } else {
+      return grids.get(index(dt, tid)) >= 0;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Time-tiles beyond the horizon of the circular buffer are considered
+   * reserved since they cannot be reserved.
+   */
+  @Override
+  public boolean isReserved(int dt, int firstWord, long[] words) {
+    int base = baseTime;
+    if (dt < base) {
+      return false;
+    } else if (dt >= base + numOfSlots) {
+      return words.length > 0;
+    } else {
+      int offset = slot(dt) * numOfWords + firstWord;
+      for(int j = 0; j < words.length; j++) {
+        if ((occupancies.get(offset + j) & words[j]) != 0L) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getReservationId(int dt, int tid) {
+    if (isInHorizon(dt)) {
+      return grids.get(index(dt, tid));
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean hasReservation(int rid) {
+    return records.containsKey(rid);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLastReservedDiscreteTime() {
+    int last = lastReservedTime.get();
+    if (last >= baseTime) {
+      return last;
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLastReservedDiscreteTime(int rid) {
+    Record record = records.get(rid);
+    if (record != null) {
+      return record.lastDt;
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(int rid,
+                   Collection<? extends ReservationArray.TimeTile> workingList) {
+    lock.readLock().lock();
+    try {
+      int base = baseTime;
+      for(ReservationArray.TimeTile tt : workingList) {
+        if (tt.getDiscreteTime() >= base + numOfSlots) {
+          return false; // the time-tile cannot be stored
+        }
+      }
+      Record record = getRecord(rid);
+      int oldSize = record.size;
+      int oldLastDt = record.lastDt;
+      for(ReservationArray.TimeTile tt : workingList) {
+        int dt = tt.getDiscreteTime();
+        if (dt >= base) {
+          if (!claimTimeTile(rid, record, dt, tt.getTileId())) {
+            rollBack(rid, record, oldSize, oldLastDt);
+            return false; // the time-tile has been reserved.
+          }
+        }  // else ignore timetile that is before baseTime
+      }
+      updateRecord(rid, record, oldLastDt);
+      return true;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(int rid, TimeTileMasks masks) {
+    lock.readLock().lock();
+    try {
+      int base = baseTime;
+      for(int i = 0; i < masks.getNumOfMasks(); i++) {
+        if (masks.getDiscreteTime(i) >= base + numOfSlots
+            && masks.getWords(i).length > 0) {
+          return false; // the time-tile cannot be stored
+        }
+      }
+      Record record = getRecord(rid);
+      int oldSize = record.size;
+      int oldLastDt = record.lastDt;
+      for(int i = 0; i < masks.getNumOfMasks(); i++) {
+        int dt = masks.getDiscreteTime(i);
+        if (dt >= base) {
+          long[] words = masks.getWords(i);
+          for(int j = 0; j < words.length; j++) {
+            long x = words[j];
+            while(x != 0L) {
+              int tid = ((masks.getFirstWord(i) + j) << 6)
+                        + Long.numberOfTrailingZeros(x);
+              if (!claimTimeTile(rid, record, dt, tid)) {
+                rollBack(rid, record, oldSize, oldLastDt);
+                return false; // the time-tile has been reserved.
+              }
+              x &= x - 1;
+            }
+          }
+        }  // else ignore timetile that is before baseTime
+      }
+      updateRecord(rid, record, oldLastDt);
+      return true;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean cancel(int rid) {
+    lock.readLock().lock();
+    try {
+      Record record = records.remove(rid);
+      if (record != null) {
+        releaseTimeTiles(rid, record, 0);
+        return true;
+      } else {
+        return false; // the rid is not found
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void cleanUp(int dt) {
+    lock.writeLock().lock();
+    try {
+      while(baseTime < dt) {
+        int s = slot(baseTime);
+        // clear the grid of the slot
+        if (reservedCounts.get(s) > 0) {
+          for(int i = s * numOfTiles; i < (s + 1) * numOfTiles; i++) {
+            grids.set(i, -1);
+          }
+          for(int i = s * numOfWords; i < (s + 1) * numOfWords; i++) {
+            occupancies.set(i, 0L);
+          }
+          reservedCounts.set(s, 0);
+        }
+        // remove the reservations that end at this discrete time
+        Queue<Integer> rids = expiringRids.get(s);
+        for(Integer rid = rids.poll(); rid != null; rid = rids.poll()) {
+          Record record = records.get(rid);
+          if (record != null && record.lastDt == baseTime) {
+            records.remove(rid);
+          }
+        }
+        baseTime++;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isCleanedUpEveryStep() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public List<Integer> getReservedTilesAtTime(int dt) {
+    List<Integer> tids = new LinkedList<Integer>();
+    if (isInHorizon(dt) && reservedCounts.get(slot(dt)) > 0) {
+      int offset = slot(dt) * numOfTiles;
+      for(int tid = 0; tid < numOfTiles; tid++) {
+        if (grids.get(offset + tid) >= 0) {
+          tids.add(tid);
+        }
+      }
+    }
+    return tids;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getVinOfReservedTilesAtTime(int dt) {
+    Set<Integer> rids = new HashSet<Integer>();
+    if (isInHorizon(dt) && reservedCounts.get(slot(dt)) > 0) {
+      int offset = slot(dt) * numOfTiles;
+      for(int tid = 0; tid < numOfTiles; tid++) {
+        int rid = grids.get(offset + tid);
+        if (rid >= 0) {
+          rids.add(rid);
+        }
+      }
+    }
+    return rids;
+  }
+
+
+  ///////////////////////////
+  // PRIVATE METHODS
+  ///////////////////////////
+
+  /**
+   * Whether a discrete time is covered by the circular buffer.
+   *
+   * @param dt  the discrete time
+   * @return whether the discrete time is covered by the circular buffer
+   */
+  private boolean isInHorizon(int dt) {
+    int base = baseTime;
+    return base <= dt && dt < base + numOfSlots;
+  }
+
+  /**
+   * Get the slot of a discrete time.
+   *
+   * @param dt  the discrete time
+   * @return the slot of the discrete time
+   */
+  private int slot(int dt) {
+    return dt % numOfSlots;
+  }
+
+  /**
+   * Get the index of a time-tile in the grids.
+   *
+   * @param dt   the discrete time
+   * @param tid  the tile ID
+   * @return the index of the time-tile in the grids
+   */
+  private int index(int dt, int tid) {
+    return slot(dt) * numOfTiles + tid;
+  }
+
+  /**
+   * Get the record of a reservation ID; create one if it does not exist.
+   *
+   * @param rid  the reservation ID
+   * @return the record of the reservation ID
+   */
+  private Record getRecord(int rid) {
+    Record record = records.get(rid);
+    if (record == null) {
+      record = new Record();
+      Record other = records.putIfAbsent(rid, record);
+      if (other != null) {
+        record = other;
+      }
+    }
+    return record;
+  }
+
+  /**
+   * Claim a time-tile for a reservation ID.
+   *
+   * @param rid     the reservation ID
+   * @param record  the record of the reservation ID
+   * @param dt      the discrete time
+   * @param tid     the tile ID
+   * @return whether the time-tile is free or already reserved by the
+   *         reservation ID
+   */
+  private boolean claimTimeTile(int rid, Record record, int dt, int tid) {
+    int i = index(dt, tid);
+    if (grids.compareAndSet(i, -1, rid)) {
+      setOccupancy(dt, tid, true);
+      reservedCounts.incrementAndGet(slot(dt));
+      record.add(dt, tid);
+      return true;
+    } else {
+      return grids.get(i) == rid;
+    }
+  }
+
+  /**
+   * Release the time-tiles claimed by a reservation ID after a given
+   * position of its record.
+   *
+   * @param rid     the reservation ID
+   * @param record  the record of the reservation ID
+   * @param from    the position of the first time-tile to release
+   */
+  private void releaseTimeTiles(int rid, Record record, int from) {
+    for(int k = from; k < record.size; k++) {
+      int dt = record.dts[k];
+      if (isInHorizon(dt)) {
+        int tid = record.tids[k];
+        int i = index(dt, tid);
+        if (grids.get(i) == rid) {
+          setOccupancy(dt, tid, false);
+          grids.set(i, -1);
+          reservedCounts.decrementAndGet(slot(dt));
+        }
+      }
+    }
+  }
+
+  /**
+   * Undo a reservation that failed to claim all of its time-tiles.
+   *
+   * @param rid        the reservation ID
+   * @param record     the record of the reservation ID
+   * @param oldSize    the number of time-tiles of the record before the
+   *                   reservation
+   * @param oldLastDt  the last discrete time of the record before the
+   *                   reservation
+   */
+  private void rollBack(int rid, Record record, int oldSize, int oldLastDt) {
+    releaseTimeTiles(rid, record, oldSize);
+    record.size = oldSize;
+    record.lastDt = oldLastDt;
+    if (oldSize == 0) {
+      records.remove(rid, record);
+    }
+  }
+
+  /**
+   * Set or clear the bit of a time-tile in the bitmasks.
+   *
+   * @param dt        the discrete time
+   * @param tid       the tile ID
+   * @param reserved  whether the bit is set
+   */
+  private void setOccupancy(int dt, int tid, boolean reserved) {
+    int i = slot(dt) * numOfWords + (tid >>> 6);
+    long bit = 1L << (tid & 63);
+    while(true) {
+      long word = occupancies.get(i);
+      long newWord = reserved ? (word | bit) : (word & ~bit);
+      if (occupancies.compareAndSet(i, word, newWord)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Update the bookkeeping after time-tiles have been added to a record.
+   *
+   * @param rid        the reservation ID
+   * @param record     the record of the reservation ID
+   * @param oldLastDt  the last discrete time of the record before the
+   *                   time-tiles were added
+   */
+  private void updateRecord(int rid, Record record, int oldLastDt) {
+    if (record.size == 0) {
+      records.remove(rid, record);
+    } else if (record.lastDt != oldLastDt) {
+      expiringRids.get(slot(record.lastDt)).add(rid);
+      while(true) {
+        int last = lastReservedTime.get();
+        if (record.lastDt <= last
+            || lastReservedTime.compareAndSet(last, record.lastDt)) {
+          break;
+        }
+      }
+    }
+  }
+
+}
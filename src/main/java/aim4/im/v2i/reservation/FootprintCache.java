@@ -0,0 +1,441 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import aim4.msg.v2i.Request.VehicleSpecForRequestMsg;
+
+/**
+ * A size-bounded cache of the space-time footprints found by the internal
+ * simulation of the reservation grid manager.  The footprint of a traversal
+ * depends only on the lanes, the vehicle specification, the arrival velocity,
+ * the offset of the arrival time within a grid time step and whether the
+ * vehicle accelerates; the tiles are stored relative to the discrete arrival
+ * time so that a footprint can be shifted to any arrival time.  The least
+ * recently used footprint is evicted when the cache is full.  The cache is
+ * synchronized since the proposals of a request may be evaluated at the
+ * same time.
+ */
+public class FootprintCache {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The default maximum number of footprints in the cache. {@value}
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * The default size of the bins, in meters per second, in which the arrival
+   * velocity is quantized. {@value} meters per second.
+   */
+  public static final double DEFAULT_VELOCITY_QUANTUM = 0.01;
+
+  /**
+   * The default size of the bins, in seconds, in which the offset of the
+   * arrival time within a grid time step is quantized. {@value} seconds.
+   */
+  public static final double DEFAULT_TIME_QUANTUM = 0.001;
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The key of a footprint.
+   */
+  public static class Key {
+    /** The ID of the arrival lane */
+    private final int arrivalLaneId;
+    /** The ID of the departure lane */
+    private final int departureLaneId;
+    /** The quantized arrival velocity */
+    private final long arrivalVelocityBin;
+    /** The quantized offset of the arrival time within a grid time step */
+    private final long arrivalTimeOffsetBin;
+    /** The maximum turn velocity */
+    private final double maxTurnVelocity;
+    /** Whether the acceleration is allowed */
+    private final boolean accelerating;
+    /** The fields of the vehicle specification */
+    private final double[] spec;
+    /** The hash code */
+    private final int hashCode;
+
+    /**
+     * Create a key of a footprint.
+     *
+     * @param arrivalLaneId         the ID of the arrival lane
+     * @param departureLaneId       the ID of the departure lane
+     * @param arrivalVelocityBin    the quantized arrival velocity
+     * @param arrivalTimeOffsetBin  the quantized offset of the arrival time
+     * @param maxTurnVelocity       the maximum turn velocity
+     * @param accelerating          whether the acceleration is allowed
+     * @param spec                  the vehicle specification
+     */
+    private Key(int arrivalLaneId, int departureLaneId,
+                long arrivalVelocityBin, long arrivalTimeOffsetBin,
+                double maxTurnVelocity, boolean accelerating,
+                VehicleSpecForRequestMsg spec) {
+      this.arrivalLaneId = arrivalLaneId;
+      this.departureLaneId = departureLaneId;
+      this.arrivalVelocityBin = arrivalVelocityBin;
+      this.arrivalTimeOffsetBin = arrivalTimeOffsetBin;
+      this.maxTurnVelocity = maxTurnVelocity;
+      this.accelerating = accelerating;
+      this.spec = new double[] {
+        spec.getMaxAcceleration(),
+        spec.getMaxDeceleration(),
+        spec.getMinVelocity(),
+        spec.getLength(),
+        spec.getWidth(),
+        spec.getFrontAxleDisplacement(),
+        spec.getRearAxleDisplacement(),
+        spec.getMaxSteeringAngle(),
+        spec.getMaxTurnPerSecond() };
+      this.hashCode = calcHashCode();
+    }
+
+    /**
+     * Compute the hash code of this key.
+     *
+     * @return the hash code of this key
+     */
+    private int calcHashCode() {
+      int h = arrivalLaneId;
+      h = 31 * h + departureLaneId;
+      h = 31 * h + (int)(arrivalVelocityBin ^ (arrivalVelocityBin >>> 32));
+      h = 31 * h + (int)(arrivalTimeOffsetBin ^ (arrivalTimeOffsetBin >>> 32));
+      long b = Double.doubleToLongBits(maxTurnVelocity);
+      h = 31 * h + (int)(b ^ (b >>> 32));
+      h = 31 * h + (accelerating ? 1 : 0);
+      h = 31 * h + Arrays.hashCode(spec);
+      return h;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key k = (Key)obj;
+      return hashCode == k.hashCode
+          && arrivalLaneId == k.arrivalLaneId
+          && departureLaneId == k.departureLaneId
+          && arrivalVelocityBin == k.arrivalVelocityBin
+          && arrivalTimeOffsetBin == k.arrivalTimeOffsetBin
+          && Double.doubleToLongBits(maxTurnVelocity)
+             == Double.doubleToLongBits(k.maxTurnVelocity)
+          && accelerating == k.accelerating
+          && Arrays.equals(spec, k.spec);
+    }
+  }
+
+  /**
+   * A space-time footprint relative to the discrete arrival time.
+   */
+  public static class Footprint {
+    /** The time tiles, relative to the discrete arrival time */
+    private final TimeTileMasks masks;
+    /**
+     * The discrete time offset of the last time tile added by the
+     * internal simulation
+     */
+    private final int lastTimeOffset;
+    /** The discrete time offset at which the vehicle exits */
+    private final int exitTimeOffset;
+    /** The exit velocity */
+    private final double exitVelocity;
+
+    /**
+     * Create a footprint.
+     *
+     * @param masks           the time tiles, relative to the discrete
+     *                        arrival time
+     * @param lastTimeOffset  the discrete time offset of the last time tile
+     *                        added by the internal simulation
+     * @param exitTimeOffset  the discrete time offset at which the vehicle
+     *                        exits
+     * @param exitVelocity    the exit velocity
+     */
+    public Footprint(TimeTileMasks masks, int lastTimeOffset,
+                     int exitTimeOffset, double exitVelocity) {
+      this.masks = masks;
+      this.lastTimeOffset = lastTimeOffset;
+      this.exitTimeOffset = exitTimeOffset;
+      this.exitVelocity = exitVelocity;
+    }
+
+    /**
+     * Get the time tiles, relative to the discrete arrival time.
+     *
+     * @return the time tiles
+     */
+    public TimeTileMasks getMasks() {
+      return masks;
+    }
+
+    /**
+     * Get the discrete time offset of the last time tile added by the
+     * internal simulation.
+     *
+     * @return the discrete time offset of the last time tile
+     */
+    public int getLastTimeOffset() {
+      return lastTimeOffset;
+    }
+
+    /**
+     * Get the discrete time offset at which the vehicle exits.
+     *
+     * @return the discrete time offset at which the vehicle exits
+     */
+    public int getExitTimeOffset() {
+      return exitTimeOffset;
+    }
+
+    /**
+     * Get the exit velocity.
+     *
+     * @return the exit velocity
+     */
+    public double getExitVelocity() {
+      return exitVelocity;
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The size of the bins in which the arrival velocity is quantized.
+   */
+  private final double velocityQuantum;
+
+  /**
+   * The size of the bins in which the offset of the arrival time is
+   * quantized.
+   */
+  private final double timeQuantum;
+
+  /**
+   * The footprints, in access order.
+   */
+  private final Map<Key,Footprint> footprints;
+
+  /**
+   * The number of hits.
+   */
+  private long numOfHits;
+
+  /**
+   * The number of misses.
+   */
+  private long numOfMisses;
+
+
+  /////////////////////////////////
+  // CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a footprint cache with the default quantization.
+   *
+   * @param capacity  the maximum number of footprints in the cache
+   */
+  public FootprintCache(int capacity) {
+    this(capacity, DEFAULT_VELOCITY_QUANTUM, DEFAULT_TIME_QUANTUM);
+  }
+
+  /**
+   * Create a footprint cache.
+   *
+   * @param capacity         the maximum number of footprints in the cache
+   * @param velocityQuantum  the size of the bins in which the arrival
+   *                         velocity is quantized
+   * @param timeQuantum      the size of the bins in which the offset of the
+   *                         arrival time is quantized
+   */
+  public FootprintCache(final int capacity,
+                        double velocityQuantum,
+                        double timeQuantum) {
+    assert capacity > 0;
+    this.velocityQuantum = velocityQuantum;
+    this.timeQuantum = timeQuantum;
+    this.footprints = new LinkedHashMap<Key,Footprint>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key,Footprint> eldest) {
+        return size() > capacity;
+      }
+    };
+    this.numOfHits = 0;
+    this.numOfMisses = 0;
+  }
+
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Create the key of a footprint.
+   *
+   * @param arrivalLaneId      the ID of the arrival lane
+   * @param departureLaneId    the ID of the departure lane
+   * @param arrivalVelocity    the arrival velocity
+   * @param arrivalTimeOffset  the offset of the arrival time within a grid
+   *                           time step
+   * @param maxTurnVelocity    the maximum turn velocity
+   * @param accelerating       whether the acceleration is allowed
+   * @param spec               the vehicle specification
+   * @return the key of the footprint
+   */
+  public Key makeKey(int arrivalLaneId, int departureLaneId,
+                     double arrivalVelocity, double arrivalTimeOffset,
+                     double maxTurnVelocity, boolean accelerating,
+                     VehicleSpecForRequestMsg spec) {
+    return makeKey(arrivalLaneId, departureLaneId, arrivalVelocity,
+                   arrivalTimeOffset, maxTurnVelocity, accelerating, spec,
+                   velocityQuantum, timeQuantum);
+  }
+
+  /**
+   * Create the key of a footprint with a given quantization, without a
+   * cache.
+   *
+   * @param arrivalLaneId      the ID of the arrival lane
+   * @param departureLaneId    the ID of the departure lane
+   * @param arrivalVelocity    the arrival velocity
+   * @param arrivalTimeOffset  the offset of the arrival time within a grid
+   *                           time step
+   * @param maxTurnVelocity    the maximum turn velocity
+   * @param accelerating       whether the acceleration is allowed
+   * @param spec               the vehicle specification
+   * @param velocityQuantum    the size of the bins in which the arrival
+   *                           velocity is quantized
+   * @param timeQuantum        the size of the bins in which the offset of
+   *                           the arrival time is quantized
+   * @return the key of the footprint
+   */
+  public static Key makeKey(int arrivalLaneId, int departureLaneId,
+                            double arrivalVelocity, double arrivalTimeOffset,
+                            double maxTurnVelocity, boolean accelerating,
+                            VehicleSpecForRequestMsg spec,
+                            double velocityQuantum, double timeQuantum) {
+    return new Key(arrivalLaneId, departureLaneId,
+                   Math.round(arrivalVelocity / velocityQuantum),
+                   Math.round(arrivalTimeOffset / timeQuantum),
+                   maxTurnVelocity, accelerating, spec);
+  }
+
+  /**
+   * Get the footprint of a given key.
+   *
+   * @param key  the key
+   * @return the footprint; null if the footprint is not in the cache
+   */
+  public synchronized Footprint get(Key key) {
+    Footprint footprint = footprints.get(key);
+    if (footprint != null) {
+      numOfHits++;
+    } else {
+      numOfMisses++;
+    }
+    return footprint;
+  }
+
+  /**
+   * Store the footprint of a given key.
+   *
+   * @param key        the key
+   * @param footprint  the footprint
+   */
+  public synchronized void put(Key key, Footprint footprint) {
+    footprints.put(key, footprint);
+  }
+
+  /**
+   * Remove all footprints in the cache.
+   */
+  public synchronized void clear() {
+    footprints.clear();
+  }
+
+  /**
+   * Get the number of footprints in the cache.
+   *
+   * @return the number of footprints in the cache
+   */
+  public synchronized int size() {
+    return footprints.size();
+  }
+
+  /**
+   * Get the number of hits.
+   *
+   * @return the number of hits
+   */
+  public synchronized long getNumOfHits() {
+    return numOfHits;
+  }
+
+  /**
+   * Get the number of misses.
+   *
+   * @return the number of misses
+   */
+  public synchronized long getNumOfMisses() {
+    return numOfMisses;
+  }
+
+}
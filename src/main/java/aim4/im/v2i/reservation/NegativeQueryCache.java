@@ -0,0 +1,378 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of the queries that failed because their footprints
+ * hit reserved tiles.  The reservation grid is divided into windows of a
+ * fixed number of grid time steps, and each window is stamped with a
+ * version whenever a reservation in it is removed.  Making reservations can
+ * never turn a failed query into a successful one, so a failed query fails
+ * again until one of the windows its footprint spans is stamped with a
+ * newer version.  A failure is stamped with the version read before the
+ * reservation grid is checked, and a window is stamped after its
+ * reservations are removed, so a reservation removed while another thread
+ * is checking the grid always invalidates the failure found by the check.
+ * The cache is synchronized since the proposals of a request may be
+ * evaluated at the same time.
+ */
+public class NegativeQueryCache {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The default maximum number of failed queries in the cache. {@value}
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * The default number of grid time steps in a window. {@value}
+   */
+  public static final int DEFAULT_WINDOW_SIZE = 50;
+
+  /**
+   * The number of windows whose versions are kept.  The version of a window
+   * is shared with the windows that are a multiple of this number apart,
+   * which only causes extra misses.  {@value}
+   */
+  private static final int NUM_OF_WINDOW_SLOTS = 64;
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The key of a failed query.
+   */
+  public static class Key {
+    /** The key of the footprint of the query */
+    private final FootprintCache.Key footprintKey;
+    /** The discrete arrival time */
+    private final int arrivalDiscreteTime;
+
+    /**
+     * Create the key of a failed query.
+     *
+     * @param footprintKey         the key of the footprint of the query
+     * @param arrivalDiscreteTime  the discrete arrival time
+     */
+    private Key(FootprintCache.Key footprintKey, int arrivalDiscreteTime) {
+      this.footprintKey = footprintKey;
+      this.arrivalDiscreteTime = arrivalDiscreteTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      return 31 * footprintKey.hashCode() + arrivalDiscreteTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key k = (Key)obj;
+      return arrivalDiscreteTime == k.arrivalDiscreteTime
+          && footprintKey.equals(k.footprintKey);
+    }
+  }
+
+  /**
+   * The record of a failed query.
+   */
+  private static class Failure {
+    /** The first window spanned by the footprint */
+    private final int firstWindow;
+    /** The last window spanned by the footprint */
+    private final int lastWindow;
+    /** The latest version of any window when the query started */
+    private final long version;
+
+    /**
+     * Create the record of a failed query.
+     *
+     * @param firstWindow  the first window spanned by the footprint
+     * @param lastWindow   the last window spanned by the footprint
+     * @param version      the latest version of any window when the query
+     *                     started
+     */
+    private Failure(int firstWindow, int lastWindow, long version) {
+      this.firstWindow = firstWindow;
+      this.lastWindow = lastWindow;
+      this.version = version;
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The number of grid time steps in a window.
+   */
+  private final int windowSize;
+
+  /**
+   * The versions of the windows.
+   */
+  private final long[] windowVersions = new long[NUM_OF_WINDOW_SLOTS];
+
+  /**
+   * The latest version of any window.
+   */
+  private long latestVersion;
+
+  /**
+   * The first window that is not entirely before the current time.
+   */
+  private int firstCurrentWindow;
+
+  /**
+   * The failed queries, in access order.
+   */
+  private final Map<Key,Failure> failures;
+
+  /**
+   * The number of lookups.
+   */
+  private long numOfLookups;
+
+  /**
+   * The number of hits.
+   */
+  private long numOfHits;
+
+
+  /////////////////////////////////
+  // CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a negative query cache with the default window size.
+   *
+   * @param capacity  the maximum number of failed queries in the cache
+   */
+  public NegativeQueryCache(int capacity) {
+    this(capacity, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Create a negative query cache.
+   *
+   * @param capacity    the maximum number of failed queries in the cache
+   * @param windowSize  the number of grid time steps in a window
+   */
+  public NegativeQueryCache(final int capacity, int windowSize) {
+    assert capacity > 0 && windowSize > 0;
+    this.windowSize = windowSize;
+    this.failures = new LinkedHashMap<Key,Failure>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key,Failure> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Create the key of a query.
+   *
+   * @param footprintKey         the key of the footprint of the query
+   * @param arrivalDiscreteTime  the discrete arrival time
+   * @return the key of the query
+   */
+  public Key makeKey(FootprintCache.Key footprintKey,
+                     int arrivalDiscreteTime) {
+    return new Key(footprintKey, arrivalDiscreteTime);
+  }
+
+  /**
+   * Check whether a query is known to fail.  A failed query whose windows
+   * have changed since it failed is removed from the cache.
+   *
+   * @param key  the key of the query
+   * @return whether the query is known to fail
+   */
+  public synchronized boolean isKnownFailure(Key key) {
+    numOfLookups++;
+    Failure failure = failures.get(key);
+    if (failure == null) {
+      return false;
+    }
+    int n = Math.min(failure.lastWindow - failure.firstWindow + 1,
+                     NUM_OF_WINDOW_SLOTS);
+    for(int i = 0; i < n; i++) {
+      if (windowVersions[(failure.firstWindow + i) % NUM_OF_WINDOW_SLOTS]
+          > failure.version) {
+        failures.remove(key);
+        return false;
+      }
+    }
+    numOfHits++;
+    return true;
+  }
+
+  /**
+   * Get the latest version of any window.  A query should read the version
+   * before it checks the reservation grid, and record its failure with
+   * this version.
+   *
+   * @return the latest version of any window
+   */
+  public synchronized long getVersion() {
+    return latestVersion;
+  }
+
+  /**
+   * Record a failed query.  If some windows of the footprint have been
+   * stamped since the given version, the failure may be stale, and it is
+   * dropped the next time it is looked up.
+   *
+   * @param key                the key of the query
+   * @param firstDiscreteTime  the first discrete time of the footprint
+   * @param lastDiscreteTime   the last discrete time of the footprint
+   * @param version            the version read by {@link #getVersion()}
+   *                           before the reservation grid was checked
+   */
+  public synchronized void putFailure(Key key,
+                                      int firstDiscreteTime,
+                                      int lastDiscreteTime,
+                                      long version) {
+    failures.put(key, new Failure(firstDiscreteTime / windowSize,
+                                  lastDiscreteTime / windowSize,
+                                  version));
+  }
+
+  /**
+   * Stamp the windows in which some reservations are removed with a new
+   * version.  This should be called after the reservations are removed.
+   *
+   * @param firstDiscreteTime  the first discrete time of the removed
+   *                           reservations
+   * @param lastDiscreteTime   the last discrete time of the removed
+   *                           reservations
+   */
+  public synchronized void touch(int firstDiscreteTime,
+                                 int lastDiscreteTime) {
+    touchWindows(firstDiscreteTime / windowSize,
+                 lastDiscreteTime / windowSize);
+  }
+
+  /**
+   * Stamp the windows that are entirely before the current time with a new
+   * version after the reservations before the current time are removed.
+   * No query arrives before the current time, so the failed queries are
+   * not affected.
+   *
+   * @param currentDiscreteTime  the current discrete time
+   */
+  public synchronized void cleanUp(int currentDiscreteTime) {
+    int window = currentDiscreteTime / windowSize;
+    if (window > firstCurrentWindow) {
+      touchWindows(firstCurrentWindow, window - 1);
+      firstCurrentWindow = window;
+    }
+  }
+
+  /**
+   * Remove all failed queries in the cache.
+   */
+  public synchronized void clear() {
+    failures.clear();
+  }
+
+  /**
+   * Get the number of failed queries in the cache.
+   *
+   * @return the number of failed queries in the cache
+   */
+  public synchronized int size() {
+    return failures.size();
+  }
+
+  /**
+   * Get the number of lookups.
+   *
+   * @return the number of lookups
+   */
+  public synchronized long getNumOfLookups() {
+    return numOfLookups;
+  }
+
+  /**
+   * Get the number of hits.
+   *
+   * @return the number of hits
+   */
+  public synchronized long getNumOfHits() {
+    return numOfHits;
+  }
+
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Stamp a range of windows with a new version.
+   *
+   * @param firstWindow  the first window
+   * @param lastWindow   the last window
+   */
+  private void touchWindows(int firstWindow, int lastWindow) {
+    latestVersion++;
+    int n = Math.min(lastWindow - firstWindow + 1, NUM_OF_WINDOW_SLOTS);
+    for(int i = 0; i < n; i++) {
+      windowVersions[(firstWindow + i) % NUM_OF_WINDOW_SLOTS] = latestVersion;
+    }
+  }
+
+}
@@ -31,32 +31,38 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package aim4.im.v2i.reservation;
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.NavigableMap;
-import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 
 /**
  * The Reservation Array.
  */
 public class ReservationArray {
 
-  /////////////////////////////////
-  // CONSTANTS
-  /////////////////////////////////
-
-  private static final boolean SHOULD_CHECK_CONSISTENCY = false;
-
   /////////////////////////////////
   // PUBLIC NESTED CLASSES
   /////////////////////////////////
 
+  /**
+   * The data structure in which the reservations are stored.
+   */
+  public enum Backend {
+    /**
+     * Grids and indexes kept in tree maps and hash maps.
+     */
+    TREE_MAP,
+    /**
+     * A circular buffer of dense grids covering a bounded time horizon.
+     */
+    RING_BUFFER,
+    /**
+     * A circular buffer of dense grids whose time-tiles are claimed
+     * atomically, so that several threads can make reservations at the
+     * same time.
+     */
+    CONCURRENT,
+  }
+
   /**
    * The smallest unit of space-time in the FCFS policy.  This
    * keeps track of both a ReservationTile and a discrete time,
@@ -126,26 +132,9 @@ public class ReservationArray {
   /////////////////////////////////
 
   /**
-   * The total number of tiles.
+   * The storage of the reserved time-tiles.
    */
-  private final int numOfTiles;
-
-  /**
-   * The grid table, a mapping from discrete times to grids.
-   */
-  private NavigableMap<Integer, int[]> grids;
-
-  /**
-   * A mapping from discrete times to mappings from reservation IDs to
-   * the tile IDs that is reserved by the vehicle at the time.
-   */
-  private NavigableMap<Integer,Map<Integer,Set<Integer>>> timeToRidToTid;
-
-  /**
-   * A mapping from reservation IDs to mappings from discrete times to
-   * the tile IDs that is reserved by the vehicle at the time.
-   */
-  private Map<Integer,NavigableMap<Integer,Set<Integer>>> ridToTimeToTid;
+  private final ReservationStore store;
 
 
   /////////////////////////////////
@@ -158,10 +147,33 @@ public class ReservationArray {
    * @param numOfTiles  The number of tiles in the intersection
    */
   public ReservationArray(int numOfTiles) {
-    this.numOfTiles = numOfTiles;
-    grids = new TreeMap<Integer, int[]>();
-    timeToRidToTid = new TreeMap<Integer,Map<Integer,Set<Integer>>>();
-    ridToTimeToTid = new HashMap<Integer,NavigableMap<Integer,Set<Integer>>>();
+    this(numOfTiles, Backend.TREE_MAP, 0);
+  }
+
+  /**
+   * Create a new reservation system.
+   *
+   * @param numOfTiles      The number of tiles in the intersection
+   * @param backend         the data structure in which the reservations
+   *                        are stored
+   * @param numOfTimeSlots  the number of discrete times the ring buffers
+   *                        cover; ignored by the tree map backend
+   */
+  public ReservationArray(int numOfTiles, Backend backend, int numOfTimeSlots) {
+    switch(backend) {
+    case TREE_MAP:
+      store = new TreeMapReservationStore(numOfTiles);
+      break;
+    case RING_BUFFER:
+      store = new RingBufferReservationStore(numOfTiles, numOfTimeSlots);
+      break;
+    case CONCURRENT:
+      store = new ConcurrentReservationStore(numOfTiles, numOfTimeSlots);
+      break;
+    default:
+      throw new RuntimeException("Unknown reservation array backend: " +
+                                 backend);
+    }
   }
 
 
@@ -173,7 +185,7 @@ public class ReservationArray {
    * Get the number of tiles
    */
   public int getNumberOfTiles() {
-    return numOfTiles;
+    return store.getNumberOfTiles();
   }
 
   /**
@@ -183,11 +195,56 @@ public class ReservationArray {
    * @param tid  the tile ID
    */
   public boolean isReserved(int dt, int tid) {
-    if (grids.containsKey(dt)) {
-      return grids.get(dt)[tid] >= 0;
-    } else {
-      return false;
+    return store.isReserved(dt, tid);
+  }
+
+  /**
+   * Whether any time-tile in a set of time-tiles has been reserved.
+   *
+   * @param masks  the set of time-tiles
+   * @return whether any of the time-tiles has been reserved
+   */
+  public boolean isReserved(TimeTileMasks masks) {
+    for(int i = 0; i < masks.getNumOfMasks(); i++) {
+      if (store.isReserved(masks.getDiscreteTime(i),
+                           masks.getFirstWord(i),
+                           masks.getWords(i))) {
+        return true;
+      }
     }
+    return false;
+  }
+
+  /**
+   * Whether any time-tile in a set of time-tiles has been reserved by a
+   * reservation other than the given one.
+   *
+   * @param masks  the set of time-tiles
+   * @param rid    the reservation ID whose time-tiles are ignored
+   * @return whether any of the time-tiles has been reserved by another
+   *         reservation
+   */
+  public boolean isReservedByOthers(TimeTileMasks masks, int rid) {
+    for(int i = 0; i < masks.getNumOfMasks(); i++) {
+      int dt = masks.getDiscreteTime(i);
+      long[] words = masks.getWords(i);
+      if (!store.isReserved(dt, masks.getFirstWord(i), words)) {
+        continue;
+      }
+      for(int j = 0; j < words.length; j++) {
+        long x = words[j];
+        while(x != 0L) {
+          int tid = ((masks.getFirstWord(i) + j) << 6)
+                    + Long.numberOfTrailingZeros(x);
+          int r = store.getReservationId(dt, tid);
+          if (r >= 0 && r != rid) {
+            return true;
+          }
+          x &= x - 1;
+        }
+      }
+    }
+    return false;
   }
 
   /**
@@ -198,11 +255,7 @@ public class ReservationArray {
    * @return the reservation ID; -1 if the reservation ID does not exist
    */
   public int getReservationId(int dt, int tid) {
-    if (grids.containsKey(dt)) {
-      return grids.get(dt)[tid];
-    } else {
-      return -1;
-    }
+    return store.getReservationId(dt, tid);
   }
 
   /**
@@ -212,7 +265,7 @@ public class ReservationArray {
    * @return whether the reservation ID exists
    */
   public boolean hasReservation(int rid) {
-    return ridToTimeToTid.containsKey(rid);
+    return store.hasReservation(rid);
   }
 
   /**
@@ -222,11 +275,7 @@ public class ReservationArray {
    *         -1 if there is currently no reservation.
    */
   public int getLastReservedDiscreteTime() {
-    try {
-      return grids.lastKey();
-    } catch(NoSuchElementException e) {
-      return -1;
-    }
+    return store.getLastReservedDiscreteTime();
   }
 
   /**
@@ -237,15 +286,7 @@ public class ReservationArray {
    *         less than zero if the reservation id does not exist
    */
   public int getLastReservedDiscreteTime(int rid) {
-    if (ridToTimeToTid.containsKey(rid)) {
-      try {
-        return ridToTimeToTid.get(rid).lastKey();
-      } catch(NoSuchElementException e) {
-        return -1;
-      }
-    } else {
-      return -1;
-    }
+    return store.getLastReservedDiscreteTime(rid);
   }
 
   /**
@@ -258,68 +299,20 @@ public class ReservationArray {
    * @return whether the reservation is successful
    */
   public boolean reserve(int rid, Collection<? extends TimeTile> workingList) {
-    // check to see if any time-tile is reserved in the past
-    for(TimeTile tt : workingList) {
-      int dt = tt.getDiscreteTime();
-      if (grids.containsKey(dt) && grids.get(dt)[tt.getTileId()] >= 0) {
-        return false; // the time-tile has been reserved.
-      }
-    }
-
-    // actually make the reservation
-    int timeBegin = 0;
-    try {
-      timeBegin = grids.firstKey();
-    } catch(NoSuchElementException e) {
-      // It means the grid is empty. All time-tiles are acceptable.
-    }
-
-    for(TimeTile tt : workingList) {
-      int dt = tt.getDiscreteTime();
-      int tid = tt.getTileId();
-
-      if (dt >= timeBegin) {
-        // update grids;
-        int[] grid = grids.get(dt);
-        if (grid == null) {
-          grid = new int[numOfTiles];
-          for(int i=0; i<numOfTiles; i++) { // initialize the grid
-            grid[i] = -1;
-          }
-          grids.put(dt, grid);
-        }
-        grid[tid] = rid;
+    return store.reserve(rid, workingList);
+  }
 
-        // update timeToRidToTid
-        Map<Integer,Set<Integer>> ridToTid = timeToRidToTid.get(dt);
-        if (ridToTid == null) {
-          ridToTid = new HashMap<Integer,Set<Integer>>();
-          timeToRidToTid.put(dt, ridToTid);
-        }
-        Set<Integer> tidSet = ridToTid.get(rid);
-        if (tidSet == null) {
-          tidSet = new HashSet<Integer>();
-          ridToTid.put(rid, tidSet);
-        }
-        tidSet.add(tid);
-
-        // update ridToTimeToTid
-        NavigableMap<Integer,Set<Integer>> timeToTid =
-          ridToTimeToTid.get(rid);
-        if (timeToTid == null) {
-          timeToTid = new TreeMap<Integer,Set<Integer>>();
-          ridToTimeToTid.put(rid, timeToTid);
-        }
-        tidSet = timeToTid.get(dt);
-        if (tidSet == null) {
-          tidSet = new HashSet<Integer>();
-          timeToTid.put(dt, tidSet);
-        }
-        tidSet.add(tid);
-      }  // else ignore timetile that is before timeBegin
-    }
-    assert (!SHOULD_CHECK_CONSISTENCY) || checkConsistency();
-    return true;
+  /**
+   * Make the reservation of a set of time-tiles given as bitmasks.
+   * If the reservation is not successful, no time-tiles will be reserved.
+   *
+   * @param rid    the reservation ID
+   * @param masks  the time-tiles to be reserved
+   *
+   * @return whether the reservation is successful
+   */
+  public boolean reserve(int rid, TimeTileMasks masks) {
+    return store.reserve(rid, masks);
   }
 
   /**
@@ -329,27 +322,7 @@ public class ReservationArray {
    * @return whether the cancellation is successful
    */
   public boolean cancel(int rid) {
-    // remove elements in ridToTimeToTid
-    NavigableMap<Integer,Set<Integer>> timeToTid = ridToTimeToTid.remove(rid);
-    if (timeToTid != null) {
-      for(int dt : timeToTid.keySet()) {
-        // remove elements in timeToRidToTid
-        if (timeToRidToTid.containsKey(dt)) {
-          timeToRidToTid.get(dt).remove(rid);
-        }
-        // remove time-tiles in grids
-        if (grids.containsKey(dt)) {
-          int[] grid = grids.get(dt);
-          for(int tid : timeToTid.get(dt)) {
-            grid[tid] = -1;
-          }
-        }
-      }
-      assert (!SHOULD_CHECK_CONSISTENCY) || checkConsistency();
-      return true;
-    } else {
-      return false; // the rid is not found
-    }
+    return store.cancel(rid);
   }
 
   /**
@@ -358,37 +331,18 @@ public class ReservationArray {
    * @param dt  the discrete time before which the reservations will be removed.
    */
   public void cleanUp(int dt) {
-    // clean up grids and timeToRidToTid
-    try {
-      while(grids.firstKey() < dt) {
-        int dt1 = grids.firstKey();
-        grids.remove(dt1);
-        timeToRidToTid.remove(dt1);
-      }
-    } catch(NoSuchElementException e) {
-      // do nothing
-    }
-
-    List<Integer> removeRid = new LinkedList<Integer>();
-    for(int rid : ridToTimeToTid.keySet()){
-      NavigableMap<Integer,Set<Integer>> timeToTid = ridToTimeToTid.get(rid);
-      try {
-        while(timeToTid.firstKey() < dt) {
-          timeToTid.remove(timeToTid.firstKey());
-        }
-      } catch(NoSuchElementException e) {
-        // do nothing
-      }
-      if (timeToTid.isEmpty()) {
-        removeRid.add(rid);
-      }
-    }
-
-    for(int rid : removeRid) {
-      ridToTimeToTid.remove(rid);
-    }
+    store.cleanUp(dt);
+  }
 
-    assert (!SHOULD_CHECK_CONSISTENCY) || checkConsistency();
+  /**
+   * Whether the reservations should be cleaned up at every discrete time
+   * rather than periodically.
+   *
+   * @return whether the reservations should be cleaned up at every
+   *         discrete time
+   */
+  public boolean isCleanedUpEveryStep() {
+    return store.isCleanedUpEveryStep();
   }
 
   /**
@@ -398,16 +352,7 @@ public class ReservationArray {
    * @return the list of tile IDs that are reserved at the given discrete time.
    */
   public List<Integer> getReservedTilesAtTime(int dt) {
-    Map<Integer,Set<Integer>> ridToTid = timeToRidToTid.get(dt);
-    if (ridToTid != null) {
-      List<Integer> dts = new LinkedList<Integer>();
-      for(int rid : ridToTid.keySet()) {
-        dts.addAll(ridToTid.get(rid));
-      }
-      return dts;
-    } else {
-      return new LinkedList<Integer>(); // return an empty list
-    }
+    return store.getReservedTilesAtTime(dt);
   }
 
   /**
@@ -417,70 +362,6 @@ public class ReservationArray {
    * @return a set of reservation IDs.
    */
   public Set<Integer> getVinOfReservedTilesAtTime(int dt) {
-    Map<Integer,Set<Integer>> ridToTid = timeToRidToTid.get(dt);
-    if (ridToTid != null) {
-      return Collections.unmodifiableSet(ridToTid.keySet());
-    } else {
-      return new HashSet<Integer>(); // return an empty list
-    }
-  }
-
-
-  /////////////////////////////////
-  // DEBUG
-  /////////////////////////////////
-
-  /**
-   * Check whether the array are consistent
-   */
-  private boolean checkConsistency() {
-    for(int dt : grids.keySet()) {
-      int[] tids = grids.get(dt);
-      for(int tid=0; tid < numOfTiles; tid++) {
-        int rid = tids[tid];
-        if (rid >= 0) {
-          assert timeToRidToTid.get(dt) != null;
-          assert timeToRidToTid.get(dt).get(rid) != null;
-          if (!timeToRidToTid.get(dt).get(rid).contains(tid)) {
-            throw new RuntimeException("ReservationArray::checkConsistency():" +
-                                       "grids > timeToRidToTid");
-          }
-          assert ridToTimeToTid.get(rid) != null;
-          assert ridToTimeToTid.get(rid).get(dt) != null;
-          if (!ridToTimeToTid.get(rid).get(dt).contains(tid)) {
-            throw new RuntimeException("ReservationArray::checkConsistency():" +
-                                       "grids > ridToTimeToTid");
-          }
-        }
-      }
-    }
-
-    for(int dt : timeToRidToTid.keySet()) {
-      Map<Integer,Set<Integer>> ridToTid = timeToRidToTid.get(dt);
-      for(int rid : ridToTid.keySet()) {
-        for(int tid : ridToTid.get(rid)) {
-          if (grids.get(dt)[tid] != rid) {
-            throw new RuntimeException("ReservationArray::checkConsistency():" +
-                                        "timeToRidToTid > grids");
-
-          }
-        }
-      }
-    }
-
-    for(int rid : ridToTimeToTid.keySet()) {
-      NavigableMap<Integer,Set<Integer>> timeToTid = ridToTimeToTid.get(rid);
-      for(int dt : timeToTid.keySet()) {
-        for(int tid : timeToTid.get(dt)) {
-          if (grids.get(dt)[tid] != rid) {
-            throw new RuntimeException("ReservationArray::checkConsistency():" +
-                                        "ridToTimeToTid > grids");
-
-          }
-        }
-      }
-    }
-    return true;
+    return store.getVinOfReservedTilesAtTime(dt);
   }
 }
-
@@ -50,6 +50,13 @@ public class ReservationGrid extends ReservationArray {
    */
   private static final int TILE_RESERVATION_TABLE_CLEAN_UP_PERIOD = 30;
 
+  /**
+   * The longest time, in seconds, a vehicle is expected to take to traverse
+   * the intersection and its time buffers; it is added to the horizon of
+   * the ring buffer backends. {@value} seconds.
+   */
+  private static final double MAXIMUM_TRAVERSAL_TIME = 10.0;
+
   /////////////////////////////////
   // NESTED CLASSES
   /////////////////////////////////
@@ -126,6 +133,27 @@ public class ReservationGrid extends ReservationArray {
     this.gridTimeStep = gridTimeStep;
   }
 
+  /**
+   * Create a reservation grid with a given backend.
+   *
+   * @param xNum         the number of time tiles in the x direction
+   * @param yNum         the number of time tiles in the y direction
+   * @param gridTimeStep the time step.
+   * @param backend      the data structure in which the reservations are
+   *                     stored
+   * @param horizon      the amount of time, in seconds, after the current
+   *                     time during which time tiles can be reserved;
+   *                     only used by the ring buffer backends
+   */
+  public ReservationGrid(int xNum, int yNum, double gridTimeStep,
+                         Backend backend, double horizon) {
+    super(xNum * yNum, backend,
+          (int)Math.ceil((horizon + MAXIMUM_TRAVERSAL_TIME) / gridTimeStep));
+    this.xNum = xNum;
+    this.yNum = yNum;
+    this.gridTimeStep = gridTimeStep;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -138,7 +166,8 @@ public class ReservationGrid extends ReservationArray {
   public void cleanUp(double currentTime) {
     // clean up
     int currentDiscreteTime = calcDiscreteTime(currentTime);
-    if (currentDiscreteTime % TILE_RESERVATION_TABLE_CLEAN_UP_PERIOD == 0) {
+    if (isCleanedUpEveryStep()
+        || currentDiscreteTime % TILE_RESERVATION_TABLE_CLEAN_UP_PERIOD == 0) {
       cleanUp(currentDiscreteTime);
     }
   }
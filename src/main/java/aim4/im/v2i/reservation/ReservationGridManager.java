@@ -31,10 +31,10 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package aim4.im.v2i.reservation;
 
 import java.awt.Shape;
-import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -47,13 +47,12 @@ import aim4.config.Debug;
 import aim4.driver.CrashTestDummy;
 import aim4.driver.Driver;
 import aim4.im.Intersection;
-import aim4.im.v2i.reservation.ReservationGrid.TimeTile;
 import aim4.map.lane.Lane;
 import aim4.msg.v2i.Request;
 import aim4.msg.v2i.Request.VehicleSpecForRequestMsg;
 import aim4.sim.StatCollector;
+import aim4.util.PolygonalArea;
 import aim4.util.TiledArea;
-import aim4.util.TiledArea.Tile;
 import aim4.vehicle.BasicAutoVehicle;
 import aim4.vehicle.VehicleSpec;
 import aim4.vehicle.VehicleUtil;
@@ -102,6 +101,38 @@ public class ReservationGridManager implements
      * The granularity.
      */
     private double granularity;
+    /**
+     * The maximum number of footprints in the footprint cache; zero if the
+     * cache is disabled.
+     */
+    private int footprintCacheSize = FootprintCache.DEFAULT_CAPACITY;
+    /**
+     * The maximum number of failed queries in the negative query cache;
+     * zero if the cache is disabled.
+     */
+    private int negativeQueryCacheSize = NegativeQueryCache.DEFAULT_CAPACITY;
+    /**
+     * The data structure in which the reservation grid stores the
+     * reservations.
+     */
+    private ReservationArray.Backend reservationArrayBackend =
+      ReservationArray.Backend.TREE_MAP;
+    /**
+     * The number of threads that query the proposals of a request at the
+     * same time; 1 if the proposals are queried one after another.
+     */
+    private int numOfProposalThreads = 1;
+    /**
+     * Whether the reject messages carry the earliest arrival time at which
+     * one of the rejected proposals is free of conflicts.
+     */
+    private boolean isCounterOfferEnabled = false;
+    /**
+     * The maximum number of reservations that are tried to be moved earlier
+     * in each time step after cancellations; zero if the reservations are
+     * never moved.
+     */
+    private int compactionsPerStep = 0;
 
     /**
      * Create a configuration object.
@@ -192,6 +223,136 @@ public class ReservationGridManager implements
     public double getGranularity() {
       return granularity;
     }
+
+    /**
+     * Get the maximum number of footprints in the footprint cache.
+     *
+     * @return the maximum number of footprints in the footprint cache;
+     *         zero if the cache is disabled
+     */
+    public int getFootprintCacheSize() {
+      return footprintCacheSize;
+    }
+
+    /**
+     * Set the maximum number of footprints in the footprint cache.
+     *
+     * @param footprintCacheSize  the maximum number of footprints in the
+     *                            footprint cache; zero disables the cache
+     */
+    public void setFootprintCacheSize(int footprintCacheSize) {
+      this.footprintCacheSize = footprintCacheSize;
+    }
+
+    /**
+     * Get the maximum number of failed queries in the negative query cache.
+     *
+     * @return the maximum number of failed queries in the negative query
+     *         cache; zero if the cache is disabled
+     */
+    public int getNegativeQueryCacheSize() {
+      return negativeQueryCacheSize;
+    }
+
+    /**
+     * Set the maximum number of failed queries in the negative query cache.
+     *
+     * @param negativeQueryCacheSize  the maximum number of failed queries in
+     *                                the negative query cache; zero disables
+     *                                the cache
+     */
+    public void setNegativeQueryCacheSize(int negativeQueryCacheSize) {
+      this.negativeQueryCacheSize = negativeQueryCacheSize;
+    }
+
+    /**
+     * Get the data structure in which the reservation grid stores the
+     * reservations.
+     *
+     * @return the backend of the reservation grid
+     */
+    public ReservationArray.Backend getReservationArrayBackend() {
+      return reservationArrayBackend;
+    }
+
+    /**
+     * Set the data structure in which the reservation grid stores the
+     * reservations.
+     *
+     * @param reservationArrayBackend  the backend of the reservation grid
+     */
+    public void setReservationArrayBackend(
+                              ReservationArray.Backend reservationArrayBackend) {
+      this.reservationArrayBackend = reservationArrayBackend;
+    }
+
+    /**
+     * Get the number of threads that query the proposals of a request at
+     * the same time.
+     *
+     * @return the number of threads that query the proposals of a request
+     */
+    public int getNumOfProposalThreads() {
+      return numOfProposalThreads;
+    }
+
+    /**
+     * Set the number of threads that query the proposals of a request at
+     * the same time.  The queries do not change the reservation grid, so
+     * the proposal that is accepted does not depend on the number of
+     * threads.
+     *
+     * @param numOfProposalThreads  the number of threads; 1 if the
+     *                              proposals are queried one after another
+     */
+    public void setNumOfProposalThreads(int numOfProposalThreads) {
+      this.numOfProposalThreads = numOfProposalThreads;
+    }
+
+    /**
+     * Whether the reject messages carry counter-offers.
+     *
+     * @return whether the reject messages carry counter-offers
+     */
+    public boolean isCounterOfferEnabled() {
+      return isCounterOfferEnabled;
+    }
+
+    /**
+     * Set whether the reject messages carry counter-offers.  A counter-offer
+     * is a rejected proposal moved to the earliest arrival time at which
+     * its time-tiles are free.
+     *
+     * @param isCounterOfferEnabled  whether the reject messages carry
+     *                               counter-offers
+     */
+    public void setCounterOfferEnabled(boolean isCounterOfferEnabled) {
+      this.isCounterOfferEnabled = isCounterOfferEnabled;
+    }
+
+    /**
+     * Get the maximum number of reservations that are tried to be moved
+     * earlier in each time step.
+     *
+     * @return the maximum number of reservations that are tried to be moved
+     *         earlier in each time step; zero if the reservations are never
+     *         moved
+     */
+    public int getCompactionsPerStep() {
+      return compactionsPerStep;
+    }
+
+    /**
+     * Set the maximum number of reservations that are tried to be moved
+     * earlier in each time step after cancellations.  The limit bounds the
+     * time spent on the compaction in each time step.
+     *
+     * @param compactionsPerStep  the maximum number of reservations; zero
+     *                            disables the compaction
+     */
+    public void setCompactionsPerStep(int compactionsPerStep) {
+      this.compactionsPerStep = compactionsPerStep;
+    }
   }
 
   /**
@@ -324,8 +485,8 @@ public class ReservationGridManager implements
     private double exitTime;
     /** The exit velocity */
     private double exitVelocity;
-    /** The list of time tiles reserved */
-    private List<TimeTile> workingList;
+    /** The time tiles reserved */
+    private TimeTileMasks timeTileMasks;
     /** The acceleration profile */
     private Queue<double[]> accelerationProfile;
 
@@ -335,18 +496,18 @@ public class ReservationGridManager implements
      * @param vin                  the VIN of the vehicle
      * @param exitTime             the exit time
      * @param exitVelocity         the exit velocity
-     * @param workingList          the list of time tiles reserved
+     * @param timeTileMasks        the time tiles reserved
      * @param accelerationProfile  the acceleration profile
      */
     public Plan(int vin,
                 double exitTime,
                 double exitVelocity,
-                List<TimeTile> workingList,
+                TimeTileMasks timeTileMasks,
                 Queue<double[]> accelerationProfile) {
       this.vin = vin;
       this.exitTime = exitTime;
       this.exitVelocity = exitVelocity;
-      this.workingList = workingList;
+      this.timeTileMasks = timeTileMasks;
       this.accelerationProfile = accelerationProfile;
     }
 
@@ -378,12 +539,22 @@ public class ReservationGridManager implements
     }
 
     /**
-     * Get the list of time tiles reserved.
+     * Get the time tiles reserved.
+     *
+     * @return the time tiles reserved
+     */
+    public TimeTileMasks getTimeTileMasks() {
+      return timeTileMasks;
+    }
+
+    /**
+     * Get the list of time tiles reserved.  The list is created on every
+     * call; use {@link #getTimeTileMasks()} on performance critical paths.
      *
      * @return the list of time tiles reserved
      */
-    public List<TimeTile> getWorkingList() {
-      return workingList;
+    public List<ReservationArray.TimeTile> getWorkingList() {
+      return timeTileMasks.toTimeTiles();
     }
 
     /**
@@ -454,6 +625,28 @@ public class ReservationGridManager implements
 
   }
 
+  /**
+   * The bitmasks that the internal simulation reuses, of which each thread
+   * has its own so that several proposals can be simulated at the same
+   * time.
+   */
+  private static class SimulationBuffers {
+    /** The bitmask of the tiles occupied by the test vehicle */
+    long[] occupiedTileMask;
+    /** The bitmasks of the tiles occupied at each time step */
+    long[] occupiedTileMasks;
+
+    /**
+     * Create the buffers.
+     *
+     * @param numOfWords  the number of words of a tile bitmask
+     */
+    SimulationBuffers(int numOfWords) {
+      occupiedTileMask = new long[numOfWords];
+      occupiedTileMasks = new long[numOfWords * 64];
+    }
+  }
+
 
   /////////////////////////////////
   // PRIVATE FIELDS
@@ -498,6 +691,25 @@ public class ReservationGridManager implements
    * The reservation System
    */
   private ReservationGrid reservationGrid;
+  /**
+   * The cache of the footprints found by the internal simulation; null if
+   * the cache is disabled.
+   */
+  private FootprintCache footprintCache;
+  /**
+   * The cache of the queries that failed because of reserved tiles; null
+   * if the cache is disabled.
+   */
+  private NegativeQueryCache negativeQueryCache;
+  /**
+   * The bitmask of the edge tiles of the tiled area
+   */
+  private long[] edgeTileMask;
+  /**
+   * The bitmasks of the tiles occupied by the test vehicle at each time
+   * step of the internal simulation; reused across internal simulations.
+   */
+  private final ThreadLocal<SimulationBuffers> simulationBuffers;
   /**
    * The statistic collector
    */
@@ -549,6 +761,32 @@ public class ReservationGridManager implements
     this.intersection = intersection;
     this.tiledArea = tiledArea;
     this.reservationGrid = reservationGrid;
+    if (config.getFootprintCacheSize() > 0) {
+      this.footprintCache =
+        new FootprintCache(config.getFootprintCacheSize());
+    } else {
+      this.footprintCache = null;
+    }
+    if (config.getNegativeQueryCacheSize() > 0) {
+      this.negativeQueryCache =
+        new NegativeQueryCache(config.getNegativeQueryCacheSize());
+    } else {
+      this.negativeQueryCache = null;
+    }
+    final int numOfWords =
+      TimeTileMasks.calcNumOfWords(reservationGrid.getNumberOfTiles());
+    this.edgeTileMask = new long[numOfWords];
+    for(int id = 0; id < tiledArea.getNumberOfTiles(); id++) {
+      if (tiledArea.getTileById(id).isEdgeTile()) {
+        edgeTileMask[id >>> 6] |= 1L << (id & 63);
+      }
+    }
+    this.simulationBuffers = new ThreadLocal<SimulationBuffers>() {
+      @Override
+      protected SimulationBuffers initialValue() {
+        return new SimulationBuffers(numOfWords);
+      }
+    };
     this.statCollector = new VinHistoryStatCollector();
   }
 
@@ -564,6 +802,9 @@ public class ReservationGridManager implements
    */
   public void act(double timeStep) {
     reservationGrid.cleanUp(currentTime);
+    if (negativeQueryCache != null) {
+      negativeQueryCache.cleanUp(reservationGrid.calcDiscreteTime(currentTime));
+    }
     if (statCollector != null) statCollector.collect(this);
     currentTime += timeStep;
   }
@@ -595,6 +836,24 @@ public class ReservationGridManager implements
     return statCollector;
   }
 
+  /**
+   * Get the footprint cache.
+   *
+   * @return the footprint cache; null if the cache is disabled
+   */
+  public FootprintCache getFootprintCache() {
+    return footprintCache;
+  }
+
+  /**
+   * Get the negative query cache.
+   *
+   * @return the negative query cache; null if the cache is disabled
+   */
+  public NegativeQueryCache getNegativeQueryCache() {
+    return negativeQueryCache;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -611,72 +870,168 @@ public class ReservationGridManager implements
    */
   @Override
   public Plan query(Query q) {
+    FootprintCache.Key key = makeFootprintKey(q);
+    // Notice that arrivalIntTime != arrivalTime
+    int arrivalIntTime = reservationGrid.calcDiscreteTime(q.getArrivalTime());
+
+    // A query that failed before fails again until some reservations in
+    // its time windows are removed.
+    NegativeQueryCache.Key negativeKey = null;
+    long version = 0L;
+    if (negativeQueryCache != null) {
+      negativeKey = negativeQueryCache.makeKey(key, arrivalIntTime);
+      if (negativeQueryCache.isKnownFailure(negativeKey)) {
+        return null;
+      }
+      // read the version before checking the grid, so that a reservation
+      // cancelled during the check invalidates the failure
+      version = negativeQueryCache.getVersion();
+    }
+
+    FootprintCache.Footprint footprint = findFootprint(q, key);
+
+    // Place the footprint at the arrival time.
+    TimeTileMasks timeTileMasks = footprint.getMasks().shift(arrivalIntTime);
+
+    // Make sure none of these tiles are reserved by someone else already
+    if (!reservationGrid.isReserved(timeTileMasks)) {
+      return makePlan(q, footprint, arrivalIntTime, timeTileMasks);
+    } else {
+      if (negativeQueryCache != null && timeTileMasks.getNumOfMasks() > 0) {
+        negativeQueryCache.putFailure(
+          negativeKey,
+          timeTileMasks.getFirstDiscreteTime(),
+          timeTileMasks.getDiscreteTime(timeTileMasks.getNumOfMasks() - 1),
+          version);
+      }
+      return null;  // Failure! The trajectory hits some reserved tiles.
+    }
+  }
+
+  /**
+   * Find the earliest arrival time, no earlier than the arrival time of a
+   * query, at which the trajectory of the query hits no reserved tiles.
+   * The search moves the arrival time forward by whole grid time steps,
+   * which keeps the footprint of the query unchanged, so the footprint is
+   * computed only once.
+   *
+   * @param q                  the query object
+   * @param latestArrivalTime  the latest arrival time to be considered
+   *
+   * @return the earliest arrival time at which the trajectory hits no
+   *         reserved tiles; -1.0 if there is no such time before the latest
+   *         arrival time
+   */
+  public double findEarliestArrivalTime(Query q, double latestArrivalTime) {
+    FootprintCache.Footprint footprint = findFootprint(q, makeFootprintKey(q));
+    int arrivalIntTime = reservationGrid.calcDiscreteTime(q.getArrivalTime());
+    int latestIntTime = reservationGrid.calcDiscreteTime(latestArrivalTime);
+    for(int t = arrivalIntTime; t <= latestIntTime; t++) {
+      if (!reservationGrid.isReserved(footprint.getMasks().shift(t))) {
+        double arrivalTime = q.getArrivalTime()
+          + (t - arrivalIntTime) * reservationGrid.getGridTimeStep();
+        return (arrivalTime <= latestArrivalTime) ? arrivalTime : -1.0;
+      }
+    }
+    return -1.0;
+  }
 
-    // Position the Vehicle to be ready to start the simulation
-    Lane arrivalLane =
-      Debug.currentMap.getLaneRegistry().get(q.getArrivalLaneId());
-    Lane departureLane =
-      Debug.currentMap.getLaneRegistry().get(q.getDepartureLaneId());
-
-    // Create a test vehicle to use in the internal simulation
-    BasicAutoVehicle testVehicle =
-      createTestVehicle(q.getSpec(),
-                        q.getArrivalVelocity(),
-                        q.getMaxTurnVelocity(),
-                        arrivalLane);
-
-    // Create a dummy driver to steer it
-    Driver dummy = new CrashTestDummy(testVehicle, arrivalLane, departureLane);
-
-    // assign the drive to the vehicle
-    // testVehicle.setDriver(dummy);  // TODO fix this later.
-
-    // Keep track of the TileTimes that will make up this reservation
-    FindTileTimesBySimulationResult fResult
-      = findTileTimesBySimulation(testVehicle,
-                                  dummy,
-                                  q.getArrivalTime(),
-                                  q.isAccelerating());
-
-    if (fResult != null) {
-      List<TimeTile> workingList = fResult.getWorkingList();
-
-      double exitTime = workingList.get(workingList.size()-1).getTime();
-
-      Queue<double[]> accelerationProfile =
-        calcAccelerationProfile(q.getArrivalTime(),
-                                q.getArrivalVelocity(),
-                                q.getMaxTurnVelocity(),
-                                q.getSpec().getMaxAcceleration(),
-                                fResult.getExitTime(),
-                                q.isAccelerating());
-
-      return new Plan(q.getVin(),
-                      exitTime,
-                      testVehicle.gaugeVelocity(),
-                      workingList,
-                      accelerationProfile);
+  /**
+   * Find a set of space-time tiles for moving the reservation of the vehicle
+   * of a query to the arrival time of the query.  Unlike {@link #query},
+   * the time-tiles reserved by the vehicle itself are treated as free, since
+   * they are released when the reservation is moved.
+   *
+   * @param q  the query object
+   *
+   * @return the plan of the moved reservation; null if the trajectory hits
+   *         the time-tiles reserved by other vehicles
+   */
+  public Plan queryReplacement(Query q) {
+    FootprintCache.Footprint footprint = findFootprint(q, makeFootprintKey(q));
+    int arrivalIntTime = reservationGrid.calcDiscreteTime(q.getArrivalTime());
+    TimeTileMasks timeTileMasks = footprint.getMasks().shift(arrivalIntTime);
+    if (!reservationGrid.isReservedByOthers(timeTileMasks, q.getVin())) {
+      return makePlan(q, footprint, arrivalIntTime, timeTileMasks);
     } else {
       return null;
     }
   }
 
+  /**
+   * Find the earliest arrival time, no earlier than a given time and before
+   * the arrival time of a query, at which the trajectory of the query hits
+   * no reserved tiles.  This is used to move a reservation earlier after
+   * some reservations are cancelled.  The time-tiles reserved by the
+   * vehicle of the query itself are treated as free.
+   *
+   * @param q                    the query object
+   * @param earliestArrivalTime  the earliest arrival time to be considered
+   *
+   * @return the earliest arrival time at which the trajectory hits no
+   *         reserved tiles; -1.0 if there is no such time before the arrival
+   *         time of the query
+   */
+  public double findEarlierArrivalTime(Query q, double earliestArrivalTime) {
+    FootprintCache.Footprint footprint = findFootprint(q, makeFootprintKey(q));
+    int arrivalIntTime = reservationGrid.calcDiscreteTime(q.getArrivalTime());
+    double gridTimeStep = reservationGrid.getGridTimeStep();
+    int maxShift =
+      (int) Math.floor((q.getArrivalTime() - earliestArrivalTime)
+                       / gridTimeStep);
+    for(int k = maxShift; k > 0; k--) {
+      if (!reservationGrid.isReservedByOthers(
+             footprint.getMasks().shift(arrivalIntTime - k), q.getVin())) {
+        return q.getArrivalTime() - k * gridTimeStep;
+      }
+    }
+    return -1.0;
+  }
+
+
   /**
    * {@inheritDoc}
    */
   @Override
   public Integer accept(Plan plan) {
-    boolean b = reservationGrid.reserve(plan.getVin(), plan.getWorkingList());
+    boolean b = reservationGrid.reserve(plan.getVin(),
+                                        plan.getTimeTileMasks());
     assert b;
     return plan.getVin();
   }
 
+  /**
+   * Accept a plan if its time-tiles are still free.  With the concurrent
+   * backend, the time-tiles are claimed atomically, so a plan found by one
+   * thread can be accepted while other threads are making reservations.
+   *
+   * @param plan  the plan
+   * @return the reservation ID; null if some of the time-tiles have been
+   *         reserved since the plan was found
+   */
+  public Integer tryAccept(Plan plan) {
+    if (reservationGrid.reserve(plan.getVin(), plan.getTimeTileMasks())) {
+      return plan.getVin();
+    } else {
+      return null;
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public void cancel(Integer reservationId) {
+    int lastTime = -1;
+    if (negativeQueryCache != null) {
+      lastTime = reservationGrid.getLastReservedDiscreteTime(reservationId);
+    }
     reservationGrid.cancel(reservationId);  // reservationId == vin
+    // stamp the windows after the tiles are freed; see NegativeQueryCache
+    if (lastTime >= 0) {
+      negativeQueryCache.touch(reservationGrid.calcDiscreteTime(currentTime),
+                               lastTime);
+    }
   }
 
 
@@ -684,6 +1039,125 @@ public class ReservationGridManager implements
   // PRIVATE FIELDS
   /////////////////////////////////
 
+  /**
+   * Create the key of the footprint of a query.
+   *
+   * @param q  the query object
+   * @return the key of the footprint of the query; null if neither the
+   *         footprint cache nor the negative query cache is enabled
+   */
+  private FootprintCache.Key makeFootprintKey(Query q) {
+    if (footprintCache == null && negativeQueryCache == null) {
+      return null;
+    }
+    // The footprint only depends on where the arrival time falls within
+    // the grid time step, not on the arrival time itself.
+    double arrivalTimeOffset =
+      reservationGrid.calcRemainingTime(q.getArrivalTime());
+    if (footprintCache != null) {
+      return footprintCache.makeKey(q.getArrivalLaneId(),
+                                    q.getDepartureLaneId(),
+                                    q.getArrivalVelocity(),
+                                    arrivalTimeOffset,
+                                    q.getMaxTurnVelocity(),
+                                    q.isAccelerating(),
+                                    q.getSpec());
+    } else {
+      return FootprintCache.makeKey(q.getArrivalLaneId(),
+                                    q.getDepartureLaneId(),
+                                    q.getArrivalVelocity(),
+                                    arrivalTimeOffset,
+                                    q.getMaxTurnVelocity(),
+                                    q.isAccelerating(),
+                                    q.getSpec(),
+                                    FootprintCache.DEFAULT_VELOCITY_QUANTUM,
+                                    FootprintCache.DEFAULT_TIME_QUANTUM);
+    }
+  }
+
+  /**
+   * Make the plan of a query whose footprint has been placed at the arrival
+   * time.
+   *
+   * @param q               the query object
+   * @param footprint       the footprint of the query
+   * @param arrivalIntTime  the discrete arrival time
+   * @param timeTileMasks   the time-tiles of the footprint at the arrival time
+   * @return the plan
+   */
+  private Plan makePlan(Query q, FootprintCache.Footprint footprint,
+                        int arrivalIntTime, TimeTileMasks timeTileMasks) {
+    double exitTime =
+      reservationGrid.calcTime(arrivalIntTime + footprint.getLastTimeOffset());
+
+    Queue<double[]> accelerationProfile =
+      calcAccelerationProfile(q.getArrivalTime(),
+                              q.getArrivalVelocity(),
+                              q.getMaxTurnVelocity(),
+                              q.getSpec().getMaxAcceleration(),
+                              reservationGrid.calcTime(
+                                arrivalIntTime
+                                + footprint.getExitTimeOffset()),
+                              q.isAccelerating());
+
+    return new Plan(q.getVin(),
+                    exitTime,
+                    footprint.getExitVelocity(),
+                    timeTileMasks,
+                    accelerationProfile);
+  }
+
+  /**
+   * Find the footprint of a query, either from the footprint cache or by
+   * simulating a test vehicle through the intersection.
+   *
+   * @param q    the query object
+   * @param key  the key of the footprint of the query; null if the
+   *             footprint cache is not enabled
+   * @return the footprint of the query
+   */
+  private FootprintCache.Footprint findFootprint(Query q,
+                                                 FootprintCache.Key key) {
+    double arrivalTimeOffset =
+      reservationGrid.calcRemainingTime(q.getArrivalTime());
+
+    FootprintCache.Footprint footprint = null;
+    if (footprintCache != null) {
+      footprint = footprintCache.get(key);
+    }
+
+    if (footprint == null) {
+      // Position the Vehicle to be ready to start the simulation
+      Lane arrivalLane =
+        Debug.getCurrentMap().getLaneRegistry().get(q.getArrivalLaneId());
+      Lane departureLane =
+        Debug.getCurrentMap().getLaneRegistry().get(q.getDepartureLaneId());
+
+      // Create a test vehicle to use in the internal simulation
+      BasicAutoVehicle testVehicle =
+        createTestVehicle(q.getSpec(),
+                          q.getArrivalVelocity(),
+                          q.getMaxTurnVelocity(),
+                          arrivalLane);
+
+      // Create a dummy driver to steer it
+      Driver dummy =
+        new CrashTestDummy(testVehicle, arrivalLane, departureLane);
+
+      // assign the drive to the vehicle
+      // testVehicle.setDriver(dummy);  // TODO fix this later.
+
+      footprint = findFootprintBySimulation(testVehicle,
+                                            dummy,
+                                            arrivalTimeOffset,
+                                            q.isAccelerating());
+      if (footprintCache != null) {
+        footprintCache.put(key, footprint);
+      }
+    }
+    return footprint;
+  }
+
   /**
    * Create a test vehicle to use in the internal simulation.
    *
@@ -732,116 +1206,133 @@ public class ReservationGridManager implements
   }
 
   /**
-   * The record for holding the result of the time tiles found
-   * by the internal simulation.
-   */
-  private static class FindTileTimesBySimulationResult {
-    /** The time tiles */
-    List<TimeTile> workingList;
-    /** The exit time */
-    double exitTime;
-
-    /**
-     * Create a record for holding the result of the time tiles found
-     * by the internal simulation.
-     *
-     * @param workingList  the time tiles
-     * @param exitTime     the exit time
-     */
-    public FindTileTimesBySimulationResult(List<TimeTile> workingList,
-                                           double exitTime) {
-      this.workingList = workingList;
-      this.exitTime = exitTime;
-    }
-
-    /**
-     * Get the time tiles.
-     *
-     * @return the time tiles
-     */
-    public List<TimeTile> getWorkingList() {
-      return workingList;
-    }
-
-    /**
-     * Get the exit time.
-     *
-     * @return the exit time
-     */
-    public double getExitTime() {
-      return exitTime;
-    }
-
-  }
-  /**
-   * Find a list of unreserved tiletimes by simulation
+   * Find the footprint of a traversal by simulation.  The time tiles of the
+   * footprint are relative to the discrete arrival time, and the footprint
+   * does not depend on the reservations in the grid.  The tiles occupied at
+   * each time step are collected in bitmasks, separately for the tiles with
+   * the internal and the edge time buffers, and the time buffers are then
+   * applied by dilating the bitmasks along the time axis.
    *
-   * @param TestVehicle   the test vehicle
-   * @param dummy         the dummy driver
-   * @param arrivalTime   the arrival time of the vehicle
-   * @param accelerating  whether or not to setMaxAccelWithMaxTargetVelocity to maximum velocity
-   *                      during the traversal
+   * @param testVehicle        the test vehicle
+   * @param dummy              the dummy driver
+   * @param arrivalTimeOffset  the offset of the arrival time within the
+   *                           grid time step
+   * @param accelerating       whether or not to setMaxAccelWithMaxTargetVelocity to maximum velocity
+   *                           during the traversal
    *
-   * @return A list of tiles that can be reserved by the vehicle. If returns
-   *         null, the trajectory hits some reserved tiles and the reservation
-   *         fails.
+   * @return the footprint of the traversal
    */
-  private FindTileTimesBySimulationResult
-            findTileTimesBySimulation(BasicAutoVehicle testVehicle,
+  private FootprintCache.Footprint
+            findFootprintBySimulation(BasicAutoVehicle testVehicle,
                                       Driver dummy,
-                                      double arrivalTime,
+                                      double arrivalTimeOffset,
                                       boolean accelerating) {
     // The area of the intersection
-    Area areaPlus = intersection.getAreaPlus();
+    PolygonalArea areaPlus = intersection.getPolygonalAreaPlus();
     // The following must be true because the test vehicle
     // starts at the entry point of the intersection.
     assert areaPlus.contains(testVehicle.getPointAtMiddleFront(
              Constants.DOUBLE_EQUAL_PRECISION));
 
-    // The list of tile-times that will make up this reservation
-    List<TimeTile> workingList = new ArrayList<TimeTile>();
-
-    // A discrete representation of the time throughout the internal simulation
-    // Notice that currentIntTime != arrivalTime
-    int currentIntTime = reservationGrid.calcDiscreteTime(arrivalTime);
+    int numOfWords =
+      TimeTileMasks.calcNumOfWords(reservationGrid.getNumberOfTiles());
+    SimulationBuffers buffers = simulationBuffers.get();
+    long[] occupiedTileMask = buffers.occupiedTileMask;
+    long[] occupiedTileMasks = buffers.occupiedTileMasks;
+    // The time of the last time tile in the order the tiles are found
+    int lastTimeOffset = 0;
+
+    // A discrete representation of the time throughout the internal
+    // simulation, relative to the discrete arrival time
+    int currentIntTime = 0;
     // The duration in the current time interval
-    double currentDuration = reservationGrid.calcRemainingTime(arrivalTime);
+    double currentDuration = arrivalTimeOffset;
 
     // drive the test vehicle until it leaves the intersection
     while(VehicleUtil.intersects(testVehicle, areaPlus)) {
       moveTestVehicle(testVehicle, dummy, currentDuration, accelerating);
       // Find out which tiles are occupied by the vehicle
+      int offset = currentIntTime * numOfWords;
       currentIntTime++;  // Record that we've moved forward one time step
-      List<Tile> occupied =
-        tiledArea.findOccupiedTiles(testVehicle.getShape(staticBufferSize));
-
-      // Make sure none of these tiles are reserved by someone else already
-      for(Tile tile : occupied) {
-
-        // Figure out how large of a time buffer to use, based on whether or
-        // not this is an edge tile
-        int buffer;
-        if (isEdgeTileTimeBufferEnabled && tile.isEdgeTile()) {
-          buffer = edgeTileTimeBufferSteps;
+      if (occupiedTileMasks.length < offset + numOfWords) {
+        occupiedTileMasks =
+          Arrays.copyOf(occupiedTileMasks, 2 * occupiedTileMasks.length);
+        buffers.occupiedTileMasks = occupiedTileMasks;
+      }
+      int numOfOccupiedTiles =
+        tiledArea.findOccupiedTiles(
+          testVehicle.getCornerPoints(staticBufferSize), occupiedTileMask);
+      System.arraycopy(occupiedTileMask, 0,
+                       occupiedTileMasks, offset, numOfWords);
+      if (numOfOccupiedTiles > 0) {
+        // The tiles are found in the order of their ids, so the time of the
+        // last time tile depends on the tile with the largest id
+        int w = numOfWords - 1;
+        while(occupiedTileMask[w] == 0L) {
+          w--;
+        }
+        int lastTileId =
+          (w << 6) + 63 - Long.numberOfLeadingZeros(occupiedTileMask[w]);
+        if (isEdgeTileTimeBufferEnabled
+            && tiledArea.getTileById(lastTileId).isEdgeTile()) {
+          lastTimeOffset = currentIntTime + edgeTileTimeBufferSteps;
         } else {
-          buffer = internalTileTimeBufferSteps;
+          lastTimeOffset = currentIntTime + internalTileTimeBufferSteps;
         }
-        int tileId = tile.getId();
-        for(int t = currentIntTime - buffer; t <= currentIntTime + buffer; t++){
-          // If the tile is already reserved and it isn't by us, we've failed
-          if (!reservationGrid.isReserved(t, tileId)) {
-            workingList.add(reservationGrid.new TimeTile(t, tile.getId()));
+      }
+      currentDuration = reservationGrid.getGridTimeStep();
+    }
+
+    // Dilate the masks by the time buffers, which are different for the
+    // edge tiles and the internal tiles
+    int maxBuffer = internalTileTimeBufferSteps;
+    if (isEdgeTileTimeBufferEnabled) {
+      maxBuffer = Math.max(maxBuffer, edgeTileTimeBufferSteps);
+    }
+    int firstTimeOffset = 1 - maxBuffer;
+    long[][] masks = new long[currentIntTime + 2 * maxBuffer][numOfWords];
+    for(int t = 1; t <= currentIntTime; t++) {
+      int offset = (t - 1) * numOfWords;
+      int index = t - firstTimeOffset;
+      for(int j = 0; j < numOfWords; j++) {
+        long occupied = occupiedTileMasks[offset + j];
+        if (occupied != 0L) {
+          if (isEdgeTileTimeBufferEnabled) {
+            dilate(masks, j, occupied & ~edgeTileMask[j],
+                   index, internalTileTimeBufferSteps);
+            dilate(masks, j, occupied & edgeTileMask[j],
+                   index, edgeTileTimeBufferSteps);
           } else {
-            return null; // Failure! Just bail!
+            dilate(masks, j, occupied, index, internalTileTimeBufferSteps);
           }
         }
       }
-      currentDuration = reservationGrid.getGridTimeStep();
     }
 
-    return new FindTileTimesBySimulationResult(workingList,
-                                               reservationGrid
-                                               .calcTime(currentIntTime));
+    return new FootprintCache.Footprint(
+                 new TimeTileMasks(firstTimeOffset, masks),
+                 lastTimeOffset,
+                 currentIntTime,
+                 testVehicle.gaugeVelocity());
+  }
+
+  /**
+   * Add a word of a tile bitmask to the bitmasks of the time steps within
+   * the time buffer of a given time step.
+   *
+   * @param masks   the bitmasks of the time steps
+   * @param j       the index of the word
+   * @param word    the word of the tile bitmask
+   * @param index   the index of the time step in masks
+   * @param buffer  the size of the time buffer, in time steps
+   */
+  private static void dilate(long[][] masks, int j, long word,
+                             int index, int buffer) {
+    if (word != 0L) {
+      for(int i = index - buffer; i <= index + buffer; i++) {
+        masks[i][j] |= word;
+      }
+    }
   }
 
   /**
@@ -0,0 +1,160 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The storage of the time-tiles reserved in a {@link ReservationArray}.
+ */
+interface ReservationStore {
+
+  /**
+   * Get the number of tiles
+   */
+  int getNumberOfTiles();
+
+  /**
+   * Whether the time-tile has been reserved.
+   *
+   * @param dt   the discrete time
+   * @param tid  the tile ID
+   */
+  boolean isReserved(int dt, int tid);
+
+  /**
+   * Whether any tile of a bitmask has been reserved at a discrete time.
+   *
+   * @param dt         the discrete time
+   * @param firstWord  the index of the first word of the bitmask
+   * @param words      the words of the bitmask
+   * @return whether any tile of the bitmask has been reserved
+   */
+  boolean isReserved(int dt, int firstWord, long[] words);
+
+  /**
+   * Get the reservation ID that reserved the given time-tile.
+   *
+   * @param dt   the discrete time
+   * @param tid  the id of the tile
+   * @return the reservation ID; -1 if the reservation ID does not exist
+   */
+  int getReservationId(int dt, int tid);
+
+  /**
+   * Check whether a given reservation ID exists
+   *
+   * @param rid  the reservation ID
+   * @return whether the reservation ID exists
+   */
+  boolean hasReservation(int rid);
+
+  /**
+   * Get the last time at which any time-tile has been reserved.
+   *
+   * @return the last time at which any time-tile has been reserved;
+   *         -1 if there is currently no reservation.
+   */
+  int getLastReservedDiscreteTime();
+
+  /**
+   * Get the last discrete time of a particular reservation ID.
+   *
+   * @param  rid  the reservation ID
+   * @return the last discrete time of the reservation;
+   *         less than zero if the reservation id does not exist
+   */
+  int getLastReservedDiscreteTime(int rid);
+
+  /**
+   * Make the reservation of a set of time-tiles with a given reservation id.
+   * If the reservation is not successful, no time-tiles will be reserved.
+   *
+   * @param rid          the reservation ID
+   * @param workingList  a collection of time-tiles to be reserved
+   *
+   * @return whether the reservation is successful
+   */
+  boolean reserve(int rid,
+                  Collection<? extends ReservationArray.TimeTile> workingList);
+
+  /**
+   * Make the reservation of a set of time-tiles given as bitmasks.
+   * If the reservation is not successful, no time-tiles will be reserved.
+   *
+   * @param rid    the reservation ID
+   * @param masks  the time-tiles to be reserved
+   *
+   * @return whether the reservation is successful
+   */
+  boolean reserve(int rid, TimeTileMasks masks);
+
+  /**
+   * Cancel a reservation
+   *
+   * @param rid  the reservation ID
+   * @return whether the cancellation is successful
+   */
+  boolean cancel(int rid);
+
+  /**
+   * Remove all reservations before a given discrete time.
+   *
+   * @param dt  the discrete time before which the reservations will be removed.
+   */
+  void cleanUp(int dt);
+
+  /**
+   * Whether the store expects to be cleaned up at every discrete time
+   * rather than periodically.
+   *
+   * @return whether the store expects to be cleaned up at every discrete time
+   */
+  boolean isCleanedUpEveryStep();
+
+  /**
+   * Get the set of all reserved tiles at a given discrete time.
+   *
+   * @param dt  the discrete time
+   * @return the list of tile IDs that are reserved at the given discrete time.
+   */
+  List<Integer> getReservedTilesAtTime(int dt);
+
+  /**
+   * Get the VINs of all reserved tiles at a given discrete time.
+   *
+   * @param dt  the discrete time
+   * @return a set of reservation IDs.
+   */
+  Set<Integer> getVinOfReservedTilesAtTime(int dt);
+}
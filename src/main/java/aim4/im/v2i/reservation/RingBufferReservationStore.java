@@ -0,0 +1,556 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A reservation store that keeps a circular buffer of dense grids, one for
+ * each discrete time in a bounded horizon starting at the last clean up
+ * time.  Each reservation keeps a compact list of its time-tiles so that a
+ * cancellation only touches its own footprint, and the reservations are
+ * expired slot by slot as the horizon advances.
+ */
+class RingBufferReservationStore implements ReservationStore {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The time-tiles of a reservation.
+   */
+  private static class Record {
+    /** The discrete times of the time-tiles */
+    int[] dts = new int[16];
+    /** The tile IDs of the time-tiles */
+    int[] tids = new int[16];
+    /** The number of time-tiles */
+    int size = 0;
+    /** The last discrete time of the time-tiles */
+    int lastDt = -1;
+
+    /**
+     * Add a time-tile to the reservation.
+     *
+     * @param dt   the discrete time
+     * @param tid  the tile ID
+     */
+    void add(int dt, int tid) {
+      if (size == dts.length) {
+        dts = Arrays.copyOf(dts, 2 * size);
+        tids = Arrays.copyOf(tids, 2 * size);
+      }
+      dts[size] = dt;
+      tids[size] = tid;
+      size++;
+      if (dt > lastDt) {
+        lastDt = dt;
+      }
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The total number of tiles.
+   */
+  private final int numOfTiles;
+
+  /**
+   * The number of discrete times in the circular buffer.
+   */
+  private final int numOfSlots;
+
+  /**
+   * The number of words in the bitmask of a grid.
+   */
+  private final int numOfWords;
+
+  /**
+   * The reservation IDs of the time-tiles; the grid of a discrete time dt
+   * starts at index (dt % numOfSlots) * numOfTiles.
+   */
+  private final int[] grids;
+
+  /**
+   * The bitmasks of the reserved tiles; the bitmask of a discrete time dt
+   * starts at index (dt % numOfSlots) * numOfWords.
+   */
+  private final long[] occupancies;
+
+  /**
+   * The number of reserved tiles in each slot.
+   */
+  private final int[] reservedCounts;
+
+  /**
+   * The reservation IDs whose last discrete time falls in each slot.
+   */
+  private final int[][] expiringRids;
+
+  /**
+   * The number of reservation IDs whose last discrete time falls in each
+   * slot.
+   */
+  private final int[] expiringCounts;
+
+  /**
+   * A mapping from reservation IDs to their time-tiles.
+   */
+  private final Map<Integer,Record> records;
+
+  /**
+   * The first discrete time covered by the circular buffer.
+   */
+  private int baseTime;
+
+  /**
+   * The last discrete time at which any time-tile has been reserved.
+   */
+  private int lastReservedTime;
+
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a ring buffer based reservation store.
+   *
+   * @param numOfTiles  the number of tiles in the intersection
+   * @param numOfSlots  the number of discrete times in the circular buffer
+   */
+  public RingBufferReservationStore(int numOfTiles, int numOfSlots) {
+    assert numOfSlots > 0;
+    this.numOfTiles = numOfTiles;
+    this.numOfSlots = numOfSlots;
+    this.grids = new int[numOfSlots * numOfTiles];
+    Arrays.fill(grids, -1);
+    this.numOfWords = TimeTileMasks.calcNumOfWords(numOfTiles);
+    this.occupancies = new long[numOfSlots * numOfWords];
+    this.reservedCounts = new int[numOfSlots];
+    this.expiringRids = new int[numOfSlots][];
+    this.expiringCounts = new int[numOfSlots];
+    this.records = new HashMap<Integer,Record>();
+    this.baseTime = 0;
+    this.lastReservedTime = -1;
+  }
+
+
+  ///////////////////////////
+  // PUBLIC METHODS
+  ///////////////////////////
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getNumberOfTiles() {
+    return numOfTiles;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Time-tiles beyond the horizon of the circular buffer are considered
+   * reserved since they cannot be reserved.
+   */
+  @Override
+  public boolean isReserved(int dt, int tid) {
+    if (dt < baseTime) {
+      return false;
+    } else if (dt >= baseTime + numOfSlots) {
+      return true;
+    } else {
+      return grids[index(dt, tid)] >= 0;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Time-tiles beyond the horizon of the circular buffer are considered
+   * reserved since they cannot be reserved.
+   */
+  @Override
+  public boolean isReserved(int dt, int firstWord, long[] words) {
+    if (dt < baseTime) {
+      return false;
+    } else if (dt >= baseTime + numOfSlots) {
+      return words.length > 0;
+    } else {
+      int offset = slot(dt) * numOfWords + firstWord;
+      for(int j = 0; j < words.length; j++) {
+        if ((occupancies[offset + j] & words[j]) != 0L) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getReservationId(int dt, int tid) {
+    if (isInHorizon(dt)) {
+      return grids[index(dt, tid)];
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean hasReservation(int rid) {
+    return records.containsKey(rid);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLastReservedDiscreteTime() {
+    if (lastReservedTime >= baseTime) {
+      return lastReservedTime;
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getLastReservedDiscreteTime(int rid) {
+    Record record = records.get(rid);
+    if (record != null) {
+      return record.lastDt;
+    } else {
+      return -1;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(int rid,
+                   Collection<? extends ReservationArray.TimeTile> workingList) {
+    // check to see if any time-tile is reserved or beyond the horizon
+    for(ReservationArray.TimeTile tt : workingList) {
+      int dt = tt.getDiscreteTime();
+      if (dt >= baseTime + numOfSlots) {
+        return false; // the time-tile cannot be stored
+      }
+      if (dt >= baseTime) {
+        int rid2 = grids[index(dt, tt.getTileId())];
+        if (rid2 >= 0 && rid2 != rid) {
+          return false; // the time-tile has been reserved.
+        }
+      }
+    }
+
+    // actually make the reservation
+    Record record = getRecord(rid);
+    int oldLastDt = record.lastDt;
+    for(ReservationArray.TimeTile tt : workingList) {
+      int dt = tt.getDiscreteTime();
+      if (dt >= baseTime) {
+        reserveTimeTile(rid, record, dt, tt.getTileId());
+      }  // else ignore timetile that is before baseTime
+    }
+    updateRecord(rid, record, oldLastDt);
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(int rid, TimeTileMasks masks) {
+    // check to see if any time-tile is reserved or beyond the horizon
+    for(int i = 0; i < masks.getNumOfMasks(); i++) {
+      int dt = masks.getDiscreteTime(i);
+      if (dt >= baseTime + numOfSlots && masks.getWords(i).length > 0) {
+        return false; // the time-tile cannot be stored
+      }
+      if (dt >= baseTime) {
+        int offset = slot(dt) * numOfWords + masks.getFirstWord(i);
+        long[] words = masks.getWords(i);
+        for(int j = 0; j < words.length; j++) {
+          long x = occupancies[offset + j] & words[j];
+          while(x != 0L) {
+            int tid = ((masks.getFirstWord(i) + j) << 6)
+                      + Long.numberOfTrailingZeros(x);
+            if (grids[index(dt, tid)] != rid) {
+              return false; // the time-tile has been reserved.
+            }
+            x &= x - 1;
+          }
+        }
+      }
+    }
+
+    // actually make the reservation
+    Record record = getRecord(rid);
+    int oldLastDt = record.lastDt;
+    for(int i = 0; i < masks.getNumOfMasks(); i++) {
+      int dt = masks.getDiscreteTime(i);
+      if (dt >= baseTime) {
+        long[] words = masks.getWords(i);
+        for(int j = 0; j < words.length; j++) {
+          long x = words[j];
+          while(x != 0L) {
+            int tid = ((masks.getFirstWord(i) + j) << 6)
+                      + Long.numberOfTrailingZeros(x);
+            reserveTimeTile(rid, record, dt, tid);
+            x &= x - 1;
+          }
+        }
+      }  // else ignore timetile that is before baseTime
+    }
+    updateRecord(rid, record, oldLastDt);
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean cancel(int rid) {
+    Record record = records.remove(rid);
+    if (record != null) {
+      for(int k = 0; k < record.size; k++) {
+        int dt = record.dts[k];
+        if (isInHorizon(dt)) {
+          int i = index(dt, record.tids[k]);
+          if (grids[i] == rid) {
+            int tid = record.tids[k];
+            grids[i] = -1;
+            occupancies[slot(dt) * numOfWords + (tid >>> 6)] &=
+              ~(1L << (tid & 63));
+            reservedCounts[slot(dt)]--;
+          }
+        }
+      }
+      return true;
+    } else {
+      return false; // the rid is not found
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void cleanUp(int dt) {
+    while(baseTime < dt) {
+      int s = slot(baseTime);
+      // clear the grid of the slot
+      if (reservedCounts[s] > 0) {
+        Arrays.fill(grids, s * numOfTiles, (s + 1) * numOfTiles, -1);
+        Arrays.fill(occupancies, s * numOfWords, (s + 1) * numOfWords, 0L);
+        reservedCounts[s] = 0;
+      }
+      // remove the reservations that end at this discrete time
+      for(int k = 0; k < expiringCounts[s]; k++) {
+        int rid = expiringRids[s][k];
+        Record record = records.get(rid);
+        if (record != null && record.lastDt == baseTime) {
+          records.remove(rid);
+        }
+      }
+      expiringCounts[s] = 0;
+      baseTime++;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isCleanedUpEveryStep() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public List<Integer> getReservedTilesAtTime(int dt) {
+    List<Integer> tids = new LinkedList<Integer>();
+    if (isInHorizon(dt) && reservedCounts[slot(dt)] > 0) {
+      int offset = slot(dt) * numOfTiles;
+      for(int tid = 0; tid < numOfTiles; tid++) {
+        if (grids[offset + tid] >= 0) {
+          tids.add(tid);
+        }
+      }
+    }
+    return tids;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getVinOfReservedTilesAtTime(int dt) {
+    Set<Integer> rids = new HashSet<Integer>();
+    if (isInHorizon(dt) && reservedCounts[slot(dt)] > 0) {
+      int offset = slot(dt) * numOfTiles;
+      for(int tid = 0; tid < numOfTiles; tid++) {
+        if (grids[offset + tid] >= 0) {
+          rids.add(grids[offset + tid]);
+        }
+      }
+    }
+    return rids;
+  }
+
+
+  ///////////////////////////
+  // PRIVATE METHODS
+  ///////////////////////////
+
+  /**
+   * Whether a discrete time is covered by the circular buffer.
+   *
+   * @param dt  the discrete time
+   * @return whether the discrete time is covered by the circular buffer
+   */
+  private boolean isInHorizon(int dt) {
+    return baseTime <= dt && dt < baseTime + numOfSlots;
+  }
+
+  /**
+   * Get the slot of a discrete time.
+   *
+   * @param dt  the discrete time
+   * @return the slot of the discrete time
+   */
+  private int slot(int dt) {
+    return dt % numOfSlots;
+  }
+
+  /**
+   * Get the index of a time-tile in the grids.
+   *
+   * @param dt   the discrete time
+   * @param tid  the tile ID
+   * @return the index of the time-tile in the grids
+   */
+  private int index(int dt, int tid) {
+    return slot(dt) * numOfTiles + tid;
+  }
+
+  /**
+   * Get the record of a reservation ID; create one if it does not exist.
+   *
+   * @param rid  the reservation ID
+   * @return the record of the reservation ID
+   */
+  private Record getRecord(int rid) {
+    Record record = records.get(rid);
+    if (record == null) {
+      record = new Record();
+      records.put(rid, record);
+    }
+    return record;
+  }
+
+  /**
+   * Reserve a time-tile for a reservation ID.
+   *
+   * @param rid     the reservation ID
+   * @param record  the record of the reservation ID
+   * @param dt      the discrete time
+   * @param tid     the tile ID
+   */
+  private void reserveTimeTile(int rid, Record record, int dt, int tid) {
+    int i = index(dt, tid);
+    if (grids[i] != rid) {
+      grids[i] = rid;
+      occupancies[slot(dt) * numOfWords + (tid >>> 6)] |= 1L << (tid & 63);
+      reservedCounts[slot(dt)]++;
+      record.add(dt, tid);
+    }
+  }
+
+  /**
+   * Update the bookkeeping after time-tiles have been added to a record.
+   *
+   * @param rid        the reservation ID
+   * @param record     the record of the reservation ID
+   * @param oldLastDt  the last discrete time of the record before the
+   *                   time-tiles were added
+   */
+  private void updateRecord(int rid, Record record, int oldLastDt) {
+    if (record.size == 0) {
+      records.remove(rid);
+    } else if (record.lastDt != oldLastDt) {
+      addExpiringRid(record.lastDt, rid);
+      if (record.lastDt > lastReservedTime) {
+        lastReservedTime = record.lastDt;
+      }
+    }
+  }
+
+  /**
+   * Record that a reservation ends at a given discrete time.
+   *
+   * @param dt   the discrete time
+   * @param rid  the reservation ID
+   */
+  private void addExpiringRid(int dt, int rid) {
+    int s = slot(dt);
+    if (expiringRids[s] == null) {
+      expiringRids[s] = new int[4];
+    } else if (expiringCounts[s] == expiringRids[s].length) {
+      expiringRids[s] = Arrays.copyOf(expiringRids[s], 2 * expiringCounts[s]);
+    }
+    expiringRids[s][expiringCounts[s]++] = rid;
+  }
+
+}
@@ -0,0 +1,221 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of time-tiles represented as one tile bitmask per discrete time.
+ * Bit (tid &amp; 63) of word (tid &gt;&gt;&gt; 6) of a mask is set if the tile
+ * tid is in the set at that discrete time.  To keep the masks small, only
+ * the range of words between the first and the last non-zero word of each
+ * discrete time is stored.
+ */
+public class TimeTileMasks {
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The discrete time of the first mask.
+   */
+  private final int firstDiscreteTime;
+
+  /**
+   * The index of the first stored word of each mask.
+   */
+  private final int[] firstWords;
+
+  /**
+   * The stored words of each mask.
+   */
+  private final long[][] words;
+
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a set of time-tiles from dense bitmasks.
+   *
+   * @param firstDiscreteTime  the discrete time of the first mask
+   * @param masks              the dense bitmasks of the discrete times
+   */
+  public TimeTileMasks(int firstDiscreteTime, long[][] masks) {
+    this.firstDiscreteTime = firstDiscreteTime;
+    this.firstWords = new int[masks.length];
+    this.words = new long[masks.length][];
+    for(int i = 0; i < masks.length; i++) {
+      long[] mask = masks[i];
+      int first = 0;
+      while(first < mask.length && mask[first] == 0L) {
+        first++;
+      }
+      int last = mask.length - 1;
+      while(last >= first && mask[last] == 0L) {
+        last--;
+      }
+      firstWords[i] = first;
+      words[i] = new long[last - first + 1];
+      System.arraycopy(mask, first, words[i], 0, words[i].length);
+    }
+  }
+
+  /**
+   * Create a set of time-tiles that shares the masks of another set.
+   *
+   * @param firstDiscreteTime  the discrete time of the first mask
+   * @param firstWords         the index of the first stored word of each mask
+   * @param words              the stored words of each mask
+   */
+  private TimeTileMasks(int firstDiscreteTime, int[] firstWords,
+                        long[][] words) {
+    this.firstDiscreteTime = firstDiscreteTime;
+    this.firstWords = firstWords;
+    this.words = words;
+  }
+
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the number of words needed for the bitmask of a given number of
+   * tiles.
+   *
+   * @param numOfTiles  the number of tiles
+   * @return the number of words of the bitmask
+   */
+  public static int calcNumOfWords(int numOfTiles) {
+    return (numOfTiles + 63) >>> 6;
+  }
+
+  /**
+   * Get the discrete time of the first mask.
+   *
+   * @return the discrete time of the first mask
+   */
+  public int getFirstDiscreteTime() {
+    return firstDiscreteTime;
+  }
+
+  /**
+   * Get the number of masks.
+   *
+   * @return the number of masks
+   */
+  public int getNumOfMasks() {
+    return words.length;
+  }
+
+  /**
+   * Get the discrete time of the i-th mask.
+   *
+   * @param i  the index of the mask
+   * @return the discrete time of the mask
+   */
+  public int getDiscreteTime(int i) {
+    return firstDiscreteTime + i;
+  }
+
+  /**
+   * Get the index of the first stored word of the i-th mask.
+   *
+   * @param i  the index of the mask
+   * @return the index of the first stored word of the mask
+   */
+  public int getFirstWord(int i) {
+    return firstWords[i];
+  }
+
+  /**
+   * Get the stored words of the i-th mask.  The array must not be modified.
+   *
+   * @param i  the index of the mask
+   * @return the stored words of the mask
+   */
+  public long[] getWords(int i) {
+    return words[i];
+  }
+
+  /**
+   * Get the same set of time-tiles shifted by a number of discrete times.
+   * The masks are shared with this set.
+   *
+   * @param dt  the number of discrete times
+   * @return the shifted set of time-tiles
+   */
+  public TimeTileMasks shift(int dt) {
+    return new TimeTileMasks(firstDiscreteTime + dt, firstWords, words);
+  }
+
+  /**
+   * Get the number of time-tiles in this set.
+   *
+   * @return the number of time-tiles in this set
+   */
+  public int size() {
+    int n = 0;
+    for(long[] w : words) {
+      for(long x : w) {
+        n += Long.bitCount(x);
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Convert this set to a list of time-tiles.
+   *
+   * @return the list of time-tiles
+   */
+  public List<ReservationArray.TimeTile> toTimeTiles() {
+    List<ReservationArray.TimeTile> timeTiles =
+      new ArrayList<ReservationArray.TimeTile>(size());
+    for(int i = 0; i < words.length; i++) {
+      for(int j = 0; j < words[i].length; j++) {
+        long x = words[i][j];
+        while(x != 0L) {
+          int tid = ((firstWords[i] + j) << 6) + Long.numberOfTrailingZeros(x);
+          timeTiles.add(
+            new ReservationArray.TimeTile(firstDiscreteTime + i, tid));
+          x &= x - 1;
+        }
+      }
+    }
+    return timeTiles;
+  }
+
+}
@@ -88,7 +88,7 @@ public class GridMap implements BasicMap {
   /** The array of intersection managers */
   private IntersectionManager[][] intersectionManagerGrid;
   /** The maximum speed limit  */
-  private double memoMaximumSpeedLimit = -1;
+  private volatile double memoMaximumSpeedLimit = -1;
   /** The data collection lines */
   private List<DataCollectionLine> dataCollectionLines;
   /** The spawn points */
@@ -358,7 +358,7 @@ public class GridMap implements BasicMap {
     spawnPoints.addAll(horizontalSpawnPoints);
     spawnPoints.addAll(verticalSpawnPoints);
 
-    Debug.currentMap = this;
+    Debug.setCurrentMap(this);
   }
 
   /**
@@ -417,16 +417,19 @@ public class GridMap implements BasicMap {
    */
   @Override
   public double getMaximumSpeedLimit() {
-    if(memoMaximumSpeedLimit < 0) {
+    double maximumSpeedLimit = memoMaximumSpeedLimit;
+    if(maximumSpeedLimit < 0) {
+      // compute it in a local so that no thread sees a partial maximum
       for(Road r : getRoads()) {
         for(Lane l : r.getLanes()) {
-          if(l.getSpeedLimit() > memoMaximumSpeedLimit) {
-            memoMaximumSpeedLimit = l.getSpeedLimit();
+          if(l.getSpeedLimit() > maximumSpeedLimit) {
+            maximumSpeedLimit = l.getSpeedLimit();
           }
         }
       }
+      memoMaximumSpeedLimit = maximumSpeedLimit;
     }
-    return memoMaximumSpeedLimit;
+    return maximumSpeedLimit;
   }
 
   /**
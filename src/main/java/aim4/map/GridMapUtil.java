@@ -125,7 +125,7 @@ public class GridMapUtil {
       double initTime = spawnPoint.getCurrentTime();
       for (double time = initTime; time < initTime + timeStep;
            time += SimConfig.SPAWN_TIME_STEP) {
-        if (Util.random.nextDouble() < prob) {
+        if (Util.getRandom().nextDouble() < prob) {
           int i = Util.randomIndex(proportion);
           VehicleSpec vehicleSpec = VehicleSpecDatabase.getVehicleSpecById(i);
           Road destinationRoad =
@@ -188,7 +188,7 @@ public class GridMapUtil {
       double initTime = spawnPoint.getCurrentTime();
       for (double time = initTime; time < initTime + timeStep;
            time += SimConfig.SPAWN_TIME_STEP) {
-        if (Util.random.nextDouble() < prob) {
+        if (Util.getRandom().nextDouble() < prob) {
           Road destinationRoad =
                   destinationSelector.selectDestination(spawnPoint.getLane());
 
@@ -288,7 +288,8 @@ public class GridMapUtil {
                                        double spawnPeriod) {
       this.destinationRoads = new ArrayList<Road>(destinationRoads.size());
       for (Road road : destinationRoads) {
-        if (Debug.currentMap.getRoad(spawnPoint.getLane()).getDual() != road) {
+        Road spawnRoad = Debug.getCurrentMap().getRoad(spawnPoint.getLane());
+        if (spawnRoad.getDual() != road) {
           this.destinationRoads.add(road);
         }
       }
@@ -395,6 +396,24 @@ public class GridMapUtil {
                                       double currentTime,
                                       ReservationGridManager.Config config,
                                       double processingInterval) {
+    setBatchManagers(layout, currentTime, config, processingInterval, false);
+  }
+
+  /**
+   * Set the bath managers at all intersections.
+   *
+   * @param layout             the map
+   * @param currentTime        the current time
+   * @param config             the reservation grid manager configuration
+   * @param processingInterval the processing interval
+   * @param isOptimistic       whether the batches are processed
+   *                           optimistically
+   */
+  public static void setBatchManagers(GridMap layout,
+                                      double currentTime,
+                                      ReservationGridManager.Config config,
+                                      double processingInterval,
+                                      boolean isOptimistic) {
     layout.removeAllManagers();
     for (int column = 0; column < layout.getColumns(); column++) {
       for (int row = 0; row < layout.getRows(); row++) {
@@ -405,10 +424,11 @@ public class GridMapUtil {
         V2IManager im =
                 new V2IManager(intersection, trajectoryModel, currentTime,
                         config, layout.getImRegistry());
-        RequestHandler rh =
+        BatchModeRequestHandler rh =
                 new BatchModeRequestHandler(
                         new RoadBasedReordering(processingInterval),
                         new BatchModeRequestHandler.RequestStatCollector());
+        rh.setIsOptimistic(isOptimistic);
         im.setPolicy(new BasePolicy(im, rh));
         layout.setManager(column, row, im);
       }
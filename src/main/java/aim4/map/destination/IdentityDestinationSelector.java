@@ -60,6 +60,6 @@ public class IdentityDestinationSelector implements DestinationSelector {
    */
   @Override
   public Road selectDestination(Lane currentLane) {
-    return Debug.currentMap.getRoad(currentLane);
+    return Debug.getCurrentMap().getRoad(currentLane);
   }
 }
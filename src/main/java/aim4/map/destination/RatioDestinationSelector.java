@@ -104,9 +104,9 @@ public class RatioDestinationSelector implements DestinationSelector {
    */
   @Override
   public Road selectDestination(Lane currentLane) {
-    Road currentRoad = Debug.currentMap.getRoad(currentLane);
+    Road currentRoad = Debug.getCurrentMap().getRoad(currentLane);
     int laneId = currentLane.getId();
-    double prob = Util.random.nextDouble();
+    double prob = Util.getRandom().nextDouble();
     if (prob < leftTurnProb.get(laneId)) {
       return trafficVolume.getLeftTurnRoad(currentRoad);
     } else if (prob >= 1.0 - rightTurnProb.get(laneId)) {
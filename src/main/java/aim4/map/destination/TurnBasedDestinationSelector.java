@@ -77,7 +77,7 @@ public class TurnBasedDestinationSelector implements DestinationSelector {
    */
   @Override
   public Road selectDestination(Lane currentLane) {
-    Road currentRoad = Debug.currentMap.getRoad(currentLane);
+    Road currentRoad = Debug.getCurrentMap().getRoad(currentLane);
 
     boolean hasLeft = currentLane.hasLeftNeighbor();
     boolean hasRight = currentLane.hasRightNeighbor();
@@ -60,9 +60,10 @@ public class LaneIM {
 
   /**
    * Memoization cache for {@link
-   * #nextIntersectionManager(IntersectionManager im)}.
+   * #nextIntersectionManager(IntersectionManager im)}.  It is volatile so
+   * that a cache built by one thread is safely published to the others.
    */
-  private Map<IntersectionManager, IntersectionManager>
+  private volatile Map<IntersectionManager, IntersectionManager>
     memoGetSubsequentIntersectionManager = null;
 
   /////////////////////////////////
@@ -382,9 +383,10 @@ public class LaneIM {
    */
   public IntersectionManager nextIntersectionManager(IntersectionManager im) {
     // Build the cache if it doesn't exist
-    if(memoGetSubsequentIntersectionManager == null) {
-      memoGetSubsequentIntersectionManager =
-        new HashMap<IntersectionManager, IntersectionManager>();
+    Map<IntersectionManager, IntersectionManager> memo =
+      memoGetSubsequentIntersectionManager;
+    if(memo == null) {
+      memo = new HashMap<IntersectionManager, IntersectionManager>();
       IntersectionManager lastIM = null;
       // Now run through the IntersectionManagers in order and set up
       // the cache
@@ -392,19 +394,18 @@ public class LaneIM {
         // Don't include the first one as a value, since it isn't subsequent
         // to anything
         if(lastIM != null) {
-          memoGetSubsequentIntersectionManager.put(lastIM, currIM);
+          memo.put(lastIM, currIM);
         }
         lastIM = currIM;
       }
       // Link up to the next Lane
       if(lastIM != null && lane.hasNextLane()) {
-        memoGetSubsequentIntersectionManager.put(lastIM,
-                                                 lane.getNextLane().
-                                                 getLaneIM().
-                                                 firstIntersectionManager());
+        memo.put(lastIM,
+                 lane.getNextLane().getLaneIM().firstIntersectionManager());
       }
+      memoGetSubsequentIntersectionManager = memo;
     }
-    return memoGetSubsequentIntersectionManager.get(im);
+    return memo.get(im);
   }
 
   /**
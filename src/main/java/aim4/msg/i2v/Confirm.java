@@ -105,6 +105,12 @@ public class Confirm extends I2VMessage {
    */
   private Queue<double[]> accProfile;
 
+  /**
+   * The ID number of the reservation that this confirm message offers to
+   * replace; -1 if this confirm message replies to a request message.
+   */
+  private int replacedReservationId = -1;
+
 
   /////////////////////////////////
   // CLASS CONSTRUCTORS
@@ -164,6 +170,58 @@ public class Confirm extends I2VMessage {
               (5 + 2 * accProfile.size()) * Constants.DOUBLE_SIZE;
   }
 
+  /**
+   * Create a confirm message that offers to replace an existing reservation
+   * of the vehicle.  The vehicle accepts the offer by cancelling the
+   * replaced reservation, or declines it by cancelling the reservation of
+   * this message.
+   *
+   * @param imId                   the ID number of the IntersectionManager
+   *                               sending this message
+   * @param vin                    the ID number of the Vehicle to which this
+   *                               message is being sent
+   * @param reservationID          the unique ID number for the reservation
+   *                               confirmed by this message
+   * @param requestId              the request id of the request message
+   *                               of the replaced reservation
+   * @param arrivalTime            the time at which the receiving vehicle
+   *                               should arrive at the intersection
+   * @param earlyError             the maximum amount of time before the
+   *                               arrival time that the receiving vehicle
+   *                               can safely arrive at the intersection
+   * @param lateError              the maximum amount of time after the
+   *                               arrival time that the receiving vehicle
+   *                               can safely arrive at the intersection
+   * @param arrivalVelocity        the velocity at which the vehicle should
+   *                               arrive at the intersection
+   * @param arrivalLaneID          the ID number of the lane in which the
+   *                               vehicle should arrive at the intersection
+   * @param departureLaneID        the ID number of the lane in which the
+   *                               vehicle should depart the intersection
+   * @param aczDistance            The distance after the intersection that
+   *                               is protected by an Admission Control Zone.
+   * @param accProfile             a run-length encoded list of
+   *                               acceleration/duration pairs to be executed
+   *                               by the vehicle during intersection
+   *                               traversal
+   * @param replacedReservationId  the ID number of the reservation that
+   *                               this message offers to replace
+   */
+  public Confirm(int imId, int vin,
+                 int reservationID, int requestId,
+                 double arrivalTime,
+                 double earlyError, double lateError,
+                 double arrivalVelocity,
+                 int arrivalLaneID, int departureLaneID,
+                 double aczDistance, Queue<double[]> accProfile,
+                 int replacedReservationId) {
+    this(imId, vin, reservationID, requestId, arrivalTime,
+         earlyError, lateError, arrivalVelocity,
+         arrivalLaneID, departureLaneID, aczDistance, accProfile);
+    this.replacedReservationId = replacedReservationId;
+    size += Constants.INTEGER_SIZE;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -279,6 +337,17 @@ public class Confirm extends I2VMessage {
     return accProfile;
   }
 
+  /**
+   * Get the ID number of the reservation that this confirm message offers
+   * to replace.
+   *
+   * @return the ID number of the replaced reservation; -1 if this confirm
+   *         message replies to a request message
+   */
+  public int getReplacedReservationId() {
+    return replacedReservationId;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -296,6 +365,8 @@ public class Confirm extends I2VMessage {
            + ", accProfile=" + accProfileToString()
            + ", earlyError=" + Constants.TWO_DEC.format(earlyError)
            + ", lateError=" + Constants.TWO_DEC.format(lateError)
+           + (replacedReservationId < 0 ? ""
+              : ", replacing=" + replacedReservationId)
            + ")";
   }
 
@@ -31,6 +31,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package aim4.msg.i2v;
 
 import aim4.config.Constants;
+import aim4.msg.v2i.Request;
 
 /**
  * Message sent from an Intersection Manager to a Vehicle to reject a
@@ -115,6 +116,12 @@ public class Reject extends I2VMessage {
    */
   private Reason reason;
 
+  /**
+   * The proposal that the IntersectionManager would most likely accept
+   * instead of the rejected ones; null if there is none.
+   */
+  private Request.Proposal counterOffer;
+
 
   /////////////////////////////////
   // CLASS CONSTRUCTORS
@@ -148,6 +155,37 @@ public class Reject extends I2VMessage {
     size += Constants.ENUM_SIZE + Constants.DOUBLE_SIZE;
   }
 
+  /**
+   * Constructor with specific reason for rejection, limit on when the next
+   * acceptable transmission is, and a counter-offer.
+   *
+   * @param sourceID                 the ID number of the IntersectionManager
+   *                                 sending this message
+   * @param destinationID            the ID number of the Vehicle to which
+   *                                 this message is being sent
+   * @param requestId                the request id of the request message
+   *                                 this reject message corresponds to
+   * @param nextAllowedCommunication the time after which communication will
+   *                                 accepted by the IntersectionManager
+   * @param reason                   the reason this Reject message is being
+   *                                 sent
+   * @param counterOffer             the proposal that the
+   *                                 IntersectionManager would most likely
+   *                                 accept; null if there is none
+   */
+  public Reject(int sourceID, int destinationID,
+                int requestId,
+                double nextAllowedCommunication,
+                Reason reason,
+                Request.Proposal counterOffer) {
+    this(sourceID, destinationID, requestId, nextAllowedCommunication,
+         reason);
+    this.counterOffer = counterOffer;
+    if (counterOffer != null) {
+      size += 2 * Constants.INTEGER_SIZE + 3 * Constants.DOUBLE_SIZE;
+    }
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -182,6 +220,18 @@ public class Reject extends I2VMessage {
     return reason;
   }
 
+  /**
+   * Get the counter-offer of the IntersectionManager.  The counter-offer is
+   * one of the rejected proposals moved to the earliest arrival time at
+   * which its time-tiles were free when the request was processed.  It is
+   * not a reservation; the vehicle has to request it.
+   *
+   * @return the counter-offer; null if there is none
+   */
+  public Request.Proposal getCounterOffer() {
+    return counterOffer;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -195,6 +245,8 @@ public class Reject extends I2VMessage {
            + ", requestID=" + requestId
            + ", nextcomm:" + String.format("%.2f", nextAllowedCommunication)
            + ", reason:" + reason
+           + (counterOffer == null ? ""
+              : String.format(", offer:%.2f", counterOffer.getArrivalTime()))
            + ")";
   }
 
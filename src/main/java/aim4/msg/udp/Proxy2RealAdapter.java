@@ -35,13 +35,15 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 
 import aim4.msg.i2v.Confirm;
 import aim4.msg.i2v.Reject;
 import aim4.msg.udp.UdpHeader.UdpMessageType;
 
 /**
- * The proxy vehicle to real vehicle message adapter.
+ * The proxy vehicle to real vehicle message adapter.  The messages are
+ * encoded by a {@link UdpCodec}.
  */
 public abstract class Proxy2RealAdapter {
 
@@ -60,28 +62,11 @@ public abstract class Proxy2RealAdapter {
                                                 SocketAddress sa,
                                                 double currentTime)
                                                throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    DataOutputStream dos =
-      getDosWithHeader(baos, currentTime, UdpMessageType.I2V_Confirm);
-    assert dos.size() == UdpHeader.LENGTH;
-
-    dos.writeInt(msg.getReservationId());
-    // arrival_time is relative
-    dos.writeFloat((float) (msg.getArrivalTime() - currentTime));
-    dos.writeFloat((float) msg.getEarlyError());
-    dos.writeFloat((float) msg.getLateError());
-    dos.writeFloat((float) msg.getArrivalVelocity());
-    double accel = msg.getAccelerationProfile().peek()[0];
-    // ignore other acceleration for now
-    // TODO: fix it in the future
-    dos.writeFloat((float) accel);
-//    System.out.printf("I2V_Confirm: acceleration for car to use is %.2f\n",
-//                      accel);
-
-    int udpPacketSize = UdpHeader.LENGTH + 24;
-    assert (baos.size() == udpPacketSize);
-    DatagramPacket dp =
-      new DatagramPacket(baos.toByteArray(), udpPacketSize, sa);
+    byte[] data = new byte[UdpCodec.CONFIRM_LENGTH];
+    int udpPacketSize =
+      new UdpCodec().wrap(ByteBuffer.wrap(data)).encodeConfirm(msg,
+                                                               currentTime);
+    DatagramPacket dp = new DatagramPacket(data, udpPacketSize, sa);
     return dp;
   }
 
@@ -100,15 +85,10 @@ public abstract class Proxy2RealAdapter {
                                                 SocketAddress sa,
                                                 double currentTime)
                                                throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    DataOutputStream dos =
-      getDosWithHeader(baos, currentTime, UdpMessageType.I2V_Reject);
-    assert dos.size() == UdpHeader.LENGTH;
-
-    int udpPacketSize = UdpHeader.LENGTH;
-    assert (baos.size() == udpPacketSize);
-    DatagramPacket dp =
-      new DatagramPacket(baos.toByteArray(), udpPacketSize, sa);
+    byte[] data = new byte[UdpCodec.REJECT_LENGTH];
+    int udpPacketSize =
+      new UdpCodec().wrap(ByteBuffer.wrap(data)).encodeReject(currentTime);
+    DatagramPacket dp = new DatagramPacket(data, udpPacketSize, sa);
     return dp;
   }
 
@@ -128,17 +108,11 @@ public abstract class Proxy2RealAdapter {
                                                 SocketAddress sa,
                                                 double currentTime)
                                                throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    DataOutputStream dos =
-      getDosWithHeader(baos, currentTime,UdpMessageType.I2V_DistToFrontVehicle);
-    assert dos.size() == UdpHeader.LENGTH;
-
-    dos.writeFloat((float) distToFrontVehicle);
-
-    int udpPacketSize = UdpHeader.LENGTH + 4;
-    assert (baos.size() == udpPacketSize);
-    DatagramPacket dp =
-      new DatagramPacket(baos.toByteArray(), udpPacketSize, sa);
+    byte[] data = new byte[UdpCodec.DIST_TO_FRONT_VEHICLE_LENGTH];
+    int udpPacketSize =
+      new UdpCodec().wrap(ByteBuffer.wrap(data))
+                    .encodeDistToFrontVehicle(distToFrontVehicle, currentTime);
+    DatagramPacket dp = new DatagramPacket(data, udpPacketSize, sa);
     return dp;
   }
 
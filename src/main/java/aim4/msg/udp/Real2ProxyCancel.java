@@ -49,6 +49,17 @@ public class Real2ProxyCancel extends Real2ProxyMsg {
   // CONSTRUCTORS
   /////////////////////////////////
 
+  /**
+   * Create a real vehicle to proxy vehicle message for cancel message.
+   *
+   * @param reservationId  the reservation ID
+   * @param receivedTime   the time stamp
+   */
+  public Real2ProxyCancel(int reservationId, double receivedTime) {
+    super(Type.REQUEST, receivedTime);
+    this.reservationId = reservationId;
+  }
+
   /**
    * Create a real vehicle to proxy vehicle message for cancel message.
    *
@@ -42,6 +42,15 @@ public class Real2ProxyDone extends Real2ProxyMsg {
   // CONSTRUCTORS
   /////////////////////////////////
 
+  /**
+   * Create a real vehicle to proxy vehicle message for done message.
+   *
+   * @param receivedTime  the time stamp
+   */
+  public Real2ProxyDone(double receivedTime) {
+    super(Type.DONE, receivedTime);
+  }
+
   /**
    * Create a real vehicle to proxy vehicle message for done message.
    *
@@ -70,6 +70,33 @@ public class Real2ProxyPVUpdate extends Real2ProxyMsg {
   // CONSTRUCTORS
   /////////////////////////////////
 
+  /**
+   * Create a real vehicle to proxy vehicle message for PV update message.
+   *
+   * @param vin             the VIN of the vehicle
+   * @param position        the position of the vehicle
+   * @param heading         the heading of the vehicle
+   * @param steeringAngle   the steering angle
+   * @param velocity        the velocity of the vehicle
+   * @param targetVelocity  the target velocity
+   * @param acceleration    the acceleration of the vehicle
+   * @param receivedTime    the time stamp
+   */
+  public Real2ProxyPVUpdate(int vin, Point2D position, double heading,
+                            double steeringAngle, double velocity,
+                            double targetVelocity, double acceleration,
+                            double receivedTime) {
+    super(Type.PV_UPDATE, receivedTime);
+    this.vin = vin;
+    this.position = position;
+    this.heading = heading;
+    this.steeringAngle = steeringAngle;
+    this.velocity = velocity;
+    this.targetVelocity = targetVelocity;
+    this.acceleration = acceleration;
+    this.accelProfile = null;
+  }
+
   /**
    * Create a real vehicle to proxy vehicle message for PV update message.
    *
@@ -57,6 +57,25 @@ public class Real2ProxyRequest extends Real2ProxyMsg {
   // CONSTRUCTORS
   /////////////////////////////////
 
+  /**
+   * Create a real vehicle to proxy vehicle message for request message.
+   *
+   * @param vin              the VIN of the vehicle
+   * @param arrivalTimeSpan  the arrival time span
+   * @param departureLaneId  the departure lane ID
+   * @param arrivalVelocity  the arrival velocity
+   * @param receivedTime     the time stamp
+   */
+  public Real2ProxyRequest(int vin, float arrivalTimeSpan,
+                           int departureLaneId, float arrivalVelocity,
+                           double receivedTime) {
+    super(Type.REQUEST, receivedTime);
+    this.vin = vin;
+    this.arrivalTimeSpan = arrivalTimeSpan;
+    this.departureLaneId = departureLaneId;
+    this.arrivalVelocity = arrivalVelocity;
+  }
+
   /**
    * Create a real vehicle to proxy vehicle message for request message.
    *
@@ -0,0 +1,425 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.msg.udp;
+
+import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+
+import aim4.msg.i2v.Confirm;
+import aim4.msg.udp.UdpHeader.UdpMessageType;
+
+/**
+ * A flyweight that reads and writes the UDP messages between the real
+ * vehicles and the proxy vehicles directly in a {@link ByteBuffer}.  The
+ * fields are at fixed offsets from the start of the message and are read
+ * and written in the big-endian order of {@link java.io.DataInputStream}
+ * and {@link java.io.DataOutputStream}, so the messages are the same as the
+ * ones of {@link UdpHeader}, {@link Proxy2RealAdapter} and the stream
+ * constructors of the Real2Proxy messages.  The position and the limit of
+ * the buffer are never changed, and no object is created other than the
+ * decoded messages, so a codec can be wrapped around one message after
+ * another.  A codec must not be shared between threads.
+ */
+public class UdpCodec {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  // header
+
+  /** The offset of the time stamp */
+  public static final int TIMESTAMP_OFFSET = 0;
+  /** The offset of the message type */
+  public static final int MESSAGE_TYPE_OFFSET = 4;
+  /** The offset of the check sum */
+  public static final int CHECKSUM_OFFSET = 8;
+
+  // PV update
+
+  /** The offset of the VIN of a PV update message */
+  public static final int PV_UPDATE_VIN_OFFSET = UdpHeader.LENGTH;
+  /** The offset of the x-coordinate of a PV update message */
+  public static final int PV_UPDATE_X_OFFSET = UdpHeader.LENGTH + 4;
+  /** The offset of the y-coordinate of a PV update message */
+  public static final int PV_UPDATE_Y_OFFSET = UdpHeader.LENGTH + 8;
+  /** The offset of the heading of a PV update message */
+  public static final int PV_UPDATE_HEADING_OFFSET = UdpHeader.LENGTH + 12;
+  /** The offset of the steering angle of a PV update message */
+  public static final int PV_UPDATE_STEERING_ANGLE_OFFSET =
+    UdpHeader.LENGTH + 16;
+  /** The offset of the velocity of a PV update message */
+  public static final int PV_UPDATE_VELOCITY_OFFSET = UdpHeader.LENGTH + 20;
+  /** The offset of the target velocity of a PV update message */
+  public static final int PV_UPDATE_TARGET_VELOCITY_OFFSET =
+    UdpHeader.LENGTH + 24;
+  /** The offset of the acceleration of a PV update message */
+  public static final int PV_UPDATE_ACCELERATION_OFFSET =
+    UdpHeader.LENGTH + 28;
+  /** The length of a PV update message */
+  public static final int PV_UPDATE_LENGTH = UdpHeader.LENGTH + 32;
+
+  // request
+
+  /** The offset of the VIN of a request message */
+  public static final int REQUEST_VIN_OFFSET = UdpHeader.LENGTH;
+  /** The offset of the arrival time span of a request message */
+  public static final int REQUEST_ARRIVAL_TIME_SPAN_OFFSET =
+    UdpHeader.LENGTH + 4;
+  /** The offset of the departure lane ID of a request message */
+  public static final int REQUEST_DEPARTURE_LANE_ID_OFFSET =
+    UdpHeader.LENGTH + 8;
+  /** The offset of the arrival velocity of a request message */
+  public static final int REQUEST_ARRIVAL_VELOCITY_OFFSET =
+    UdpHeader.LENGTH + 12;
+  /** The length of a request message */
+  public static final int REQUEST_LENGTH = UdpHeader.LENGTH + 16;
+
+  // cancel and done
+
+  /** The offset of the reservation ID of a cancel message */
+  public static final int CANCEL_RESERVATION_ID_OFFSET = UdpHeader.LENGTH;
+  /** The length of a cancel message */
+  public static final int CANCEL_LENGTH = UdpHeader.LENGTH + 4;
+  /** The length of a done message */
+  public static final int DONE_LENGTH = UdpHeader.LENGTH;
+
+  // confirm
+
+  /** The offset of the reservation ID of a confirm message */
+  public static final int CONFIRM_RESERVATION_ID_OFFSET = UdpHeader.LENGTH;
+  /**
+   * The offset of the arrival time of a confirm message, which is relative
+   * to the time stamp
+   */
+  public static final int CONFIRM_ARRIVAL_TIME_OFFSET = UdpHeader.LENGTH + 4;
+  /** The offset of the early error of a confirm message */
+  public static final int CONFIRM_EARLY_ERROR_OFFSET = UdpHeader.LENGTH + 8;
+  /** The offset of the late error of a confirm message */
+  public static final int CONFIRM_LATE_ERROR_OFFSET = UdpHeader.LENGTH + 12;
+  /** The offset of the arrival velocity of a confirm message */
+  public static final int CONFIRM_ARRIVAL_VELOCITY_OFFSET =
+    UdpHeader.LENGTH + 16;
+  /** The offset of the acceleration of a confirm message */
+  public static final int CONFIRM_ACCELERATION_OFFSET = UdpHeader.LENGTH + 20;
+  /** The length of a confirm message */
+  public static final int CONFIRM_LENGTH = UdpHeader.LENGTH + 24;
+
+  // reject and the distance to the front vehicle
+
+  /** The length of a reject message */
+  public static final int REJECT_LENGTH = UdpHeader.LENGTH;
+  /** The offset of the distance of a distance to front vehicle message */
+  public static final int DIST_TO_FRONT_VEHICLE_OFFSET = UdpHeader.LENGTH;
+  /** The length of a distance to front vehicle message */
+  public static final int DIST_TO_FRONT_VEHICLE_LENGTH = UdpHeader.LENGTH + 4;
+
+  /** The message types, indexed by their ordinals */
+  private static final UdpMessageType[] MESSAGE_TYPES =
+    UdpMessageType.values();
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The buffer */
+  private ByteBuffer buffer;
+  /** The index of the start of the message in the buffer */
+  private int offset;
+  /** The number of bytes of the message that can be read */
+  private int length;
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  // wrapping
+
+  /**
+   * Wrap the codec around the remaining bytes of a buffer.
+   *
+   * @param buffer  the buffer
+   * @return this codec
+   */
+  public UdpCodec wrap(ByteBuffer buffer) {
+    return wrap(buffer, buffer.position(), buffer.remaining());
+  }
+
+  /**
+   * Wrap the codec around a range of a buffer.
+   *
+   * @param buffer  the buffer
+   * @param offset  the index of the start of the message
+   * @param length  the number of bytes of the message that can be read, or
+   *                the space for the message to be written
+   * @return this codec
+   */
+  public UdpCodec wrap(ByteBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    return this;
+  }
+
+  /**
+   * Get the number of bytes of the message.
+   *
+   * @return the number of bytes of the message
+   */
+  public int getLength() {
+    return length;
+  }
+
+  // header
+
+  /**
+   * Whether the message is long enough for a header with a known message
+   * type.
+   *
+   * @return whether the header is valid
+   */
+  public boolean isHeaderValid() {
+    return length >= UdpHeader.LENGTH && getMessageType() != null;
+  }
+
+  /**
+   * Get the time stamp of the header.
+   *
+   * @return the time stamp
+   */
+  public float getTimestamp() {
+    return buffer.getFloat(offset + TIMESTAMP_OFFSET);
+  }
+
+  /**
+   * Get the message type of the header.
+   *
+   * @return the message type; null if the type is unknown
+   */
+  public UdpMessageType getMessageType() {
+    int type = buffer.getInt(offset + MESSAGE_TYPE_OFFSET);
+    return (0 <= type && type < MESSAGE_TYPES.length)
+           ? MESSAGE_TYPES[type] : null;
+  }
+
+  /**
+   * Get the check sum of the header.
+   *
+   * @return the check sum
+   */
+  public int getChecksum() {
+    return buffer.getInt(offset + CHECKSUM_OFFSET);
+  }
+
+  /**
+   * Whether the check sum of the header matches the message.
+   *
+   * @return whether the check sum is valid
+   */
+  public boolean isChecksumValid() {
+    return getChecksum() == UdpHeader.computeChecksum(buffer, offset, length);
+  }
+
+  // decoding
+
+  /**
+   * Decode a PV update message.
+   *
+   * @param receivedTime  the time stamp
+   * @return the message; null if the message is too short
+   */
+  public Real2ProxyPVUpdate decodePVUpdate(double receivedTime) {
+    if (length < PV_UPDATE_LENGTH) {
+      return null;
+    }
+    return new Real2ProxyPVUpdate(
+      buffer.getInt(offset + PV_UPDATE_VIN_OFFSET),
+      new Point2D.Double(buffer.getFloat(offset + PV_UPDATE_X_OFFSET),
+                         buffer.getFloat(offset + PV_UPDATE_Y_OFFSET)),
+      buffer.getFloat(offset + PV_UPDATE_HEADING_OFFSET),
+      buffer.getFloat(offset + PV_UPDATE_STEERING_ANGLE_OFFSET),
+      buffer.getFloat(offset + PV_UPDATE_VELOCITY_OFFSET),
+      buffer.getFloat(offset + PV_UPDATE_TARGET_VELOCITY_OFFSET),
+      buffer.getFloat(offset + PV_UPDATE_ACCELERATION_OFFSET),
+      receivedTime);
+  }
+
+  /**
+   * Decode a request message.
+   *
+   * @param receivedTime  the time stamp
+   * @return the message; null if the message is too short
+   */
+  public Real2ProxyRequest decodeRequest(double receivedTime) {
+    if (length < REQUEST_LENGTH) {
+      return null;
+    }
+    return new Real2ProxyRequest(
+      buffer.getInt(offset + REQUEST_VIN_OFFSET),
+      buffer.getFloat(offset + REQUEST_ARRIVAL_TIME_SPAN_OFFSET),
+      buffer.getInt(offset + REQUEST_DEPARTURE_LANE_ID_OFFSET),
+      buffer.getFloat(offset + REQUEST_ARRIVAL_VELOCITY_OFFSET),
+      receivedTime);
+  }
+
+  /**
+   * Decode a cancel message.
+   *
+   * @param receivedTime  the time stamp
+   * @return the message; null if the message is too short
+   */
+  public Real2ProxyCancel decodeCancel(double receivedTime) {
+    if (length < CANCEL_LENGTH) {
+      return null;
+    }
+    return new Real2ProxyCancel(
+      buffer.getInt(offset + CANCEL_RESERVATION_ID_OFFSET), receivedTime);
+  }
+
+  /**
+   * Decode a done message.
+   *
+   * @param receivedTime  the time stamp
+   * @return the message; null if the message is too short
+   */
+  public Real2ProxyDone decodeDone(double receivedTime) {
+    if (length < DONE_LENGTH) {
+      return null;
+    }
+    return new Real2ProxyDone(receivedTime);
+  }
+
+  // encoding
+
+  /**
+   * Encode a confirm message.
+   *
+   * @param msg          the confirm message
+   * @param currentTime  the current time, in seconds
+   * @return the number of bytes written
+   */
+  public int encodeConfirm(Confirm msg, double currentTime) {
+    checkSpace(CONFIRM_LENGTH);
+    putHeader(currentTime, UdpMessageType.I2V_Confirm);
+    buffer.putInt(offset + CONFIRM_RESERVATION_ID_OFFSET,
+                  msg.getReservationId());
+    // arrival_time is relative
+    putFloat(CONFIRM_ARRIVAL_TIME_OFFSET, msg.getArrivalTime() - currentTime);
+    putFloat(CONFIRM_EARLY_ERROR_OFFSET, msg.getEarlyError());
+    putFloat(CONFIRM_LATE_ERROR_OFFSET, msg.getLateError());
+    putFloat(CONFIRM_ARRIVAL_VELOCITY_OFFSET, msg.getArrivalVelocity());
+    // ignore other acceleration for now
+    putFloat(CONFIRM_ACCELERATION_OFFSET,
+             msg.getAccelerationProfile().peek()[0]);
+    putChecksum(CONFIRM_LENGTH);
+    return CONFIRM_LENGTH;
+  }
+
+  /**
+   * Encode a reject message.
+   *
+   * @param currentTime  the current time, in seconds
+   * @return the number of bytes written
+   */
+  public int encodeReject(double currentTime) {
+    checkSpace(REJECT_LENGTH);
+    putHeader(currentTime, UdpMessageType.I2V_Reject);
+    putChecksum(REJECT_LENGTH);
+    return REJECT_LENGTH;
+  }
+
+  /**
+   * Encode a message of the distance to the vehicle in front.
+   *
+   * @param distToFrontVehicle  the distance of the vehicle in front
+   * @param currentTime         the current time, in seconds
+   * @return the number of bytes written
+   */
+  public int encodeDistToFrontVehicle(double distToFrontVehicle,
+                                      double currentTime) {
+    checkSpace(DIST_TO_FRONT_VEHICLE_LENGTH);
+    putHeader(currentTime, UdpMessageType.I2V_DistToFrontVehicle);
+    putFloat(DIST_TO_FRONT_VEHICLE_OFFSET, distToFrontVehicle);
+    putChecksum(DIST_TO_FRONT_VEHICLE_LENGTH);
+    return DIST_TO_FRONT_VEHICLE_LENGTH;
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Check whether there is enough space for a message.
+   *
+   * @param messageLength  the length of the message
+   */
+  private void checkSpace(int messageLength) {
+    if (length < messageLength) {
+      throw new IllegalArgumentException(
+        "The buffer is too small for a message of " + messageLength
+        + " bytes.");
+    }
+  }
+
+  /**
+   * Write a header whose check sum is yet to be written.
+   *
+   * @param currentTime  the current time, in seconds
+   * @param type         the message type
+   */
+  private void putHeader(double currentTime, UdpMessageType type) {
+    putFloat(TIMESTAMP_OFFSET, currentTime);
+    buffer.putInt(offset + MESSAGE_TYPE_OFFSET, type.ordinal());
+  }
+
+  /**
+   * Write a float field as {@link java.io.DataOutputStream#writeFloat(float)}
+   * does, which collapses all NaN values to the canonical one.
+   *
+   * @param fieldOffset  the offset of the field
+   * @param value        the value of the field
+   */
+  private void putFloat(int fieldOffset, double value) {
+    buffer.putInt(offset + fieldOffset, Float.floatToIntBits((float)value));
+  }
+
+  /**
+   * Write the check sum of a message whose other fields are written.
+   *
+   * @param messageLength  the length of the message
+   */
+  private void putChecksum(int messageLength) {
+    buffer.putInt(offset + CHECKSUM_OFFSET, 0);
+    buffer.putInt(offset + CHECKSUM_OFFSET,
+                  UdpHeader.computeChecksum(buffer, offset, messageLength));
+  }
+
+}
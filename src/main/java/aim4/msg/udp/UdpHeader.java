@@ -33,6 +33,7 @@ package aim4.msg.udp;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Small header included in all UDP messages sent to/from the real car.
@@ -195,6 +196,21 @@ public class UdpHeader {
     return 0;
   }
 
+  /**
+   * Compute the check sum for a range of bytes in a buffer.  It must agree
+   * with {@link #computeChecksum(byte[])}.
+   *
+   * @param buffer  the buffer
+   * @param offset  the index of the first byte
+   * @param length  the number of bytes
+   * @return the check sum
+   */
+  public static int computeChecksum(ByteBuffer buffer, int offset,
+                                    int length) {
+    // TODO: implement this function later
+    return 0;
+  }
+
   /////////////////////////////////
   // DEBUG
   /////////////////////////////////
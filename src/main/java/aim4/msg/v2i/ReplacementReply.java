@@ -0,0 +1,112 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.msg.v2i;
+
+import aim4.config.Constants;
+
+/**
+ * Message sent from a Vehicle to an Intersection Manager to accept or
+ * decline an offer to replace its reservation with an earlier one.  The
+ * offer is identified by the ID number of the offered reservation.
+ */
+public class ReplacementReply extends V2IMessage {
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The ID number of the offered reservation.
+   */
+  private int reservationID;
+
+  /**
+   * Whether the vehicle accepts the offer.
+   */
+  private boolean isAccepted;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Basic class constructor with all required fields.
+   *
+   * @param sourceID              the ID number of the Vehicle sending this
+   *                              message
+   * @param destinationID         the ID number of the IntersectionManager to
+   *                              which this message is being sent
+   * @param reservationID         the ID number of the offered reservation
+   * @param isAccepted            whether the vehicle accepts the offer
+   */
+  public ReplacementReply(int sourceID, int destinationID, int reservationID,
+                          boolean isAccepted) {
+    // Set source and destination
+    super(sourceID, destinationID);
+    this.reservationID = reservationID;
+    this.isAccepted = isAccepted;
+    messageType = Type.REPLACEMENT_REPLY;
+    size += Constants.INTEGER_SIZE + Constants.BOOLEAN_SIZE;
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the ID number of the offered reservation.
+   */
+  public int getReservationID() {
+    return reservationID;
+  }
+
+  /**
+   * Whether the vehicle accepts the offer.
+   */
+  public boolean isAccepted() {
+    return isAccepted;
+  }
+
+  /////////////////////////////////
+  // DEBUG
+  /////////////////////////////////
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return "ReplacementReply(vin" + getVin() + " -> im" + getImId() +
+           ", id" + reservationID + (isAccepted ? ", accepted" : ", declined")
+           + ")";
+  }
+
+}
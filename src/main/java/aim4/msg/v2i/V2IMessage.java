@@ -71,6 +71,11 @@ public abstract class V2IMessage {
      * driving straight out of it.
      */
     AWAY,
+    /**
+     * Message accepting or declining an offer to replace a reservation with
+     * an earlier one.
+     */
+    REPLACEMENT_REPLY,
   };
 
   /////////////////////////////////
@@ -32,11 +32,13 @@ package aim4.sim;
 
 import aim4.config.Debug;
 import aim4.config.DebugPoint;
+import aim4.config.SimConfig;
 import aim4.driver.AutoDriver;
 import aim4.driver.DriverSimView;
 import aim4.driver.ProxyDriver;
 import aim4.im.IntersectionManager;
 import aim4.im.v2i.V2IManager;
+import aim4.im.v2i.V2IManagerService;
 import aim4.map.BasicMap;
 import aim4.map.DataCollectionLine;
 import aim4.map.Road;
@@ -45,6 +47,7 @@ import aim4.map.SpawnPoint.SpawnSpec;
 import aim4.map.lane.Lane;
 import aim4.msg.i2v.I2VMessage;
 import aim4.msg.v2i.V2IMessage;
+import aim4.util.SpatialHash;
 import aim4.vehicle.*;
 
 import java.awt.*;
@@ -54,6 +57,12 @@ import java.awt.geom.Rectangle2D;
 import java.util.List;
 import java.util.Queue;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 
@@ -62,22 +71,15 @@ import java.util.*;
  */
 public class AutoDriverOnlySimulator implements Simulator {
 
-  private static HashMap<Road, Integer> DestinationCount = new HashMap<Road, Integer>();
-  private static HashMap<Integer, Integer> ArrivalCount = new HashMap<Integer, Integer>();
-  private static HashMap<Integer, Integer> VehicleCount = new HashMap<Integer, Integer>();
-
-  public static int VehicleCountTotal;
-
-  private static Map<Lane, SortedMap<Double,VehicleSimView>> TotalList = new HashMap<Lane, SortedMap<Double, VehicleSimView>>();
-
-
-  private static HashMap<String, Integer> LaneCount = new HashMap<String, Integer>();
-
-
-  public static HashMap<Integer, Double> ArrivalLaneIDsWeightedPriorities = new HashMap<Integer, Double>();
-  public static HashMap<Integer, Double> DepartureLaneIDsWeightedPriorities = new HashMap<Integer, Double>();
-  public static HashMap<Integer, Double> CongestionWeightedPriorities = new HashMap<Integer, Double>();
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
 
+  /**
+   * The width and height of the cells of the spatial hash of the vehicles.
+   * {@value} meters.
+   */
+  private static final double SPATIAL_HASH_CELL_SIZE = 10.0;
 
   /////////////////////////////////
   // NESTED CLASSES
@@ -110,6 +112,82 @@ public class AutoDriverOnlySimulator implements Simulator {
     }
   }
 
+  /**
+   * The weighted priorities of the lanes, which are updated by the simulator
+   * at every time step and read by the policies of the intersection
+   * managers.  Each simulation context has its own priorities.
+   */
+  public static class LanePriorities {
+
+    /** The weighted priorities of the arrival lanes */
+    private final HashMap<Integer, Double> arrivalLaneIDsWeightedPriorities =
+      new HashMap<Integer, Double>();
+    /** The weighted priorities of the departure lanes */
+    private final HashMap<Integer, Double> departureLaneIDsWeightedPriorities =
+      new HashMap<Integer, Double>();
+    /** The weighted priorities of the lanes by congestion */
+    private final HashMap<Integer, Double> congestionWeightedPriorities =
+      new HashMap<Integer, Double>();
+    /** The total number of active vehicles */
+    private int vehicleCountTotal;
+
+    /**
+     * Get the weighted priorities of the arrival lanes.
+     *
+     * @return a map from the IDs of the arrival lanes to their priorities
+     */
+    public HashMap<Integer, Double> getArrivalLaneIDsWeightedPriorities() {
+      return arrivalLaneIDsWeightedPriorities;
+    }
+
+    /**
+     * Get the weighted priorities of the departure lanes.
+     *
+     * @return a map from the IDs of the departure lanes to their priorities
+     */
+    public HashMap<Integer, Double> getDepartureLaneIDsWeightedPriorities() {
+      return departureLaneIDsWeightedPriorities;
+    }
+
+    /**
+     * Get the weighted priorities of the lanes by congestion.
+     *
+     * @return a map from the IDs of the lanes to their priorities
+     */
+    public HashMap<Integer, Double> getCongestionWeightedPriorities() {
+      return congestionWeightedPriorities;
+    }
+
+    /**
+     * Get the total number of active vehicles.
+     *
+     * @return the total number of active vehicles
+     */
+    public int getVehicleCountTotal() {
+      return vehicleCountTotal;
+    }
+  }
+
+  /**
+   * The key of the lane priorities in the simulation contexts.
+   */
+  private static final SimContext.Slot<LanePriorities> LANE_PRIORITIES =
+    new SimContext.Slot<LanePriorities>() {
+      @Override
+      protected LanePriorities initialValue() {
+        return new LanePriorities();
+      }
+    };
+
+  /**
+   * Get the lane priorities of the current simulation context.
+   *
+   * @return the lane priorities of the current simulation context
+   */
+  public static LanePriorities getLanePriorities() {
+    return SimContext.current().get(LANE_PRIORITIES);
+  }
+
   /**
    * Get the IDs of the Lanes that make up this Road, in order from left to right.
    *
@@ -133,8 +211,71 @@ public class AutoDriverOnlySimulator implements Simulator {
 
   /** The map */
   private BasicMap basicMap;
+  /** The number of vehicles heading to each destination road */
+  private final HashMap<Road, Integer> DestinationCount =
+    new HashMap<Road, Integer>();
+  /** The number of vehicles coming from each arrival lane */
+  private final HashMap<Integer, Integer> ArrivalCount =
+    new HashMap<Integer, Integer>();
+  /** The number of vehicles on each lane */
+  private final HashMap<Integer, Integer> VehicleCount =
+    new HashMap<Integer, Integer>();
+  /** The lane priorities of the simulation context of this simulator */
+  private LanePriorities lanePriorities;
+  /** The weighted priorities of the arrival lanes */
+  private HashMap<Integer, Double> ArrivalLaneIDsWeightedPriorities;
+  /** The weighted priorities of the departure lanes */
+  private HashMap<Integer, Double> DepartureLaneIDsWeightedPriorities;
+  /** The weighted priorities of the lanes by congestion */
+  private HashMap<Integer, Double> CongestionWeightedPriorities;
   /** All active vehicles, in form of a map from VINs to vehicle objects. */
   private Map<Integer,VehicleSimView> vinToVehicles;
+  /** The vehicles on the lanes, in order of their distance on the lanes */
+  private LaneVehicleIndex laneVehicleIndex;
+  /** The active vehicles, hashed by their bounding boxes */
+  private SpatialHash<VehicleSimView> vehicleSpatialHash;
+  /** The vehicles found by the last query of the spatial hash */
+  private final List<VehicleSimView> nearbyVehicles =
+    new ArrayList<VehicleSimView>();
+  /**
+   * The engine that runs the per-vehicle stages of a step in parallel; null
+   * if the stages run sequentially.
+   */
+  private ParallelStepEngine stepEngine;
+  /**
+   * The thread that runs the intersection managers while the vehicles move;
+   * null if the intersection managers act before the communication stage.
+   */
+  private ExecutorService imPipeline;
+  /**
+   * The reservation server that runs one of the intersection managers in
+   * real time instead of this simulator; null if this simulator runs all
+   * the intersection managers.
+   */
+  private V2IManagerService imService;
+  /**
+   * The replies of the reservation server to the simulated vehicles, which
+   * wait for the next delivery of the I2V messages.
+   */
+  private final Queue<I2VMessage> imServiceReplies =
+    new ConcurrentLinkedQueue<I2VMessage>();
+  /** The receiver of the replies of the reservation server */
+  private final V2IManagerService.Client imServiceClient =
+    new V2IManagerService.Client() {
+      @Override
+      public void receive(I2VMessage msg) {
+        imServiceReplies.offer(msg);
+      }
+    };
+  /**
+   * The active vehicles during the current step, in the order of
+   * {@link #vinToVehicles}.
+   */
+  private VehicleSimView[] vehicles = new VehicleSimView[0];
+  /** The number of active vehicles during the current step */
+  private int numOfVehicles;
+  /** The positions of the vehicles before they moved in the current step */
+  private Point2D[] prevPositions = new Point2D[0];
   /** The current time */
   private double currentTime;
   /** The number of completed vehicles */
@@ -164,6 +305,17 @@ public class AutoDriverOnlySimulator implements Simulator {
   public AutoDriverOnlySimulator(BasicMap basicMap) {
     this.basicMap = basicMap;
     this.vinToVehicles = new HashMap<Integer,VehicleSimView>();
+    this.laneVehicleIndex = new LaneVehicleIndex(basicMap);
+    this.vehicleSpatialHash =
+      new SpatialHash<VehicleSimView>(basicMap.getDimensions(),
+                                      SPATIAL_HASH_CELL_SIZE);
+    this.lanePriorities = getLanePriorities();
+    this.ArrivalLaneIDsWeightedPriorities =
+      lanePriorities.getArrivalLaneIDsWeightedPriorities();
+    this.DepartureLaneIDsWeightedPriorities =
+      lanePriorities.getDepartureLaneIDsWeightedPriorities();
+    this.CongestionWeightedPriorities =
+      lanePriorities.getCongestionWeightedPriorities();
 
     currentTime = 0.0;
     numOfCompletedVehicles = 0;
@@ -195,23 +347,44 @@ public class AutoDriverOnlySimulator implements Simulator {
     if (Debug.PRINT_SIMULATOR_STAGE) {
       System.err.printf("------SIM:provideSensorInput---------------\n");
     }
+    takeVehicleSnapshot();
     provideSensorInput();
+    if (imPipeline != null) {
+      if (Debug.PRINT_SIMULATOR_STAGE) {
+        System.err.printf("------SIM:deliverI2VMessages---------------\n");
+      }
+      // the replies to the requests of the previous step
+      deliverI2VMessages();
+    }
     if (Debug.PRINT_SIMULATOR_STAGE) {
       System.err.printf("------SIM:letDriversAct---------------\n");
     }
     letDriversAct();
-    if (Debug.PRINT_SIMULATOR_STAGE) {
-      System.err.printf("------SIM:letIntersectionManagersAct--------------\n");
-    }
-    letIntersectionManagersAct(timeStep);
-    if (Debug.PRINT_SIMULATOR_STAGE) {
-      System.err.printf("------SIM:communication---------------\n");
-    }
-    communication();
-    if (Debug.PRINT_SIMULATOR_STAGE) {
-      System.err.printf("------SIM:moveVehicles---------------\n");
+    if (imPipeline == null) {
+      if (Debug.PRINT_SIMULATOR_STAGE) {
+        System.err.printf("------SIM:letIntersectionManagersAct------------\n");
+      }
+      letIntersectionManagersAct(timeStep);
+      if (Debug.PRINT_SIMULATOR_STAGE) {
+        System.err.printf("------SIM:communication---------------\n");
+      }
+      communication();
+      if (Debug.PRINT_SIMULATOR_STAGE) {
+        System.err.printf("------SIM:moveVehicles---------------\n");
+      }
+      moveVehicles(timeStep);
+    } else {
+      if (Debug.PRINT_SIMULATOR_STAGE) {
+        System.err.printf("------SIM:deliverV2IMessages---------------\n");
+      }
+      deliverV2IMessages();
+      if (Debug.PRINT_SIMULATOR_STAGE) {
+        System.err.printf("------SIM:moveVehicles+IMs---------------\n");
+      }
+      Future<?> imStage = startIntersectionManagers(timeStep);
+      moveVehicles(timeStep);
+      awaitIntersectionManagers(imStage);
     }
-    moveVehicles(timeStep);
     if (Debug.PRINT_SIMULATOR_STAGE) {
       System.err.printf("------SIM:cleanUpCompletedVehicles---------------\n");
     }
@@ -227,6 +400,141 @@ public class AutoDriverOnlySimulator implements Simulator {
   // PUBLIC METHODS
   /////////////////////////////////
 
+  // settings
+
+  /**
+   * Set the number of threads that run the parallel stages of a step: the
+   * sensor input, the actions of the drivers, the ticks of the intersection
+   * managers and the movement of the vehicles.  The results of the simulation do not depend on the number of
+   * threads.  The worker threads run in the current {@link SimContext},
+   * which must be the simulation context of this simulator.  Setting the
+   * number of threads to 1, the default, stops the worker threads.
+   *
+   * @param numOfThreads  the number of threads
+   */
+  public synchronized void setNumOfStepThreads(int numOfThreads) {
+    if (numOfThreads <= 0) {
+      throw new IllegalArgumentException(
+        "The number of threads must be positive.");
+    }
+    if (stepEngine != null) {
+      stepEngine.shutdown();
+      stepEngine = null;
+    }
+    if (numOfThreads > 1) {
+      stepEngine = new ParallelStepEngine(numOfThreads);
+    }
+  }
+
+  /**
+   * Get the number of threads that run the parallel stages of a step.
+   *
+   * @return the number of threads
+   */
+  public synchronized int getNumOfStepThreads() {
+    return (stepEngine == null) ? 1 : stepEngine.getNumOfThreads();
+  }
+
+  /**
+   * Set whether the intersection managers run in a pipeline stage.  If so,
+   * the intersection managers process the requests sent in a step on a
+   * thread of their own while the vehicles move, and the replies are
+   * delivered before the drivers act in the next step, so that a vehicle
+   * reads the reply one step after it sent the request instead of two.  The
+   * maximum expected reply time of the intersection managers in the current
+   * {@link SimContext}, which must be the simulation context of this
+   * simulator, is set accordingly.  The results of the simulation do not
+   * depend on the timing of the threads.
+   *
+   * @param isPipelined  whether the intersection managers run in a pipeline
+   *                     stage
+   */
+  public synchronized void setIsImPipelined(boolean isPipelined) {
+    if (imPipeline != null) {
+      imPipeline.shutdown();
+      imPipeline = null;
+    }
+    if (isPipelined) {
+      imPipeline =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "im-pipeline");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      SimConfig.setMaxExpectedImReplyTime(SimConfig.TIME_STEP);
+    } else {
+      SimConfig.setMaxExpectedImReplyTime(
+        SimConfig.DEFAULT_MAX_EXPECTED_IM_REPLY_TIME);
+    }
+  }
+
+  /**
+   * Whether the intersection managers run in a pipeline stage.
+   *
+   * @return whether the intersection managers run in a pipeline stage
+   */
+  public synchronized boolean isImPipelined() {
+    return imPipeline != null;
+  }
+
+  /**
+   * Hand an intersection manager over to a reservation server, which runs
+   * it in real time on a thread of its own, so that the requests of the
+   * real vehicles heard by a {@link UdpListener} are decided as soon as
+   * they arrive.  From then on this simulator never lets the intersection
+   * manager act, submits the V2I messages of the simulated vehicles to the
+   * server, and delivers the replies at the next step.  The clock of the
+   * server follows the wall clock even if the simulation is paused, so the
+   * simulation should run in real time.  The server runs in the current
+   * {@link SimContext}, which must be the simulation context of this
+   * simulator, and is stopped by {@link #shutdown()}.
+   *
+   * @param imId  the ID of the intersection manager
+   * @return the reservation server
+   */
+  public synchronized V2IManagerService serveIntersectionManager(int imId) {
+    if (imService != null) {
+      throw new IllegalStateException(
+        "An intersection manager is served already.");
+    }
+    IntersectionManager im = basicMap.getImRegistry().get(imId);
+    if (!(im instanceof V2IManager)) {
+      throw new IllegalArgumentException(
+        "No V2I intersection manager has the ID " + imId + ".");
+    }
+    imService = new V2IManagerService((V2IManager)im);
+    imService.start();
+    return imService;
+  }
+
+  /**
+   * Get the reservation server that runs one of the intersection managers.
+   *
+   * @return the reservation server; null if this simulator runs all the
+   *         intersection managers
+   */
+  public synchronized V2IManagerService getV2IManagerService() {
+    return imService;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void shutdown() {
+    setNumOfStepThreads(1);
+    setIsImPipelined(false);
+    if (imService != null && imService.hasStarted()) {
+      imService.stop();
+    }
+    for(IntersectionManager im : basicMap.getIntersectionManagers()) {
+      im.shutdown();
+    }
+  }
+
   // information retrieval
 
   /**
@@ -365,6 +673,8 @@ public class AutoDriverOnlySimulator implements Simulator {
     }
 
     vinToVehicles.put(vehicle.getVIN(), vehicle);
+    laneVehicleIndex.add(vehicle);
+    vehicleSpatialHash.add(vehicle, vehicle.getShape().getBounds2D());
   }
 
 
@@ -393,6 +703,8 @@ public class AutoDriverOnlySimulator implements Simulator {
             VehicleSimView vehicle = makeVehicle(spawnPoint, spawnSpec);
             VinRegistry.registerVehicle(vehicle); // Get vehicle a VIN number
             vinToVehicles.put(vehicle.getVIN(), vehicle);
+            laneVehicleIndex.add(vehicle);
+            vehicleSpatialHash.add(vehicle, vehicle.getShape().getBounds2D());
             break; // only handle the first spawn vehicle
                    // TODO: need to fix this
           }
@@ -418,6 +730,8 @@ public class AutoDriverOnlySimulator implements Simulator {
             VehicleSimView vehicle = makeVehicle(spawnPoint, spawnSpec);
             VinRegistry.registerVehicle(vehicle); // Get vehicle a VIN number
             vinToVehicles.put(vehicle.getVIN(), vehicle);
+            laneVehicleIndex.add(vehicle);
+            vehicleSpatialHash.add(vehicle, vehicle.getShape().getBounds2D());
             break; // only handle the first spawn vehicle
             // TODO: need to fix this
           }
@@ -433,10 +747,13 @@ public class AutoDriverOnlySimulator implements Simulator {
    * @return Whether the spawn point can spawn any vehicle
    */
   private boolean canSpawnVehicle(SpawnPoint spawnPoint) {
-    // TODO: can be made much faster.
     Rectangle2D noVehicleZone = spawnPoint.getNoVehicleZone();
-    for(VehicleSimView vehicle : vinToVehicles.values()) {
-      if (vehicle.getShape().intersects(noVehicleZone)) {
+    nearbyVehicles.clear();
+    vehicleSpatialHash.query(noVehicleZone, nearbyVehicles);
+    for(VehicleSimView vehicle : nearbyVehicles) {
+      // skip the vehicles that have completed since the hash was built
+      if (vinToVehicles.get(vehicle.getVIN()) == vehicle
+          && vehicle.getShape().intersects(noVehicleZone)) {
         return false;
       }
     }
@@ -487,241 +804,175 @@ public class AutoDriverOnlySimulator implements Simulator {
   /////////////////////////////////
 
   /**
-   * Compute the lists of vehicles of all lanes.
-   *
-   * @return a mapping from lanes to lists of vehicles sorted by their
-   *         distance on their lanes
+   * Take a snapshot of the active vehicles for the per-vehicle stages of the
+   * current step.  No vehicle is added or removed between the spawning of
+   * the vehicles and the clean-up of the completed vehicles.
    */
-  private Map<Lane,SortedMap<Double,VehicleSimView>> computeVehicleLists() {
-    // Set up the structure that will hold all the Vehicles as they are
-    // currently ordered in the Lanes
-    Map<Lane,SortedMap<Double,VehicleSimView>> vehicleLists =
-      new HashMap<Lane,SortedMap<Double,VehicleSimView>>();
-    for(Road road : basicMap.getRoads()) {
-      for(Lane lane : road.getLanes()) {
-        vehicleLists.put(lane, new TreeMap<Double,VehicleSimView>());
-      }
+  private void takeVehicleSnapshot() {
+    numOfVehicles = vinToVehicles.size();
+    if (vehicles.length < numOfVehicles) {
+      vehicles = new VehicleSimView[Math.max(numOfVehicles,
+                                             2 * vehicles.length)];
+      prevPositions = new Point2D[vehicles.length];
     }
-    // Now add each of the Vehicles, but make sure to exclude those that are
-    // already inside (partially or entirely) the intersection
+    int i = 0;
     for(VehicleSimView vehicle : vinToVehicles.values()) {
-      // Find out what lanes it is in.
-      Set<Lane> lanes = vehicle.getDriver().getCurrentlyOccupiedLanes();
-      for(Lane lane : lanes) {
-        // Find out what IntersectionManager is coming up for this vehicle
-        IntersectionManager im =
-          lane.getLaneIM().nextIntersectionManager(vehicle.getPosition());
-        // Only include this Vehicle if it is not in the intersection.
-        if(lane.getLaneIM().distanceToNextIntersection(vehicle.getPosition())>0
-            || im == null || !im.intersects(vehicle.getShape().getBounds2D())) {
-          // Now find how far along the lane it is.
-          double dst = lane.distanceAlongLane(vehicle.getPosition());
-          // Now add it to the map.
-          vehicleLists.get(lane).put(dst, vehicle);
-        }
-      }
+      vehicles[i++] = vehicle;
     }
-    // Now consolidate the lists based on lanes
-    for(Road road : basicMap.getRoads()) {
-      for(Lane lane : road.getLanes()) {
-        // We may have already removed this Lane from the map
-        if(vehicleLists.containsKey(lane)) {
-          Lane currLane = lane;
-          // Now run through the lanes
-          while(currLane.hasNextLane()) {
-            currLane = currLane.getNextLane();
-            // Put everything from the next lane into the original lane
-            // and remove the mapping for the next lane
-            vehicleLists.get(lane).putAll(vehicleLists.remove(currLane));
-          }
-        }
-      }
-    }
-
-
-    return vehicleLists;
+    // drop the references to the vehicles that have left
+    Arrays.fill(vehicles, numOfVehicles, vehicles.length, null);
   }
 
   /**
-   * Compute the next vehicles of all vehicles.
+   * Run a per-vehicle stage on the vehicles of the current step, in parallel
+   * if there is a step engine.
    *
-   * @param vehicleLists  a mapping from lanes to lists of vehicles sorted by
-   *                      their distance on their lanes
-   * @return a mapping from vehicles to next vehicles
+   * @param stage  the stage
    */
-  private Map<VehicleSimView, VehicleSimView> computeNextVehicle(
-    Map<Lane,SortedMap<Double,VehicleSimView>> vehicleLists) {
-    // At this point we should only have mappings for start Lanes, and they
-    // should include all the Lanes they run into.  Now we need to turn this
-    // into a hash map that maps Vehicles to the next vehicle in the Lane
-    // or any Lane the Lane runs into
-    Map<VehicleSimView, VehicleSimView> nextVehicle =
-      new HashMap<VehicleSimView,VehicleSimView>();
-    // For each of the ordered lists of vehicles
-    for(SortedMap<Double,VehicleSimView> vehicleList : vehicleLists.values()) {
-      VehicleSimView lastVehicle = null;
-      // Go through the Vehicles in order of their position in the Lane
-      for(VehicleSimView currVehicle : vehicleList.values()) {
-        if(lastVehicle != null) {
-          // Create the mapping from the previous Vehicle to the current one
-          nextVehicle.put(lastVehicle,currVehicle);
-        }
-        lastVehicle = currVehicle;
-      }
+  private void runStage(ParallelStepEngine.Stage stage) {
+    if (stepEngine == null) {
+      stage.run(0, numOfVehicles);
+    } else {
+      stepEngine.run(numOfVehicles, stage);
     }
-
-    return nextVehicle;
   }
 
   /**
    * Provide each vehicle with sensor information to allow it to make
-   * decisions.  This works first by making an ordered list for each Lane of
-   * all the vehicles in that Lane, in order from the start of the Lane to
-   * the end of the Lane.  We must make sure to leave out all vehicles that
-   * are in the intersection.  We must also concatenate the lists for lanes
-   * that feed into one another.  Then, for each vehicle, depending on the
-   * state of its sensors, we provide it with the appropriate sensor input.
+   * decisions.  The vehicles on each lane, in order from the start of the
+   * lane to the end of the lane, are kept by the lane vehicle index, which
+   * leaves out all vehicles that are in the intersection and concatenates
+   * the lists for lanes that feed into one another.  Then, for each vehicle,
+   * depending on the state of its sensors, we provide it with the
+   * appropriate sensor input.
    */
   private void provideSensorInput() {
-    Map<Lane,SortedMap<Double,VehicleSimView>> vehicleLists =
-      computeVehicleLists();
-    Map<VehicleSimView, VehicleSimView> nextVehicle =
-      computeNextVehicle(vehicleLists);
-
-    provideIntervalInfo(nextVehicle);
-    provideVehicleTrackingInfo(vehicleLists);
+    // The sensor readings of a vehicle only depend on the positions and the
+    // velocities of the vehicles, which do not change in this stage.
+    runStage(new ParallelStepEngine.Stage() {
+      @Override
+      public void run(int from, int to) {
+        for(int i = from; i < to; i++) {
+          provideIntervalInfo(vehicles[i]);
+          provideVehicleTrackingInfo(vehicles[i]);
+        }
+      }
+    });
     provideTrafficSignal();
   }
 
   /**
-   * Provide sensing information to the intervalometers of all vehicles.
+   * Provide sensing information to the intervalometer of a vehicle.
    *
-   * @param nextVehicle  a mapping from vehicles to next vehicles
+   * @param vehicle  the vehicle
    */
-  private void provideIntervalInfo(
-    Map<VehicleSimView, VehicleSimView> nextVehicle) {
-
-    // Now that we have this list set up, let's provide input to all the
-    // Vehicles.
-    for(VehicleSimView vehicle: vinToVehicles.values()) {
-      // If the vehicle is autonomous
-      if (vehicle instanceof AutoVehicleSimView) {
-        AutoVehicleSimView autoVehicle = (AutoVehicleSimView)vehicle;
-
-        switch(autoVehicle.getLRFMode()) {
-        case DISABLED:
-          // Find the interval to the next vehicle
-          double interval;
-          // If there is a next vehicle, then calculate it
-          if(nextVehicle.containsKey(autoVehicle)) {
-            // It's the distance from the front of this Vehicle to the point
-            // at the rear of the Vehicle in front of it
-            interval = calcInterval(autoVehicle, nextVehicle.get(autoVehicle));
-          } else { // Otherwise, just set it to the maximum possible value
-            interval = Double.MAX_VALUE;
-          }
-          // Now actually record it in the vehicle
-          autoVehicle.getIntervalometer().record(interval);
-          autoVehicle.setLRFSensing(false); // Vehicle is not using
-                                            // the LRF sensor
-          break;
-        case LIMITED:
-          // FIXME
-          autoVehicle.setLRFSensing(true); // Vehicle is using the LRF sensor
-          break;
-        case ENABLED:
-          // FIXME
-          autoVehicle.setLRFSensing(true); // Vehicle is using the LRF sensor
-          break;
-        default:
-          throw new RuntimeException("Unknown LRF Mode: " +
-                                     autoVehicle.getLRFMode().toString());
+  private void provideIntervalInfo(VehicleSimView vehicle) {
+    // If the vehicle is autonomous
+    if (vehicle instanceof AutoVehicleSimView) {
+      AutoVehicleSimView autoVehicle = (AutoVehicleSimView)vehicle;
+
+      switch(autoVehicle.getLRFMode()) {
+      case DISABLED:
+        // Find the interval to the next vehicle
+        double interval;
+        VehicleSimView nextVehicle =
+          laneVehicleIndex.getNextVehicle(autoVehicle.getVIN());
+        // If there is a next vehicle, then calculate it
+        if(nextVehicle != null) {
+          // It's the distance from the front of this Vehicle to the point
+          // at the rear of the Vehicle in front of it
+          interval = calcInterval(autoVehicle, nextVehicle);
+        } else { // Otherwise, just set it to the maximum possible value
+          interval = Double.MAX_VALUE;
         }
+        // Now actually record it in the vehicle
+        autoVehicle.getIntervalometer().record(interval);
+        autoVehicle.setLRFSensing(false); // Vehicle is not using
+                                          // the LRF sensor
+        break;
+      case LIMITED:
+        // FIXME
+        autoVehicle.setLRFSensing(true); // Vehicle is using the LRF sensor
+        break;
+      case ENABLED:
+        // FIXME
+        autoVehicle.setLRFSensing(true); // Vehicle is using the LRF sensor
+        break;
+      default:
+        throw new RuntimeException("Unknown LRF Mode: " +
+                                   autoVehicle.getLRFMode().toString());
       }
     }
   }
 
   /**
-   * Provide tracking information to vehicles.
+   * Provide tracking information to a vehicle.
    *
-   * @param vehicleLists  a mapping from lanes to lists of vehicles sorted by
-   *                      their distance on their lanes
+   * @param vehicle  the vehicle
    */
-  private void provideVehicleTrackingInfo(
-    Map<Lane, SortedMap<Double, VehicleSimView>> vehicleLists) {
-    // Vehicle Tracking
-    for(VehicleSimView vehicle: vinToVehicles.values()) {
-      // If the vehicle is autonomous
-      if (vehicle instanceof AutoVehicleSimView) {
-        AutoVehicleSimView autoVehicle = (AutoVehicleSimView)vehicle;
-
-        if (autoVehicle.isVehicleTracking()) {
-          DriverSimView driver = autoVehicle.getDriver();
-          Lane targetLane = autoVehicle.getTargetLaneForVehicleTracking();
-          Point2D pos = autoVehicle.getPosition();
-          double dst = targetLane.distanceAlongLane(pos);
-
-          // initialize the distances to infinity
-          double frontDst = Double.MAX_VALUE;
-          double rearDst = Double.MAX_VALUE;
-          VehicleSimView frontVehicle = null ;
-          VehicleSimView rearVehicle = null ;
-
-          // only consider the vehicles on the target lane
-          SortedMap<Double,VehicleSimView> vehiclesOnTargetLane =
-            vehicleLists.get(targetLane);
-
-          // compute the distances and the corresponding vehicles
-          try {
-            double d = vehiclesOnTargetLane.tailMap(dst).firstKey();
-            frontVehicle = vehiclesOnTargetLane.get(d);
-            frontDst = (d-dst)-frontVehicle.getSpec().getLength();
-          } catch(NoSuchElementException e) {
-            frontDst = Double.MAX_VALUE;
-            frontVehicle = null;
-          }
-          try {
-            double d = vehiclesOnTargetLane.headMap(dst).lastKey();
-            rearVehicle = vehiclesOnTargetLane.get(d);
-            rearDst = dst-d;
-          } catch(NoSuchElementException e) {
-            rearDst = Double.MAX_VALUE;
-            rearVehicle = null;
-          }
+  private void provideVehicleTrackingInfo(VehicleSimView vehicle) {
+    // If the vehicle is autonomous
+    if (vehicle instanceof AutoVehicleSimView) {
+      AutoVehicleSimView autoVehicle = (AutoVehicleSimView)vehicle;
+
+      if (autoVehicle.isVehicleTracking()) {
+        DriverSimView driver = autoVehicle.getDriver();
+        Lane targetLane = autoVehicle.getTargetLaneForVehicleTracking();
+        Point2D pos = autoVehicle.getPosition();
+        double dst = targetLane.distanceAlongLane(pos);
+
+        // initialize the distances to infinity
+        double frontDst = Double.MAX_VALUE;
+        double rearDst = Double.MAX_VALUE;
+        VehicleSimView frontVehicle = null ;
+        VehicleSimView rearVehicle = null ;
+
+        // compute the distances and the corresponding vehicles; only
+        // consider the vehicles on the target lane
+        frontVehicle = laneVehicleIndex.getFrontVehicle(targetLane, dst);
+        if (frontVehicle != null) {
+          double d =
+            laneVehicleIndex.getFrontVehicleDistance(targetLane, dst);
+          frontDst = (d-dst)-frontVehicle.getSpec().getLength();
+        }
+        rearVehicle = laneVehicleIndex.getRearVehicle(targetLane, dst);
+        if (rearVehicle != null) {
+          double d =
+            laneVehicleIndex.getRearVehicleDistance(targetLane, dst);
+          rearDst = dst-d;
+        }
 
-          // assign the sensor readings
+        // assign the sensor readings
 
-          autoVehicle.getFrontVehicleDistanceSensor().record(frontDst);
-          autoVehicle.getRearVehicleDistanceSensor().record(rearDst);
+        autoVehicle.getFrontVehicleDistanceSensor().record(frontDst);
+        autoVehicle.getRearVehicleDistanceSensor().record(rearDst);
 
-          // assign the vehicles' velocities
+        // assign the vehicles' velocities
 
-          if(frontVehicle!=null) {
-            autoVehicle.getFrontVehicleSpeedSensor().record(
-                frontVehicle.getVelocity());
-          } else {
-            autoVehicle.getFrontVehicleSpeedSensor().record(Double.MAX_VALUE);
-          }
-          if(rearVehicle!=null) {
-            autoVehicle.getRearVehicleSpeedSensor().record(
-                rearVehicle.getVelocity());
-          } else {
-            autoVehicle.getRearVehicleSpeedSensor().record(Double.MAX_VALUE);
-          }
+        if(frontVehicle!=null) {
+          autoVehicle.getFrontVehicleSpeedSensor().record(
+              frontVehicle.getVelocity());
+        } else {
+          autoVehicle.getFrontVehicleSpeedSensor().record(Double.MAX_VALUE);
+        }
+        if(rearVehicle!=null) {
+          autoVehicle.getRearVehicleSpeedSensor().record(
+              rearVehicle.getVelocity());
+        } else {
+          autoVehicle.getRearVehicleSpeedSensor().record(Double.MAX_VALUE);
+        }
 
-          // show the section on the viewer
-          if (Debug.isTargetVIN(driver.getVehicle().getVIN())) {
-            Point2D p1 = targetLane.getPointAtNormalizedDistance(
-                Math.max((dst-rearDst)/targetLane.getLength(),0.0));
-            Point2D p2 = targetLane.getPointAtNormalizedDistance(
-                Math.min((frontDst+dst)/targetLane.getLength(),1.0));
-            Debug.addLongTermDebugPoint(
-              new DebugPoint(p2, p1, "cl", Color.RED.brighter()));
-          }
+        // show the section on the viewer
+        if (Debug.isTargetVIN(driver.getVehicle().getVIN())) {
+          Point2D p1 = targetLane.getPointAtNormalizedDistance(
+              Math.max((dst-rearDst)/targetLane.getLength(),0.0));
+          Point2D p2 = targetLane.getPointAtNormalizedDistance(
+              Math.min((frontDst+dst)/targetLane.getLength(),1.0));
+          Debug.addLongTermDebugPoint(
+            new DebugPoint(p2, p1, "cl", Color.RED.brighter()));
         }
       }
     }
-
   }
 
   public static double mean (ArrayList<Double> table)
@@ -850,9 +1101,16 @@ public class AutoDriverOnlySimulator implements Simulator {
    * Allow each driver to act.
    */
   private void letDriversAct() {
-    for(VehicleSimView vehicle : vinToVehicles.values()) {
-      vehicle.getDriver().act();
-    }
+    // A driver only changes its own vehicle and puts the messages in the
+    // outbox of its vehicle, which are delivered in order in STEP 5.
+    runStage(new ParallelStepEngine.Stage() {
+      @Override
+      public void run(int from, int to) {
+        for(int i = from; i < to; i++) {
+          vehicles[i].getDriver().act();
+        }
+      }
+    });
   }
 
   /////////////////////////////////
@@ -864,9 +1122,93 @@ public class AutoDriverOnlySimulator implements Simulator {
    *
    * @param timeStep  the time step
    */
-  private void letIntersectionManagersAct(double timeStep) {
-    for(IntersectionManager im : basicMap.getIntersectionManagers()) {
-      im.act(timeStep);
+  private void letIntersectionManagersAct(final double timeStep) {
+    final List<IntersectionManager> ims = basicMap.getIntersectionManagers();
+    if (stepEngine == null) {
+      for(IntersectionManager im : ims) {
+        if (!isServed(im)) {
+          im.act(timeStep);
+        }
+      }
+    } else {
+      // Each intersection manager has its own inbox, policy, reservation
+      // grid and outbox, and the outboxes are delivered in the order of the
+      // intersection managers in STEP 5.  An intersection manager is worth a
+      // chunk of its own.
+      stepEngine.run(ims.size(), 1, new ParallelStepEngine.Stage() {
+        @Override
+        public void run(int from, int to) {
+          for(int i = from; i < to; i++) {
+            if (!isServed(ims.get(i))) {
+              ims.get(i).act(timeStep);
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Start the intersection managers on the pipeline thread.  The requests
+   * are in the inboxes of the intersection managers already, and the
+   * vehicles must not read the state of the intersection managers until
+   * the stage is done.
+   *
+   * @param timeStep  the time step
+   * @return the future of the stage
+   */
+  private Future<?> startIntersectionManagers(final double timeStep) {
+    final SimContext context = SimContext.current();
+    final List<IntersectionManager> ims = basicMap.getIntersectionManagers();
+    return imPipeline.submit(new Runnable() {
+      @Override
+      public void run() {
+        context.run(new Runnable() {
+          @Override
+          public void run() {
+            // in order, since the outboxes are delivered in order
+            for(IntersectionManager im : ims) {
+              if (!isServed(im)) {
+                im.act(timeStep);
+              }
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Wait for the intersection managers started by
+   * {@link #startIntersectionManagers(double)} to finish.
+   *
+   * @param imStage  the future of the stage
+   */
+  private void awaitIntersectionManagers(Future<?> imStage) {
+    boolean isInterrupted = false;
+    try {
+      while (true) {
+        try {
+          imStage.get();
+          break;
+        } catch(InterruptedException e) {
+          // the intersection managers must be done before the next step
+          isInterrupted = true;
+        }
+      }
+    } catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        throw new RuntimeException(cause);
+      }
+    } finally {
+      if (isInterrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
   }
 
@@ -904,7 +1246,11 @@ public class AutoDriverOnlySimulator implements Simulator {
           // Find out if the message will make it that far
           if(transmit(txDistance, sender.getTransmissionPower())) {
             // Actually deliver the message
-            receiver.receive(msg);
+            if (isServed(receiver)) {
+              imService.submit(msg, imServiceClient);
+            } else {
+              receiver.receive(msg);
+            }
             // Add the delivery to the debugging information
           }
           // Either way, we increment the number of transmitted messages
@@ -924,27 +1270,62 @@ public class AutoDriverOnlySimulator implements Simulator {
   private void deliverI2VMessages() {
     // Now deliver all the I2V messages
     for(IntersectionManager im : basicMap.getIntersectionManagers()) {
+      if (isServed(im)) {
+        // the outbox belongs to the thread of the reservation server
+        continue;
+      }
       V2IManager senderIM = (V2IManager)im;
       for(Iterator<I2VMessage> i2vIter = senderIM.outboxIterator();
           i2vIter.hasNext();) {
-        I2VMessage msg = i2vIter.next();
-        AutoVehicleSimView vehicle =
-          (AutoVehicleSimView)VinRegistry.getVehicleFromVIN(
-            msg.getVin());
-        // Calculate the distance the message must travel
-        double txDistance =
-          senderIM.getIntersection().getCentroid().distance(
-            vehicle.getPosition());
-        // Find out if the message will make it that far
-        if(transmit(txDistance, senderIM.getTransmissionPower())) {
-          // Actually deliver the message
-          vehicle.receive(msg);
-        }
+        deliverI2VMessage(senderIM, i2vIter.next());
       }
       // Done delivering the IntersectionManager's messages, so clear the
       // outbox.
       senderIM.clearOutbox();
     }
+    if (imService != null) {
+      V2IManager senderIM = imService.getIntersectionManager();
+      for(I2VMessage msg = imServiceReplies.poll(); msg != null;
+          msg = imServiceReplies.poll()) {
+        deliverI2VMessage(senderIM, msg);
+      }
+    }
+  }
+
+  /**
+   * Deliver an I2V message.
+   *
+   * @param senderIM  the intersection manager that sent the message
+   * @param msg       the message
+   */
+  private void deliverI2VMessage(V2IManager senderIM, I2VMessage msg) {
+    AutoVehicleSimView vehicle =
+      (AutoVehicleSimView)VinRegistry.getVehicleFromVIN(msg.getVin());
+    if (vehicle == null) {
+      // the vehicle has left since the intersection manager replied
+      return;
+    }
+    // Calculate the distance the message must travel
+    double txDistance =
+      senderIM.getIntersection().getCentroid().distance(
+        vehicle.getPosition());
+    // Find out if the message will make it that far
+    if(transmit(txDistance, senderIM.getTransmissionPower())) {
+      // Actually deliver the message
+      vehicle.receive(msg);
+    }
+  }
+
+  /**
+   * Whether an intersection manager is run by the reservation server
+   * instead of this simulator.
+   *
+   * @param im  the intersection manager
+   * @return whether the intersection manager is run by the reservation
+   *         server
+   */
+  private boolean isServed(IntersectionManager im) {
+    return imService != null && imService.getIntersectionManager() == im;
   }
 
 //  private void deliverV2VMessages() {
@@ -1043,10 +1424,22 @@ public class AutoDriverOnlySimulator implements Simulator {
    *
    * @param timeStep  the time step
    */
-  private void moveVehicles(double timeStep) {
-    for(VehicleSimView vehicle : vinToVehicles.values()) {
-      Point2D p1 = vehicle.getPosition();
-      vehicle.move(timeStep);
+  private void moveVehicles(final double timeStep) {
+    // Move the vehicles first, and then record the side effects on the
+    // shared data in the order of the vehicles.
+    runStage(new ParallelStepEngine.Stage() {
+      @Override
+      public void run(int from, int to) {
+        for(int i = from; i < to; i++) {
+          prevPositions[i] = vehicles[i].getPosition();
+          vehicles[i].move(timeStep);
+        }
+      }
+    });
+    vehicleSpatialHash.clear();
+    for(int i = 0; i < numOfVehicles; i++) {
+      VehicleSimView vehicle = vehicles[i];
+      Point2D p1 = prevPositions[i];
       Point2D p2 = vehicle.getPosition();
       for(DataCollectionLine line : basicMap.getDataCollectionLines()) {
         line.intersect(vehicle, currentTime, p1, p2);
@@ -1054,6 +1447,7 @@ public class AutoDriverOnlySimulator implements Simulator {
       if (Debug.isPrintVehicleStateOfVIN(vehicle.getVIN())) {
         vehicle.printState();
       }
+      vehicleSpatialHash.add(vehicle, vehicle.getShape().getBounds2D());
 
       if(DestinationCount.containsKey(VinRegistry.getDestRoadFromVIN(vehicle.getVIN()))){
         DestinationCount.put(VinRegistry.getDestRoadFromVIN(vehicle.getVIN()), ((DestinationCount.get(VinRegistry.getDestRoadFromVIN(vehicle.getVIN()))) +1));
@@ -1119,6 +1513,7 @@ public class AutoDriverOnlySimulator implements Simulator {
       AlltimeDelays.add(currentTime - vinToVehicles.get(vin).getSpawnTime());
 
       vinToVehicles.remove(vin);
+      laneVehicleIndex.remove(vin);
       completedVINs.add(vin);
       numOfCompletedVehicles++;
 
@@ -1140,17 +1535,19 @@ public class AutoDriverOnlySimulator implements Simulator {
 
     String out = "";
 
-    out+= "Time Step: " + currentTime + "\n";
-    Iterator it2 = ArrivalCount.entrySet().iterator();
-    Iterator it = DestinationCount.entrySet().iterator();
+    if (Debug.IS_PRINT_SIMULATOR_STATUS) {
+      out+= "Time Step: " + currentTime + "\n";
+      Iterator it2 = ArrivalCount.entrySet().iterator();
+      Iterator it = DestinationCount.entrySet().iterator();
 
-    while (it2.hasNext()) {
-      Map.Entry pair1 = (Map.Entry)it2.next();
-      out += (pair1.getValue()).toString() + " coming from " + pair1.getKey().toString() + "\n";
-    }
-    while (it.hasNext()) {
-      Map.Entry pair = (Map.Entry)it.next();
-      out += (pair.getValue()).toString() + " heading to " + pair.getKey().toString() + " " + getLanesIds(((Road)(pair.getKey())).getLanes())  + "\n";
+      while (it2.hasNext()) {
+        Map.Entry pair1 = (Map.Entry)it2.next();
+        out += (pair1.getValue()).toString() + " coming from " + pair1.getKey().toString() + "\n";
+      }
+      while (it.hasNext()) {
+        Map.Entry pair = (Map.Entry)it.next();
+        out += (pair.getValue()).toString() + " heading to " + pair.getKey().toString() + " " + getLanesIds(((Road)(pair.getKey())).getLanes())  + "\n";
+      }
     }
 
     //Initially all lanes are given equal priority:
@@ -1205,7 +1602,8 @@ public class AutoDriverOnlySimulator implements Simulator {
 
     int ArrivalCountTotal = 0;
     int DestinationCountTotal = 0;
-    VehicleCountTotal = getActiveVehicles().size();
+    int VehicleCountTotal = getActiveVehicles().size();
+    lanePriorities.vehicleCountTotal = VehicleCountTotal;
 
 
 
@@ -1240,11 +1638,14 @@ public class AutoDriverOnlySimulator implements Simulator {
 
     }
 
-    TotalList = computeVehicleLists();
+    // The vehicles have moved; bring the lane index up to date.  The index
+    // is not changed again until the sensor input of the next time step
+    // except for the vehicles spawned in between.
+    laneVehicleIndex.update();
 
     //First populate VehicleCount:
-    for(Lane l: TotalList.keySet()) {
-      VehicleCount.put(l.getId(), TotalList.get(l).values().size());
+    for(Lane l: laneVehicleIndex.getFirstLanes()) {
+      VehicleCount.put(l.getId(), laneVehicleIndex.getNumOfVehicles(l));
     }
 
 
@@ -1257,11 +1658,13 @@ public class AutoDriverOnlySimulator implements Simulator {
 
     }
 
-    out+= "\n Total Vehicles: " + VehicleCountTotal + "\n";
-    Iterator it3 = VehicleCount.entrySet().iterator();
-    while (it3.hasNext()) {
-      Map.Entry pair = (Map.Entry)it3.next();
-      out += (pair.getValue()).toString() + " vehicles on lane " + pair.getKey().toString() + "\n";
+    if (Debug.IS_PRINT_SIMULATOR_STATUS) {
+      out+= "\n Total Vehicles: " + VehicleCountTotal + "\n";
+      Iterator it3 = VehicleCount.entrySet().iterator();
+      while (it3.hasNext()) {
+        Map.Entry pair = (Map.Entry)it3.next();
+        out += (pair.getValue()).toString() + " vehicles on lane " + pair.getKey().toString() + "\n";
+      }
     }
 
 
@@ -1271,7 +1674,9 @@ public class AutoDriverOnlySimulator implements Simulator {
     VehicleCount.clear();
 
 
-    System.out.println(out);
+    if (Debug.IS_PRINT_SIMULATOR_STATUS) {
+      System.out.println(out);
+    }
 
     return completedVINs;
   }
@@ -1290,7 +1695,10 @@ public class AutoDriverOnlySimulator implements Simulator {
     }
     // Check the clocks for all the intersection managers.
     for(IntersectionManager im : basicMap.getIntersectionManagers()) {
-      im.checkCurrentTime(currentTime);
+      // the reservation server keeps its own clock
+      if (!isServed(im)) {
+        im.checkCurrentTime(currentTime);
+      }
     }
   }
 
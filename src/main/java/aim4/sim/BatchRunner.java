@@ -0,0 +1,412 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+
+import aim4.config.Debug;
+import aim4.config.SimConfig;
+import aim4.im.IntersectionManager;
+import aim4.im.v2i.V2IManager;
+import aim4.im.v2i.policy.AdmissionFilter;
+import aim4.im.v2i.policy.BasePolicy;
+import aim4.im.v2i.reservation.NegativeQueryCache;
+import aim4.sim.setup.Scenario;
+import aim4.sim.setup.SimFactory;
+import aim4.util.LatencyHistogram;
+
+/**
+ * A runner of simulations without the GUI.  A simulation is stepped in a
+ * tight loop until the total simulation time of its scenario, and the
+ * statistics of the run are returned as a {@link Result}.
+ */
+public class BatchRunner {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The statistics of a batch run.
+   */
+  public static class Result {
+    /** The name of the scenario */
+    private final String scenarioName;
+    /** The name of the simulator setup */
+    private final String setupName;
+    /** The random seed; null if the scenario does not specify one */
+    private final Long randomSeed;
+    /** The simulation time at the end of the run */
+    private final double simulationTime;
+    /** The number of completed vehicles */
+    private final int numOfCompletedVehicles;
+    /** The average time delay of the completed vehicles */
+    private final double avgTimeDelay;
+    /** The maximum time delay of the completed vehicles */
+    private final double maxTimeDelay;
+    /** The standard deviation of the time delays */
+    private final double stdDevTimeDelay;
+    /** The average number of bits transmitted by the completed vehicles */
+    private final double avgBitsTransmitted;
+    /** The average number of bits received by the completed vehicles */
+    private final double avgBitsReceived;
+    /** The wall-clock time of the run, in seconds */
+    private final double wallClockTime;
+    /**
+     * The latencies of the requests whose proposals were queried one after
+     * another, at all intersection managers
+     */
+    private final LatencyHistogram sequentialLatencies =
+      new LatencyHistogram();
+    /**
+     * The latencies of the requests whose proposals were queried at the same
+     * time, at all intersection managers
+     */
+    private final LatencyHistogram speculativeLatencies =
+      new LatencyHistogram();
+    /**
+     * The number of proposals rejected by each admission stage, at all
+     * intersection managers
+     */
+    private final long[] numOfAdmissionRejects =
+      new long[AdmissionFilter.Stage.values().length];
+    /**
+     * The number of lookups in the negative query caches of all
+     * intersection managers
+     */
+    private long numOfNegativeQueryLookups;
+    /**
+     * The number of hits in the negative query caches of all intersection
+     * managers
+     */
+    private long numOfNegativeQueryHits;
+
+    /**
+     * Create the statistics of a batch run.
+     *
+     * @param scenario        the scenario
+     * @param sim             the simulator at the end of the run
+     * @param wallClockTime   the wall-clock time of the run, in seconds
+     */
+    public Result(Scenario scenario, Simulator sim, double wallClockTime) {
+      this.scenarioName = scenario.getName();
+      this.setupName = scenario.getSetupName();
+      this.randomSeed = scenario.getRandomSeed();
+      this.simulationTime = sim.getSimulationTime();
+      this.numOfCompletedVehicles = sim.getNumCompletedVehicles();
+      this.avgTimeDelay = sim.getTimeDelay();
+      this.maxTimeDelay = sim.getMaxTimeDelay();
+      this.stdDevTimeDelay = sim.getStdDeviation();
+      this.avgBitsTransmitted = sim.getAvgBitsTransmittedByCompletedVehicles();
+      this.avgBitsReceived = sim.getAvgBitsReceivedByCompletedVehicles();
+      this.wallClockTime = wallClockTime;
+      for(IntersectionManager im : sim.getMap().getIntersectionManagers()) {
+        if (im instanceof V2IManager
+            && ((V2IManager)im).getPolicy() instanceof BasePolicy) {
+          BasePolicy policy = (BasePolicy)((V2IManager)im).getPolicy();
+          sequentialLatencies.add(policy.getSequentialLatencies());
+          speculativeLatencies.add(policy.getSpeculativeLatencies());
+          for(AdmissionFilter.Stage stage : AdmissionFilter.Stage.values()) {
+            numOfAdmissionRejects[stage.ordinal()] +=
+              policy.getAdmissionFilter().getNumOfRejects(stage);
+          }
+        }
+        if (im instanceof V2IManager) {
+          NegativeQueryCache negativeQueryCache =
+            ((V2IManager)im).getReservationGridManager()
+                            .getNegativeQueryCache();
+          if (negativeQueryCache != null) {
+            numOfNegativeQueryLookups += negativeQueryCache.getNumOfLookups();
+            numOfNegativeQueryHits += negativeQueryCache.getNumOfHits();
+          }
+        }
+      }
+    }
+
+    /**
+     * Get the name of the scenario.
+     *
+     * @return the name of the scenario
+     */
+    public String getScenarioName() {
+      return scenarioName;
+    }
+
+    /**
+     * Get the simulation time at the end of the run.
+     *
+     * @return the simulation time at the end of the run
+     */
+    public double getSimulationTime() {
+      return simulationTime;
+    }
+
+    /**
+     * Get the latencies of the requests whose proposals were queried one
+     * after another.
+     *
+     * @return the latencies of the sequential queries
+     */
+    public LatencyHistogram getSequentialLatencies() {
+      return sequentialLatencies;
+    }
+
+    /**
+     * Get the latencies of the requests whose proposals were queried at the
+     * same time.
+     *
+     * @return the latencies of the speculative queries
+     */
+    public LatencyHistogram getSpeculativeLatencies() {
+      return speculativeLatencies;
+    }
+
+    /**
+     * Get the number of proposals rejected by an admission stage.
+     *
+     * @param stage  the admission stage
+     * @return the number of proposals rejected by the stage
+     */
+    public long getNumOfAdmissionRejects(AdmissionFilter.Stage stage) {
+      return numOfAdmissionRejects[stage.ordinal()];
+    }
+
+    /**
+     * Get the number of lookups in the negative query caches.
+     *
+     * @return the number of lookups in the negative query caches
+     */
+    public long getNumOfNegativeQueryLookups() {
+      return numOfNegativeQueryLookups;
+    }
+
+    /**
+     * Get the number of hits in the negative query caches.
+     *
+     * @return the number of hits in the negative query caches
+     */
+    public long getNumOfNegativeQueryHits() {
+      return numOfNegativeQueryHits;
+    }
+
+    /**
+     * Get the number of completed vehicles.
+     *
+     * @return the number of completed vehicles
+     */
+    public int getNumOfCompletedVehicles() {
+      return numOfCompletedVehicles;
+    }
+
+    /**
+     * Get the throughput, the number of completed vehicles per hour of
+     * simulation time.
+     *
+     * @return the throughput
+     */
+    public double getThroughput() {
+      if (simulationTime > 0.0) {
+        return numOfCompletedVehicles * 3600.0 / simulationTime;
+      } else {
+        return 0.0;
+      }
+    }
+
+    /**
+     * Get the average time delay of the completed vehicles.
+     *
+     * @return the average time delay of the completed vehicles
+     */
+    public double getAvgTimeDelay() {
+      return avgTimeDelay;
+    }
+
+    /**
+     * Get the wall-clock time of the run.
+     *
+     * @return the wall-clock time of the run, in seconds
+     */
+    public double getWallClockTime() {
+      return wallClockTime;
+    }
+
+    /**
+     * Print the header of the CSV format.
+     *
+     * @param out  the output stream
+     */
+    public static void printCsvHeader(PrintStream out) {
+      out.printf("scenario,setup,seed,simulationTime,completedVehicles,"
+                 + "throughput,avgTimeDelay,maxTimeDelay,stdDevTimeDelay,"
+                 + "avgBitsTransmitted,avgBitsReceived,wallClockTime\n");
+    }
+
+    /**
+     * Print the statistics as a line in the CSV format.  Numbers are always
+     * printed with a decimal point regardless of the default locale.
+     *
+     * @param out  the output stream
+     */
+    public void printCsv(PrintStream out) {
+      out.printf(Locale.US,
+                 "%s,%s,%s,%.2f,%d,%.4f,%.4f,%.4f,%.4f,%.2f,%.2f,%.3f\n",
+                 scenarioName, setupName,
+                 (randomSeed == null) ? "" : randomSeed.toString(),
+                 simulationTime, numOfCompletedVehicles, getThroughput(),
+                 avgTimeDelay, maxTimeDelay, stdDevTimeDelay,
+                 avgBitsTransmitted, avgBitsReceived, wallClockTime);
+    }
+
+    /**
+     * Print the statistics as a JSON object.
+     *
+     * @param out  the output stream
+     */
+    public void printJson(PrintStream out) {
+      out.printf(Locale.US,
+                 "{\"scenario\":\"%s\",\"setup\":\"%s\",\"seed\":%s,"
+                 + "\"simulationTime\":%.2f,\"completedVehicles\":%d,"
+                 + "\"throughput\":%.4f,\"avgTimeDelay\":%.4f,"
+                 + "\"maxTimeDelay\":%.4f,\"stdDevTimeDelay\":%.4f,"
+                 + "\"avgBitsTransmitted\":%.2f,\"avgBitsReceived\":%.2f,"
+                 + "\"wallClockTime\":%.3f}",
+                 escapeJson(scenarioName), escapeJson(setupName),
+                 (randomSeed == null) ? "null" : randomSeed.toString(),
+                 simulationTime, numOfCompletedVehicles, getThroughput(),
+                 avgTimeDelay, maxTimeDelay, stdDevTimeDelay,
+                 avgBitsTransmitted, avgBitsReceived, wallClockTime);
+    }
+
+    /**
+     * Escape the quotes and backslashes of a string in JSON.
+     *
+     * @param s  the string
+     * @return the escaped string
+     */
+    private static String escapeJson(String s) {
+      return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+  }
+
+  /////////////////////////////////
+  // PUBLIC STATIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Run the simulation of a scenario until its total simulation time.  The
+   * simulation runs in a new {@link SimContext}, so that runs do not share
+   * any state and different runs can be made concurrently.
+   *
+   * @param scenario  the scenario
+   * @return the statistics of the run
+   */
+  public static Result run(final Scenario scenario) {
+    final double totalSimulationTime = scenario.getTotalSimulationTime();
+    if (totalSimulationTime <= 0.0) {
+      throw new IllegalArgumentException(
+        "The total simulation time of scenario " + scenario.getName()
+        + " must be positive.");
+    }
+    Debug.IS_PRINT_SIMULATOR_STATUS = false;
+    Long seed = scenario.getRandomSeed();
+    SimContext context =
+      (seed == null) ? new SimContext() : new SimContext(seed);
+    final Result[] result = new Result[1];
+    context.run(new Runnable() {
+      @Override
+      public void run() {
+        long startTime = System.nanoTime();
+        Simulator sim = SimFactory.makeSimulator(scenario.createSimSetup());
+        try {
+          int numOfStepThreads = scenario.getNumOfStepThreads();
+          if (numOfStepThreads > 1
+              && sim instanceof AutoDriverOnlySimulator) {
+            ((AutoDriverOnlySimulator)sim).setNumOfStepThreads(
+              numOfStepThreads);
+          }
+          if (scenario.isImPipelined()
+              && sim instanceof AutoDriverOnlySimulator) {
+            ((AutoDriverOnlySimulator)sim).setIsImPipelined(true);
+          }
+          while (sim.getSimulationTime() < totalSimulationTime) {
+            sim.step(SimConfig.TIME_STEP);
+          }
+        } finally {
+          // stop the worker threads of the simulator and of the
+          // intersection managers, if any
+          sim.shutdown();
+        }
+        double wallClockTime = (System.nanoTime() - startTime) / 1e9;
+        result[0] = new Result(scenario, sim, wallClockTime);
+      }
+    });
+    return result[0];
+  }
+
+  /**
+   * Print the statistics of a list of runs in the CSV format.
+   *
+   * @param out      the output stream
+   * @param results  the statistics of the runs
+   */
+  public static void printCsv(PrintStream out, List<Result> results) {
+    Result.printCsvHeader(out);
+    for(Result result : results) {
+      result.printCsv(out);
+    }
+  }
+
+  /**
+   * Print the statistics of a list of runs as a JSON array.
+   *
+   * @param out      the output stream
+   * @param results  the statistics of the runs
+   */
+  public static void printJson(PrintStream out, List<Result> results) {
+    out.printf("[\n");
+    for(int i = 0; i < results.size(); i++) {
+      out.printf("  ");
+      results.get(i).printJson(out);
+      out.printf((i + 1 < results.size()) ? ",\n" : "\n");
+    }
+    out.printf("]\n");
+  }
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /** This class should never be instantiated. */
+  private BatchRunner(){};
+
+}
@@ -0,0 +1,536 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import aim4.im.IntersectionManager;
+import aim4.map.BasicMap;
+import aim4.map.Road;
+import aim4.map.lane.Lane;
+import aim4.vehicle.VehicleSimView;
+
+/**
+ * An index of the vehicles on the lanes of a map, in order of their distance
+ * along the lanes.  The vehicles inside an intersection are not in the
+ * index, and a lane shares its list with the lanes it runs into.
+ * <p>
+ * The index is maintained incrementally: vehicles are inserted when they are
+ * spawned, removed when they complete, and {@link #update()} recomputes the
+ * distances once per time step and moves the vehicles between lanes.  Since
+ * vehicles rarely overtake each other, the lists are nearly sorted after an
+ * update and are repaired by insertion sort.  Each vehicle remembers its
+ * position in its lists, so that the next vehicle of a vehicle can be found
+ * in constant time.
+ */
+public class LaneVehicleIndex {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The list of vehicles of a lane and the lanes it runs into, sorted by
+   * their distance along the lanes.
+   */
+  private static class LaneList {
+    /** The first lane */
+    private final Lane lane;
+    /** The entries of the vehicles */
+    private Entry[] entries = new Entry[INITIAL_CAPACITY];
+    /** The distances of the vehicles along their lanes */
+    private double[] distances = new double[INITIAL_CAPACITY];
+    /** The number of vehicles, including the removed ones */
+    private int size = 0;
+    /** Whether some entries have been removed or appended since the list
+     *  was last sorted */
+    private boolean isDirty = false;
+
+    /**
+     * Create an empty list.
+     *
+     * @param lane  the first lane
+     */
+    private LaneList(Lane lane) {
+      this.lane = lane;
+    }
+
+    /**
+     * Append an entry to the end of the list without sorting it.
+     *
+     * @param entry     the entry
+     * @param distance  the distance of the vehicle along its lane
+     * @return the index of the entry
+     */
+    private int append(Entry entry, double distance) {
+      if (size == entries.length) {
+        int capacity = entries.length * 2;
+        Entry[] newEntries = new Entry[capacity];
+        System.arraycopy(entries, 0, newEntries, 0, size);
+        entries = newEntries;
+        double[] newDistances = new double[capacity];
+        System.arraycopy(distances, 0, newDistances, 0, size);
+        distances = newDistances;
+      }
+      entries[size] = entry;
+      distances[size] = distance;
+      isDirty = true;
+      return size++;
+    }
+
+    /**
+     * Remove the entry at an index.  The list is compacted by
+     * {@link #repair()}.
+     *
+     * @param index  the index
+     */
+    private void remove(int index) {
+      entries[index] = null;
+      isDirty = true;
+    }
+
+    /**
+     * Remove the removed entries, restore the order of the entries, and
+     * update the indices of the entries.
+     */
+    private void repair() {
+      int n = 0;
+      for(int i = 0; i < size; i++) {
+        Entry entry = entries[i];
+        if (entry == null) {
+          continue;
+        }
+        double distance = distances[i];
+        // insertion sort; the entries are nearly sorted
+        int j = n;
+        while (j > 0 && distances[j - 1] > distance) {
+          entries[j] = entries[j - 1];
+          distances[j] = distances[j - 1];
+          j--;
+        }
+        if (j < n) {
+          isDirty = true;
+        }
+        entries[j] = entry;
+        distances[j] = distance;
+        n++;
+      }
+      for(int i = n; i < size; i++) {
+        entries[i] = null;
+      }
+      size = n;
+      if (isDirty) {
+        for(int i = 0; i < size; i++) {
+          entries[i].setIndex(this, i);
+        }
+        isDirty = false;
+      }
+    }
+
+    /**
+     * Find the index of the first vehicle whose distance is larger than or
+     * equal to a given distance.  The list must have been repaired.
+     *
+     * @param distance  the distance
+     * @return the index of the first vehicle whose distance is larger than
+     *         or equal to the distance; the size of the list if there is no
+     *         such vehicle
+     */
+    private int lowerBound(double distance) {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (distances[mid] < distance) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
+  /**
+   * The lists a vehicle is in and its indices in the lists.
+   */
+  private static class Entry {
+    /** The vehicle */
+    private final VehicleSimView vehicle;
+    /** The lists the vehicle is in */
+    private LaneList[] lists = new LaneList[2];
+    /** The indices of the vehicle in the lists */
+    private int[] indices = new int[2];
+    /** The number of lists the vehicle is in */
+    private int numOfLists = 0;
+
+    /**
+     * Create an entry of a vehicle that is not in any list.
+     *
+     * @param vehicle  the vehicle
+     */
+    private Entry(VehicleSimView vehicle) {
+      this.vehicle = vehicle;
+    }
+
+    /**
+     * Add a list to the entry.
+     *
+     * @param list   the list
+     * @param index  the index of the vehicle in the list
+     */
+    private void add(LaneList list, int index) {
+      if (numOfLists == lists.length) {
+        LaneList[] newLists = new LaneList[numOfLists * 2];
+        System.arraycopy(lists, 0, newLists, 0, numOfLists);
+        lists = newLists;
+        int[] newIndices = new int[numOfLists * 2];
+        System.arraycopy(indices, 0, newIndices, 0, numOfLists);
+        indices = newIndices;
+      }
+      lists[numOfLists] = list;
+      indices[numOfLists] = index;
+      numOfLists++;
+    }
+
+    /**
+     * Set the index of the vehicle in a list.
+     *
+     * @param list   the list
+     * @param index  the index of the vehicle in the list
+     */
+    private void setIndex(LaneList list, int index) {
+      for(int k = 0; k < numOfLists; k++) {
+        if (lists[k] == list) {
+          indices[k] = index;
+          return;
+        }
+      }
+      throw new IllegalStateException("The vehicle is not in the list.");
+    }
+  }
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The initial capacity of the lists */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** A mapping from lanes to their lists */
+  private final Map<Lane,LaneList> laneToList = new HashMap<Lane,LaneList>();
+  /** The lists, one for each lane that does not run from another lane */
+  private final List<LaneList> lists = new ArrayList<LaneList>();
+  /** The first lanes of the lists */
+  private final Set<Lane> firstLanes;
+  /** A mapping from VINs to the entries of the vehicles */
+  private final Map<Integer,Entry> vinToEntry =
+    new LinkedHashMap<Integer,Entry>();
+
+  // scratch space of update()
+
+  /** The new lists of a vehicle */
+  private final List<LaneList> newLists = new ArrayList<LaneList>(2);
+  /** The new distances of a vehicle */
+  private double[] newDistances = new double[2];
+  /** Whether the new lists of a vehicle are also its old lists */
+  private boolean[] isKept = new boolean[2];
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create an empty index of the lanes of a map.
+   *
+   * @param basicMap  the map
+   */
+  public LaneVehicleIndex(BasicMap basicMap) {
+    // the lanes that some other lanes run into share the lists of the
+    // other lanes
+    Set<Lane> nextLanes = new HashSet<Lane>();
+    for(Road road : basicMap.getRoads()) {
+      for(Lane lane : road.getLanes()) {
+        Lane currLane = lane;
+        while(currLane.hasNextLane()) {
+          currLane = currLane.getNextLane();
+          nextLanes.add(currLane);
+        }
+      }
+    }
+    Set<Lane> firstLanes = new HashSet<Lane>();
+    for(Road road : basicMap.getRoads()) {
+      for(Lane lane : road.getLanes()) {
+        if (!nextLanes.contains(lane)) {
+          LaneList list = new LaneList(lane);
+          lists.add(list);
+          firstLanes.add(lane);
+          Lane currLane = lane;
+          laneToList.put(currLane, list);
+          while(currLane.hasNextLane()) {
+            currLane = currLane.getNextLane();
+            laneToList.put(currLane, list);
+          }
+        }
+      }
+    }
+    this.firstLanes = Collections.unmodifiableSet(firstLanes);
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Add a vehicle to the index.
+   *
+   * @param vehicle  the vehicle
+   */
+  public void add(VehicleSimView vehicle) {
+    Entry entry = new Entry(vehicle);
+    vinToEntry.put(vehicle.getVIN(), entry);
+    int n = computeLists(vehicle);
+    for(int j = 0; j < n; j++) {
+      LaneList list = newLists.get(j);
+      entry.add(list, list.append(entry, newDistances[j]));
+      list.repair();
+    }
+  }
+
+  /**
+   * Remove a vehicle from the index.
+   *
+   * @param vin  the VIN of the vehicle
+   */
+  public void remove(int vin) {
+    Entry entry = vinToEntry.remove(vin);
+    if (entry != null) {
+      for(int k = 0; k < entry.numOfLists; k++) {
+        entry.lists[k].remove(entry.indices[k]);
+        entry.lists[k].repair();
+      }
+    }
+  }
+
+  /**
+   * Recompute the distances of all vehicles along their lanes, move the
+   * vehicles that have changed lanes or have entered or left an
+   * intersection, and restore the order of the lists.
+   */
+  public void update() {
+    for(Entry entry : vinToEntry.values()) {
+      int n = computeLists(entry.vehicle);
+      // keep the vehicle at its places in the lists it is still in
+      int m = 0;
+      for(int k = 0; k < entry.numOfLists; k++) {
+        LaneList list = entry.lists[k];
+        int j = newLists.indexOf(list);
+        if (j >= 0) {
+          list.distances[entry.indices[k]] = newDistances[j];
+          entry.lists[m] = list;
+          entry.indices[m] = entry.indices[k];
+          m++;
+          isKept[j] = true;
+        } else {
+          list.remove(entry.indices[k]);
+        }
+      }
+      for(int k = m; k < entry.numOfLists; k++) {
+        entry.lists[k] = null;
+      }
+      entry.numOfLists = m;
+      // append the vehicle to the lists it has moved to
+      for(int j = 0; j < n; j++) {
+        if (!isKept[j]) {
+          LaneList list = newLists.get(j);
+          entry.add(list, list.append(entry, newDistances[j]));
+        }
+      }
+    }
+    for(LaneList list : lists) {
+      list.repair();
+    }
+  }
+
+  /**
+   * Get the vehicle in front of a vehicle, i.e., the next vehicle on the
+   * lanes the vehicle is in.
+   *
+   * @param vin  the VIN of the vehicle
+   * @return the vehicle in front of the vehicle; <code>null</code> if
+   *         there is no vehicle in front of the vehicle or the vehicle is
+   *         inside an intersection
+   */
+  public VehicleSimView getNextVehicle(int vin) {
+    Entry entry = vinToEntry.get(vin);
+    if (entry != null) {
+      for(int k = 0; k < entry.numOfLists; k++) {
+        LaneList list = entry.lists[k];
+        int i = entry.indices[k] + 1;
+        if (i < list.size) {
+          return list.entries[i].vehicle;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the first vehicle whose distance along a lane is larger than or
+   * equal to a given distance.
+   *
+   * @param lane      the lane
+   * @param distance  the distance along the lane
+   * @return the vehicle; <code>null</code> if there is no such vehicle
+   */
+  public VehicleSimView getFrontVehicle(Lane lane, double distance) {
+    LaneList list = laneToList.get(lane);
+    int i = list.lowerBound(distance);
+    return (i < list.size) ? list.entries[i].vehicle : null;
+  }
+
+  /**
+   * Get the distance along its lane of the first vehicle whose distance is
+   * larger than or equal to a given distance.
+   *
+   * @param lane      the lane
+   * @param distance  the distance along the lane
+   * @return the distance of the vehicle; {@link Double#MAX_VALUE} if there
+   *         is no such vehicle
+   */
+  public double getFrontVehicleDistance(Lane lane, double distance) {
+    LaneList list = laneToList.get(lane);
+    int i = list.lowerBound(distance);
+    return (i < list.size) ? list.distances[i] : Double.MAX_VALUE;
+  }
+
+  /**
+   * Get the last vehicle whose distance along a lane is smaller than a given
+   * distance.
+   *
+   * @param lane      the lane
+   * @param distance  the distance along the lane
+   * @return the vehicle; <code>null</code> if there is no such vehicle
+   */
+  public VehicleSimView getRearVehicle(Lane lane, double distance) {
+    LaneList list = laneToList.get(lane);
+    int i = list.lowerBound(distance);
+    return (i > 0) ? list.entries[i - 1].vehicle : null;
+  }
+
+  /**
+   * Get the distance along its lane of the last vehicle whose distance is
+   * smaller than a given distance.
+   *
+   * @param lane      the lane
+   * @param distance  the distance along the lane
+   * @return the distance of the vehicle; {@link Double#MAX_VALUE} if there
+   *         is no such vehicle
+   */
+  public double getRearVehicleDistance(Lane lane, double distance) {
+    LaneList list = laneToList.get(lane);
+    int i = list.lowerBound(distance);
+    return (i > 0) ? list.distances[i - 1] : Double.MAX_VALUE;
+  }
+
+  /**
+   * Get the lanes that do not run from another lane.  The list of such a
+   * lane includes the vehicles on the lanes it runs into.
+   *
+   * @return the lanes that do not run from another lane
+   */
+  public Set<Lane> getFirstLanes() {
+    return firstLanes;
+  }
+
+  /**
+   * Get the number of vehicles on a lane and the lanes it runs into.
+   *
+   * @param lane  the lane
+   * @return the number of vehicles on the lane and the lanes it runs into
+   */
+  public int getNumOfVehicles(Lane lane) {
+    return laneToList.get(lane).size;
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Compute the lists a vehicle should be in and the distances of the
+   * vehicle along the lanes.  The vehicles that are inside (partially or
+   * entirely) an intersection are in no list.  The results are stored in
+   * {@link #newLists} and {@link #newDistances}.
+   *
+   * @param vehicle  the vehicle
+   * @return the number of lists the vehicle should be in
+   */
+  private int computeLists(VehicleSimView vehicle) {
+    newLists.clear();
+    Point2D pos = vehicle.getPosition();
+    for(Lane lane : vehicle.getDriver().getCurrentlyOccupiedLanes()) {
+      // Find out what IntersectionManager is coming up for this vehicle
+      IntersectionManager im = lane.getLaneIM().nextIntersectionManager(pos);
+      // Only include this Vehicle if it is not in the intersection.
+      if (lane.getLaneIM().distanceToNextIntersection(pos) > 0
+          || im == null || !im.intersects(vehicle.getShape().getBounds2D())) {
+        LaneList list = laneToList.get(lane);
+        int j = newLists.indexOf(list);
+        if (j < 0) {
+          j = newLists.size();
+          newLists.add(list);
+          if (j == newDistances.length) {
+            newDistances = Arrays.copyOf(newDistances, j * 2);
+            isKept = Arrays.copyOf(isKept, j * 2);
+          }
+        }
+        newDistances[j] = lane.distanceAlongLane(pos);
+        isKept[j] = false;
+      }
+    }
+    return newLists.size();
+  }
+
+}
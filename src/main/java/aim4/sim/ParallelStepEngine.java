@@ -0,0 +1,228 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A pool of worker threads that runs the stages of a simulation step in
+ * parallel, such as the per-vehicle stages or the ticks of the intersection
+ * managers.  A stage is given the number of items, such as vehicles, and
+ * processes ranges of the indices of the items; the range is split into one
+ * contiguous chunk per thread and the engine returns only after all chunks
+ * are done, so that consecutive stages are separated by a barrier.
+ * <p>
+ * The stages must only change the state of the items in their own range.
+ * Any side effect on shared state has to be buffered per item and applied
+ * by the calling thread after the stage, in the order of the items, which
+ * keeps the results of a simulation identical whatever the number of
+ * threads.  In particular, a stage must not draw random numbers.
+ * The workers run in the {@link SimContext} of the thread that created the
+ * engine.
+ */
+public class ParallelStepEngine {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * A stage of a simulation step.
+   */
+  public static interface Stage {
+    /**
+     * Process the items in a range of indices.
+     *
+     * @param from  the first index of the range
+     * @param to    the index after the last index of the range
+     */
+    void run(int from, int to);
+  }
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The default minimum number of items of a chunk.  Smaller stages run on
+   * fewer threads since the hand-off costs more than the work.  {@value}
+   */
+  public static final int DEFAULT_MIN_CHUNK_SIZE = 8;
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The number of threads, including the calling thread */
+  private final int numOfThreads;
+  /** The simulation context of the workers */
+  private final SimContext context;
+  /** The workers; the calling thread runs the first chunk itself */
+  private final ExecutorService workers;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a parallel step engine in the current simulation context.
+   *
+   * @param numOfThreads  the number of threads, including the calling thread
+   */
+  public ParallelStepEngine(int numOfThreads) {
+    if (numOfThreads <= 1) {
+      throw new IllegalArgumentException(
+        "The number of threads must be at least 2.");
+    }
+    this.numOfThreads = numOfThreads;
+    this.context = SimContext.current();
+    this.workers =
+      Executors.newFixedThreadPool(numOfThreads - 1, new ThreadFactory() {
+        private int numOfWorkers = 0;
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "step-worker-" + (numOfWorkers++));
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the number of threads, including the calling thread.
+   *
+   * @return the number of threads
+   */
+  public int getNumOfThreads() {
+    return numOfThreads;
+  }
+
+  /**
+   * Run a stage on a number of items with the default minimum chunk size
+   * and wait for it to finish.
+   *
+   * @param numOfItems  the number of items
+   * @param stage       the stage
+   */
+  public void run(int numOfItems, Stage stage) {
+    run(numOfItems, DEFAULT_MIN_CHUNK_SIZE, stage);
+  }
+
+  /**
+   * Run a stage on a number of items and wait for it to finish.  If the
+   * stage fails on any chunk, the exception is rethrown after all chunks
+   * are done.
+   *
+   * @param numOfItems    the number of items
+   * @param minChunkSize  the minimum number of items of a chunk
+   * @param stage         the stage
+   */
+  public void run(int numOfItems, int minChunkSize, final Stage stage) {
+    int numOfChunks =
+      Math.min(numOfThreads, (numOfItems + minChunkSize - 1) / minChunkSize);
+    if (numOfChunks <= 1) {
+      stage.run(0, numOfItems);
+      return;
+    }
+    int chunkSize = (numOfItems + numOfChunks - 1) / numOfChunks;
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(numOfChunks - 1);
+    for(int from = chunkSize; from < numOfItems; from += chunkSize) {
+      final int f = from;
+      final int t = Math.min(from + chunkSize, numOfItems);
+      futures.add(workers.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          return context.call(new Callable<Void>() {
+            @Override
+            public Void call() {
+              stage.run(f, t);
+              return null;
+            }
+          });
+        }
+      }));
+    }
+    Throwable failure = null;
+    try {
+      stage.run(0, chunkSize);
+    } catch(RuntimeException e) {
+      failure = e;
+    } catch(Error e) {
+      failure = e;
+    }
+    boolean isInterrupted = false;
+    for(Future<Void> future : futures) {
+      while (true) {
+        try {
+          future.get();
+        } catch(ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        } catch(InterruptedException e) {
+          // the chunks must be done before the next stage starts
+          isInterrupted = true;
+          continue;
+        }
+        break;
+      }
+    }
+    if (isInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException)failure;
+    } else if (failure instanceof Error) {
+      throw (Error)failure;
+    } else if (failure != null) {
+      throw new RuntimeException(failure);
+    }
+  }
+
+  /**
+   * Stop the worker threads.  The engine cannot be used afterwards.
+   */
+  public void shutdown() {
+    workers.shutdown();
+  }
+
+}
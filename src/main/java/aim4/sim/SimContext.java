@@ -0,0 +1,349 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import aim4.config.SimConfig;
+import aim4.map.BasicMap;
+import aim4.util.Util;
+
+/**
+ * The state of one simulation run: the random number generator, the map,
+ * the run-wide settings made by the simulator setups, and the registries and
+ * caches that used to be static fields (for example, the VIN registry).
+ * <p>
+ * A context is bound to the thread that runs the simulation, and the static
+ * accessors such as {@link aim4.vehicle.VinRegistry} and
+ * {@link aim4.config.Debug#getCurrentMap()} delegate to the context of the
+ * calling thread.  A thread that is not bound to any context uses the default
+ * context, whose random number generator is {@link Util#random}; the GUI and
+ * the single-run entry points therefore behave as before, while simulations
+ * running in different contexts can run concurrently in one JVM.
+ * <p>
+ * The state of the slots is created atomically, so the worker threads of a
+ * run that are bound to the same context, such as those of a
+ * {@link ParallelStepEngine}, share one state per slot no matter which of
+ * them uses it first.  Whether the state itself may be used by several
+ * threads is up to the owner of the slot.  The other settings of a context
+ * are plain fields; they should be made before the workers of the run are
+ * started.
+ */
+public final class SimContext {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * A key of a piece of per-run state that is private to a class, such as a
+   * registry or a cache.  The state is created on first use in each context.
+   *
+   * @param <T>  the type of the state
+   */
+  public abstract static class Slot<T> {
+    /**
+     * Create the initial state of the slot in a new context.
+     *
+     * @return the initial state
+     */
+    protected abstract T initialValue();
+  }
+
+  /////////////////////////////////
+  // PRIVATE STATIC FIELDS
+  /////////////////////////////////
+
+  /** The context of the threads that are not bound to any context */
+  private static final SimContext DEFAULT_CONTEXT = new SimContext(Util.random);
+
+  /** The context bound to each thread */
+  private static final ThreadLocal<SimContext> CURRENT_CONTEXT =
+    new ThreadLocal<SimContext>();
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The random number generator */
+  private final Random random;
+
+  /** The map of the simulation */
+  private BasicMap currentMap;
+
+  /**
+   * The shortest distance before an intersection at which the vehicles stop
+   * if they cannot enter the intersection immediately.
+   */
+  private double stopDistanceBeforeIntersection = 1.0;
+
+  /** Whether or not the vehicles must stop before an intersection */
+  private boolean isMustStopBeforeIntersection = false;
+
+  /**
+   * The maximum expected time between the sending of a request by a vehicle
+   * and the reading of the reply of the intersection manager.
+   */
+  private double maxExpectedImReplyTime =
+    SimConfig.DEFAULT_MAX_EXPECTED_IM_REPLY_TIME;
+
+  /** The states of the slots */
+  private final ConcurrentMap<Slot<?>,Object> slotValues =
+    new ConcurrentHashMap<Slot<?>,Object>();
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a context whose random number generator is seeded randomly.
+   */
+  public SimContext() {
+    this(new Random());
+  }
+
+  /**
+   * Create a context with a given random seed.
+   *
+   * @param randSeed  the random seed
+   */
+  public SimContext(long randSeed) {
+    this(new Random(randSeed));
+  }
+
+  /**
+   * Create a context with a given random number generator.
+   *
+   * @param random  the random number generator
+   */
+  private SimContext(Random random) {
+    this.random = random;
+  }
+
+  /////////////////////////////////
+  // PUBLIC STATIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the context of the calling thread.
+   *
+   * @return the context bound to the calling thread, or the default context
+   *         if the thread is not bound to any context
+   */
+  public static SimContext current() {
+    SimContext context = CURRENT_CONTEXT.get();
+    return (context == null) ? DEFAULT_CONTEXT : context;
+  }
+
+  /**
+   * Get the default context.
+   *
+   * @return the default context
+   */
+  public static SimContext getDefault() {
+    return DEFAULT_CONTEXT;
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Run a task with this context bound to the calling thread.  The previous
+   * binding of the thread is restored afterwards.
+   *
+   * @param <V>   the type of the result of the task
+   * @param task  the task
+   * @return the result of the task
+   * @throws Exception if the task throws an exception
+   */
+  public <V> V call(Callable<V> task) throws Exception {
+    SimContext previous = CURRENT_CONTEXT.get();
+    CURRENT_CONTEXT.set(this);
+    try {
+      return task.call();
+    } finally {
+      if (previous == null) {
+        CURRENT_CONTEXT.remove();
+      } else {
+        CURRENT_CONTEXT.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Run a task with this context bound to the calling thread.  The previous
+   * binding of the thread is restored afterwards.
+   *
+   * @param task  the task
+   */
+  public void run(final Runnable task) {
+    try {
+      call(new Callable<Void>() {
+        @Override
+        public Void call() {
+          task.run();
+          return null;
+        }
+      });
+    } catch(RuntimeException e) {
+      throw e;
+    } catch(Exception e) {
+      throw new RuntimeException(e);  // cannot happen
+    }
+  }
+
+  /**
+   * Get the random number generator.
+   *
+   * @return the random number generator
+   */
+  public Random getRandom() {
+    return random;
+  }
+
+  /**
+   * Get the map of the simulation.
+   *
+   * @return the map of the simulation
+   */
+  public BasicMap getCurrentMap() {
+    return currentMap;
+  }
+
+  /**
+   * Set the map of the simulation.
+   *
+   * @param currentMap  the map of the simulation
+   */
+  public void setCurrentMap(BasicMap currentMap) {
+    this.currentMap = currentMap;
+  }
+
+  /**
+   * Get the shortest distance before an intersection at which the vehicles
+   * stop if they cannot enter the intersection immediately.
+   *
+   * @return the stopping distance before an intersection
+   */
+  public double getStopDistanceBeforeIntersection() {
+    return stopDistanceBeforeIntersection;
+  }
+
+  /**
+   * Set the shortest distance before an intersection at which the vehicles
+   * stop if they cannot enter the intersection immediately.
+   *
+   * @param stopDistanceBeforeIntersection  the stopping distance before an
+   *                                        intersection
+   */
+  public void setStopDistanceBeforeIntersection(
+      double stopDistanceBeforeIntersection) {
+    this.stopDistanceBeforeIntersection = stopDistanceBeforeIntersection;
+  }
+
+  /**
+   * Whether or not the vehicles must stop before an intersection.
+   *
+   * @return whether or not the vehicles must stop before an intersection
+   */
+  public boolean isMustStopBeforeIntersection() {
+    return isMustStopBeforeIntersection;
+  }
+
+  /**
+   * Set whether or not the vehicles must stop before an intersection.
+   *
+   * @param isMustStopBeforeIntersection  whether or not the vehicles must
+   *                                      stop before an intersection
+   */
+  public void setIsMustStopBeforeIntersection(
+      boolean isMustStopBeforeIntersection) {
+    this.isMustStopBeforeIntersection = isMustStopBeforeIntersection;
+  }
+
+  /**
+   * Get the maximum expected time between the sending of a request by a
+   * vehicle and the reading of the reply of the intersection manager.
+   *
+   * @return the maximum expected reply time of the intersection managers
+   */
+  public double getMaxExpectedImReplyTime() {
+    return maxExpectedImReplyTime;
+  }
+
+  /**
+   * Set the maximum expected time between the sending of a request by a
+   * vehicle and the reading of the reply of the intersection manager.
+   *
+   * @param maxExpectedImReplyTime  the maximum expected reply time of the
+   *                                intersection managers
+   */
+  public void setMaxExpectedImReplyTime(double maxExpectedImReplyTime) {
+    this.maxExpectedImReplyTime = maxExpectedImReplyTime;
+  }
+
+  /**
+   * Get the state of a slot in this context.  The state is created if it
+   * does not exist.  If several threads create the state at the same time,
+   * all of them get the state stored by the first one.
+   *
+   * @param <T>   the type of the state
+   * @param slot  the slot
+   * @return the state of the slot
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(Slot<T> slot) {
+    Object value = slotValues.get(slot);
+    if (value == null) {
+      Object newValue = slot.initialValue();
+      value = slotValues.putIfAbsent(slot, newValue);
+      if (value == null) {
+        value = newValue;
+      }
+    }
+    return (T)value;
+  }
+
+  /**
+   * Discard the state of a slot in this context.  The next call of
+   * {@link #get(Slot)} creates a new state.
+   *
+   * @param slot  the slot
+   */
+  public void reset(Slot<?> slot) {
+    slotValues.remove(slot);
+  }
+
+}
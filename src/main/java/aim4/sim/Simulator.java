@@ -132,4 +132,10 @@ public interface Simulator {
    * @param vehicle  the proxy vehicle
    */
   void addProxyVehicle(ProxyVehicleSimView vehicle);
+
+  /**
+   * Stop the worker threads of the simulator and of its intersection
+   * managers.  The simulator should not step afterwards.
+   */
+  void shutdown();
 }
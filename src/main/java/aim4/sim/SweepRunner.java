@@ -0,0 +1,181 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import aim4.sim.setup.Scenario;
+
+/**
+ * A runner of parameter sweeps.  A sweep is the cross product of the values
+ * of some parameters of a base {@link Scenario}, such as the traffic level,
+ * the granularity, the buffer sizes or the simulator setup.  The scenarios of
+ * a sweep are run concurrently on a fork/join pool, each in its own
+ * {@link SimContext}, and the results are returned in the order of the
+ * scenarios regardless of the order in which the runs finish.  The results
+ * of a scenario with a random seed are therefore the same whatever the
+ * number of threads.
+ */
+public class SweepRunner {
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The keys of the parameters of the sweep, in order */
+  private final List<String> parameterKeys = new ArrayList<String>();
+  /** The values of the parameters of the sweep */
+  private final List<List<String>> parameterValues =
+    new ArrayList<List<String>>();
+  /** The number of simulations that run at the same time */
+  private final int parallelism;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a sweep runner.
+   *
+   * @param parallelism  the number of simulations that run at the same time
+   */
+  public SweepRunner(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("The parallelism must be positive.");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Add a parameter to the sweep.
+   *
+   * @param key     the key of the parameter in the scenarios
+   * @param values  the values of the parameter
+   */
+  public void addParameter(String key, List<String> values) {
+    if (values.isEmpty()) {
+      throw new IllegalArgumentException("No value for parameter " + key);
+    }
+    parameterKeys.add(key);
+    parameterValues.add(new ArrayList<String>(values));
+  }
+
+  /**
+   * Expand a base scenario to the scenarios of the sweep.  The value of the
+   * last parameter changes the fastest, and the name of each scenario is
+   * the name of the base scenario followed by the values of the parameters.
+   *
+   * @param base  the base scenario
+   * @return the scenarios of the sweep
+   */
+  public List<Scenario> expand(Scenario base) {
+    List<Scenario> scenarios = new ArrayList<Scenario>();
+    if (parameterKeys.isEmpty()) {
+      scenarios.add(base);
+      return scenarios;
+    }
+    int[] indices = new int[parameterKeys.size()];
+    while (true) {
+      Map<String,String> parameters = new LinkedHashMap<String,String>();
+      StringBuilder name = new StringBuilder(base.getName());
+      name.append('[');
+      for(int i = 0; i < indices.length; i++) {
+        String key = parameterKeys.get(i);
+        String value = parameterValues.get(i).get(indices[i]);
+        parameters.put(key, value);
+        name.append((i == 0) ? "" : ",").append(key).append('=').append(value);
+      }
+      name.append(']');
+      scenarios.add(base.derive(name.toString(), parameters));
+      // advance the indices like an odometer
+      int i = indices.length - 1;
+      while (i >= 0 && ++indices[i] == parameterValues.get(i).size()) {
+        indices[i] = 0;
+        i--;
+      }
+      if (i < 0) {
+        return scenarios;
+      }
+    }
+  }
+
+  /**
+   * Run the scenarios concurrently.
+   *
+   * @param scenarios  the scenarios
+   * @return the statistics of the runs, in the order of the scenarios
+   */
+  public List<BatchRunner.Result> run(List<Scenario> scenarios) {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      List<Future<BatchRunner.Result>> futures =
+        new ArrayList<Future<BatchRunner.Result>>(scenarios.size());
+      for(final Scenario scenario : scenarios) {
+        futures.add(pool.submit(new Callable<BatchRunner.Result>() {
+          @Override
+          public BatchRunner.Result call() {
+            return BatchRunner.run(scenario);
+          }
+        }));
+      }
+      List<BatchRunner.Result> results =
+        new ArrayList<BatchRunner.Result>(scenarios.size());
+      for(int i = 0; i < futures.size(); i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch(ExecutionException e) {
+          throw new RuntimeException("The run of scenario "
+                                     + scenarios.get(i).getName()
+                                     + " failed", e.getCause());
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("The sweep was interrupted", e);
+        }
+      }
+      return Collections.unmodifiableList(results);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+}
@@ -30,25 +30,32 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package aim4.sim;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import aim4.config.Debug;
 import aim4.driver.ProxyDriver;
-import aim4.msg.udp.Real2ProxyCancel;
-import aim4.msg.udp.Real2ProxyDone;
+import aim4.im.v2i.V2IManagerService;
+import aim4.msg.i2v.Confirm;
+import aim4.msg.i2v.I2VMessage;
 import aim4.msg.udp.Real2ProxyMsg;
 import aim4.msg.udp.Real2ProxyPVUpdate;
-import aim4.msg.udp.Real2ProxyRequest;
+import aim4.msg.udp.UdpCodec;
 import aim4.msg.udp.UdpHeader;
+import aim4.msg.v2i.V2IMessage;
 import aim4.vehicle.ProxyVehicle;
 import aim4.vehicle.ProxyVehicleSimView;
 import aim4.vehicle.VinRegistry;
@@ -56,6 +63,15 @@ import aim4.vehicle.VinRegistry;
 /**
  * Listens for UDP datagrams from Marvin at a UPD port (default is 46000)
  * for communication from real cars and manages corresponding proxyvehicle's.
+ * <p>
+ * The listener thread receives the datagrams of all its ports through a
+ * selector into a fixed pool of direct buffers and puts them in a bounded
+ * ring, without any allocation or lock of the simulator.  A dispatcher
+ * thread takes the datagrams from the ring in batches, and decodes them in
+ * place with a {@link UdpCodec} and processes them while holding the lock
+ * of the simulator once per batch.  If
+ * the dispatcher falls behind and the pool runs out, the new datagrams are
+ * dropped, as UDP would.
  */
 public class UdpListener implements Runnable {
 
@@ -70,18 +86,77 @@ public class UdpListener implements Runnable {
   /** The default UPD port on the vehicle */
   private static final int DEFAULT_VEHICLE_UDP_PORT = 46042;
 
+  /**
+   * The number of datagrams that can wait for the dispatcher thread.
+   * {@value}
+   */
+  private static final int DATAGRAM_RING_CAPACITY = 256;
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * A received datagram in a pooled buffer.
+   */
+  private static final class Datagram {
+    /** The content of the datagram */
+    final ByteBuffer data =
+      ByteBuffer.allocateDirect(UdpHeader.MAX_MESSENGE_PACKAGE_LENGTH);
+    /** The socket address of the sender */
+    SocketAddress sa;
+  }
+
   /////////////////////////////////
   // PRIVATE FIELDS
   /////////////////////////////////
 
-  /** The UDP port */
-  private final int udpPort;
+  /** The UDP ports */
+  private final int[] udpPorts;
 
   /** the simulator */
   private final Simulator sim;
 
-  /** Datagram socket for listening on a port over UDP. */
-  private DatagramSocket ds;
+  /** The selector of the datagram channels */
+  private Selector selector;
+
+  /** The datagram channels for listening on the ports over UDP. */
+  private final List<DatagramChannel> channels =
+    new ArrayList<DatagramChannel>();
+
+  /** The datagrams that are free to receive into */
+  private final BlockingQueue<Datagram> freeDatagrams =
+    new ArrayBlockingQueue<Datagram>(DATAGRAM_RING_CAPACITY);
+
+  /** The received datagrams that wait for the dispatcher thread */
+  private final BlockingQueue<Datagram> receivedDatagrams =
+    new ArrayBlockingQueue<Datagram>(DATAGRAM_RING_CAPACITY);
+
+  /**
+   * The buffer into which a datagram is dropped if there is no free
+   * datagram.  It is only used by the listener thread.
+   */
+  private final ByteBuffer overflow =
+    ByteBuffer.allocateDirect(UdpHeader.MAX_MESSENGE_PACKAGE_LENGTH);
+
+  /** The number of datagrams dropped so far */
+  private volatile long numOfDroppedDatagrams;
+
+  /** The codec of the incoming datagrams of the dispatcher thread */
+  private final UdpCodec codec = new UdpCodec();
+
+  /**
+   * The codec of the replies of the reservation server, which are only
+   * sent by the service thread, as are the buffer and the channel.
+   */
+  private final UdpCodec replyCodec = new UdpCodec();
+
+  /** The buffer of the replies of the reservation server */
+  private final ByteBuffer replyBuffer =
+    ByteBuffer.allocateDirect(UdpHeader.MAX_MESSENGE_PACKAGE_LENGTH);
+
+  /** The channel for sending the replies of the reservation server */
+  private volatile DatagramChannel replyChannel;
 
   /**
    * A map of all the ProxyVehicles, indexed by their respective (unique)
@@ -90,6 +165,13 @@ public class UdpListener implements Runnable {
    */
   private Map<SocketAddress,ProxyVehicleSimView> sa2ProxyVehicle;
 
+  /**
+   * The reservation server to which the V2I messages of the real vehicles
+   * are sent; null if they are sent to the intersection managers of the
+   * simulator.
+   */
+  private volatile V2IManagerService imService;
+
   /** The thread of this UDP listener */
   private volatile Thread blinker;
 
@@ -117,10 +199,30 @@ public class UdpListener implements Runnable {
    * @param sim      the simulator
    */
   public UdpListener(int udpPort, Simulator sim) {
-    this.udpPort = udpPort;
+    this(new int[]{ udpPort }, sim);
+  }
+
+  /**
+   * Constructor for a UDP listener on several ports, such as one port per
+   * intersection manager.
+   *
+   * @param udpPorts  the ports to listen on
+   * @param sim       the simulator
+   */
+  public UdpListener(int[] udpPorts, Simulator sim) {
+    if (udpPorts.length == 0) {
+      throw new IllegalArgumentException("There must be at least one port.");
+    }
+    this.udpPorts = udpPorts.clone();
     this.sim = sim;
-    ds = null;
+    selector = null;
+    for(int i = 0; i < DATAGRAM_RING_CAPACITY; i++) {
+      freeDatagrams.add(new Datagram());
+    }
+    numOfDroppedDatagrams = 0;
+    replyChannel = null;
     sa2ProxyVehicle = new HashMap<SocketAddress,ProxyVehicleSimView>();
+    imService = null;
     blinker = null;
   }
 
@@ -172,6 +274,38 @@ public class UdpListener implements Runnable {
     closeSocket();
   }
 
+  // reservation server
+
+  /**
+   * Set the reservation server to which the V2I messages of the real
+   * vehicles to its intersection manager are sent.  The requests are then
+   * decided as soon as they arrive rather than at the next step of the
+   * simulator, the replies are sent to the real vehicles by the service
+   * thread, and the times of the messages are taken from the clock of the
+   * service.  The proxy vehicles are still created and moved by the
+   * simulator.  The simulator must not run the intersection manager of the
+   * server; see
+   * {@link AutoDriverOnlySimulator#serveIntersectionManager(int)}.
+   *
+   * @param imService  the reservation server; null if the V2I messages are
+   *                   sent to the intersection managers of the simulator
+   */
+  public void setV2IManagerService(V2IManagerService imService) {
+    this.imService = imService;
+  }
+
+  // statistics
+
+  /**
+   * Get the number of datagrams that have been dropped because the
+   * dispatcher thread fell behind.
+   *
+   * @return the number of dropped datagrams
+   */
+  public long getNumOfDroppedDatagrams() {
+    return numOfDroppedDatagrams;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -181,38 +315,46 @@ public class UdpListener implements Runnable {
    */
   @Override
   public void run() {
-    try {
-      ds = new DatagramSocket(udpPort);
-    } catch(SocketException e) {
-      if (Debug.SHOW_PROXY_VEHICLE_DEBUG_MSG) {
-        System.err.println("Cannot open UDP socket.\n");
-        e.printStackTrace();
-      }
+    Selector sel = openChannels();
+    if (sel == null) {
       return;
     }
 
-    int numBytes = UdpHeader.MAX_MESSENGE_PACKAGE_LENGTH;
     Thread thisThread = Thread.currentThread();
+    Thread dispatcher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatchDatagrams();
+      }
+    }, "udp-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
 
     // listen so long as the user hasn't called stop()
-    while (blinker == thisThread) {
-      DatagramPacket dp = new DatagramPacket(new byte[numBytes], numBytes);
-
-      try {
-        ds.receive(dp);   // blocks until data received
-      } catch(IOException e) {  // both IOException and NullPointerException
-        // Either stop() is called to close the socket, or
-        // something is wrong with our socket.
-        // Maybe we should distinguish the two cases and
-        // inform the user about the second case since it is an
-        // error.
-        break;
+    try {
+      while (blinker == thisThread) {
+        sel.select();   // blocks until data received
+        for(Iterator<SelectionKey> iter = sel.selectedKeys().iterator();
+            iter.hasNext();) {
+          SelectionKey key = iter.next();
+          iter.remove();
+          receiveDatagrams((DatagramChannel)key.channel());
+        }
       }
-      processIncomingDatagram(dp);
-      Thread.yield();  // give other threads a chance to execute
+    } catch(IOException e) {
+      // Either stop() is called to close the channels, or
+      // something is wrong with our channels.
+    } catch(ClosedSelectorException e) {
+      // stop() is called to close the selector
     }
 
     closeSocket();
+    dispatcher.interrupt();
+    try {
+      dispatcher.join();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
     // TODO: also remove all ProxyVehicles from the simulator as well
   }
 
@@ -221,92 +363,201 @@ public class UdpListener implements Runnable {
   /////////////////////////////////
 
   /**
-   * A synchronized function for closing the UPD socket.
+   * Open a datagram channel on each port and register the channels with a
+   * new selector.
+   *
+   * @return the selector; null if the channels cannot be opened
+   */
+  private synchronized Selector openChannels() {
+    try {
+      selector = Selector.open();
+      for(int udpPort : udpPorts) {
+        DatagramChannel channel = DatagramChannel.open();
+        channels.add(channel);
+        channel.configureBlocking(false);
+        channel.socket().bind(new InetSocketAddress(udpPort));
+        channel.register(selector, SelectionKey.OP_READ);
+      }
+    } catch(IOException e) {
+      if (Debug.SHOW_PROXY_VEHICLE_DEBUG_MSG) {
+        System.err.println("Cannot open UDP socket.\n");
+        e.printStackTrace();
+      }
+      closeSocket();
+      return null;
+    }
+    return selector;
+  }
+
+  /**
+   * A synchronized function for closing the UPD channels.
    * It prevents the situation in which both the listener thread and the
-   * GUI thread close the socket at the same time.
+   * GUI thread close the channels at the same time.
    */
   private synchronized void closeSocket() {
-    if (ds != null) {
-      if (ds.isConnected()) {
-        ds.disconnect();
+    if (selector != null) {
+      for(DatagramChannel channel : channels) {
+        try {
+          channel.close();
+        } catch(IOException e) {
+          // nothing else can be done
+        }
       }
-      if (!ds.isClosed()) {
-        ds.close();
+      channels.clear();
+      try {
+        selector.close();  // it also wakes up the listener thread
+      } catch(IOException e) {
+        // nothing else can be done
+      }
+      selector = null;
+      if (replyChannel != null) {
+        try {
+          replyChannel.close();  // reopened by the next reply, if any
+        } catch(IOException e) {
+          // nothing else can be done
+        }
       }
-      ds = null;
       if (Debug.SHOW_PROXY_VEHICLE_DEBUG_MSG) {
         System.err.println("The UDP socket is closed.");
       }
     }
   }
 
-
   /**
-   * The main function for processing the incoming datagram.
+   * Receive the pending datagrams of a channel and put them in the ring.
+   * It is called by the listener thread.
    *
-   * @param dp  the datagram.
+   * @param channel  the channel
+   * @throws IOException if the channel fails
    */
-  private void processIncomingDatagram(DatagramPacket dp) {
-    synchronized(sim) {
-      SocketAddress sa = dp.getSocketAddress();
-      Real2ProxyMsg msg = convertDatagramToReal2ProxyMsg(dp);
-
-      if (Debug.SHOW_PROXY_VEHICLE_DEBUG_MSG) {
-        if (Debug.SHOW_PROXY_VEHICLE_PVUPDATE_MSG ||
-            !(msg instanceof Real2ProxyPVUpdate)) {
-          System.err.printf("Proxy vehicle received a Real2Proxy msg: %s\n",
-                            msg);
+  private void receiveDatagrams(DatagramChannel channel) throws IOException {
+    while (true) {
+      Datagram datagram = freeDatagrams.poll();
+      if (datagram == null) {
+        // the dispatcher thread is behind; drop the datagram
+        overflow.clear();
+        if (channel.receive(overflow) == null) {
+          return;
         }
+        numOfDroppedDatagrams++;
+        continue;
       }
-
-      if (msg == null) {
-        System.err.println("Error: cannot parse the datagram package.");
+      datagram.data.clear();
+      SocketAddress sa = channel.receive(datagram.data);
+      if (sa == null) {
+        freeDatagrams.add(datagram);
         return;
       }
+      datagram.sa = sa;
+      datagram.data.flip();
+      // never full since there are only as many datagrams as its capacity
+      receivedDatagrams.add(datagram);
+    }
+  }
 
-      if (sa2ProxyVehicle.containsKey(sa)) {
-        // The datagram came from a real vehicle we're already tracking.
-        // Simply forward the datagram to the corresponding proxy vehicle
-        sa2ProxyVehicle.get(sa).processReal2ProxyMsg(msg);
-      } else {
-        // We haven't seem this SA before. This must be coming from
-        // a new real vehicle that we're not tracking
-
-        // If it is a PV_UPDATE message, instantiate the proxy vehicle and
-        // associate the socket address to this proxy vehicle.
-        // If not, ignore the message.
-        if (msg.messageType == Real2ProxyMsg.Type.PV_UPDATE) {
-          Real2ProxyPVUpdate pvUpdateMsg = (Real2ProxyPVUpdate)msg;
-          // create a proxy vehicle for this real vehicle
-          ProxyVehicleSimView vehicle = makeProxyVehicle(pvUpdateMsg);
-          // check the VIN number
-          if (VinRegistry.registerVehicleWithExistingVIN(vehicle,
-                                                         pvUpdateMsg.vin)) {
-            // update the socket address of the proxy vehicle
-            // pull out just the IP <xxx.xxx.xxx.xxx> from the address only
-            String address = sa.toString();
-            address = address.substring(1, address.indexOf(':'));
-            vehicle
-              .setSa(new InetSocketAddress(address, DEFAULT_VEHICLE_UDP_PORT));
-            // record the proxy vehicle
-            sa2ProxyVehicle.put(sa, vehicle);
-            // add the proxy vehicle to the simulator
-            sim.addProxyVehicle(vehicle);
-            if (Debug.SHOW_PROXY_VEHICLE_DEBUG_MSG) {
-              System.err.printf("A proxy vehicle is created at time %.2f "
-                + "(vin=%d).\n", sim.getSimulationTime(), vehicle.getVIN());
-            }
-          } else {
-            System.err.println("Warning: the VIN of the UPD message has " +
-                               "already been used by other vehicles.");
-            // don't add the proxy vehicle to the simulator.
+  /**
+   * The main loop of the dispatcher thread.  It processes the datagrams in
+   * the ring in batches until it is interrupted.
+   */
+  private void dispatchDatagrams() {
+    List<Datagram> batch = new ArrayList<Datagram>(DATAGRAM_RING_CAPACITY);
+    while (true) {
+      try {
+        batch.add(receivedDatagrams.take());
+      } catch(InterruptedException e) {
+        break;
+      }
+      receivedDatagrams.drainTo(batch);
+      synchronized(sim) {
+        for(Datagram datagram : batch) {
+          try {
+            processIncomingDatagram(datagram);
+          } catch(RuntimeException e) {
+            // do not let one datagram stop the processing of the others
+            System.err.println("Error: cannot process the datagram.");
+            e.printStackTrace();
           }
-        } else {
-          // Ignore the message
+        }
+      }
+      for(Datagram datagram : batch) {
+        datagram.sa = null;
+        freeDatagrams.add(datagram);
+      }
+      batch.clear();
+    }
+  }
+
+
+  /**
+   * The main function for processing the incoming datagram.  It is called
+   * by the dispatcher thread, which holds the lock of the simulator.
+   *
+   * @param dp  the datagram.
+   */
+  private void processIncomingDatagram(Datagram dp) {
+    SocketAddress sa = dp.sa;
+    Real2ProxyMsg msg = convertDatagramToReal2ProxyMsg(dp);
+
+    if (Debug.SHOW_PROXY_VEHICLE_DEBUG_MSG) {
+      if (Debug.SHOW_PROXY_VEHICLE_PVUPDATE_MSG ||
+          !(msg instanceof Real2ProxyPVUpdate)) {
+        System.err.printf("Proxy vehicle received a Real2Proxy msg: %s\n",
+                          msg);
+      }
+    }
+
+    if (msg == null) {
+      System.err.println("Error: cannot parse the datagram package.");
+      return;
+    }
+
+    if (sa2ProxyVehicle.containsKey(sa)) {
+      // The datagram came from a real vehicle we're already tracking.
+      // Simply forward the datagram to the corresponding proxy vehicle
+      ProxyVehicleSimView vehicle = sa2ProxyVehicle.get(sa);
+      vehicle.processReal2ProxyMsg(msg);
+      V2IManagerService service = imService;
+      if (service != null) {
+        submitToService(vehicle, service);
+      }
+    } else {
+      // We haven't seem this SA before. This must be coming from
+      // a new real vehicle that we're not tracking
+
+      // If it is a PV_UPDATE message, instantiate the proxy vehicle and
+      // associate the socket address to this proxy vehicle.
+      // If not, ignore the message.
+      if (msg.messageType == Real2ProxyMsg.Type.PV_UPDATE) {
+        Real2ProxyPVUpdate pvUpdateMsg = (Real2ProxyPVUpdate)msg;
+        // create a proxy vehicle for this real vehicle
+        ProxyVehicleSimView vehicle = makeProxyVehicle(pvUpdateMsg);
+        // check the VIN number
+        if (VinRegistry.registerVehicleWithExistingVIN(vehicle,
+                                                       pvUpdateMsg.vin)) {
+          // update the socket address of the proxy vehicle
+          // pull out just the IP <xxx.xxx.xxx.xxx> from the address only
+          String address = sa.toString();
+          address = address.substring(1, address.indexOf(':'));
+          vehicle
+            .setSa(new InetSocketAddress(address, DEFAULT_VEHICLE_UDP_PORT));
+          // record the proxy vehicle
+          sa2ProxyVehicle.put(sa, vehicle);
+          // add the proxy vehicle to the simulator
+          sim.addProxyVehicle(vehicle);
           if (Debug.SHOW_PROXY_VEHICLE_DEBUG_MSG) {
-            System.err.println("Warning: first message from a new real " +
-                               "vehicle must be a PVUpdate.");
+            System.err.printf("A proxy vehicle is created at time %.2f "
+              + "(vin=%d).\n", sim.getSimulationTime(), vehicle.getVIN());
           }
+        } else {
+          System.err.println("Warning: the VIN of the UPD message has " +
+                             "already been used by other vehicles.");
+          // don't add the proxy vehicle to the simulator.
+        }
+      } else {
+        // Ignore the message
+        if (Debug.SHOW_PROXY_VEHICLE_DEBUG_MSG) {
+          System.err.println("Warning: first message from a new real " +
+                             "vehicle must be a PVUpdate.");
         }
       }
     }
@@ -318,56 +569,46 @@ public class UdpListener implements Runnable {
    * @param dp  the datagram
    * @return the Real2Proxy message
    */
-  private Real2ProxyMsg convertDatagramToReal2ProxyMsg(DatagramPacket dp) {
-    // prepare the raw data for reading
-    byte[] data = dp.getData();  // it will contain numBytes bytes.
-    ByteArrayInputStream bais = new ByteArrayInputStream(data);
-    DataInputStream dis = new DataInputStream(bais);
-    // read the header
-    UdpHeader header = null;
-    try {
-      header = new UdpHeader(dis);
-    } catch(IOException e) {
+  private Real2ProxyMsg convertDatagramToReal2ProxyMsg(Datagram dp) {
+    // read the header in place
+    codec.wrap(dp.data);
+    if (!codec.isHeaderValid()) {
       System.err.println("Error: Datagram has a corrupted header.");
       return null;
     }
 
-    if (header.getChecksum() != UdpHeader.computeChecksum(data)) {
+    if (!codec.isChecksumValid()) {
       // the datagram is corrupted, can't use it
       System.err.println("Error: Datagram has a corrupted checksum.");
       return null;
     }
 
     Real2ProxyMsg msg = null;
-    switch(header.getMessageType()) {
+    switch(codec.getMessageType()) {
     case PVUpdate:
-      try {
-        msg = new Real2ProxyPVUpdate(dis, sim.getSimulationTime());
-      } catch(IOException e) {
+      msg = codec.decodePVUpdate(currentTime());
+      if (msg == null) {
         System.err.println("Error: Datagram has a corrupted body for " +
                            "a PV_UPDATE message.");
       }
       break;
     case V2I_Request:
-      try {
-        msg = new Real2ProxyRequest(dis, sim.getSimulationTime());
-      } catch(IOException e) {
+      msg = codec.decodeRequest(currentTime());
+      if (msg == null) {
         System.err.println("Error: Datagram has a corrupted body for " +
                            "a REQUEST message.");
       }
       break;
     case V2I_Cancel:
-      try {
-        msg = new Real2ProxyCancel(dis, sim.getSimulationTime());
-      } catch(IOException e) {
+      msg = codec.decodeCancel(currentTime());
+      if (msg == null) {
         System.err.println("Error: Datagram has a corrupted body for " +
                            "a CANCEL message.");
       }
       break;
     case V2I_Done:
-      try {
-        msg = new Real2ProxyDone(dis, sim.getSimulationTime());
-      } catch(IOException e) {
+      msg = codec.decodeDone(currentTime());
+      if (msg == null) {
         System.err.println("Error: Datagram has a corrupted body for " +
                            "a DONE message.");
       }
@@ -376,21 +617,87 @@ public class UdpListener implements Runnable {
       System.err.println("Error: Unknown UDP message type");
     }
 
-//    try {
-//      int n = dis.available();
-//      if (n > 0) {
-//        System.err.println("Warning: processed the datagram, but there " +
-//                           "are still " + n + " bytes available.");
-//      }
-//    } catch(IOException e) {
-//      System.err.println("Error: Cannot estimate the number of remaining " +
-//                         "data in the datagram");
-//    }
-
     return msg;
   }
 
 
+  /**
+   * Get the time at which the incoming datagrams are received.
+   *
+   * @return the current time of the reservation server, if any; otherwise
+   *         the current time of the simulator
+   */
+  private double currentTime() {
+    V2IManagerService service = imService;
+    return (service == null) ? sim.getSimulationTime()
+                             : service.getCurrentTime();
+  }
+
+  /**
+   * Move the V2I messages that a proxy vehicle has just made to the
+   * intersection manager of the reservation server to the server, instead
+   * of leaving them to the simulator.
+   *
+   * @param vehicle  the proxy vehicle
+   * @param service  the reservation server
+   */
+  private void submitToService(ProxyVehicleSimView vehicle,
+                               final V2IManagerService service) {
+    final SocketAddress sa = vehicle.getSa();
+    V2IManagerService.Client client = new V2IManagerService.Client() {
+      @Override
+      public void receive(I2VMessage msg) {
+        sendToRealVehicle(msg, sa, service.getCurrentTime());
+      }
+    };
+    int imId = service.getIntersectionManager().getId();
+    for(Iterator<V2IMessage> iter = vehicle.getV2IOutbox().iterator();
+        iter.hasNext();) {
+      V2IMessage msg = iter.next();
+      // the simulator delivers the messages to the other intersection
+      // managers
+      if (msg.getImId() == imId) {
+        iter.remove();
+        service.submit(msg, client);
+      }
+    }
+  }
+
+  /**
+   * Send a reply of the reservation server to a real vehicle.  It is called
+   * by the service thread.
+   *
+   * @param msg          the reply
+   * @param sa           the socket address of the real vehicle
+   * @param currentTime  the current time of the reservation server
+   */
+  private void sendToRealVehicle(I2VMessage msg, SocketAddress sa,
+                                 double currentTime) {
+    replyCodec.wrap(replyBuffer, 0, replyBuffer.capacity());
+    int length;
+    switch(msg.getMessageType()) {
+    case CONFIRM:
+      length = replyCodec.encodeConfirm((Confirm)msg, currentTime);
+      break;
+    case REJECT:
+      length = replyCodec.encodeReject(currentTime);
+      break;
+    default:
+      // no other reply has a datagram format
+      return;
+    }
+    replyBuffer.clear().limit(length);
+    try {
+      if (replyChannel == null || !replyChannel.isOpen()) {
+        replyChannel = DatagramChannel.open();
+      }
+      replyChannel.send(replyBuffer, sa);
+    } catch(IOException e) {
+      System.err.println("Failed to send a datagram to a real vehicle.");
+      e.printStackTrace();
+    }
+  }
+
   /**
    * Create a proxy vehicle
    *
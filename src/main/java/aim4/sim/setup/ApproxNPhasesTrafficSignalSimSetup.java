@@ -133,8 +133,8 @@ public class ApproxNPhasesTrafficSignalSimSetup extends BasicSimSetup
       GridMapUtil.setUniformRandomSpawnPoints(layout, trafficLevel);
     }
 
-    V2IPilot.DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION =
-      stopDistBeforeIntersection;
+    V2IPilot.setDefaultStopDistanceBeforeIntersection(
+      stopDistBeforeIntersection);
 
     return new AutoDriverOnlySimulator(layout);
   }
@@ -34,6 +34,7 @@ import aim4.config.Debug;
 import aim4.config.SimConfig;
 import aim4.driver.pilot.V2IPilot;
 import aim4.im.v2i.batch.RoadBasedReordering;
+import aim4.im.v2i.reservation.ReservationArray;
 import aim4.im.v2i.reservation.ReservationGridManager;
 import aim4.map.GridMap;
 import aim4.map.GridMapUtil;
@@ -67,6 +68,8 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
   private boolean isBaseLineMode = false;
   /** Whether the batch mode is on */
   private boolean isBatchMode = false;
+  /** Whether the batches are processed optimistically */
+  private boolean isOptimisticBatchMode = false;
   /** The traffic type */
   private TrafficType trafficType = TrafficType.UNIFORM_RANDOM;
   /** The traffic level in the horizontal direction */
@@ -87,6 +90,19 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
   private double processingInterval = RoadBasedReordering.DEFAULT_PROCESSING_INTERVAL;
   /** The name of the file about the traffic volume */
   private String trafficVolumeFileName = null;
+  /** The number of threads that query the proposals of a request */
+  private int numOfProposalThreads = 1;
+  /** The backend of the reservation grids; null for the default one */
+  private ReservationArray.Backend reservationArrayBackend = null;
+  /** Whether the reject messages carry counter-offers */
+  private boolean isCounterOfferEnabled = false;
+  /** The number of reservations tried to be moved earlier per time step */
+  private int compactionsPerStep = 0;
+  /**
+   * The ID of the intersection manager run by a reservation server instead
+   * of the simulator; -1 if the simulator runs all intersection managers
+   */
+  private int servedImId = -1;
 
   /////////////////////////////////
   // CONSTRUCTORS
@@ -151,6 +167,16 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
     isBatchMode = b;
   }
 
+  /**
+   * Turn on or off the optimistic processing of the batches, in which the
+   * proposals of a batch are queried at the same time.
+   *
+   * @param b  Whether the batches are processed optimistically
+   */
+  public void setIsOptimisticBatchMode(boolean b) {
+    isOptimisticBatchMode = b;
+  }
+
   /**
    * Set the processing interval in the batch mode
    *
@@ -203,6 +229,51 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
     this.trafficVolumeFileName = trafficVolumeFileName;
   }
 
+  /**
+   * Get the static buffer size.
+   *
+   * @return the static buffer size
+   */
+  public double getStaticBufferSize() {
+    return staticBufferSize;
+  }
+
+  /**
+   * Get the time buffer size of internal tiles.
+   *
+   * @return the time buffer size of internal tiles
+   */
+  public double getInternalTileTimeBufferSize() {
+    return internalTileTimeBufferSize;
+  }
+
+  /**
+   * Get the time buffer size of edge tiles.
+   *
+   * @return the time buffer size of edge tiles
+   */
+  public double getEdgeTileTimeBufferSize() {
+    return edgeTileTimeBufferSize;
+  }
+
+  /**
+   * Whether the edge time buffer is enabled.
+   *
+   * @return whether the edge time buffer is enabled
+   */
+  public boolean getIsEdgeTileTimeBufferEnabled() {
+    return isEdgeTileTimeBufferEnabled;
+  }
+
+  /**
+   * Get the granularity of the simulation grid.
+   *
+   * @return the granularity of the simulation grid
+   */
+  public double getGranularity() {
+    return granularity;
+  }
+
   /**
    * Set the buffer sizes.
    *
@@ -225,6 +296,63 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
     this.granularity = granularity;
   }
 
+  /**
+   * Set the number of threads that query the proposals of a request at the
+   * same time in the intersection managers.
+   *
+   * @param numOfProposalThreads  the number of threads; 1 if the proposals
+   *                              are queried one after another
+   */
+  public void setNumOfProposalThreads(int numOfProposalThreads) {
+    this.numOfProposalThreads = numOfProposalThreads;
+  }
+
+  /**
+   * Set the data structure in which the reservation grids store the
+   * reservations.
+   *
+   * @param reservationArrayBackend  the backend of the reservation grids
+   */
+  public void setReservationArrayBackend(
+                              ReservationArray.Backend reservationArrayBackend) {
+    this.reservationArrayBackend = reservationArrayBackend;
+  }
+
+  /**
+   * Set whether the reject messages of the intersection managers carry the
+   * earliest arrival time at which one of the rejected proposals is free of
+   * conflicts.
+   *
+   * @param b  whether the reject messages carry counter-offers
+   */
+  public void setCounterOfferEnabled(boolean b) {
+    isCounterOfferEnabled = b;
+  }
+
+  /**
+   * Set the maximum number of reservations that the intersection managers
+   * try to move earlier in each time step after cancellations.
+   *
+   * @param compactionsPerStep  the maximum number of reservations; zero
+   *                            disables the compaction
+   */
+  public void setCompactionsPerStep(int compactionsPerStep) {
+    this.compactionsPerStep = compactionsPerStep;
+  }
+
+  /**
+   * Set the intersection manager that a reservation server runs in real
+   * time instead of the simulator, so that the UDP listener of the viewer
+   * can send the requests of the real vehicles to it.
+   *
+   * @param imId  the ID of the intersection manager; -1 if the simulator
+   *              runs all intersection managers
+   * @see AutoDriverOnlySimulator#serveIntersectionManager(int)
+   */
+  public void setServedImId(int imId) {
+    this.servedImId = imId;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -248,6 +376,12 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
                                         edgeTileTimeBufferSize,
                                         isEdgeTileTimeBufferEnabled,
                                         granularity);  // granularity
+    gridConfig.setNumOfProposalThreads(numOfProposalThreads);
+    gridConfig.setCounterOfferEnabled(isCounterOfferEnabled);
+    gridConfig.setCompactionsPerStep(compactionsPerStep);
+    if (reservationArrayBackend != null) {
+      gridConfig.setReservationArrayBackend(reservationArrayBackend);
+    }
 
 /* for demo */
 /*
@@ -278,7 +412,8 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
     if (!isBaseLineMode) {
       if (isBatchMode) {
         GridMapUtil.setBatchManagers(layout, currentTime, gridConfig,
-                                        processingInterval);
+                                        processingInterval,
+                                        isOptimisticBatchMode);
       } else {
         GridMapUtil.setFCFSManagers(layout, currentTime, gridConfig);
       }
@@ -305,8 +440,12 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
     }
 
 
-    V2IPilot.DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION =
-      stopDistBeforeIntersection;
-    return new AutoDriverOnlySimulator(layout);
+    V2IPilot.setDefaultStopDistanceBeforeIntersection(
+      stopDistBeforeIntersection);
+    AutoDriverOnlySimulator sim = new AutoDriverOnlySimulator(layout);
+    if (servedImId >= 0) {
+      sim.serveIntersectionManager(servedImId);
+    }
+    return sim;
   }
 }
@@ -0,0 +1,394 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim.setup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+
+import aim4.config.SimConfig;
+import aim4.im.v2i.reservation.ReservationArray;
+
+/**
+ * A scenario for a batch run: a simulator setup and the duration of the
+ * simulation, read from a Java properties file.  The keys of the file are
+ * <ul>
+ * <li> <code>name</code>: the name of the scenario (default: the file name)
+ * <li> <code>setup</code>: <code>autoDriverOnly</code> (default),
+ *      <code>nPhasesTrafficSignal</code>, <code>4PhasesTrafficSignal</code>,
+ *      <code>simpleTrafficSignal</code> or <code>stopSign</code>
+ * <li> <code>totalSimulationTime</code>: the time the simulation should run
+ *      (default: {@link SimConfig#TOTAL_SIMULATION_TIME})
+ * <li> <code>seed</code>: the random seed (default: none)
+ * <li> <code>stepThreads</code>: the number of threads that run the
+ *      per-vehicle stages and the intersection managers of each simulation
+ *      step (default: 1)
+ * <li> <code>pipelinedIm</code>: whether the intersection managers process
+ *      the requests of a step while the vehicles move and reply in the next
+ *      step (default: false)
+ * <li> the parameters of {@link BasicSimSetup}: <code>columns</code>,
+ *      <code>rows</code>, <code>laneWidth</code>, <code>speedLimit</code>,
+ *      <code>lanesPerRoad</code>, <code>medianSize</code>,
+ *      <code>distanceBetween</code>, <code>trafficLevel</code> and
+ *      <code>stopDistBeforeIntersection</code>
+ * <li> the parameters of the particular setup:
+ *      <code>baseLineMode</code>, <code>batchMode</code>,
+ *      <code>batchModeProcessingInterval</code>, <code>optimisticBatch</code>,
+ *      <code>staticBufferSize</code>, <code>internalTileTimeBufferSize</code>,
+ *      <code>edgeTileTimeBufferSize</code>,
+ *      <code>edgeTileTimeBufferEnabled</code>, <code>granularity</code>,
+ *      <code>trafficSignalPhaseFile</code>, <code>trafficVolumeFile</code>,
+ *      <code>greenLightDuration</code>, <code>yellowLightDuration</code>,
+ *      <code>proposalThreads</code>, <code>counterOffer</code>,
+ *      <code>compactionsPerStep</code> and <code>reservationBackend</code>
+ *      (<code>TREE_MAP</code>, <code>RING_BUFFER</code> or
+ *      <code>CONCURRENT</code>)
+ * </ul>
+ */
+public class Scenario {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The default basic simulator setup, the same as the GUI's */
+  private static final BasicSimSetup DEFAULT_BASIC_SIM_SETUP =
+    new BasicSimSetup(1, // columns
+                      1, // rows
+                      4, // lane width
+                      25.0, // speed limit
+                      3, // lanes per road
+                      1, // median size
+                      150, // distance between
+                      0.28, // traffic level
+                      1.0 // stop distance before intersection
+                      );
+
+  /** The default file of the traffic signal phases */
+  private static final String DEFAULT_TRAFFIC_SIGNAL_PHASE_FILE =
+    "/SignalPhases/AIM4Phases.csv";
+
+  /** The default file of the traffic volume of the traffic signals */
+  private static final String DEFAULT_TRAFFIC_VOLUME_FILE =
+    "/SignalPhases/AIM4Volumes.csv";
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The name of the scenario */
+  private final String name;
+  /** The properties of the scenario */
+  private final Properties properties;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a scenario.
+   *
+   * @param name        the default name of the scenario
+   * @param properties  the properties of the scenario
+   */
+  public Scenario(String name, Properties properties) {
+    this.name = properties.getProperty("name", name);
+    this.properties = properties;
+  }
+
+  /**
+   * Read a scenario from a file.  If there is no such file, the scenario is
+   * read from the resource with the same name.
+   *
+   * @param fileName  the name of the file
+   * @return the scenario
+   * @throws IOException if the file cannot be read
+   */
+  public static Scenario load(String fileName) throws IOException {
+    File file = new File(fileName);
+    InputStream in;
+    if (file.isFile()) {
+      in = new FileInputStream(file);
+    } else {
+      in = Scenario.class.getResourceAsStream(fileName);
+      if (in == null) {
+        throw new IOException("Scenario file not found: " + fileName);
+      }
+    }
+    Properties properties = new Properties();
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    String name = file.getName();
+    if (name.endsWith(".properties")) {
+      name = name.substring(0, name.length() - ".properties".length());
+    }
+    return new Scenario(name, properties);
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the name of the scenario.
+   *
+   * @return the name of the scenario
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the name of the simulator setup.
+   *
+   * @return the name of the simulator setup
+   */
+  public String getSetupName() {
+    return properties.getProperty("setup", "autoDriverOnly");
+  }
+
+  /**
+   * Get the time the simulation should run.
+   *
+   * @return the time the simulation should run; if it is less than or equal
+   *         to zero, the simulation would run forever.
+   */
+  public double getTotalSimulationTime() {
+    return getDouble("totalSimulationTime", SimConfig.TOTAL_SIMULATION_TIME);
+  }
+
+  /**
+   * Get the random seed.
+   *
+   * @return the random seed; null if the scenario does not specify one
+   */
+  public Long getRandomSeed() {
+    String value = properties.getProperty("seed");
+    return (value == null) ? null : Long.valueOf(value.trim());
+  }
+
+  /**
+   * Get the number of threads that run the per-vehicle stages and the
+   * intersection managers of each simulation step.
+   *
+   * @return the number of threads
+   */
+  public int getNumOfStepThreads() {
+    return getInt("stepThreads", 1);
+  }
+
+  /**
+   * Whether the intersection managers run in a pipeline stage that overlaps
+   * the movement of the vehicles.
+   *
+   * @return whether the intersection managers run in a pipeline stage
+   */
+  public boolean isImPipelined() {
+    return getBoolean("pipelinedIm", false);
+  }
+
+  /**
+   * Create the simulator setup of the scenario.
+   *
+   * @return the simulator setup
+   */
+  public SimSetup createSimSetup() {
+    BasicSimSetup d = DEFAULT_BASIC_SIM_SETUP;
+    BasicSimSetup basicSimSetup =
+      new BasicSimSetup(getInt("columns", d.getColumns()),
+                        getInt("rows", d.getRows()),
+                        getDouble("laneWidth", d.getLaneWidth()),
+                        getDouble("speedLimit", d.getSpeedLimit()),
+                        getInt("lanesPerRoad", d.getLanesPerRoad()),
+                        getDouble("medianSize", d.getMedianSize()),
+                        getDouble("distanceBetween", d.getDistanceBetween()),
+                        getDouble("trafficLevel", d.getTrafficLevel()),
+                        getDouble("stopDistBeforeIntersection",
+                                  d.getStopDistBeforeIntersection()));
+    String setup = getSetupName();
+    if (setup.equals("autoDriverOnly")) {
+      AutoDriverOnlySimSetup simSetup =
+        new AutoDriverOnlySimSetup(basicSimSetup);
+      simSetup.setIsBaseLineMode(getBoolean("baseLineMode", false));
+      simSetup.setIsBatchMode(getBoolean("batchMode", false));
+      simSetup.setIsOptimisticBatchMode(getBoolean("optimisticBatch", false));
+      if (properties.getProperty("batchModeProcessingInterval") != null) {
+        simSetup.setBatchModeProcessingInterval(
+          getDouble("batchModeProcessingInterval", 0.0));
+      }
+      simSetup.setBuffers(
+        getDouble("staticBufferSize", simSetup.getStaticBufferSize()),
+        getDouble("internalTileTimeBufferSize",
+                  simSetup.getInternalTileTimeBufferSize()),
+        getDouble("edgeTileTimeBufferSize",
+                  simSetup.getEdgeTileTimeBufferSize()),
+        getBoolean("edgeTileTimeBufferEnabled",
+                   simSetup.getIsEdgeTileTimeBufferEnabled()),
+        getDouble("granularity", simSetup.getGranularity()));
+      simSetup.setNumOfProposalThreads(getInt("proposalThreads", 1));
+      simSetup.setCounterOfferEnabled(getBoolean("counterOffer", false));
+      simSetup.setCompactionsPerStep(getInt("compactionsPerStep", 0));
+      if (properties.getProperty("reservationBackend") != null) {
+        simSetup.setReservationArrayBackend(
+          ReservationArray.Backend.valueOf(
+            properties.getProperty("reservationBackend").trim()));
+      }
+      if (properties.getProperty("trafficVolumeFile") != null) {
+        simSetup.setTrafficVolume(properties.getProperty("trafficVolumeFile"));
+      }
+      return simSetup;
+    } else if (setup.equals("nPhasesTrafficSignal")) {
+      ApproxNPhasesTrafficSignalSimSetup simSetup =
+        new ApproxNPhasesTrafficSignalSimSetup(
+          basicSimSetup,
+          properties.getProperty("trafficSignalPhaseFile",
+                                 DEFAULT_TRAFFIC_SIGNAL_PHASE_FILE));
+      simSetup.setTrafficVolume(
+        properties.getProperty("trafficVolumeFile",
+                               DEFAULT_TRAFFIC_VOLUME_FILE));
+      return simSetup;
+    } else if (setup.equals("4PhasesTrafficSignal")) {
+      Approx4PhasesTrafficSignalSimSetup simSetup =
+        new Approx4PhasesTrafficSignalSimSetup(basicSimSetup);
+      setLightDurations(simSetup);
+      return simSetup;
+    } else if (setup.equals("simpleTrafficSignal")) {
+      ApproxSimpleTrafficSignalSimSetup simSetup =
+        new ApproxSimpleTrafficSignalSimSetup(basicSimSetup);
+      setLightDurations(simSetup);
+      return simSetup;
+    } else if (setup.equals("stopSign")) {
+      ApproxStopSignSimSetup simSetup =
+        new ApproxStopSignSimSetup(basicSimSetup);
+      if (properties.getProperty("trafficVolumeFile") != null) {
+        simSetup.setTrafficVolume(properties.getProperty("trafficVolumeFile"));
+      }
+      return simSetup;
+    } else {
+      throw new IllegalArgumentException("Unknown simulator setup: " + setup);
+    }
+  }
+
+  /**
+   * Create a scenario that is the same as this scenario except for some
+   * parameters.
+   *
+   * @param name        the name of the new scenario
+   * @param parameters  a map from the keys of the parameters to their new
+   *                    values
+   * @return the new scenario
+   */
+  public Scenario derive(String name, Map<String,String> parameters) {
+    Properties derivedProperties = new Properties();
+    derivedProperties.putAll(properties);
+    derivedProperties.putAll(parameters);
+    derivedProperties.setProperty("name", name);
+    return new Scenario(name, derivedProperties);
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Set the durations of the green and yellow signals if the scenario
+   * specifies them.
+   *
+   * @param simSetup  the simulator setup
+   */
+  private void setLightDurations(Approx4PhasesTrafficSignalSimSetup simSetup) {
+    if (properties.getProperty("greenLightDuration") != null) {
+      simSetup.setGreenLightDuration(getDouble("greenLightDuration", 0.0));
+    }
+    if (properties.getProperty("yellowLightDuration") != null) {
+      simSetup.setYellowLightDuration(getDouble("yellowLightDuration", 0.0));
+    }
+  }
+
+  /**
+   * Set the durations of the green and yellow signals if the scenario
+   * specifies them.
+   *
+   * @param simSetup  the simulator setup
+   */
+  private void setLightDurations(ApproxSimpleTrafficSignalSimSetup simSetup) {
+    if (properties.getProperty("greenLightDuration") != null) {
+      simSetup.setGreenLightDuration(getDouble("greenLightDuration", 0.0));
+    }
+    if (properties.getProperty("yellowLightDuration") != null) {
+      simSetup.setYellowLightDuration(getDouble("yellowLightDuration", 0.0));
+    }
+  }
+
+  /**
+   * Get the value of a property as a double.
+   *
+   * @param key           the key of the property
+   * @param defaultValue  the value if the property is absent
+   * @return the value of the property
+   */
+  private double getDouble(String key, double defaultValue) {
+    String value = properties.getProperty(key);
+    return (value == null) ? defaultValue : Double.parseDouble(value.trim());
+  }
+
+  /**
+   * Get the value of a property as an integer.
+   *
+   * @param key           the key of the property
+   * @param defaultValue  the value if the property is absent
+   * @return the value of the property
+   */
+  private int getInt(String key, int defaultValue) {
+    String value = properties.getProperty(key);
+    return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  /**
+   * Get the value of a property as a boolean.
+   *
+   * @param key           the key of the property
+   * @param defaultValue  the value if the property is absent
+   * @return the value of the property
+   */
+  private boolean getBoolean(String key, boolean defaultValue) {
+    String value = properties.getProperty(key);
+    return (value == null) ? defaultValue
+                           : Boolean.parseBoolean(value.trim());
+  }
+
+}
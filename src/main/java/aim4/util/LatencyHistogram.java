@@ -0,0 +1,195 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.util;
+
+import java.io.PrintStream;
+
+/**
+ * A histogram of latencies, in nanoseconds, with one bucket per power of
+ * two.  Bucket <code>i</code> counts the latencies in
+ * [2<sup>i</sup>, 2<sup>i+1</sup>) nanoseconds, except that bucket 0 also
+ * counts the latencies of zero.  The percentiles are therefore accurate to
+ * within a factor of two, which is enough to compare the shapes of the
+ * distributions of two modes of the same computation.  This class is not
+ * thread-safe.
+ */
+public class LatencyHistogram {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The number of buckets. {@value} */
+  private static final int NUM_OF_BUCKETS = 64;
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The number of latencies in each bucket */
+  private final long[] counts = new long[NUM_OF_BUCKETS];
+  /** The number of latencies */
+  private long count;
+  /** The sum of the latencies */
+  private long sum;
+  /** The maximum latency */
+  private long max;
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos  the latency, in nanoseconds
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;  // the clock is not monotonic on some platforms
+    }
+    counts[bucketOf(nanos)]++;
+    count++;
+    sum += nanos;
+    if (nanos > max) {
+      max = nanos;
+    }
+  }
+
+  /**
+   * Add the latencies of another histogram to this histogram.
+   *
+   * @param other  the other histogram
+   */
+  public void add(LatencyHistogram other) {
+    for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Get the number of latencies.
+   *
+   * @return the number of latencies
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Get the mean latency.
+   *
+   * @return the mean latency, in nanoseconds; 0 if there is no latency
+   */
+  public double getMean() {
+    return (count == 0) ? 0.0 : ((double)sum) / count;
+  }
+
+  /**
+   * Get the maximum latency.
+   *
+   * @return the maximum latency, in nanoseconds
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Get an upper bound of a percentile of the latencies.
+   *
+   * @param p  the percentile, between 0 and 100
+   * @return the upper end of the bucket that contains the percentile, in
+   *         nanoseconds, but no more than the maximum latency; 0 if there
+   *         is no latency
+   */
+  public long getPercentile(double p) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long)Math.ceil(p / 100.0 * count);
+    long n = 0;
+    for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+      n += counts[i];
+      if (n >= rank && n > 0) {
+        return Math.min(upperEndOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Print the histogram in the CSV format: a summary line with the count,
+   * the mean, the 50th, 90th and 99th percentiles and the maximum in
+   * microseconds, followed by the non-empty buckets.
+   *
+   * @param out   the output stream
+   * @param name  the name of the histogram
+   */
+  public void print(PrintStream out, String name) {
+    out.printf("%s,count,%d,mean,%.3f,p50,%.3f,p90,%.3f,p99,%.3f,max,%.3f\n",
+               name, count, getMean() / 1e3,
+               getPercentile(50) / 1e3, getPercentile(90) / 1e3,
+               getPercentile(99) / 1e3, max / 1e3);
+    for(int i = 0; i < NUM_OF_BUCKETS; i++) {
+      if (counts[i] > 0) {
+        out.printf("%s,<%.3f,%d\n", name, upperEndOf(i) / 1e3, counts[i]);
+      }
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the bucket of a latency.
+   *
+   * @param nanos  the latency, in nanoseconds
+   * @return the index of the bucket
+   */
+  private static int bucketOf(long nanos) {
+    return (nanos == 0) ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+  }
+
+  /**
+   * Get the upper end of a bucket.
+   *
+   * @param i  the index of the bucket
+   * @return the upper end of the bucket, in nanoseconds
+   */
+  private static long upperEndOf(int i) {
+    return (i >= 62) ? Long.MAX_VALUE : (1L << (i + 1));
+  }
+
+}
@@ -0,0 +1,397 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.util;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * A polygonal area - the outline of an area as a list of edges, which
+ * supports fast containment and intersection tests that do not allocate
+ * any memory.  The tests give the same answers as the corresponding methods
+ * of {@link java.awt.geom.Area} up to floating-point rounding: a shape
+ * intersects the polygonal area if and only if their interiors overlap.
+ * This class is immutable and thread-safe.
+ */
+public class PolygonalArea {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The maximum distance between a curved segment of the outline and the
+   * line segments that approximate it.
+   */
+  private static final double FLATNESS = 0.01;
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The number of edges */
+  private final int numOfEdges;
+  /** The x-coordinates of the first end points of the edges */
+  private final double[] x0s;
+  /** The y-coordinates of the first end points of the edges */
+  private final double[] y0s;
+  /** The x-coordinates of the second end points of the edges */
+  private final double[] x1s;
+  /** The y-coordinates of the second end points of the edges */
+  private final double[] y1s;
+  /** The minimum x-coordinate of the area */
+  private final double minX;
+  /** The minimum y-coordinate of the area */
+  private final double minY;
+  /** The maximum x-coordinate of the area */
+  private final double maxX;
+  /** The maximum y-coordinate of the area */
+  private final double maxY;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a polygonal area from the outline of a shape.  Curved segments
+   * are approximated by line segments.
+   *
+   * @param shape  the shape
+   */
+  public PolygonalArea(Shape shape) {
+    int n = 0;
+    double[] xs0 = new double[16];
+    double[] ys0 = new double[16];
+    double[] xs1 = new double[16];
+    double[] ys1 = new double[16];
+    double[] coords = new double[6];
+    double movX = 0.0;
+    double movY = 0.0;
+    double curX = 0.0;
+    double curY = 0.0;
+    for(PathIterator pi = shape.getPathIterator(null, FLATNESS);
+        !pi.isDone(); pi.next()) {
+      int type = pi.currentSegment(coords);
+      double x;
+      double y;
+      if (type == PathIterator.SEG_MOVETO) {
+        x = movX;
+        y = movY;
+        movX = coords[0];
+        movY = coords[1];
+      } else if (type == PathIterator.SEG_LINETO) {
+        x = coords[0];
+        y = coords[1];
+      } else {  // SEG_CLOSE
+        x = movX;
+        y = movY;
+      }
+      // the edge from the current point to (x,y); an implicitly closed
+      // subpath is closed when the next subpath starts.
+      if (curX != x || curY != y) {
+        if (n == xs0.length) {
+          xs0 = Arrays.copyOf(xs0, 2 * n);
+          ys0 = Arrays.copyOf(ys0, 2 * n);
+          xs1 = Arrays.copyOf(xs1, 2 * n);
+          ys1 = Arrays.copyOf(ys1, 2 * n);
+        }
+        xs0[n] = curX;
+        ys0[n] = curY;
+        xs1[n] = x;
+        ys1[n] = y;
+        n++;
+      }
+      if (type == PathIterator.SEG_MOVETO) {
+        curX = movX;
+        curY = movY;
+      } else {
+        curX = x;
+        curY = y;
+      }
+    }
+    if (curX != movX || curY != movY) {
+      // close the last subpath
+      if (n == xs0.length) {
+        xs0 = Arrays.copyOf(xs0, n + 1);
+        ys0 = Arrays.copyOf(ys0, n + 1);
+        xs1 = Arrays.copyOf(xs1, n + 1);
+        ys1 = Arrays.copyOf(ys1, n + 1);
+      }
+      xs0[n] = curX;
+      ys0[n] = curY;
+      xs1[n] = movX;
+      ys1[n] = movY;
+      n++;
+    }
+    this.numOfEdges = n;
+    this.x0s = Arrays.copyOf(xs0, n);
+    this.y0s = Arrays.copyOf(ys0, n);
+    this.x1s = Arrays.copyOf(xs1, n);
+    this.y1s = Arrays.copyOf(ys1, n);
+    double x0 = Double.POSITIVE_INFINITY;
+    double y0 = Double.POSITIVE_INFINITY;
+    double x1 = Double.NEGATIVE_INFINITY;
+    double y1 = Double.NEGATIVE_INFINITY;
+    for(int i = 0; i < n; i++) {
+      x0 = Math.min(x0, Math.min(x0s[i], x1s[i]));
+      y0 = Math.min(y0, Math.min(y0s[i], y1s[i]));
+      x1 = Math.max(x1, Math.max(x0s[i], x1s[i]));
+      y1 = Math.max(y1, Math.max(y0s[i], y1s[i]));
+    }
+    this.minX = x0;
+    this.minY = y0;
+    this.maxX = x1;
+    this.maxY = y1;
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the number of edges of the outline.
+   *
+   * @return the number of edges of the outline
+   */
+  public int getNumOfEdges() {
+    return numOfEdges;
+  }
+
+  /**
+   * Whether or not a point is inside the area.  The same rule as
+   * {@link java.awt.geom.Area#contains(double, double)} is used for the
+   * points on the outline.
+   *
+   * @param x  the x-coordinate of the point
+   * @param y  the y-coordinate of the point
+   * @return whether or not the point is inside the area
+   */
+  public boolean contains(double x, double y) {
+    if (x < minX || y < minY || x >= maxX || y >= maxY) {
+      return false;
+    }
+    // Count the edges that cross the ray to the right of the point
+    int crossings = 0;
+    for(int i = 0; i < numOfEdges; i++) {
+      double xTop;
+      double yTop;
+      double xBot;
+      double yBot;
+      if (y0s[i] < y1s[i]) {
+        xTop = x0s[i];
+        yTop = y0s[i];
+        xBot = x1s[i];
+        yBot = y1s[i];
+      } else if (y0s[i] > y1s[i]) {
+        xTop = x1s[i];
+        yTop = y1s[i];
+        xBot = x0s[i];
+        yBot = y0s[i];
+      } else {
+        continue;  // horizontal edges never cross the ray
+      }
+      if (y >= yTop && y < yBot && x < Math.max(xTop, xBot)) {
+        if (x < Math.min(xTop, xBot)) {
+          crossings++;
+        } else {
+          double xi = (xTop == xBot || y <= yTop) ? xTop
+                      : (xTop + (y - yTop) * (xBot - xTop) / (yBot - yTop));
+          if (x < xi) {
+            crossings++;
+          }
+        }
+      }
+    }
+    return (crossings & 1) == 1;
+  }
+
+  /**
+   * Whether or not a point is inside the area.
+   *
+   * @param p  the point
+   * @return whether or not the point is inside the area
+   */
+  public boolean contains(Point2D p) {
+    return contains(p.getX(), p.getY());
+  }
+
+  /**
+   * Whether or not the interior of a rectangle overlaps the area.
+   *
+   * @param r  the rectangle
+   * @return whether or not the rectangle intersects the area
+   */
+  public boolean intersects(Rectangle2D r) {
+    double rMinX = r.getMinX();
+    double rMinY = r.getMinY();
+    double rMaxX = r.getMaxX();
+    double rMaxY = r.getMaxY();
+    if (rMaxX <= rMinX || rMaxY <= rMinY ||
+        rMaxX <= minX || rMinX >= maxX || rMaxY <= minY || rMinY >= maxY) {
+      return false;
+    }
+    for(int i = 0; i < numOfEdges; i++) {
+      double x0 = x0s[i];
+      double y0 = y0s[i];
+      double x1 = x1s[i];
+      double y1 = y1s[i];
+      // Separating axes: the x-axis, the y-axis, and the normal of the edge
+      if (Math.max(x0, x1) <= rMinX || Math.min(x0, x1) >= rMaxX ||
+          Math.max(y0, y1) <= rMinY || Math.min(y0, y1) >= rMaxY) {
+        continue;
+      }
+      double nx = y0 - y1;
+      double ny = x1 - x0;
+      double s = nx * x0 + ny * y0;
+      double p0 = nx * rMinX + ny * rMinY;
+      double p1 = nx * rMaxX + ny * rMinY;
+      double p2 = nx * rMaxX + ny * rMaxY;
+      double p3 = nx * rMinX + ny * rMaxY;
+      if (s <= Math.min(Math.min(p0, p1), Math.min(p2, p3)) ||
+          s >= Math.max(Math.max(p0, p1), Math.max(p2, p3))) {
+        continue;
+      }
+      return true;  // the edge passes through the rectangle
+    }
+    // The rectangle is either entirely inside or entirely outside the area
+    return contains((rMinX + rMaxX) / 2, (rMinY + rMaxY) / 2);
+  }
+
+  /**
+   * Whether or not the interior of a convex polygon, such as the corner
+   * points of a vehicle, overlaps the area.
+   *
+   * @param polygon  the vertices of the convex polygon
+   * @return whether or not the polygon intersects the area
+   */
+  public boolean intersects(Point2D[] polygon) {
+    int n = polygon.length;
+    double pMinX = Double.POSITIVE_INFINITY;
+    double pMinY = Double.POSITIVE_INFINITY;
+    double pMaxX = Double.NEGATIVE_INFINITY;
+    double pMaxY = Double.NEGATIVE_INFINITY;
+    double cx = 0.0;
+    double cy = 0.0;
+    for(Point2D p : polygon) {
+      pMinX = Math.min(pMinX, p.getX());
+      pMinY = Math.min(pMinY, p.getY());
+      pMaxX = Math.max(pMaxX, p.getX());
+      pMaxY = Math.max(pMaxY, p.getY());
+      cx += p.getX();
+      cy += p.getY();
+    }
+    if (pMaxX <= minX || pMinX >= maxX || pMaxY <= minY || pMinY >= maxY) {
+      return false;
+    }
+    for(int i = 0; i < numOfEdges; i++) {
+      double x0 = x0s[i];
+      double y0 = y0s[i];
+      double x1 = x1s[i];
+      double y1 = y1s[i];
+      // A quick check with the bounding boxes
+      if (Math.max(x0, x1) <= pMinX || Math.min(x0, x1) >= pMaxX ||
+          Math.max(y0, y1) <= pMinY || Math.min(y0, y1) >= pMaxY) {
+        continue;
+      }
+      if (isEdgeOverlapping(x0, y0, x1, y1, polygon)) {
+        return true;  // the edge passes through the polygon
+      }
+    }
+    // The polygon is either entirely inside or entirely outside the area
+    return contains(cx / n, cy / n);
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Whether or not a line segment passes through the interior of a convex
+   * polygon, by the separating axis test.
+   *
+   * @param x0       the x-coordinate of the first end point of the segment
+   * @param y0       the y-coordinate of the first end point of the segment
+   * @param x1       the x-coordinate of the second end point of the segment
+   * @param y1       the y-coordinate of the second end point of the segment
+   * @param polygon  the vertices of the convex polygon
+   * @return whether or not the segment passes through the polygon
+   */
+  private static boolean isEdgeOverlapping(double x0, double y0,
+                                           double x1, double y1,
+                                           Point2D[] polygon) {
+    int n = polygon.length;
+    // The normals of the edges of the polygon
+    for(int i = 0; i < n; i++) {
+      Point2D a = polygon[i];
+      Point2D b = polygon[(i + 1 < n) ? i + 1 : 0];
+      double nx = a.getY() - b.getY();
+      double ny = b.getX() - a.getX();
+      if (isSeparatingAxis(nx, ny, nx * x0 + ny * y0, nx * x1 + ny * y1,
+                           polygon)) {
+        return false;
+      }
+    }
+    // The normal of the segment
+    double nx = y0 - y1;
+    double ny = x1 - x0;
+    double s = nx * x0 + ny * y0;
+    return !isSeparatingAxis(nx, ny, s, s, polygon);
+  }
+
+  /**
+   * Whether or not an axis separates a line segment from a convex polygon,
+   * i.e., whether or not their projections on the axis overlap in at most
+   * one point.
+   *
+   * @param nx       the x-component of the axis
+   * @param ny       the y-component of the axis
+   * @param s0       the projection of the first end point of the segment
+   * @param s1       the projection of the second end point of the segment
+   * @param polygon  the vertices of the convex polygon
+   * @return whether or not the axis separates the segment and the polygon
+   */
+  private static boolean isSeparatingAxis(double nx, double ny,
+                                          double s0, double s1,
+                                          Point2D[] polygon) {
+    double pMin = Double.POSITIVE_INFINITY;
+    double pMax = Double.NEGATIVE_INFINITY;
+    for(Point2D p : polygon) {
+      double d = nx * p.getX() + ny * p.getY();
+      pMin = Math.min(pMin, d);
+      pMax = Math.max(pMax, d);
+    }
+    return Math.max(s0, s1) <= pMin || Math.min(s0, s1) >= pMax;
+  }
+
+}
@@ -0,0 +1,242 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.util;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A spatial hash - a uniform grid of cells over a rectangular extent, in
+ * which each cell lists the items whose bounding boxes overlap the cell.  It
+ * answers range queries by looking at the cells that overlap the range only.
+ * The items whose bounding boxes are outside the extent are put in the cells
+ * on the border of the grid, so that every item can be found.
+ * <p>
+ * The spatial hash is meant to be rebuilt, by {@link #clear()} and
+ * {@link #add(Object, Rectangle2D)}, whenever the items move.  It is not
+ * thread-safe.
+ *
+ * @param <T>  the type of the items
+ */
+public class SpatialHash<T> {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The initial capacity of the item arrays and of the cells */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The minimum x-coordinate of the extent */
+  private final double minX;
+  /** The minimum y-coordinate of the extent */
+  private final double minY;
+  /** The width and height of a cell */
+  private final double cellSize;
+  /** The number of columns of cells */
+  private final int numOfColumns;
+  /** The number of rows of cells */
+  private final int numOfRows;
+
+  /** The IDs of the items in each cell; the index of a cell is
+   *  column * numOfRows + row */
+  private final int[][] cellItems;
+  /** The number of items in each cell */
+  private final int[] cellSizes;
+
+  /** The items, indexed by their IDs */
+  private Object[] items = new Object[INITIAL_CAPACITY];
+  /** The bounding boxes of the items, as minX, minY, maxX and maxY */
+  private double[] bounds = new double[INITIAL_CAPACITY * 4];
+  /** The number of items */
+  private int numOfItems = 0;
+
+  /** The last query in which each item was reported */
+  private int[] queryStamps = new int[INITIAL_CAPACITY];
+  /** The number of queries so far */
+  private int queryStamp = 0;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create an empty spatial hash.
+   *
+   * @param extent    the area the items are usually in
+   * @param cellSize  the width and height of a cell
+   */
+  public SpatialHash(Rectangle2D extent, double cellSize) {
+    if (cellSize <= 0.0) {
+      throw new IllegalArgumentException("The cell size must be positive.");
+    }
+    this.minX = extent.getMinX();
+    this.minY = extent.getMinY();
+    this.cellSize = cellSize;
+    this.numOfColumns =
+      Math.max(1, (int)Math.ceil(extent.getWidth() / cellSize));
+    this.numOfRows =
+      Math.max(1, (int)Math.ceil(extent.getHeight() / cellSize));
+    this.cellItems = new int[numOfColumns * numOfRows][];
+    this.cellSizes = new int[numOfColumns * numOfRows];
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Remove all items.
+   */
+  public void clear() {
+    Arrays.fill(items, 0, numOfItems, null);
+    Arrays.fill(cellSizes, 0);
+    numOfItems = 0;
+  }
+
+  /**
+   * Get the number of items.
+   *
+   * @return the number of items
+   */
+  public int size() {
+    return numOfItems;
+  }
+
+  /**
+   * Add an item.
+   *
+   * @param item         the item
+   * @param itemBounds   the bounding box of the item
+   */
+  public void add(T item, Rectangle2D itemBounds) {
+    if (numOfItems == items.length) {
+      int capacity = items.length * 2;
+      items = Arrays.copyOf(items, capacity);
+      bounds = Arrays.copyOf(bounds, capacity * 4);
+      queryStamps = Arrays.copyOf(queryStamps, capacity);
+    }
+    int id = numOfItems++;
+    items[id] = item;
+    bounds[4 * id] = itemBounds.getMinX();
+    bounds[4 * id + 1] = itemBounds.getMinY();
+    bounds[4 * id + 2] = itemBounds.getMaxX();
+    bounds[4 * id + 3] = itemBounds.getMaxY();
+    queryStamps[id] = queryStamp;
+
+    int c0 = column(itemBounds.getMinX());
+    int c1 = column(itemBounds.getMaxX());
+    int r0 = row(itemBounds.getMinY());
+    int r1 = row(itemBounds.getMaxY());
+    for(int c = c0; c <= c1; c++) {
+      for(int r = r0; r <= r1; r++) {
+        int cell = c * numOfRows + r;
+        int[] ids = cellItems[cell];
+        if (ids == null) {
+          ids = new int[INITIAL_CAPACITY];
+          cellItems[cell] = ids;
+        } else if (cellSizes[cell] == ids.length) {
+          ids = Arrays.copyOf(ids, ids.length * 2);
+          cellItems[cell] = ids;
+        }
+        ids[cellSizes[cell]++] = id;
+      }
+    }
+  }
+
+  /**
+   * Find the items whose bounding boxes intersect a range.  Each item is
+   * reported once.
+   *
+   * @param range   the range
+   * @param result  the list to which the items are added
+   */
+  @SuppressWarnings("unchecked")
+  public void query(Rectangle2D range, List<T> result) {
+    double x0 = range.getMinX();
+    double y0 = range.getMinY();
+    double x1 = range.getMaxX();
+    double y1 = range.getMaxY();
+    queryStamp++;
+    int c0 = column(x0);
+    int c1 = column(x1);
+    int r0 = row(y0);
+    int r1 = row(y1);
+    for(int c = c0; c <= c1; c++) {
+      for(int r = r0; r <= r1; r++) {
+        int cell = c * numOfRows + r;
+        int[] ids = cellItems[cell];
+        for(int i = 0; i < cellSizes[cell]; i++) {
+          int id = ids[i];
+          if (queryStamps[id] != queryStamp) {
+            queryStamps[id] = queryStamp;
+            if (bounds[4 * id] <= x1 && bounds[4 * id + 2] >= x0
+                && bounds[4 * id + 1] <= y1 && bounds[4 * id + 3] >= y0) {
+              result.add((T)items[id]);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the column of the cells that contains an x-coordinate.
+   *
+   * @param x  the x-coordinate
+   * @return the column, clamped to the grid
+   */
+  private int column(double x) {
+    int c = (int)Math.floor((x - minX) / cellSize);
+    return Math.min(Math.max(c, 0), numOfColumns - 1);
+  }
+
+  /**
+   * Get the row of the cells that contains a y-coordinate.
+   *
+   * @param y  the y-coordinate
+   * @return the row, clamped to the grid
+   */
+  private int row(double y) {
+    int r = (int)Math.floor((y - minY) / cellSize);
+    return Math.min(Math.max(r, 0), numOfRows - 1);
+  }
+
+}
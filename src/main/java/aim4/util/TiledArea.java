@@ -32,8 +32,10 @@ package aim4.util;
 
 import java.awt.Shape;
 import java.awt.geom.Area;
+import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -110,6 +112,41 @@ public class TiledArea {
     }
   }
 
+  /**
+   * The scratch space of {@link TiledArea#findOccupiedTiles(Point2D[],
+   * long[])}, of which each thread has its own.
+   */
+  private static class Scratch {
+    /** The x-coordinates of the vertices of the polygon */
+    double[] polygonXs = new double[4];
+    /** The y-coordinates of the vertices of the polygon */
+    double[] polygonYs = new double[4];
+    /**
+     * The lower ends of the open intervals of x-coordinates in which the
+     * edges of the polygon intersect the tiles of the current row
+     */
+    double[] edgeMinXs = new double[4];
+    /**
+     * The upper ends of the open intervals of x-coordinates in which the
+     * edges of the polygon intersect the tiles of the current row
+     */
+    double[] edgeMaxXs = new double[4];
+
+    /**
+     * Make sure the arrays can hold a given number of vertices.
+     *
+     * @param n  the number of vertices
+     */
+    void ensureCapacity(int n) {
+      if (polygonXs.length < n) {
+        polygonXs = new double[n];
+        polygonYs = new double[n];
+        edgeMinXs = new double[n];
+        edgeMaxXs = new double[n];
+      }
+    }
+  }
+
   /////////////////////////////////
   // PRIVATE FIELDS
   /////////////////////////////////
@@ -132,6 +169,22 @@ public class TiledArea {
   private final ArrayList<Tile> idToTiles;
   /** The number of tiles */
   private int numberOfTiles;
+  /** The minimum x-coordinates of the tiles in each column */
+  private final double[] tileMinXs;
+  /** The maximum x-coordinates of the tiles in each column */
+  private final double[] tileMaxXs;
+  /** The minimum y-coordinates of the tiles in each row */
+  private final double[] tileMinYs;
+  /** The maximum y-coordinates of the tiles in each row */
+  private final double[] tileMaxYs;
+
+  /** The scratch space of findOccupiedTiles(Point2D[], long[]) */
+  private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
 
   /////////////////////////////////
   // CLASS CONSTRUCTORS
@@ -163,6 +216,10 @@ public class TiledArea {
     yNum = ((int)(rectangle.getHeight() / yLength)) + 1;
     tiles = new Tile[xNum][yNum];
     idToTiles = new ArrayList<Tile>(xNum*yNum) ;
+    tileMinXs = new double[xNum];
+    tileMaxXs = new double[xNum];
+    tileMinYs = new double[yNum];
+    tileMaxYs = new double[yNum];
     createTiles();
     identifyEdgeTiles();
   }
@@ -188,6 +245,11 @@ public class TiledArea {
           new Rectangle2D.Double(rectangle.getMinX() + xOffset,
                                  rectangle.getMinY() + yOffset,
                                  width, height);
+        // Remember the boundaries of the columns and the rows
+        tileMinXs[x] = tileRect.getMinX();
+        tileMaxXs[x] = tileRect.getMaxX();
+        tileMinYs[y] = tileRect.getMinY();
+        tileMaxYs[y] = tileRect.getMaxY();
         // Now that we have a rectangle for the tile, we can figure out
         // whether it is actually in the area
         if(area.intersects(tileRect)) {
@@ -376,4 +438,231 @@ public class TiledArea {
     return occupiedTiles;
   }
 
-}
+  /**
+   * Find the tiles that are occupied by a convex polygon, such as the
+   * rectangle given by the corner points of a vehicle.  The result is
+   * exactly the same as {@link #findOccupiedTiles(Shape)} with the shape
+   * created by {@link aim4.util.GeomUtil#convertPointsToShape(Point2D[])}
+   * from the same points, but the tiles are found row by row from the
+   * intervals in which the edges of the polygon cross the row, and nothing
+   * is allocated.  The scratch space is per thread, so that the footprints
+   * of several proposals can be found at the same time.
+   *
+   * @param points         the vertices of the convex polygon
+   * @param occupiedTiles  the bitmask to which the occupied tiles are
+   *                       written; bit (id &amp; 63) of word (id &gt;&gt;&gt; 6)
+   *                       is set if the tile with the given id is occupied.
+   *                       The bitmask is cleared first.
+   * @return the number of occupied tiles
+   */
+  public int findOccupiedTiles(Point2D[] points, long[] occupiedTiles) {
+    Arrays.fill(occupiedTiles, 0L);
+    int n = points.length;
+    Scratch s = scratch.get();
+    s.ensureCapacity(n);
+    double[] polygonXs = s.polygonXs;
+    double[] polygonYs = s.polygonYs;
+    double[] edgeMinXs = s.edgeMinXs;
+    double[] edgeMaxXs = s.edgeMaxXs;
+    // The coordinates are rounded to float as in the shape of the points,
+    // and so is the bounding box.
+    float minX = (float)points[0].getX();
+    float minY = (float)points[0].getY();
+    float maxX = minX;
+    float maxY = minY;
+    for(int i = 0; i < n; i++) {
+      float x = (float)points[i].getX();
+      float y = (float)points[i].getY();
+      polygonXs[i] = x;
+      polygonYs[i] = y;
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+    }
+    float width = maxX - minX;
+    float height = maxY - minY;
+    // The edge from the last vertex back to the first one is omitted if
+    // the two vertices are the same
+    int numOfEdges =
+      (polygonXs[n - 1] != polygonXs[0] || polygonYs[n - 1] != polygonYs[0])
+      ? n : n - 1;
+    // We only need to check the tiles that are within the bounding box
+    int firstColumn =
+      Math.max(0, (int)((minX - rectangle.getMinX()) / xLength));
+    int lastColumn =
+      Math.min(xNum - 1,
+               (int)((((double)minX) + width - rectangle.getMinX()) /
+                     xLength));
+    int firstRow =
+      Math.max(0, (int)((minY - rectangle.getMinY()) / yLength));
+    int lastRow =
+      Math.min(yNum - 1,
+               (int)((((double)minY) + height - rectangle.getMinY()) /
+                     yLength));
+
+    if (firstColumn > lastColumn) {
+      return 0;  // the polygon is outside of the tiled area
+    }
+    int count = 0;
+    for(int r = firstRow; r <= lastRow; r++) {
+      double rowMinY = tileMinYs[r];
+      double rowMaxY = tileMaxYs[r];
+      // Find the intervals in which the edges cross the row
+      int m = 0;
+      double rowMinX = Double.POSITIVE_INFINITY;
+      double rowMaxX = Double.NEGATIVE_INFINITY;
+      for(int i = 0; i < numOfEdges; i++) {
+        int j = (i + 1 < n) ? i + 1 : 0;
+        double x0 = polygonXs[i];
+        double y0 = polygonYs[i];
+        double x1 = polygonXs[j];
+        double y1 = polygonYs[j];
+        if ((y0 >= rowMaxY && y1 >= rowMaxY) ||
+            (y0 <= rowMinY && y1 <= rowMinY)) {
+          continue;  // the edge does not cross the row
+        }
+        double xi0 = calcRowIntercept(x0, y0, x1, y1, rowMinY, rowMaxY);
+        double xi1 = calcRowIntercept(x1, y1, x0, y0, rowMinY, rowMaxY);
+        edgeMinXs[m] = Math.max(Math.min(x0, x1), Math.min(xi0, xi1));
+        edgeMaxXs[m] = Math.min(Math.max(x0, x1), Math.max(xi0, xi1));
+        rowMinX = Math.min(rowMinX, edgeMinXs[m]);
+        rowMaxX = Math.max(rowMaxX, edgeMaxXs[m]);
+        m++;
+      }
+      if (m == 0) {
+        continue;  // the polygon does not cross the row
+      }
+      // Only the columns between the leftmost and the rightmost crossing
+      // can be occupied
+      int c0 = Math.min(lastColumn,
+                        Math.max(firstColumn,
+                                 (int)((rowMinX - rectangle.getMinX()) /
+                                       xLength)));
+      while(c0 > firstColumn && tileMaxXs[c0 - 1] > rowMinX) {
+        c0--;
+      }
+      int c1 = Math.max(firstColumn,
+                        Math.min(lastColumn,
+                                 (int)((rowMaxX - rectangle.getMinX()) /
+                                       xLength)));
+      while(c1 < lastColumn && tileMinXs[c1 + 1] < rowMaxX) {
+        c1++;
+      }
+      for(int c = c0; c <= c1; c++) {
+        if (tiles[c][r] == null) {
+          continue;
+        }
+        double colMinX = tileMinXs[c];
+        double colMaxX = tileMaxXs[c];
+        boolean isOccupied = false;
+        for(int k = 0; k < m; k++) {
+          if (colMinX < edgeMaxXs[k] && colMaxX > edgeMinXs[k]) {
+            isOccupied = true;  // an edge crosses the tile
+            break;
+          }
+        }
+        if (!isOccupied) {
+          // the tile is occupied if it is inside the polygon
+          isOccupied = calcCrossings(polygonXs, polygonYs, n, numOfEdges,
+                                     colMinX, rowMinY, colMaxX, rowMaxY) != 0;
+        }
+        if (isOccupied) {
+          int id = tiles[c][r].getId();
+          occupiedTiles[id >>> 6] |= 1L << (id & 63);
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Calculate the x-coordinate at which an edge enters a row, starting from
+   * the first end point of the edge.  If the first end point is within the
+   * row, it is the x-coordinate of the first end point.
+   *
+   * @param x0       the x-coordinate of the first end point of the edge
+   * @param y0       the y-coordinate of the first end point of the edge
+   * @param x1       the x-coordinate of the second end point of the edge
+   * @param y1       the y-coordinate of the second end point of the edge
+   * @param rowMinY  the minimum y-coordinate of the row
+   * @param rowMaxY  the maximum y-coordinate of the row
+   * @return the x-coordinate at which the edge enters the row
+   */
+  private static double calcRowIntercept(double x0, double y0,
+                                         double x1, double y1,
+                                         double rowMinY, double rowMaxY) {
+    // Same arithmetic as java.awt.geom.Path2D.intersects() so that the
+    // results are exactly the same
+    if (y0 < rowMinY) {
+      return x0 + ((rowMinY - y0) * (x1 - x0) / (y1 - y0));
+    } else if (y0 > rowMaxY) {
+      return x0 + ((rowMaxY - y0) * (x1 - x0) / (y1 - y0));
+    } else {
+      return x0;
+    }
+  }
+
+  /**
+   * Count the number of times the polygon crosses the ray that extends to
+   * the right of a tile that none of the edges of the polygon crosses.  The
+   * tile is inside the polygon if and only if the count is not zero.
+   *
+   * @param polygonXs   the x-coordinates of the vertices of the polygon
+   * @param polygonYs   the y-coordinates of the vertices of the polygon
+   * @param n           the number of vertices of the polygon
+   * @param numOfEdges  the number of edges of the polygon
+   * @param minX        the minimum x-coordinate of the tile
+   * @param minY        the minimum y-coordinate of the tile
+   * @param maxX        the maximum x-coordinate of the tile
+   * @param maxY        the maximum y-coordinate of the tile
+   * @return the number of crossings
+   */
+  private static int calcCrossings(double[] polygonXs, double[] polygonYs,
+                                   int n, int numOfEdges,
+                                   double minX, double minY,
+                                   double maxX, double maxY) {
+    int crossings = 0;
+    for(int i = 0; i < numOfEdges; i++) {
+      int j = (i + 1 < n) ? i + 1 : 0;
+      double x0 = polygonXs[i];
+      double y0 = polygonYs[i];
+      double x1 = polygonXs[j];
+      double y1 = polygonYs[j];
+      if ((y0 >= maxY && y1 >= maxY) || (y0 <= minY && y1 <= minY) ||
+          (x0 <= minX && x1 <= minX)) {
+        continue;
+      }
+      if (!(x0 >= maxX && x1 >= maxX)) {
+        double xi0 = calcRowIntercept(x0, y0, x1, y1, minY, maxY);
+        double xi1 = calcRowIntercept(x1, y1, x0, y0, minY, maxY);
+        if (!(xi0 >= maxX && xi1 >= maxX)) {
+          continue;  // the edge is to the left of the tile
+        }
+      }
+      // The edge crosses the ray to the right of the tile
+      if (y0 < y1) {
+        if (y0 <= minY) {
+          crossings++;
+        }
+        if (y1 >= maxY) {
+          crossings++;
+        }
+      } else if (y1 < y0) {
+        if (y1 <= minY) {
+          crossings--;
+        }
+        if (y0 >= maxY) {
+          crossings--;
+        }
+      }
+    }
+    return crossings;
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,377 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hierarchical timer wheel keyed on simulation time.  Every key has at
+ * most one timer, which expires at a given time.  Scheduling, rescheduling
+ * and cancelling a timer take constant time, and expiring the timers takes
+ * time proportional to the number of timers that expire, plus the cost of
+ * moving the timers down the levels of the wheel, which is at most once per
+ * level for each timer.
+ * <p>
+ * The wheel has {@value #NUM_OF_LEVELS} levels of {@value #NUM_OF_SLOTS}
+ * slots.  A slot at level 0 covers one tick; a slot at level
+ * <i>l</i> covers {@value #NUM_OF_SLOTS}<sup><i>l</i></sup> ticks, and its
+ * timers are moved to the lower levels when the wheel reaches the slot.
+ * Timers further in the future than the wheel covers are put in the last
+ * slot that it can reach and moved again from there.  A timer keeps its
+ * exact expiration time, so that it expires at the first call of
+ * {@link #expire(double)} with a time no earlier than its expiration time,
+ * whatever the tick length.  The wheel is not thread-safe.
+ *
+ * @param <K>  the type of the keys
+ */
+public class TimerWheel<K> {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The number of bits of the slot index of a level */
+  private static final int SLOT_BITS = 6;
+  /** The number of slots of a level */
+  private static final int NUM_OF_SLOTS = 1 << SLOT_BITS;
+  /** The mask of the slot index of a level */
+  private static final int SLOT_MASK = NUM_OF_SLOTS - 1;
+  /** The number of levels */
+  private static final int NUM_OF_LEVELS = 4;
+  /** The number of ticks the wheel covers */
+  private static final long MAX_TICKS =
+    (1L << (SLOT_BITS * NUM_OF_LEVELS)) - 1;
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * A timer, which is a node of the doubly linked list of a slot.
+   */
+  private static final class Timer<K> {
+    /** The key of the timer; null for the head of a slot */
+    private final K key;
+    /** The expiration time */
+    private double time;
+    /** The tick of the expiration time */
+    private long tick;
+    /** The previous node in the slot */
+    private Timer<K> prev = this;
+    /** The next node in the slot */
+    private Timer<K> next = this;
+
+    /**
+     * Create a timer.
+     *
+     * @param key  the key of the timer
+     */
+    private Timer(K key) {
+      this.key = key;
+    }
+
+    /**
+     * Remove this timer from its slot.
+     */
+    private void unlink() {
+      prev.next = next;
+      next.prev = prev;
+      prev = this;
+      next = this;
+    }
+
+    /**
+     * Add a timer to the end of the slot of which this node is the head.
+     *
+     * @param timer  the timer
+     */
+    private void append(Timer<K> timer) {
+      timer.prev = prev;
+      timer.next = this;
+      prev.next = timer;
+      prev = timer;
+    }
+
+    /**
+     * Whether the slot of which this node is the head is empty.
+     *
+     * @return whether the slot is empty
+     */
+    private boolean isEmpty() {
+      return next == this;
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The length of a tick, in seconds */
+  private final double tickLength;
+  /** The heads of the slots of the levels */
+  private final Timer<K>[][] slots;
+  /** The timers of the keys */
+  private final Map<K, Timer<K>> timers = new HashMap<K, Timer<K>>();
+  /** The next tick to be processed */
+  private long nextTick;
+  /** The last tick at which the higher levels were moved down */
+  private long lastCascadedTick = -1;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a timer wheel.
+   *
+   * @param tickLength   the length of a tick, in seconds
+   * @param currentTime  the current time
+   */
+  public TimerWheel(double tickLength, double currentTime) {
+    if (tickLength <= 0.0) {
+      throw new IllegalArgumentException("The tick length must be positive");
+    }
+    this.tickLength = tickLength;
+    this.slots = newSlots();
+    for (int level = 0; level < NUM_OF_LEVELS; level++) {
+      for (int i = 0; i < NUM_OF_SLOTS; i++) {
+        slots[level][i] = new Timer<K>(null);
+      }
+    }
+    this.nextTick = calcTick(currentTime);
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the number of timers.
+   *
+   * @return the number of timers
+   */
+  public int size() {
+    return timers.size();
+  }
+
+  /**
+   * Whether a key has a timer.
+   *
+   * @param key  the key
+   * @return whether the key has a timer
+   */
+  public boolean contains(K key) {
+    return timers.containsKey(key);
+  }
+
+  /**
+   * Get the expiration time of the timer of a key.
+   *
+   * @param key  the key
+   * @return the expiration time; null if the key has no timer
+   */
+  public Double getTime(K key) {
+    Timer<K> timer = timers.get(key);
+    return (timer == null) ? null : timer.time;
+  }
+
+  /**
+   * Set the timer of a key to expire at a given time.  The previous timer
+   * of the key, if any, is replaced.
+   *
+   * @param key   the key
+   * @param time  the expiration time
+   */
+  public void schedule(K key, double time) {
+    Timer<K> timer = timers.get(key);
+    if (timer == null) {
+      timer = new Timer<K>(key);
+      timers.put(key, timer);
+    } else {
+      timer.unlink();
+    }
+    timer.time = time;
+    timer.tick = calcTick(time);
+    insert(timer);
+  }
+
+  /**
+   * Cancel the timer of a key.
+   *
+   * @param key  the key
+   * @return whether the key had a timer
+   */
+  public boolean cancel(K key) {
+    Timer<K> timer = timers.remove(key);
+    if (timer != null) {
+      timer.unlink();
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Remove the timers whose expiration times are no later than the current
+   * time.
+   *
+   * @param currentTime  the current time
+   * @return the number of timers removed
+   */
+  public int expire(double currentTime) {
+    int n = 0;
+    long currentTick = calcTick(currentTime);
+    if (timers.isEmpty()) {
+      // no slot has a timer to fire or to move down.
+      nextTick = Math.max(nextTick, currentTick);
+      return 0;
+    }
+    while (nextTick <= currentTick) {
+      int index = (int) (nextTick & SLOT_MASK);
+      if (index == 0 && lastCascadedTick != nextTick) {
+        lastCascadedTick = nextTick;
+        for (int level = 1; level < NUM_OF_LEVELS; level++) {
+          int i = (int) ((nextTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+          cascade(slots[level][i]);
+          if (i != 0) {
+            break;
+          }
+        }
+      }
+      // detach the slot so that the timers that do not expire yet can be
+      // put back.
+      Timer<K> timer = detach(slots[0][index]);
+      while (timer != null) {
+        Timer<K> next = timer.next;
+        timer.prev = timer;
+        timer.next = timer;
+        if (timer.time <= currentTime) {
+          timers.remove(timer.key);
+          n++;
+        } else {
+          insert(timer);
+        }
+        timer = next;
+      }
+      if (nextTick == currentTick) {
+        // the rest of the current tick is processed in the next call.
+        break;
+      }
+      nextTick++;
+    }
+    return n;
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Create the array of the heads of the slots of the levels.
+   *
+   * @param <K>  the type of the keys of the timers
+   * @return the array of the heads of the slots
+   */
+  @SuppressWarnings("unchecked")
+  private static <K> Timer<K>[][] newSlots() {
+    return (Timer<K>[][])new Timer<?>[NUM_OF_LEVELS][NUM_OF_SLOTS];
+  }
+
+  /**
+   * Get the tick of a time.
+   *
+   * @param time  the time
+   * @return the tick
+   */
+  private long calcTick(double time) {
+    return (long) Math.floor(time / tickLength);
+  }
+
+  /**
+   * Put a timer in the slot of its expiration tick.
+   *
+   * @param timer  the timer
+   */
+  private void insert(Timer<K> timer) {
+    long delta = timer.tick - nextTick;
+    if (delta < 0) {
+      slots[0][(int) (nextTick & SLOT_MASK)].append(timer);
+      return;
+    }
+    long tick = timer.tick;
+    if (delta > MAX_TICKS) {
+      tick = nextTick + MAX_TICKS;
+      delta = MAX_TICKS;
+    }
+    int level = 0;
+    while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+      level++;
+    }
+    int i = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+    slots[level][i].append(timer);
+  }
+
+  /**
+   * Empty a slot.
+   *
+   * @param head  the head of the slot
+   * @return the first timer of the slot, whose timers are linked by their
+   *         next references up to null; null if the slot is empty
+   */
+  private Timer<K> detach(Timer<K> head) {
+    if (head.isEmpty()) {
+      return null;
+    }
+    Timer<K> first = head.next;
+    head.prev.next = null;
+    head.next = head;
+    head.prev = head;
+    return first;
+  }
+
+  /**
+   * Move the timers of a slot at a higher level to the lower levels.
+   *
+   * @param head  the head of the slot
+   */
+  private void cascade(Timer<K> head) {
+    Timer<K> timer = detach(head);
+    while (timer != null) {
+      Timer<K> next = timer.next;
+      timer.prev = timer;
+      timer.next = timer;
+      insert(timer);
+      timer = next;
+    }
+  }
+
+}
@@ -34,8 +34,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
-import aim4.config.Condor;
 import aim4.config.Constants;
+import aim4.sim.SimContext;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -53,31 +53,17 @@ public class Util {
   // PUBLIC METHODS
   /////////////////////////////////
 
-  /** The random seed for all random number generators in the simulation */
+  /** The random seed of the default simulation context */
   public static long randSeed = (new Random()).nextLong();
   // public static final long randSeed = -6397397808339168785L;
 
-  /** The global random number generator */
+  /**
+   * The random number generator of the default simulation context.  The
+   * simulation code should use {@link #getRandom()} so that simulations in
+   * different contexts do not share the generator.
+   */
   public static final Random random = new Random(randSeed);
 
-  static {
-    if (Condor.IS_CONDOR_EXIST) {
-      // To make sure different processes on Condor receives different random
-      // seeds, different processes sleep for a different time.
-      try{
-        Thread.sleep(Condor.CONDOR_ID * 10);
-      } catch(InterruptedException e){
-        // ignore the interruption by another thread
-      }
-      randSeed = Util.random.nextLong() + Condor.CONDOR_ID;
-      Util.random.setSeed(randSeed);
-    }
-
-//    if (Debug.IS_PRINT_RANDOM_SEED) {
-//      System.err.println("randSeed = " + Util.randSeed + "L");
-//    }
-  }
-
 
   /////////////////////////////////
   // PUBLIC METHODS
@@ -275,6 +261,15 @@ public class Util {
   }
 
 
+  /**
+   * Get the random number generator of the current simulation context.
+   *
+   * @return the random number generator of the current simulation context
+   */
+  public static Random getRandom() {
+    return SimContext.current().getRandom();
+  }
+
   /**
    * Choose a number according to a finite probability distribution.
    *
@@ -283,7 +278,7 @@ public class Util {
    *         to the distribution
    */
   public static int randomIndex(double[] distribution) {
-    double a = Util.random.nextDouble();
+    double a = getRandom().nextDouble();
     for(int i=0; i<distribution.length; i++) {
       a -= distribution[i];
       if (a<0.0) {
@@ -301,7 +296,7 @@ public class Util {
    *         to the distribution
    */
   public static int randomIndex(List<Double> distribution) {
-    double a = Util.random.nextDouble();
+    double a = getRandom().nextDouble();
     for(int i=0; i<distribution.size(); i++) {
       a -= distribution.get(i);
       if (a<0.0) {
@@ -1412,10 +1412,7 @@ public abstract class BasicVehicle implements VehicleSimView {
    */
   @Override
   public Shape getShape(double extra) {
-    Point2D[] points = spec.getCornerPoints(extra,
-                                            movement.getPosition(),
-                                            movement.getHeading());
-    return GeomUtil.convertPointsToShape(points);
+    return GeomUtil.convertPointsToShape(getCornerPoints(extra));
   }
 
   /**
@@ -1475,6 +1472,16 @@ public abstract class BasicVehicle implements VehicleSimView {
     return spec.getCornerPoints(movement.getPosition(), movement.getHeading());
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Point2D[] getCornerPoints(double extra) {
+    return spec.getCornerPoints(extra,
+                                movement.getPosition(),
+                                movement.getHeading());
+  }
+
   /**
    * Get the current global coordinates of the corners of this Vehicle,
    * according to the Vehicle's gauges.
@@ -1482,6 +1489,7 @@ public abstract class BasicVehicle implements VehicleSimView {
    * @return an array of points representing the four corners, according to
    *         the Vehicle's gauges.
    */
+  @Override
   public Point2D[] gaugeCornerPoints() {
     return spec.getCornerPoints(gaugePosition(),
                                 gaugeHeading());
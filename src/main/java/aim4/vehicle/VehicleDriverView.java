@@ -123,6 +123,15 @@ public interface VehicleDriverView {
    */
   Shape gaugeShape();
 
+  /**
+   * Get the current global coordinates of the corners of this Vehicle,
+   * according to the Vehicle's gauges.
+   *
+   * @return an array of points representing the four corners, according to
+   *         the Vehicle's gauges.
+   */
+  Point2D[] gaugeCornerPoints();
+
   /**
    * Get the point in front of the middle point of the vehicle that is
    * at the distance of delta away from the vehicle, according to the gauges.
@@ -171,6 +171,16 @@ public interface VehicleSimView extends VehicleDriverView {
    */
   Point2D[] getCornerPoints();
 
+  /**
+   * Get the current global coordinates of the corners of this Vehicle, if
+   * it were larger in each dimension.
+   *
+   * @param extra the fixed extra amount by which to increase the size of the
+   *              Vehicle in each dimension
+   * @return      an array of points representing the four "inflated" corners
+   */
+  Point2D[] getCornerPoints(double extra);
+
   /**
    * Get the point at the rear center of the Vehicle.
    *
@@ -32,16 +32,19 @@ package aim4.vehicle;
 
 import java.awt.geom.Area;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import aim4.config.SimConfig;
 import aim4.driver.CrashTestDummy;
 import aim4.driver.Driver;
 import aim4.im.IntersectionManager;
 import aim4.map.lane.Lane;
+import aim4.sim.SimContext;
 import aim4.util.GeomMath;
+import aim4.util.PolygonalArea;
 import aim4.util.Util;
 
 /**
@@ -95,11 +98,22 @@ public class VehicleUtil {
   /////////////////////////////////
 
   /**
-   * Memoization caches for max turn velocities for various vehicle
-   * specification.
+   * The key of the memoization caches for max turn velocities for various
+   * vehicle specification in the simulation contexts.  The caches are per
+   * context since the lane and IM IDs in the keys are per map.  The caches
+   * are concurrent since the drivers may act on several worker threads.
    */
-  private static Map<String,Map<List<Integer>, Double>>
-    memoMaxTurnVelocity = new HashMap<String,Map<List<Integer>,Double>>();
+  private static final
+    SimContext.Slot<ConcurrentMap<String,ConcurrentMap<List<Integer>,Double>>>
+      MEMO_MAX_TURN_VELOCITY = new SimContext.Slot<
+        ConcurrentMap<String,ConcurrentMap<List<Integer>,Double>>>() {
+        @Override
+        protected ConcurrentMap<String,ConcurrentMap<List<Integer>,Double>>
+          initialValue() {
+          return
+            new ConcurrentHashMap<String,ConcurrentMap<List<Integer>,Double>>();
+        }
+      };
 
 
   /////////////////////////////////
@@ -128,29 +142,35 @@ public class VehicleUtil {
                                        Lane departureLane,
                                        IntersectionManager im) {
 
+    ConcurrentMap<String,ConcurrentMap<List<Integer>,Double>>
+      memoMaxTurnVelocity = SimContext.current().get(MEMO_MAX_TURN_VELOCITY);
     // check to see if the spec has been seem before.
-    if (!memoMaxTurnVelocity.containsKey(spec.getName())) {
+    ConcurrentMap<List<Integer>, Double> mmtvs =
+      memoMaxTurnVelocity.get(spec.getName());
+    if (mmtvs == null) {
       // if not, create a map for it
-      memoMaxTurnVelocity.put(spec.getName(),
-                              new HashMap<List<Integer>,Double>());
+      memoMaxTurnVelocity.putIfAbsent(spec.getName(),
+                         new ConcurrentHashMap<List<Integer>,Double>());
+      mmtvs = memoMaxTurnVelocity.get(spec.getName());
     }
 
     // check to see if the max turn velocity has been stored in the cache
-    Map<List<Integer>, Double> mmtvs = memoMaxTurnVelocity.get(spec.getName());
     List<Integer> key = Arrays.asList(arrivalLane.getId(),
                                       departureLane.getId(),
                                       im.getId());
-    if (!mmtvs.containsKey(key)) {
-      // if not, calculate it and store it in the cache
-      double mtv = calculateMaxTurnVelocity(spec,
-                                            arrivalLane,
-                                            departureLane,
-                                            im);
-      mmtvs.put(key, mtv);
+    Double mtv = mmtvs.get(key);
+    if (mtv == null) {
+      // if not, calculate it and store it in the cache.  Two threads may
+      // calculate the same value, which is harmless.
+      mtv = calculateMaxTurnVelocity(spec,
+                                     arrivalLane,
+                                     departureLane,
+                                     im);
+      mmtvs.putIfAbsent(key, mtv);
     }
 
     // FIXME try to see why we need this hack
-    return Math.max(mmtvs.get(key), MIN_MAX_TURN_VELOCITY);
+    return Math.max(mtv, MIN_MAX_TURN_VELOCITY);
   }
 
 
@@ -208,7 +228,7 @@ public class VehicleUtil {
          (!enteredIntersection ||
           departureLane.getLaneIM().distanceToNextIntersection(
             testVehicle.getPosition()) == 0 ||
-          im.getIntersection().getArea().contains(
+          im.getIntersection().getPolygonalArea().contains(
             testVehicle.getPosition()))) {
       // Give the CrashTestDummy a chance to steer
       dummy.act();
@@ -226,7 +246,7 @@ public class VehicleUtil {
       // Record whether or not we've entered the intersection
       if(!enteredIntersection &&
          VehicleUtil.intersects(testVehicle,
-                                im.getIntersection().getAreaPlus())) {
+                                im.getIntersection().getPolygonalAreaPlus())) {
         enteredIntersection = true;
       }
       // Increment our simulated time
@@ -572,6 +592,24 @@ public class VehicleUtil {
     }
   }
 
+  /**
+   * Determine whether the given Vehicle is currently inside a polygonal area.
+   * This is much faster than {@link #intersects(VehicleSimView, Area)}.
+   *
+   * @param v     the Vehicle
+   * @param area  the polygonal area
+   * @return      whether the Vehicle is currently in the area
+   */
+  public static boolean intersects(VehicleSimView v, PolygonalArea area) {
+    // As a quick check, see if the front or rear point is in the intersection
+    // Most of the time this should work
+    if (area.contains(v.getPosition()) || area.contains(v.getPointAtRear())) {
+      return true;
+    } else {
+      return area.intersects(v.getCornerPoints());
+    }
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -36,46 +36,69 @@ import java.util.Map;
 
 import aim4.map.Road;
 import aim4.map.SpawnPoint;
+import aim4.sim.SimContext;
 
 /**
- * The Vehicle Registry, the class that issues VIN to vehicles.
+ * The Vehicle Registry, the class that issues VIN to vehicles.  Each
+ * {@link SimContext} has its own registry.
  */
 public class VinRegistry {
 
   /////////////////////////////////
-  // PRIVATE FIELDS
+  // NESTED CLASSES
   /////////////////////////////////
 
   /**
-   * This generates a unique identifier for each vehicle, starting with 1000.
-   */
-  private static int vinGenerator = 1000;
-
-  /**
-   * A map from VINs to Vehicles.
-   */
-  private static Map<Integer,WeakReference<VehicleSimView>> vinToVehicle =
-    new HashMap<Integer,WeakReference<VehicleSimView>>();
-
-  /**
-   * A map from VINs to VehicleSpec.
+   * The registry of a simulation context.
    */
-  private static Map<Integer,VehicleSpec> vinToVehicleSpec =
-    new HashMap<Integer,VehicleSpec>();
-
-  // TODO: remove the following in the future
+  private static class Registry {
+
+    /**
+     * This generates a unique identifier for each vehicle, starting with 1000.
+     */
+    private int vinGenerator = 1000;
+
+    /**
+     * A map from VINs to Vehicles.
+     */
+    private final Map<Integer,WeakReference<VehicleSimView>> vinToVehicle =
+      new HashMap<Integer,WeakReference<VehicleSimView>>();
+
+    /**
+     * A map from VINs to VehicleSpec.
+     */
+    private final Map<Integer,VehicleSpec> vinToVehicleSpec =
+      new HashMap<Integer,VehicleSpec>();
+
+    // TODO: remove the following in the future
+
+    /**
+     * A map from VINs to spawn points.
+     */
+    private final Map<Integer,SpawnPoint> vinToSpawnPoint =
+      new HashMap<Integer,SpawnPoint>();
+
+    /**
+     * A map from VINs to destination roads.
+     */
+    private final Map<Integer,Road> vinToDestRoad =
+      new HashMap<Integer,Road>();
+  }
 
-  /**
-   * A map from VINs to spawn points.
-   */
-  private static Map<Integer,SpawnPoint> vinToSpawnPoint =
-    new HashMap<Integer,SpawnPoint>();
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
 
   /**
-   * A map from VINs to destination roads.
+   * The key of the registry in the simulation contexts.
    */
-  private static Map<Integer,Road> vinToDestRoad =
-    new HashMap<Integer,Road>();
+  private static final SimContext.Slot<Registry> REGISTRY =
+    new SimContext.Slot<Registry>() {
+      @Override
+      protected Registry initialValue() {
+        return new Registry();
+      }
+    };
 
 
   /////////////////////////////////
@@ -86,11 +109,7 @@ public class VinRegistry {
    * Reset the registry.
    */
   public static void reset() {
-    vinGenerator = 1000;
-    vinToVehicle = new HashMap<Integer,WeakReference<VehicleSimView>>();
-    vinToVehicleSpec = new HashMap<Integer,VehicleSpec>();
-    vinToSpawnPoint = new HashMap<Integer,SpawnPoint>();
-    vinToDestRoad = new HashMap<Integer,Road>();
+    SimContext.current().reset(REGISTRY);
   }
 
   /**
@@ -100,15 +119,16 @@ public class VinRegistry {
    * @return  a new VIN for the vehicle
    */
   public static int registerVehicle(VehicleSimView vehicle) {
-    assert vinToVehicle.get(vinGenerator) == null;
-    int vin = vinGenerator;
-    vinToVehicle.put(vin, new WeakReference<VehicleSimView>(vehicle));
-    vinToVehicleSpec.put(vin, vehicle.getSpec());
-    vinToSpawnPoint.put(vin, vehicle.getDriver().getSpawnPoint());
-    vinToDestRoad.put(vin, vehicle.getDriver().getDestination());
+    Registry r = registry();
+    assert r.vinToVehicle.get(r.vinGenerator) == null;
+    int vin = r.vinGenerator;
+    r.vinToVehicle.put(vin, new WeakReference<VehicleSimView>(vehicle));
+    r.vinToVehicleSpec.put(vin, vehicle.getSpec());
+    r.vinToSpawnPoint.put(vin, vehicle.getDriver().getSpawnPoint());
+    r.vinToDestRoad.put(vin, vehicle.getDriver().getDestination());
 
     vehicle.setVIN(vin);
-    vinGenerator++;
+    r.vinGenerator++;
     return vin;
   }
 
@@ -123,25 +143,26 @@ public class VinRegistry {
   public static boolean registerVehicleWithExistingVIN(VehicleSimView vehicle,
                                                        int vin) {
     assert vin >= 0;
-    if (vinToVehicle.containsKey(vin)) {
+    Registry r = registry();
+    if (r.vinToVehicle.containsKey(vin)) {
       return false;  // the VIN has been used by some other vehicle
     } else {
       assert vehicle.getVIN() < 0;
 
-      vinToVehicle.put(vin, new WeakReference<VehicleSimView>(vehicle));
-      vinToVehicleSpec.put(vin, vehicle.getSpec());
+      r.vinToVehicle.put(vin, new WeakReference<VehicleSimView>(vehicle));
+      r.vinToVehicleSpec.put(vin, vehicle.getSpec());
       // TODO: think how to resolve the problem.
       if (vehicle.getDriver() != null) {
-        vinToSpawnPoint.put(vin, vehicle.getDriver().getSpawnPoint());
-        vinToDestRoad.put(vin, vehicle.getDriver().getDestination());
+        r.vinToSpawnPoint.put(vin, vehicle.getDriver().getSpawnPoint());
+        r.vinToDestRoad.put(vin, vehicle.getDriver().getDestination());
       } else {
-        vinToSpawnPoint.put(vin, null);
-        vinToDestRoad.put(vin, null);
+        r.vinToSpawnPoint.put(vin, null);
+        r.vinToDestRoad.put(vin, null);
       }
 
       vehicle.setVIN(vin);
-      if (vin >= vinGenerator) {
-        vinGenerator = vin + 1;
+      if (vin >= r.vinGenerator) {
+        r.vinGenerator = vin + 1;
       }  // else vin < vinGenerator and it would not affect the next vehicle
       return true;
     }
@@ -154,12 +175,13 @@ public class VinRegistry {
    * @param vin  the VIN of the vehicle
    */
   public static void unregisterVehicle(int vin) {
-    if (vinToVehicle.containsKey(vin)) {
-      vinToVehicle.remove(vin);
+    Registry r = registry();
+    if (r.vinToVehicle.containsKey(vin)) {
+      r.vinToVehicle.remove(vin);
       // do not remove the following
-//      vinToVehicleSpec.remove(vin);
-//      vinToSpawnPoint.remove(vin);
-//      vinToDestRoad.remove(vin);
+//      r.vinToVehicleSpec.remove(vin);
+//      r.vinToSpawnPoint.remove(vin);
+//      r.vinToDestRoad.remove(vin);
     } else {
       throw new RuntimeException("VehicleRegistry:unregisterVehicle: " +
                                  "Cannot unregister a vehicle twice");
@@ -173,7 +195,7 @@ public class VinRegistry {
    * @return whether of not the VIN has been issued.
    */
   public static boolean isVINexist(int vin) {
-    return vinToVehicleSpec.containsKey(vin);
+    return registry().vinToVehicleSpec.containsKey(vin);
   }
 
   /**
@@ -184,7 +206,8 @@ public class VinRegistry {
    *         has been destroyed.
    */
   public static VehicleSimView getVehicleFromVIN(int vin) {
-    WeakReference<VehicleSimView> wr = vinToVehicle.get(vin);
+    Registry r = registry();
+    WeakReference<VehicleSimView> wr = r.vinToVehicle.get(vin);
     if(wr == null) {
       return null;
     }
@@ -192,7 +215,7 @@ public class VinRegistry {
     VehicleSimView v = wr.get();
     // If it's null, then the Vehicle no longer exists
     if(v == null) {
-      vinToVehicle.remove(vin);
+      r.vinToVehicle.remove(vin);
     }
     return v;
   }
@@ -204,7 +227,7 @@ public class VinRegistry {
    * @return the corresponding vehicle specification
    */
   public static VehicleSpec getVehicleSpecFromVIN(int vin) {
-    return vinToVehicleSpec.get(vin);
+    return registry().vinToVehicleSpec.get(vin);
   }
 
   /**
@@ -214,7 +237,7 @@ public class VinRegistry {
    * @return the spawn point
    */
   public static SpawnPoint getSpawnPointFromVIN(int vin) {
-    return vinToSpawnPoint.get(vin);
+    return registry().vinToSpawnPoint.get(vin);
   }
 
   /**
@@ -224,7 +247,20 @@ public class VinRegistry {
    * @return the destination road
    */
   public static Road getDestRoadFromVIN(int vin) {
-    return vinToDestRoad.get(vin);
+    return registry().vinToDestRoad.get(vin);
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the registry of the current simulation context.
+   *
+   * @return the registry of the current simulation context
+   */
+  private static Registry registry() {
+    return SimContext.current().get(REGISTRY);
   }
 
   /////////////////////////////////
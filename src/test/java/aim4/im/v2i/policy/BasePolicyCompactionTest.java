@@ -0,0 +1,333 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.policy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import aim4.config.SimConfig;
+import aim4.im.v2i.V2IManager;
+import aim4.im.v2i.reservation.ReservationGrid;
+import aim4.im.v2i.reservation.ReservationGridManager;
+import aim4.map.GridMap;
+import aim4.map.GridMapUtil;
+import aim4.map.lane.Lane;
+import aim4.msg.i2v.Confirm;
+import aim4.msg.i2v.I2VMessage;
+import aim4.msg.v2i.Away;
+import aim4.msg.v2i.Cancel;
+import aim4.msg.v2i.Done;
+import aim4.msg.v2i.ReplacementReply;
+import aim4.msg.v2i.Request;
+import aim4.msg.v2i.V2IMessage;
+import aim4.vehicle.VehicleSpecDatabase;
+
+/**
+ * Test the offers to move reservations earlier after a cancellation: each
+ * way an offer can end must leave the reservation grid and the admission
+ * control zone as if the offer had never been made.
+ */
+public class BasePolicyCompactionTest {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The VIN of the vehicle whose reservation is cancelled. */
+  private static final int FRONT_VIN = 1;
+
+  /** The VIN of the vehicle whose reservation is moved earlier. */
+  private static final int BACK_VIN = 2;
+
+  /** The arrival time of the front vehicle. */
+  private static final double FRONT_ARRIVAL_TIME = 3.0;
+
+  /** The interval between the arrival times proposed by the back vehicle. */
+  private static final double PROPOSAL_INTERVAL = 0.1;
+
+  /** The number of arrival times proposed by the back vehicle. */
+  private static final int NUM_OF_PROPOSALS = 50;
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The intersection manager */
+  private V2IManager im;
+  /** The ID of the lane through which the vehicles cross */
+  private int laneId;
+  /** The reservations before the vehicles make any */
+  private Map<Long, Integer> emptyGrid;
+  /** The confirmation of the back vehicle */
+  private Confirm backConfirm;
+  /** The time-tiles of the back vehicle before the offer */
+  private Map<Long, Integer> backGrid;
+  /** The offer to the back vehicle */
+  private Confirm offer;
+
+  /////////////////////////////////
+  // SETUP
+  /////////////////////////////////
+
+  /**
+   * Reserve two vehicles in the same lane, cancel the front one, and let
+   * the policy offer the back one an earlier reservation.
+   */
+  @Before
+  public void setUp() {
+    GridMap map = new GridMap(0, 1, 1, 4.0, 25.0, 1, 1.0, 150.0);
+    ReservationGridManager.Config config =
+      new ReservationGridManager.Config(SimConfig.TIME_STEP,
+                                        SimConfig.GRID_TIME_STEP,
+                                        0.1, 0.15, 0.15, true, 1.0);
+    config.setCompactionsPerStep(1);
+    GridMapUtil.setFCFSManagers(map, 0.0, config);
+    im = (V2IManager) map.getManager(0, 0);
+    Lane lane = im.getIntersection().getEntryLanes().get(0);
+    laneId = lane.getId();
+    emptyGrid = snapshot();
+
+    Confirm frontConfirm = request(FRONT_VIN, FRONT_ARRIVAL_TIME, 1);
+    assertNotNull(frontConfirm);
+    backConfirm =
+      request(BACK_VIN, FRONT_ARRIVAL_TIME, NUM_OF_PROPOSALS);
+    assertNotNull(backConfirm);
+    assertTrue(backConfirm.getArrivalTime() > FRONT_ARRIVAL_TIME);
+    backGrid = snapshot(BACK_VIN);
+    assertFalse(backGrid.isEmpty());
+
+    send(new Cancel(FRONT_VIN, im.getId(), frontConfirm.getReservationId()));
+    assertEquals(backGrid, snapshot());
+    im.getPolicy().act(SimConfig.TIME_STEP);
+    offer = receive(BACK_VIN);
+    assertNotNull(offer);
+    assertEquals(backConfirm.getReservationId(),
+                 offer.getReplacedReservationId());
+    assertTrue(offer.getArrivalTime() < backConfirm.getArrivalTime());
+    // the offer holds time-tiles besides the ones of the vehicle
+    assertEquals(backGrid, snapshot(BACK_VIN));
+    assertFalse(backGrid.equals(snapshot()));
+  }
+
+  /////////////////////////////////
+  // TESTS
+  /////////////////////////////////
+
+  /**
+   * An accepted offer replaces the reservation, and cancelling the new
+   * reservation releases everything.
+   */
+  @Test
+  public void testAccept() {
+    send(new ReplacementReply(BACK_VIN, im.getId(),
+                              offer.getReservationId(), true));
+    Map<Long, Integer> movedGrid = snapshot(BACK_VIN);
+    assertEquals(movedGrid, snapshot());
+    assertFalse(movedGrid.equals(backGrid));
+    assertTrue(aczSize() > 0.0);
+    // the replaced reservation no longer exists
+    send(new Cancel(BACK_VIN, im.getId(), backConfirm.getReservationId()));
+    assertEquals(movedGrid, snapshot());
+    send(new Cancel(BACK_VIN, im.getId(), offer.getReservationId()));
+    assertBaseline();
+  }
+
+  /**
+   * A message that refers to the offered reservation accepts the offer,
+   * since the vehicle must have accepted it.
+   */
+  @Test
+  public void testLostAccept() {
+    send(new Cancel(BACK_VIN, im.getId(), offer.getReservationId()));
+    assertBaseline();
+  }
+
+  /**
+   * A declined offer releases the held time-tiles and keeps the old
+   * reservation.
+   */
+  @Test
+  public void testDecline() {
+    send(new ReplacementReply(BACK_VIN, im.getId(),
+                              offer.getReservationId(), false));
+    assertEquals(backGrid, snapshot());
+    send(new Cancel(BACK_VIN, im.getId(), backConfirm.getReservationId()));
+    assertBaseline();
+  }
+
+  /**
+   * Cancelling the replaced reservation withdraws the offer, and a later
+   * acceptance of the offer is ignored.
+   */
+  @Test
+  public void testCancelReplaced() {
+    send(new Cancel(BACK_VIN, im.getId(), backConfirm.getReservationId()));
+    assertBaseline();
+    send(new ReplacementReply(BACK_VIN, im.getId(),
+                              offer.getReservationId(), true));
+    assertBaseline();
+  }
+
+  /**
+   * A vehicle that is done with the replaced reservation withdraws the
+   * offer, and the admission control zone is released when it is away.
+   */
+  @Test
+  public void testDoneAndAway() {
+    send(new Done(BACK_VIN, im.getId(), backConfirm.getReservationId()));
+    // the time-tiles of a finished reservation are left to be cleaned up
+    assertEquals(backGrid, snapshot());
+    send(new ReplacementReply(BACK_VIN, im.getId(),
+                              offer.getReservationId(), true));
+    assertEquals(backGrid, snapshot());
+    assertTrue(aczSize() > 0.0);
+    send(new Away(BACK_VIN, im.getId(), backConfirm.getReservationId()));
+    assertEquals(0.0, aczSize(), 0.0);
+    // nothing is left to move
+    im.getPolicy().act(SimConfig.TIME_STEP);
+    assertNull(receive(BACK_VIN));
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Send a request to go straight through the intersection and return the
+   * confirmation.
+   *
+   * @param vin           the VIN of the vehicle
+   * @param arrivalTime   the earliest arrival time
+   * @param numOfProposals  the number of arrival times proposed
+   * @return the confirmation; null if the request is rejected
+   */
+  private Confirm request(int vin, double arrivalTime, int numOfProposals) {
+    List<Request.Proposal> proposals = new ArrayList<Request.Proposal>();
+    for(int i = 0; i < numOfProposals; i++) {
+      proposals.add(new Request.Proposal(laneId, laneId,
+                                         arrivalTime + i * PROPOSAL_INTERVAL,
+                                         25.0, 25.0));
+    }
+    send(new Request(vin, im.getId(), 0,
+                     new Request.VehicleSpecForRequestMsg(
+                       VehicleSpecDatabase.getVehicleSpecByName("COUPE")),
+                     proposals));
+    return receive(vin);
+  }
+
+  /**
+   * Let the intersection manager process a message.
+   *
+   * @param msg  the message
+   */
+  private void send(V2IMessage msg) {
+    im.receive(msg);
+    im.processInbox();
+  }
+
+  /**
+   * Take the confirmation sent to a vehicle out of the outbox.
+   *
+   * @param vin  the VIN of the vehicle
+   * @return the confirmation; null if there is none
+   */
+  private Confirm receive(int vin) {
+    Confirm confirm = null;
+    for(Iterator<I2VMessage> iter = im.outboxIterator(); iter.hasNext();) {
+      I2VMessage msg = iter.next();
+      if (msg.getVin() == vin && msg instanceof Confirm) {
+        assertNull(confirm);
+        confirm = (Confirm) msg;
+      }
+    }
+    im.clearOutbox();
+    return confirm;
+  }
+
+  /**
+   * Check that the reservation grid and the admission control zone are
+   * empty again.
+   */
+  private void assertBaseline() {
+    assertEquals(emptyGrid, snapshot());
+    assertEquals(0.0, aczSize(), 0.0);
+  }
+
+  /**
+   * Get the size of the admission control zone of the lane.
+   *
+   * @return the size of the admission control zone
+   */
+  private double aczSize() {
+    return im.getACZ(laneId).getCurrentSize();
+  }
+
+  /**
+   * Get all reserved time-tiles.
+   *
+   * @return the map from the time-tiles to the reservation IDs
+   */
+  private Map<Long, Integer> snapshot() {
+    return snapshot(-1);
+  }
+
+  /**
+   * Get the reserved time-tiles of a reservation ID, or all of them.
+   *
+   * @param rid  the reservation ID; -1 for all reservations
+   * @return the map from the time-tiles to the reservation IDs
+   */
+  private Map<Long, Integer> snapshot(int rid) {
+    ReservationGrid grid = im.getReservationGrid();
+    Map<Long, Integer> result = new HashMap<Long, Integer>();
+    for(int dt = 0; dt <= grid.getLastReservedDiscreteTime(); dt++) {
+      for(int tid = 0; tid < grid.getNumberOfTiles(); tid++) {
+        int r = grid.getReservationId(dt, tid);
+        if (r >= 0 && (rid < 0 || r == rid)) {
+          result.put((long) dt * grid.getNumberOfTiles() + tid, r);
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,318 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import aim4.msg.v2i.Request.VehicleSpecForRequestMsg;
+import aim4.vehicle.VehicleSpecDatabase;
+
+/**
+ * Test the reservation structures that the proposals of a request may use
+ * from several threads at the same time: the admission control zone, the
+ * concurrent reservation store and the negative query cache.
+ */
+public class ReservationConcurrencyTest {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The number of threads racing with each other. */
+  private static final int NUM_OF_THREADS = 4;
+
+  /** The number of operations of each thread. */
+  private static final int NUM_OF_ITERATIONS = 20000;
+
+  /////////////////////////////////
+  // TESTS
+  /////////////////////////////////
+
+  /**
+   * Let the threads admit and cancel the same VINs.  The occupied length of
+   * the zone never exceeds its maximum size, a VIN is admitted at most
+   * once, and the zone is empty after all vehicles are cancelled.  The
+   * lengths are exact in binary, so the sums have no rounding error.
+   */
+  @Test
+  public void testAdmissionControlZone() throws Exception {
+    final AdmissionControlZone acz = new AdmissionControlZone(30.0);
+    final AtomicIntegerArray admitted = new AtomicIntegerArray(16);
+    final AtomicInteger numOfFinished = new AtomicInteger();
+    Runnable[] tasks = new Runnable[NUM_OF_THREADS + 1];
+    for(int t = 0; t < NUM_OF_THREADS; t++) {
+      final Random random = new Random(t);
+      tasks[t] = new Runnable() {
+        @Override
+        public void run() {
+          // the VINs admitted by this thread
+          List<Integer> vins = new ArrayList<Integer>();
+          for(int i = 0; i < NUM_OF_ITERATIONS; i++) {
+            if (vins.isEmpty() || random.nextBoolean()) {
+              int vin = random.nextInt(admitted.length());
+              double length = (random.nextBoolean()) ? 3.5 : 4.5;
+              if (acz.tryAdmit(vin, length, 1.0)) {
+                assertTrue(admitted.compareAndSet(vin, 0, 1));
+                assertTrue(acz.getCurrentSize() <= acz.getMaxSize());
+                vins.add(vin);
+              }
+            } else {
+              int vin = vins.remove(random.nextInt(vins.size()));
+              assertTrue(admitted.compareAndSet(vin, 1, 0));
+              acz.cancel(vin);
+            }
+          }
+          for(int vin : vins) {
+            assertTrue(admitted.compareAndSet(vin, 1, 0));
+            acz.cancel(vin);
+          }
+        }
+      };
+    }
+    // watch the size while the others race
+    tasks[NUM_OF_THREADS] = new Runnable() {
+      @Override
+      public void run() {
+        while(numOfFinished.get() < NUM_OF_THREADS) {
+          assertTrue(acz.getCurrentSize() <= acz.getMaxSize());
+          Thread.yield();
+        }
+      }
+    };
+    runConcurrently(tasks, numOfFinished);
+    assertEquals(0.0, acz.getCurrentSize(), 0.0);
+  }
+
+  /**
+   * Let the threads reserve and cancel overlapping footprints.  A time-tile
+   * is never owned by two reservation IDs, and the store is empty after
+   * all reservations are cancelled.
+   */
+  @Test
+  public void testConcurrentReservationStore() throws Exception {
+    final int numOfTiles = 8;
+    final int numOfTimes = 4;
+    final ConcurrentReservationStore store =
+      new ConcurrentReservationStore(numOfTiles, 16);
+    // the reservation ID that each time-tile is known to belong to
+    final AtomicIntegerArray owners =
+      new AtomicIntegerArray(numOfTimes * numOfTiles);
+    for(int i = 0; i < owners.length(); i++) {
+      owners.set(i, -1);
+    }
+    Runnable[] tasks = new Runnable[NUM_OF_THREADS];
+    for(int t = 0; t < NUM_OF_THREADS; t++) {
+      final int rid = t;
+      final Random random = new Random(t);
+      tasks[t] = new Runnable() {
+        @Override
+        public void run() {
+          for(int i = 0; i < NUM_OF_ITERATIONS; i++) {
+            List<ReservationArray.TimeTile> footprint =
+              new ArrayList<ReservationArray.TimeTile>();
+            int dt = random.nextInt(numOfTimes);
+            int tid = random.nextInt(numOfTiles);
+            for(int j = 0; j < 3; j++) {
+              footprint.add(new ReservationArray.TimeTile(
+                              dt, (tid + j) % numOfTiles));
+            }
+            if (store.reserve(rid, footprint)) {
+              for(ReservationArray.TimeTile tt : footprint) {
+                int k = tt.getDiscreteTime() * numOfTiles + tt.getTileId();
+                assertTrue(owners.compareAndSet(k, -1, rid));
+                assertEquals(rid, store.getReservationId(
+                                    tt.getDiscreteTime(), tt.getTileId()));
+              }
+              for(ReservationArray.TimeTile tt : footprint) {
+                int k = tt.getDiscreteTime() * numOfTiles + tt.getTileId();
+                assertTrue(owners.compareAndSet(k, rid, -1));
+              }
+              assertTrue(store.cancel(rid));
+            }
+          }
+        }
+      };
+    }
+    runConcurrently(tasks, new AtomicInteger());
+    for(int dt = 0; dt < numOfTimes; dt++) {
+      for(int tid = 0; tid < numOfTiles; tid++) {
+        assertFalse(store.isReserved(dt, tid));
+      }
+    }
+  }
+
+  /**
+   * A reservation removed after a query reads the version and before it
+   * records its failure invalidates the failure.
+   */
+  @Test
+  public void testNegativeQueryCacheTouchBeforePut() {
+    NegativeQueryCache cache = new NegativeQueryCache(16, 10);
+    NegativeQueryCache.Key key = cache.makeKey(makeFootprintKey(), 5);
+    long version = cache.getVersion();
+    cache.touch(12, 15);
+    cache.putFailure(key, 5, 25, version);
+    assertFalse(cache.isKnownFailure(key));
+    // a removal in a window the footprint does not span has no effect
+    version = cache.getVersion();
+    cache.touch(40, 45);
+    cache.putFailure(key, 5, 25, version);
+    assertTrue(cache.isKnownFailure(key));
+  }
+
+  /**
+   * Let the threads record failures while another thread removes
+   * reservations.  A failure must miss if a removal that started after the
+   * version was read has finished before the lookup, and must hit if no
+   * removal was under way at any time in between.
+   */
+  @Test
+  public void testNegativeQueryCache() throws Exception {
+    final NegativeQueryCache cache =
+      new NegativeQueryCache(NUM_OF_THREADS * NUM_OF_ITERATIONS, 10);
+    final FootprintCache.Key footprintKey = makeFootprintKey();
+    // the number of removals that have started and finished
+    final AtomicInteger numOfStartedTouches = new AtomicInteger();
+    final AtomicInteger numOfFinishedTouches = new AtomicInteger();
+    final AtomicInteger numOfFinished = new AtomicInteger();
+    final AtomicInteger numOfMisses = new AtomicInteger();
+    Runnable[] tasks = new Runnable[NUM_OF_THREADS + 1];
+    for(int t = 0; t < NUM_OF_THREADS; t++) {
+      final int firstKey = t * NUM_OF_ITERATIONS;
+      tasks[t] = new Runnable() {
+        @Override
+        public void run() {
+          for(int i = 0; i < NUM_OF_ITERATIONS; i++) {
+            NegativeQueryCache.Key key =
+              cache.makeKey(footprintKey, firstKey + i);
+            int finishedBefore = numOfFinishedTouches.get();
+            long version = cache.getVersion();
+            int startedBefore = numOfStartedTouches.get();
+            Thread.yield();
+            cache.putFailure(key, 0, 15, version);
+            int finishedAfter = numOfFinishedTouches.get();
+            boolean isHit = cache.isKnownFailure(key);
+            int startedAfter = numOfStartedTouches.get();
+            if (finishedAfter > startedBefore) {
+              assertFalse(isHit);
+              numOfMisses.incrementAndGet();
+            } else if (startedAfter == finishedBefore) {
+              assertTrue(isHit);
+            }
+          }
+        }
+      };
+    }
+    tasks[NUM_OF_THREADS] = new Runnable() {
+      @Override
+      public void run() {
+        while(numOfFinished.get() < NUM_OF_THREADS) {
+          numOfStartedTouches.incrementAndGet();
+          cache.touch(10, 12);
+          numOfFinishedTouches.incrementAndGet();
+          Thread.yield();
+        }
+      }
+    };
+    runConcurrently(tasks, numOfFinished);
+    // the race has happened
+    assertTrue(numOfMisses.get() > 0);
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Create the key of a footprint.
+   *
+   * @return the key of a footprint
+   */
+  private static FootprintCache.Key makeFootprintKey() {
+    return FootprintCache.makeKey(
+      1, 2, 10.0, 0.0, 10.0, true,
+      new VehicleSpecForRequestMsg(
+        VehicleSpecDatabase.getVehicleSpecByName("COUPE")),
+      0.1, 0.01);
+  }
+
+  /**
+   * Run tasks in their own threads, starting them at the same time, and
+   * rethrow the first error of any of them.
+   *
+   * @param tasks          the tasks
+   * @param numOfFinished  the counter of the tasks that have finished,
+   *                       which a task may watch to run until the others
+   *                       have finished
+   */
+  private static void runConcurrently(final Runnable[] tasks,
+                                      final AtomicInteger numOfFinished)
+                                      throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(tasks.length);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[tasks.length];
+    for(int t = 0; t < tasks.length; t++) {
+      final int i = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+            tasks[i].run();
+          } catch(Throwable e) {
+            error.compareAndSet(null, e);
+          } finally {
+            numOfFinished.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for(Thread thread : threads) {
+      thread.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+  }
+}
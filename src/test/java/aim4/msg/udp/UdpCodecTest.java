@@ -0,0 +1,462 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.msg.udp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Random;
+
+import org.junit.Test;
+
+import aim4.msg.i2v.Confirm;
+import aim4.msg.udp.UdpHeader.UdpMessageType;
+
+/**
+ * Test that a UdpCodec reads and writes the same datagrams as the
+ * DataInputStream and DataOutputStream based encoding of the messages.
+ */
+public class UdpCodecTest {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The number of random messages checked per message type. */
+  private static final int NUM_OF_MESSAGES = 5000;
+
+  /** The message types of the messages of the real vehicles. */
+  private static final UdpMessageType[] REAL2PROXY_TYPES = {
+    UdpMessageType.PVUpdate,
+    UdpMessageType.V2I_Request,
+    UdpMessageType.V2I_Cancel,
+    UdpMessageType.V2I_Done,
+  };
+
+  /////////////////////////////////
+  // TESTS
+  /////////////////////////////////
+
+  /**
+   * Decode random datagrams of the real vehicles both with the codec and
+   * with the stream constructors of the messages, and compare the fields.
+   */
+  @Test
+  public void testDecodeMatchesStreams() throws IOException {
+    Random random = new Random(1);
+    UdpCodec codec = new UdpCodec();
+    ByteBuffer buffer =
+      ByteBuffer.allocateDirect(UdpHeader.MAX_MESSENGE_PACKAGE_LENGTH);
+    for(UdpMessageType type : REAL2PROXY_TYPES) {
+      for(int i = 0; i < NUM_OF_MESSAGES; i++) {
+        byte[] data = randomDatagram(random, type);
+        buffer.clear();
+        buffer.put(data);
+        buffer.flip();
+        codec.wrap(buffer);
+        DataInputStream dis =
+          new DataInputStream(new ByteArrayInputStream(data));
+        UdpHeader header = new UdpHeader(dis);
+
+        assertTrue(codec.isHeaderValid());
+        assertTrue(codec.isChecksumValid());
+        assertSame(header.getMessageType(), codec.getMessageType());
+        assertEquals(Float.floatToRawIntBits(header.getTimestamp()),
+                     Float.floatToRawIntBits(codec.getTimestamp()));
+        assertEquals(header.getChecksum(), codec.getChecksum());
+
+        double receivedTime = randomDouble(random);
+        switch(type) {
+        case PVUpdate:
+          assertPVUpdateEquals(new Real2ProxyPVUpdate(dis, receivedTime),
+                               codec.decodePVUpdate(receivedTime));
+          break;
+        case V2I_Request:
+          assertRequestEquals(new Real2ProxyRequest(dis, receivedTime),
+                              codec.decodeRequest(receivedTime));
+          break;
+        case V2I_Cancel:
+          assertCancelEquals(new Real2ProxyCancel(dis, receivedTime),
+                             codec.decodeCancel(receivedTime));
+          break;
+        case V2I_Done:
+          assertMsgEquals(new Real2ProxyDone(dis, receivedTime),
+                          codec.decodeDone(receivedTime));
+          break;
+        default:
+          throw new AssertionError("Unexpected message type " + type);
+        }
+      }
+    }
+  }
+
+  /**
+   * Encode random replies to the real vehicles both with the codec and with
+   * a DataOutputStream, and compare the bytes.
+   */
+  @Test
+  public void testEncodeMatchesStreams() throws IOException {
+    Random random = new Random(2);
+    UdpCodec codec = new UdpCodec();
+    byte[] data = new byte[UdpHeader.MAX_MESSENGE_PACKAGE_LENGTH];
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    for(int i = 0; i < NUM_OF_MESSAGES; i++) {
+      double currentTime = randomDouble(random);
+
+      Queue<double[]> accelProfile = new LinkedList<double[]>();
+      accelProfile.add(new double[] { randomDouble(random),
+                                      randomDouble(random) });
+      Confirm confirm = new Confirm(1, 2, random.nextInt(), random.nextInt(),
+                                    randomDouble(random),
+                                    randomDouble(random),
+                                    randomDouble(random),
+                                    randomDouble(random),
+                                    3, 4, 5.0, accelProfile);
+      int length = codec.wrap(buffer, 0, data.length)
+                        .encodeConfirm(confirm, currentTime);
+      assertArrayEquals(streamConfirm(confirm, currentTime),
+                        copyOf(data, length));
+
+      length = codec.wrap(buffer, 0, data.length).encodeReject(currentTime);
+      assertArrayEquals(streamReject(currentTime), copyOf(data, length));
+
+      double distToFrontVehicle = randomDouble(random);
+      length = codec.wrap(buffer, 0, data.length)
+                    .encodeDistToFrontVehicle(distToFrontVehicle,
+                                              currentTime);
+      assertArrayEquals(streamDistToFrontVehicle(distToFrontVehicle,
+                                                 currentTime),
+                        copyOf(data, length));
+    }
+  }
+
+  /**
+   * Encode replies with the codec and read them back with a
+   * DataInputStream.
+   */
+  @Test
+  public void testEncodeRoundTrip() throws IOException {
+    Queue<double[]> accelProfile = new LinkedList<double[]>();
+    accelProfile.add(new double[] { 1.5, 2.0 });
+    Confirm confirm =
+      new Confirm(1, 2, 42, 7, 12.5, 0.25, 0.5, 10.0, 3, 4, 5.0,
+                  accelProfile);
+    byte[] data = new byte[UdpCodec.CONFIRM_LENGTH];
+    int length =
+      new UdpCodec().wrap(ByteBuffer.wrap(data)).encodeConfirm(confirm, 10.0);
+    assertEquals(UdpCodec.CONFIRM_LENGTH, length);
+
+    DataInputStream dis =
+      new DataInputStream(new ByteArrayInputStream(data));
+    UdpHeader header = new UdpHeader(dis);
+    assertSame(UdpMessageType.I2V_Confirm, header.getMessageType());
+    assertEquals(10.0f, header.getTimestamp(), 0.0f);
+    assertEquals(42, dis.readInt());
+    assertEquals(2.5f, dis.readFloat(), 0.0f);  // relative arrival time
+    assertEquals(0.25f, dis.readFloat(), 0.0f);
+    assertEquals(0.5f, dis.readFloat(), 0.0f);
+    assertEquals(10.0f, dis.readFloat(), 0.0f);
+    assertEquals(1.5f, dis.readFloat(), 0.0f);
+  }
+
+  /**
+   * Datagrams that are too short for their messages are not decoded.
+   */
+  @Test
+  public void testShortDatagramsAreRejected() throws IOException {
+    Random random = new Random(3);
+    UdpCodec codec = new UdpCodec();
+    for(UdpMessageType type : REAL2PROXY_TYPES) {
+      byte[] data = randomDatagram(random, type);
+      for(int length = UdpHeader.LENGTH; length < data.length; length++) {
+        codec.wrap(ByteBuffer.wrap(data, 0, length));
+        assertTrue(codec.isHeaderValid());
+        switch(type) {
+        case PVUpdate:
+          assertNull(codec.decodePVUpdate(0.0));
+          break;
+        case V2I_Request:
+          assertNull(codec.decodeRequest(0.0));
+          break;
+        case V2I_Cancel:
+          assertNull(codec.decodeCancel(0.0));
+          break;
+        default:
+          throw new AssertionError("Unexpected message type " + type);
+        }
+      }
+      // shorter than the header
+      for(int length = 0; length < UdpHeader.LENGTH; length++) {
+        codec.wrap(ByteBuffer.wrap(data, 0, length));
+        assertFalse(codec.isHeaderValid());
+      }
+    }
+  }
+
+  /**
+   * Headers of unknown message types are invalid.
+   */
+  @Test
+  public void testUnknownMessageTypesAreRejected() {
+    UdpCodec codec = new UdpCodec();
+    ByteBuffer buffer = ByteBuffer.allocate(UdpCodec.PV_UPDATE_LENGTH);
+    for(int type : new int[] { -1, UdpMessageType.values().length, 99 }) {
+      buffer.putInt(UdpCodec.MESSAGE_TYPE_OFFSET, type);
+      codec.wrap(buffer);
+      assertNull(codec.getMessageType());
+      assertFalse(codec.isHeaderValid());
+    }
+  }
+
+  /**
+   * A reply is not written into a buffer that is too small for it.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testEncodeIntoShortBufferFails() {
+    ByteBuffer buffer = ByteBuffer.allocate(UdpCodec.REJECT_LENGTH - 1);
+    new UdpCodec().wrap(buffer).encodeReject(0.0);
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Make a datagram of a given type whose fields are random bit patterns.
+   *
+   * @param random  the random number generator
+   * @param type    the message type
+   * @return the datagram
+   */
+  private static byte[] randomDatagram(Random random, UdpMessageType type)
+      throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    new UdpHeader((float)randomDouble(random), type)
+      .writeToDataOutputStream(dos);
+    switch(type) {
+    case PVUpdate:
+      dos.writeInt(random.nextInt());  // vin
+      for(int i = 0; i < 7; i++) {
+        dos.writeFloat(Float.intBitsToFloat(random.nextInt()));
+      }
+      break;
+    case V2I_Request:
+      dos.writeInt(random.nextInt());  // vin
+      dos.writeFloat(Float.intBitsToFloat(random.nextInt()));
+      dos.writeInt(random.nextInt());  // departure lane
+      dos.writeFloat(Float.intBitsToFloat(random.nextInt()));
+      break;
+    case V2I_Cancel:
+      dos.writeInt(random.nextInt());  // reservation ID
+      break;
+    case V2I_Done:
+      break;
+    default:
+      throw new AssertionError("Unexpected message type " + type);
+    }
+    return baos.toByteArray();
+  }
+
+  /**
+   * Get a random value, which is sometimes NaN, infinite, negative zero
+   * or an integer.
+   *
+   * @param random  the random number generator
+   * @return the value
+   */
+  private static double randomDouble(Random random) {
+    switch(random.nextInt(8)) {
+    case 0:
+      return Double.NaN;
+    case 1:
+      return Double.POSITIVE_INFINITY;
+    case 2:
+      return -0.0;
+    case 3:
+      return random.nextInt(1000) - 500;
+    default:
+      return (random.nextDouble() - 0.5) * 1e4;
+    }
+  }
+
+  /**
+   * Encode a confirm message with a DataOutputStream.
+   *
+   * @param msg          the confirm message
+   * @param currentTime  the current time, in seconds
+   * @return the datagram
+   */
+  private static byte[] streamConfirm(Confirm msg, double currentTime)
+      throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos =
+      Proxy2RealAdapter.getDosWithHeader(baos, currentTime,
+                                         UdpMessageType.I2V_Confirm);
+    dos.writeInt(msg.getReservationId());
+    dos.writeFloat((float)(msg.getArrivalTime() - currentTime));
+    dos.writeFloat((float)msg.getEarlyError());
+    dos.writeFloat((float)msg.getLateError());
+    dos.writeFloat((float)msg.getArrivalVelocity());
+    dos.writeFloat((float)msg.getAccelerationProfile().peek()[0]);
+    return baos.toByteArray();
+  }
+
+  /**
+   * Encode a reject message with a DataOutputStream.
+   *
+   * @param currentTime  the current time, in seconds
+   * @return the datagram
+   */
+  private static byte[] streamReject(double currentTime) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    Proxy2RealAdapter.getDosWithHeader(baos, currentTime,
+                                       UdpMessageType.I2V_Reject);
+    return baos.toByteArray();
+  }
+
+  /**
+   * Encode a message of the distance to the vehicle in front with a
+   * DataOutputStream.
+   *
+   * @param distToFrontVehicle  the distance of the vehicle in front
+   * @param currentTime         the current time, in seconds
+   * @return the datagram
+   */
+  private static byte[] streamDistToFrontVehicle(double distToFrontVehicle,
+                                                 double currentTime)
+      throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos =
+      Proxy2RealAdapter.getDosWithHeader(baos, currentTime,
+                                         UdpMessageType.I2V_DistToFrontVehicle);
+    dos.writeFloat((float)distToFrontVehicle);
+    return baos.toByteArray();
+  }
+
+  /**
+   * Copy the first bytes of an array.
+   *
+   * @param data    the array
+   * @param length  the number of bytes
+   * @return the copy
+   */
+  private static byte[] copyOf(byte[] data, int length) {
+    byte[] copy = new byte[length];
+    System.arraycopy(data, 0, copy, 0, length);
+    return copy;
+  }
+
+  /**
+   * Assert that two doubles have the same bits.
+   *
+   * @param expected  the expected value
+   * @param actual    the actual value
+   */
+  private static void assertBitsEqual(double expected, double actual) {
+    assertEquals(Double.doubleToRawLongBits(expected),
+                 Double.doubleToRawLongBits(actual));
+  }
+
+  /**
+   * Assert that two messages have the same type and received time.
+   *
+   * @param expected  the expected message
+   * @param actual    the actual message
+   */
+  private static void assertMsgEquals(Real2ProxyMsg expected,
+                                      Real2ProxyMsg actual) {
+    assertSame(expected.messageType, actual.messageType);
+    assertBitsEqual(expected.receivedTime, actual.receivedTime);
+  }
+
+  /**
+   * Assert that two PV update messages have the same fields.
+   *
+   * @param expected  the expected message
+   * @param actual    the actual message
+   */
+  private static void assertPVUpdateEquals(Real2ProxyPVUpdate expected,
+                                           Real2ProxyPVUpdate actual) {
+    assertMsgEquals(expected, actual);
+    assertEquals(expected.vin, actual.vin);
+    assertBitsEqual(expected.position.getX(), actual.position.getX());
+    assertBitsEqual(expected.position.getY(), actual.position.getY());
+    assertBitsEqual(expected.heading, actual.heading);
+    assertBitsEqual(expected.steeringAngle, actual.steeringAngle);
+    assertBitsEqual(expected.velocity, actual.velocity);
+    assertBitsEqual(expected.targetVelocity, actual.targetVelocity);
+    assertBitsEqual(expected.acceleration, actual.acceleration);
+    assertSame(expected.accelProfile, actual.accelProfile);
+  }
+
+  /**
+   * Assert that two request messages have the same fields.
+   *
+   * @param expected  the expected message
+   * @param actual    the actual message
+   */
+  private static void assertRequestEquals(Real2ProxyRequest expected,
+                                          Real2ProxyRequest actual) {
+    assertMsgEquals(expected, actual);
+    assertEquals(expected.vin, actual.vin);
+    assertEquals(Float.floatToRawIntBits(expected.arrivalTimeSpan),
+                 Float.floatToRawIntBits(actual.arrivalTimeSpan));
+    assertEquals(expected.departureLaneId, actual.departureLaneId);
+    assertEquals(Float.floatToRawIntBits(expected.arrivalVelocity),
+                 Float.floatToRawIntBits(actual.arrivalVelocity));
+  }
+
+  /**
+   * Assert that two cancel messages have the same fields.
+   *
+   * @param expected  the expected message
+   * @param actual    the actual message
+   */
+  private static void assertCancelEquals(Real2ProxyCancel expected,
+                                         Real2ProxyCancel actual) {
+    assertMsgEquals(expected, actual);
+    assertEquals(expected.reservationId, actual.reservationId);
+  }
+
+}
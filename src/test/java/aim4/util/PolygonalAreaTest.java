@@ -0,0 +1,330 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Area;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import aim4.im.RoadBasedIntersection;
+import aim4.map.GridMap;
+import aim4.vehicle.VehicleSpec;
+
+/**
+ * Test that a PolygonalArea gives the same answers as the Area it is made
+ * from, on the areas of the intersections of a grid map.
+ */
+public class PolygonalAreaTest {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The number of random queries checked per area. */
+  private static final int NUM_OF_QUERIES = 20000;
+
+  /** The margin around the bounding box in which queries are made. */
+  private static final double MARGIN = 10.0;
+
+  /////////////////////////////////
+  // TESTS
+  /////////////////////////////////
+
+  /**
+   * Compare the point containment tests.
+   */
+  @Test
+  public void testContainsMatchesArea() {
+    Random random = new Random(11);
+    for(Area area : intersectionAreas()) {
+      PolygonalArea polygonalArea = new PolygonalArea(area);
+      Rectangle2D box = area.getBounds2D();
+      for(int i = 0; i < NUM_OF_QUERIES; i++) {
+        Point2D p = randomPoint(random, box);
+        assertEquals(p.toString(), area.contains(p), polygonalArea.contains(p));
+      }
+    }
+  }
+
+  /**
+   * Compare the rectangle intersection tests.
+   */
+  @Test
+  public void testIntersectsRectangleMatchesArea() {
+    Random random = new Random(13);
+    for(Area area : intersectionAreas()) {
+      PolygonalArea polygonalArea = new PolygonalArea(area);
+      Rectangle2D box = area.getBounds2D();
+      for(int i = 0; i < NUM_OF_QUERIES; i++) {
+        Point2D p = randomPoint(random, box);
+        Rectangle2D rect =
+          new Rectangle2D.Double(p.getX(), p.getY(),
+                                 random.nextDouble() * 8,
+                                 random.nextDouble() * 8);
+        assertEquals(rect.toString(),
+                     area.intersects(rect), polygonalArea.intersects(rect));
+      }
+    }
+  }
+
+  /**
+   * Compare the convex polygon intersection test with the intersection of
+   * Areas, on vehicle footprints at random positions and headings.  The
+   * corners are rounded to floats first, since that is what
+   * {@link GeomUtil#convertPointsToShape(Point2D[])} does.
+   */
+  @Test
+  public void testIntersectsFootprintMatchesArea() {
+    Random random = new Random(17);
+    for(Area area : intersectionAreas()) {
+      PolygonalArea polygonalArea = new PolygonalArea(area);
+      Rectangle2D box = area.getBounds2D();
+      for(int i = 0; i < NUM_OF_QUERIES; i++) {
+        Point2D[] points = toFloat(randomFootprint(random, box));
+        assertEquals(Arrays.toString(points),
+                     overlaps(area, points),
+                     polygonalArea.intersects(points));
+      }
+    }
+  }
+
+  /**
+   * Check that the polygonal areas of an intersection are made from its
+   * final areas, including the way points path that fills the corners.
+   */
+  @Test
+  public void testIntersectionPolygonalAreasMatchAreas() {
+    Random random = new Random(19);
+    for(RoadBasedIntersection intersection : intersections()) {
+      checkSameArea(random, intersection.getArea(),
+                    intersection.getPolygonalArea());
+      checkSameArea(random, intersection.getAreaPlus(),
+                    intersection.getPolygonalAreaPlus());
+    }
+  }
+
+  /**
+   * Check that shapes which only touch the outline do not intersect it,
+   * and that they do once they are moved inside by a tiny amount.
+   */
+  @Test
+  public void testTangentShapes() {
+    Area area = intersectionAreas().get(0);
+    PolygonalArea polygonalArea = new PolygonalArea(area);
+    Rectangle2D box = area.getBounds2D();
+    double x = box.getMinX();
+    double y = box.getCenterY();
+    // a footprint sharing a part of the left edge of the outline
+    Point2D[] outside = rectangle(x - 4, y - 1, x, y + 1);
+    assertFalse(overlaps(area, outside));
+    assertFalse(polygonalArea.intersects(outside));
+    assertFalse(polygonalArea.intersects(
+      new Rectangle2D.Double(x - 4, y - 1, 4, 2)));
+    // the same footprint moved inside by more than a float rounding error
+    Point2D[] inside = rectangle(x - 4, y - 1, x + 1e-3, y + 1);
+    assertTrue(overlaps(area, inside));
+    assertTrue(polygonalArea.intersects(inside));
+    assertTrue(polygonalArea.intersects(
+      new Rectangle2D.Double(x - 4, y - 1, 4 + 1e-3, 2)));
+    // a footprint touching only a corner of the bounding box
+    Point2D[] corner = rectangle(x - 4, box.getMinY() - 4,
+                                 x, box.getMinY());
+    assertFalse(overlaps(area, corner));
+    assertFalse(polygonalArea.intersects(corner));
+  }
+
+  /**
+   * Check a footprint found by the random test whose edge is just outside
+   * the outline, but lies on it after the corners are rounded to floats.
+   */
+  @Test
+  public void testRoundedTangentFootprint() {
+    Area area = intersections().get(3).getAreaPlus();
+    PolygonalArea polygonalArea = new PolygonalArea(area);
+    Point2D[] points = {
+      new Point2D.Double(353.18044616241986, 325.0000086452089),
+      new Point2D.Double(350.65133367499345, 319.5780212493978),
+      new Point2D.Double(352.5617635092272, 318.6868919277315),
+      new Point2D.Double(355.09087599665355, 324.10887932354257),
+    };
+    assertFalse(overlaps(area, points));
+    // without rounding the footprint does cross the outline
+    assertTrue(polygonalArea.intersects(points));
+    assertFalse(polygonalArea.intersects(toFloat(points)));
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Create the intersections of a two by two grid map.
+   *
+   * @return the intersections
+   */
+  private static List<RoadBasedIntersection> intersections() {
+    GridMap map = new GridMap(0, 2, 2, 4.0, 25.0, 3, 1.0, 150.0);
+    List<RoadBasedIntersection> result =
+      new ArrayList<RoadBasedIntersection>();
+    for(int row = 0; row < 2; row++) {
+      for(int column = 0; column < 2; column++) {
+        result.add(new RoadBasedIntersection(map.getRoads(column, row)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the areas and the extended areas of the intersections of a two by
+   * two grid map.
+   *
+   * @return the areas
+   */
+  private static List<Area> intersectionAreas() {
+    List<Area> result = new ArrayList<Area>();
+    for(RoadBasedIntersection intersection : intersections()) {
+      result.add(intersection.getArea());
+      result.add(intersection.getAreaPlus());
+    }
+    return result;
+  }
+
+  /**
+   * Check that a polygonal area agrees with an area on random footprints.
+   *
+   * @param random         the random number generator
+   * @param area           the area
+   * @param polygonalArea  the polygonal area
+   */
+  private static void checkSameArea(Random random, Area area,
+                                    PolygonalArea polygonalArea) {
+    Rectangle2D box = area.getBounds2D();
+    for(int i = 0; i < NUM_OF_QUERIES; i++) {
+      Point2D[] points = toFloat(randomFootprint(random, box));
+      assertEquals(Arrays.toString(points),
+                   overlaps(area, points),
+                   polygonalArea.intersects(points));
+    }
+  }
+
+  /**
+   * Whether the interior of a polygon overlaps an area.
+   *
+   * @param area    the area
+   * @param points  the corners of the polygon
+   * @return whether the interiors overlap
+   */
+  private static boolean overlaps(Area area, Point2D[] points) {
+    Area overlap = new Area(GeomUtil.convertPointsToShape(points));
+    overlap.intersect(area);
+    return !overlap.isEmpty();
+  }
+
+  /**
+   * Create a random point in a bounding box enlarged by the margin.
+   *
+   * @param random  the random number generator
+   * @param box     the bounding box
+   * @return the point
+   */
+  private static Point2D randomPoint(Random random, Rectangle2D box) {
+    return new Point2D.Double(
+      box.getMinX() - MARGIN + random.nextDouble() * (box.getWidth()
+                                                      + 2 * MARGIN),
+      box.getMinY() - MARGIN + random.nextDouble() * (box.getHeight()
+                                                      + 2 * MARGIN));
+  }
+
+  /**
+   * Create the corner points of a random vehicle footprint.  Half of the
+   * footprints have arbitrary headings and half are aligned with the axes.
+   *
+   * @param random  the random number generator
+   * @param box     the bounding box of the area
+   * @return the corner points of the footprint
+   */
+  private static Point2D[] randomFootprint(Random random, Rectangle2D box) {
+    double heading;
+    if (random.nextBoolean()) {
+      heading = random.nextDouble() * 2 * Math.PI;
+    } else {
+      heading = random.nextInt(4) * Math.PI / 2;
+    }
+    VehicleSpec spec =
+      new VehicleSpec("test", 1, 1, 1, 1,
+                      3 + random.nextDouble() * 3,
+                      1.5 + random.nextDouble(),
+                      1, 1, 0.5, 1, 1, 1, 1);
+    return spec.getCornerPoints(randomPoint(random, box), heading);
+  }
+
+  /**
+   * Create the corner points of an axis-aligned rectangle.
+   *
+   * @param x0  the minimum x-coordinate
+   * @param y0  the minimum y-coordinate
+   * @param x1  the maximum x-coordinate
+   * @param y1  the maximum y-coordinate
+   * @return the corner points
+   */
+  private static Point2D[] rectangle(double x0, double y0,
+                                     double x1, double y1) {
+    return new Point2D[] {
+      new Point2D.Double(x0, y0), new Point2D.Double(x1, y0),
+      new Point2D.Double(x1, y1), new Point2D.Double(x0, y1)
+    };
+  }
+
+  /**
+   * Round the coordinates of points to floats.
+   *
+   * @param points  the points
+   * @return the rounded points
+   */
+  private static Point2D[] toFloat(Point2D[] points) {
+    Point2D[] result = new Point2D[points.length];
+    for(int i = 0; i < points.length; i++) {
+      result[i] = new Point2D.Double((float)points[i].getX(),
+                                     (float)points[i].getY());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,176 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import aim4.vehicle.VehicleSpec;
+
+/**
+ * Test that the row-by-row rasterizer of a TiledArea finds the same tiles
+ * as the Shape-based search.
+ */
+public class TiledAreaTest {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The number of random footprints checked per tile size. */
+  private static final int NUM_OF_FOOTPRINTS = 20000;
+
+  /** The tile sizes to check. */
+  private static final double[] TILE_SIZES = { 1.0, 0.5, 0.7, 2.0 };
+
+  /////////////////////////////////
+  // TESTS
+  /////////////////////////////////
+
+  /**
+   * Compare both searches on vehicle footprints at random positions and
+   * headings, on grid-aligned footprints, and on nearly grid-aligned
+   * footprints, over an area that is not a rectangle.
+   */
+  @Test
+  public void testFindOccupiedTilesMatchesShape() {
+    Random random = new Random(7);
+    Area area = new Area(new Rectangle2D.Double(100.3, 50.7, 40.1, 33.3));
+    area.add(new Area(new Ellipse2D.Double(80, 40, 30, 30)));
+    for(double tileSize : TILE_SIZES) {
+      TiledArea tiledArea = new TiledArea(area, tileSize);
+      long[] occupiedTiles =
+        new long[(tiledArea.getNumberOfTiles() + 63) / 64];
+      for(int i = 0; i < NUM_OF_FOOTPRINTS; i++) {
+        Point2D[] points = randomFootprint(random);
+        List<Integer> expected = new ArrayList<Integer>();
+        for(TiledArea.Tile tile :
+              tiledArea.findOccupiedTiles(
+                GeomUtil.convertPointsToShape(points))) {
+          expected.add(tile.getId());
+        }
+        Collections.sort(expected);
+        int n = tiledArea.findOccupiedTiles(points, occupiedTiles);
+        List<Integer> actual = toIds(occupiedTiles,
+                                     tiledArea.getNumberOfTiles());
+        String msg = "tile size " + tileSize + ", footprint " + i;
+        assertEquals(msg, expected, actual);
+        assertEquals(msg, actual.size(), n);
+      }
+    }
+  }
+
+  /**
+   * Check that the bitmask is cleared before the tiles are written.
+   */
+  @Test
+  public void testFindOccupiedTilesClearsBitmask() {
+    TiledArea tiledArea =
+      new TiledArea(new Area(new Rectangle2D.Double(0, 0, 10, 10)), 1.0);
+    long[] occupiedTiles = new long[(tiledArea.getNumberOfTiles() + 63) / 64];
+    Arrays.fill(occupiedTiles, -1L);
+    Point2D[] points = {
+      new Point2D.Double(-5, -5), new Point2D.Double(-4, -5),
+      new Point2D.Double(-4, -4), new Point2D.Double(-5, -4)
+    };
+    assertEquals(0, tiledArea.findOccupiedTiles(points, occupiedTiles));
+    for(long word : occupiedTiles) {
+      assertEquals(0L, word);
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Create the corner points of a random vehicle footprint.  A third of
+   * the footprints have arbitrary headings, a third are aligned with the
+   * grid, and a third are within a rounding error of being aligned.
+   *
+   * @param random  the random number generator
+   * @return the corner points of the footprint
+   */
+  private static Point2D[] randomFootprint(Random random) {
+    double length = 2 + random.nextDouble() * 6;
+    double width = 1 + random.nextDouble() * 2;
+    double extra = random.nextInt(3) * 0.25;
+    double x;
+    double y;
+    double heading;
+    int mode = random.nextInt(3);
+    if (mode == 0) {
+      x = 70 + random.nextDouble() * 80;
+      y = 30 + random.nextDouble() * 65;
+      heading = random.nextDouble() * 2 * Math.PI;
+    } else {
+      x = 70 + random.nextInt(160) * 0.5 + 0.3;
+      y = 30 + random.nextInt(130) * 0.5 + 0.7;
+      heading = random.nextInt(4) * Math.PI / 2;
+      length = Math.round(length);
+      width = Math.round(width * 2) / 2.0;
+      if (mode == 2) {
+        heading += (random.nextDouble() - 0.5) * 1e-9;
+      }
+    }
+    VehicleSpec spec = new VehicleSpec("test", 1, 1, 1, 1, length, width,
+                                       1, 1, 0.5, 1, 1, 1, 1);
+    return spec.getCornerPoints(extra, new Point2D.Double(x, y), heading);
+  }
+
+  /**
+   * Convert a tile bitmask to a sorted list of tile ids.
+   *
+   * @param occupiedTiles  the tile bitmask
+   * @param numOfTiles     the number of tiles
+   * @return the ids of the tiles whose bits are set
+   */
+  private static List<Integer> toIds(long[] occupiedTiles, int numOfTiles) {
+    List<Integer> ids = new ArrayList<Integer>();
+    for(int id = 0; id < numOfTiles; id++) {
+      if ((occupiedTiles[id >>> 6] & (1L << (id & 63))) != 0) {
+        ids.add(id);
+      }
+    }
+    return ids;
+  }
+}